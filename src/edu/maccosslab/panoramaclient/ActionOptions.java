@@ -1,5 +1,8 @@
 package edu.maccosslab.panoramaclient;
 
+import java.util.Collections;
+import java.util.List;
+
 public abstract class ActionOptions
 {
     private String apiKey;
@@ -31,7 +34,44 @@ public abstract class ActionOptions
         }
     }
 
-    public static class Download extends WebdavActionOptions
+    static abstract class DownloadActionOptions extends WebdavActionOptions
+    {
+        private int segmentCount = 1;
+        private long minSegmentedFileSize = SegmentedDownload.DEFAULT_MIN_FILE_SIZE;
+        private int bufferSize = DownloadSink.DEFAULT_BUFFER_SIZE;
+
+        public int getSegmentCount()
+        {
+            return segmentCount;
+        }
+
+        public void setSegmentCount(int segmentCount)
+        {
+            this.segmentCount = segmentCount;
+        }
+
+        public long getMinSegmentedFileSize()
+        {
+            return minSegmentedFileSize;
+        }
+
+        public void setMinSegmentedFileSize(long minSegmentedFileSize)
+        {
+            this.minSegmentedFileSize = minSegmentedFileSize;
+        }
+
+        public int getBufferSize()
+        {
+            return bufferSize;
+        }
+
+        public void setBufferSize(int bufferSize)
+        {
+            this.bufferSize = bufferSize;
+        }
+    }
+
+    public static class Download extends DownloadActionOptions
     {
         private String destDirPath;
 
@@ -52,10 +92,17 @@ public abstract class ActionOptions
         }
     }
 
-    public static class DownloadFiles extends WebdavActionOptions
+    public static class DownloadFiles extends DownloadActionOptions
     {
         private String extension;
+        private RemoteFileFilter fileFilter;
+        private ListingCache listingCache;
         private String destDirPath;
+        private int threadCount = 1;
+        private boolean sync;
+        private boolean recursive;
+        private int listThreadCount = FolderWalker.DEFAULT_THREAD_COUNT;
+        private boolean propfind;
 
         public String getDestDirPath()
         {
@@ -76,6 +123,82 @@ public abstract class ActionOptions
             this.extension = extension;
         }
 
+        /**
+         * @return the filter set with setFileFilter(), or a filter that only selects files by extension
+         */
+        public RemoteFileFilter getFileFilter()
+        {
+            return fileFilter != null ? fileFilter : new RemoteFileFilter().setExtension(extension);
+        }
+
+        public void setFileFilter(RemoteFileFilter fileFilter)
+        {
+            this.fileFilter = fileFilter;
+        }
+
+        /**
+         * @return cache for folder listings, or null if listings are not cached
+         */
+        public ListingCache getListingCache()
+        {
+            return listingCache;
+        }
+
+        public void setListingCache(ListingCache listingCache)
+        {
+            this.listingCache = listingCache;
+        }
+
+        public int getThreadCount()
+        {
+            return threadCount;
+        }
+
+        public void setThreadCount(int threadCount)
+        {
+            this.threadCount = threadCount;
+        }
+
+        public boolean isSync()
+        {
+            return sync;
+        }
+
+        public void setSync(boolean sync)
+        {
+            this.sync = sync;
+        }
+
+        public boolean isRecursive()
+        {
+            return recursive;
+        }
+
+        public void setRecursive(boolean recursive)
+        {
+            this.recursive = recursive;
+        }
+
+        public int getListThreadCount()
+        {
+            return listThreadCount;
+        }
+
+        public void setListThreadCount(int listThreadCount)
+        {
+            this.listThreadCount = listThreadCount;
+        }
+
+        public boolean isPropfind()
+        {
+            return propfind;
+        }
+
+        public void setPropfind(boolean propfind)
+        {
+            this.propfind = propfind;
+        }
+
         @Override
         public ClientActionDownloadFiles getAction()
         {
@@ -85,17 +208,100 @@ public abstract class ActionOptions
 
     public static class Upload extends WebdavActionOptions
     {
-        private String srcFilePath;
+        private List<String> srcFilePaths = Collections.emptyList();
         private boolean createTargetDir;
-
+        private int threadCount = 1;
+        private boolean recursive;
+        private boolean put;
+        private int bufferSize = WebDavCommand.Put.DEFAULT_BUFFER_SIZE;
+        private boolean sync;
+
+        /**
+         * @return the first source path, or null if none was set
+         */
         public String getSrcFilePath()
         {
-            return srcFilePath;
+            return srcFilePaths.isEmpty() ? null : srcFilePaths.get(0);
         }
 
         public void setSrcFilePath(String srcFilePath)
         {
-            this.srcFilePath = srcFilePath;
+            this.srcFilePaths = srcFilePath != null ? Collections.singletonList(srcFilePath) : Collections.emptyList();
+        }
+
+        /**
+         * @return paths of the files, or directories, to be uploaded
+         */
+        public List<String> getSrcFilePaths()
+        {
+            return srcFilePaths;
+        }
+
+        public void setSrcFilePaths(List<String> srcFilePaths)
+        {
+            this.srcFilePaths = srcFilePaths;
+        }
+
+        public int getThreadCount()
+        {
+            return threadCount;
+        }
+
+        public void setThreadCount(int threadCount)
+        {
+            this.threadCount = threadCount;
+        }
+
+        /**
+         * @return true if files in subdirectories of source directories should be uploaded as well
+         */
+        public boolean isRecursive()
+        {
+            return recursive;
+        }
+
+        public void setRecursive(boolean recursive)
+        {
+            this.recursive = recursive;
+        }
+
+        /**
+         * @return true if files should be uploaded with a WebDav PUT request instead of a multipart POST request
+         */
+        public boolean isPut()
+        {
+            return put;
+        }
+
+        public void setPut(boolean put)
+        {
+            this.put = put;
+        }
+
+        /**
+         * @return size in bytes of the buffer used to read files that are uploaded with PUT
+         */
+        public int getBufferSize()
+        {
+            return bufferSize;
+        }
+
+        public void setBufferSize(int bufferSize)
+        {
+            this.bufferSize = bufferSize;
+        }
+
+        /**
+         * @return true if files that are identical to the files on the server should not be uploaded again
+         */
+        public boolean isSync()
+        {
+            return sync;
+        }
+
+        public void setSync(boolean sync)
+        {
+            this.sync = sync;
         }
 
         public boolean isCreateTargetDir()
@@ -118,6 +324,8 @@ public abstract class ActionOptions
     public static class ListFiles extends WebdavActionOptions
     {
         private String extension;
+        private RemoteFileFilter fileFilter;
+        private ListingCache listingCache;
         private String outputFile;
 
         public String getExtension()
@@ -130,6 +338,32 @@ public abstract class ActionOptions
             this.extension = extension;
         }
 
+        /**
+         * @return the filter set with setFileFilter(), or a filter that only selects files by extension
+         */
+        public RemoteFileFilter getFileFilter()
+        {
+            return fileFilter != null ? fileFilter : new RemoteFileFilter().setExtension(extension);
+        }
+
+        public void setFileFilter(RemoteFileFilter fileFilter)
+        {
+            this.fileFilter = fileFilter;
+        }
+
+        /**
+         * @return cache for folder listings, or null if listings are not cached
+         */
+        public ListingCache getListingCache()
+        {
+            return listingCache;
+        }
+
+        public void setListingCache(ListingCache listingCache)
+        {
+            this.listingCache = listingCache;
+        }
+
         public String getOutputFile()
         {
             return outputFile;
@@ -149,28 +383,75 @@ public abstract class ActionOptions
 
     public static class ImportSkyDoc extends WebdavActionOptions
     {
-        private String skyDocPathLocal;
+        private List<String> skyDocPathsLocal = Collections.emptyList();
         private String panoramaFolderUrl;
-        private String skyDocNameRemote;
+        private List<String> skyDocNamesRemote = Collections.emptyList();
+        private int maxImports = 0;
 
+        /**
+         * @return the first local document, or null if none was set
+         */
         public String getSkyDocPathLocal()
         {
-            return skyDocPathLocal;
+            return skyDocPathsLocal.isEmpty() ? null : skyDocPathsLocal.get(0);
         }
 
         public void setSkyDocPathLocal(String skyDocPathLocal)
         {
-            this.skyDocPathLocal = skyDocPathLocal;
+            this.skyDocPathsLocal = skyDocPathLocal != null ? Collections.singletonList(skyDocPathLocal) : Collections.emptyList();
+        }
+
+        /**
+         * @return paths of the Skyline documents to be uploaded and imported
+         */
+        public List<String> getSkyDocPathsLocal()
+        {
+            return skyDocPathsLocal;
+        }
+
+        public void setSkyDocPathsLocal(List<String> skyDocPathsLocal)
+        {
+            this.skyDocPathsLocal = skyDocPathsLocal;
         }
 
+        /**
+         * @return the first document in the Panorama folder, or null if none was set
+         */
         public String getSkyDocNameRemote()
         {
-            return skyDocNameRemote;
+            return skyDocNamesRemote.isEmpty() ? null : skyDocNamesRemote.get(0);
         }
 
         public void setSkyDocNameRemote(String skyDocNameRemote)
         {
-            this.skyDocNameRemote = skyDocNameRemote;
+            this.skyDocNamesRemote = skyDocNameRemote != null ? Collections.singletonList(skyDocNameRemote) : Collections.emptyList();
+        }
+
+        /**
+         * @return names of the Skyline documents in the Panorama folder to be imported
+         */
+        public List<String> getSkyDocNamesRemote()
+        {
+            return skyDocNamesRemote;
+        }
+
+        public void setSkyDocNamesRemote(List<String> skyDocNamesRemote)
+        {
+            this.skyDocNamesRemote = skyDocNamesRemote;
+        }
+
+        /**
+         * @return maximum number of imports that are submitted and not done when several documents are imported,
+         * or 0 if there is no limit
+         */
+        public int getMaxImports()
+        {
+            return maxImports;
+        }
+
+        public void setMaxImports(int maxImports)
+        {
+            this.maxImports = maxImports;
         }
 
         public String getPanoramaFolderUrl()
@@ -0,0 +1,62 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.http.client.methods.AbstractExecutionAwareRequest;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends requests with the Apache HttpClient of the connection, over HTTP/1.1 connections from the pool shared by all
+ * PanoramaConnections. Each request in flight uses its own connection. This is the default engine.
+ */
+public class ApacheHttpTransport implements HttpTransport
+{
+    public static final String NAME = "apache";
+
+    // HttpClient 4 is blocking, so async requests each wait on a thread of their own
+    private static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "apache-http-async");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public CloseableHttpResponse execute(PanoramaConnection connection, HttpUriRequest request, HttpClientContext context) throws IOException
+    {
+        return connection.getHttpClient().execute(request, context);
+    }
+
+    @Override
+    public CompletableFuture<CloseableHttpResponse> executeAsync(PanoramaConnection connection, HttpUriRequest request, HttpClientContext context)
+    {
+        CompletableFuture<CloseableHttpResponse> future = CompletableFuture.supplyAsync(() -> {
+            try
+            {
+                return execute(connection, request, context);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }, ASYNC_EXECUTOR);
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled() && request instanceof AbstractExecutionAwareRequest)
+            {
+                ((AbstractExecutionAwareRequest) request).abort();
+            }
+        });
+        return future;
+    }
+}
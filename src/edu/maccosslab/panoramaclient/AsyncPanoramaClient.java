@@ -0,0 +1,463 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.log4j.Logger;
+import org.labkey.remoteapi.CommandException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Asynchronous API for applications that use the client as a library. Each method returns immediately with a
+ * CompletableFuture that completes with the result of the operation, or exceptionally with a ClientException.
+ * <p>
+ * Operations run on a bounded number of workers (platform or virtual threads, see {@link TransferThreads}); operations
+ * submitted beyond that limit wait in a queue without holding a thread. Cancelling a future removes a waiting operation
+ * from the queue, or aborts the HTTP requests of a running one. Waiting for a Skyline document import does not hold a
+ * worker: the job status is checked from a timer.
+ * <p>
+ * To run an operation on a large number of items without queueing all of them at once, use
+ * {@link #mapAll(Iterable, int, Function)}, which starts the next operation only when one of the running ones completes.
+ */
+public class AsyncPanoramaClient implements AutoCloseable
+{
+    private static final Logger LOG = Logger.getLogger(AsyncPanoramaClient.class);
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "async-client-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String _serverUrl;
+    private final ClientAction.ConnectionFactory _connectionFactory;
+    private final int _maxConcurrentOperations;
+    private final ExecutorService _executor;
+    private final ConcurrentLinkedQueue<PanoramaConnection> _idleConnections = new ConcurrentLinkedQueue<>();
+    private final int _putBufferSize;
+    private final AtomicBoolean _closed = new AtomicBoolean();
+    // Commands keep no per-call state, so one instance is shared by all operations
+    private final WebDavCommand.ListFiles _listFiles = new WebDavCommand.ListFiles();
+    private final WebDavCommand.Stat _stat = new WebDavCommand.Stat();
+
+    /**
+     * @param serverUrl e.g. https://panoramaweb.org
+     * @param apiKey API key, or null to read the credentials from the .netrc file
+     * @param maxConcurrentOperations maximum number of operations that run at the same time
+     */
+    public AsyncPanoramaClient(String serverUrl, String apiKey, int maxConcurrentOperations)
+    {
+        this(serverUrl, apiKey, maxConcurrentOperations, WebDavCommand.Put.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param putBufferSize size in bytes of the buffer used to read files that are uploaded
+     */
+    public AsyncPanoramaClient(String serverUrl, String apiKey, int maxConcurrentOperations, int putBufferSize)
+    {
+        _serverUrl = serverUrl;
+        _connectionFactory = ClientAction.getConnectionFactory(serverUrl, apiKey);
+        _maxConcurrentOperations = maxConcurrentOperations;
+        _putBufferSize = putBufferSize;
+        _executor = TransferThreads.newExecutor("async", maxConcurrentOperations);
+        PanoramaConnection.reserveConnections(maxConcurrentOperations);
+    }
+
+    /**
+     * @param folderPath folder relative to the file root of the Panorama folder. Empty for the file root.
+     * @return the files in the folder. Subfolders are not included.
+     */
+    public CompletableFuture<List<RemoteFile>> list(String containerPath, String folderPath)
+    {
+        return submit(connection -> {
+            List<RemoteFile> files = new ArrayList<>();
+            try
+            {
+                _listFiles.list(connection, new WebDavCommand.Request(containerPath, folderPath), null, new ListingParser.Handler()
+                {
+                    @Override
+                    public void file(RemoteFile file)
+                    {
+                        files.add(file);
+                    }
+
+                    @Override
+                    public void folder(String name) {}
+                });
+            }
+            catch (IOException | CommandException e)
+            {
+                throw new ClientException("Error getting file listing in container '" + containerPath + "' and folder '" + folderPath
+                        + "': " + e.getMessage(), e);
+            }
+            return files;
+        });
+    }
+
+    /**
+     * @param path file or folder relative to the file root of the Panorama folder
+     */
+    public CompletableFuture<WebDavCommand.StatResponse> stat(String containerPath, String path)
+    {
+        return submit(connection -> {
+            try
+            {
+                return _stat.stat(connection, new WebDavCommand.Request(containerPath, path));
+            }
+            catch (IOException | CommandException e)
+            {
+                throw new ClientException("Error getting the properties of '" + path + "' in container '" + containerPath + "': " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Downloads a file into the target folder. A partial download from an earlier attempt is resumed.
+     * @param filePath file relative to the file root of the Panorama folder
+     * @return the downloaded file
+     */
+    public CompletableFuture<Path> download(String containerPath, String filePath, Path targetFolder)
+    {
+        return submit(connection -> {
+            new ClientActionDownload().downloadFile(containerPath, filePath, targetFolder.toString(), connection);
+            return targetFolder.resolve(filePath.substring(filePath.lastIndexOf('/') + 1));
+        });
+    }
+
+    /**
+     * Uploads a file with a PUT request. The target folder is created if it does not exist.
+     * @param folderPath folder relative to the file root of the Panorama folder. Empty for the file root.
+     */
+    public CompletableFuture<Void> upload(Path file, String containerPath, String folderPath)
+    {
+        return submit(connection -> {
+            if (!Files.isRegularFile(file))
+            {
+                throw new ClientException("Source file does not exist or is not a file: " + file);
+            }
+            WebdavUrlParts folder = new WebdavUrlParts(_serverUrl, containerPath, folderPath);
+            ClientActionUpload upload = new ClientActionUpload();
+            upload.setPut(true, _putBufferSize);
+            upload.createWebdavPath(folder, connection);
+            upload.putFile(folder, file, connection);
+            return null;
+        });
+    }
+
+    /**
+     * Creates a folder, and any missing parent folders, in the file root of the Panorama folder.
+     */
+    public CompletableFuture<Void> mkdir(String containerPath, String folderPath)
+    {
+        return submit(connection -> {
+            new ClientActionUpload().createWebdavPath(new WebdavUrlParts(_serverUrl, containerPath, folderPath), connection);
+            return null;
+        });
+    }
+
+    /**
+     * Imports a Skyline document that is in the file root of the Panorama folder.
+     * @param skyZipPath path of the .sky.zip file relative to the file root
+     * @return the id of the pipeline job, once the job has completed. Completes exceptionally if the job fails.
+     */
+    public CompletableFuture<Long> importSkyDoc(String containerPath, String skyZipPath)
+    {
+        Path path = Paths.get(skyZipPath);
+        String skyZipName = path.getFileName().toString();
+        String folderPath = path.getParent() != null ? path.getParent().toString().replace('\\', '/') : "./";
+
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        AtomicReference<Future<?>> currentStep = new AtomicReference<>();
+        result.whenComplete((jobId, error) -> {
+            Future<?> step = currentStep.get();
+            if (result.isCancelled() && step != null)
+            {
+                step.cancel(true);
+            }
+        });
+
+        CompletableFuture<Long> started = submit(connection -> ClientActionImportSkyDoc.startImport(containerPath, skyZipName, folderPath, connection));
+        currentStep.set(started);
+        started.whenComplete((jobId, error) -> {
+            if (error != null)
+            {
+                result.completeExceptionally(error);
+            }
+            else
+            {
+                LOG.info("Job submitted at: " + ClientActionImportSkyDoc.getPipelineStatusUri(_serverUrl, containerPath, jobId));
+                scheduleJobStatusCheck(result, currentStep, containerPath, jobId, new PollScheduler(), null);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param lastStatus status returned by the previous check, or null before the first check
+     */
+    private void scheduleJobStatusCheck(CompletableFuture<Long> result, AtomicReference<Future<?>> currentStep, String containerPath, long jobId,
+                                        PollScheduler scheduler, String lastStatus)
+    {
+        if (result.isDone())
+        {
+            return;
+        }
+        currentStep.set(TIMER.schedule(() -> {
+            CompletableFuture<String> status = submit(connection -> ClientActionImportSkyDoc.getJobStatus(connection, containerPath, jobId));
+            currentStep.set(status);
+            status.whenComplete((jobStatus, error) -> {
+                if (error != null)
+                {
+                    result.completeExceptionally(error);
+                }
+                else if (!ClientActionImportSkyDoc.jobDone(jobStatus))
+                {
+                    if (!Objects.equals(jobStatus, lastStatus))
+                    {
+                        scheduler.reset();
+                    }
+                    scheduleJobStatusCheck(result, currentStep, containerPath, jobId, scheduler, jobStatus);
+                }
+                else if (ClientActionImportSkyDoc.isComplete(jobStatus))
+                {
+                    LOG.info("Job " + jobId + " status: " + jobStatus + " after " + scheduler.getPollCount() + " status checks");
+                    result.complete(jobId);
+                }
+                else
+                {
+                    result.completeExceptionally(new ClientException("Skyline document was not imported. Job status: " + jobStatus
+                            + " after " + scheduler.getPollCount() + " status checks. Error details can be found at " + ClientActionImportSkyDoc.getPipelineStatusUri(_serverUrl, containerPath, jobId)));
+                }
+            });
+            if (result.isCancelled())
+            {
+                status.cancel(true);
+            }
+        }, scheduler.nextDelay(), TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Runs the operation on each item, with at most maxInFlight operations running at the same time. The next item is
+     * taken from the iterator only when a running operation completes, so the items can be read lazily, e.g. from a
+     * listing of thousands of files. If an operation fails, no more operations are started, the running ones are
+     * cancelled, and the returned future completes with the error. Cancelling the returned future cancels the
+     * running operations.
+     * @return the results, in the order of the items
+     */
+    public <T, R> CompletableFuture<List<R>> mapAll(Iterable<T> items, int maxInFlight, Function<? super T, CompletableFuture<R>> operation)
+    {
+        if (maxInFlight < 1)
+        {
+            throw new IllegalArgumentException("maxInFlight must be at least 1. Found " + maxInFlight);
+        }
+        return new BoundedRun<>(items.iterator(), maxInFlight, operation).start();
+    }
+
+    /**
+     * Lets the operations that were already submitted finish, and releases the connections reserved by this client.
+     * Operations submitted after close() fail with a ClientException. Calling close() again has no effect.
+     */
+    @Override
+    public void close()
+    {
+        if (_closed.compareAndSet(false, true))
+        {
+            _executor.shutdown();
+            PanoramaConnection.releaseConnections(_maxConcurrentOperations);
+        }
+    }
+
+    private interface Operation<T>
+    {
+        T run(PanoramaConnection connection) throws ClientException, InterruptedException;
+    }
+
+    private <T> CompletableFuture<T> submit(Operation<T> operation)
+    {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<PanoramaConnection> running = new AtomicReference<>();
+        Future<?> task;
+        try
+        {
+            task = _executor.submit(() -> run(operation, result, running));
+        }
+        catch (RejectedExecutionException e)
+        {
+            result.completeExceptionally(new ClientException("The client has been closed.", e));
+            return result;
+        }
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled())
+            {
+                task.cancel(true);
+                PanoramaConnection connection = running.get();
+                if (connection != null)
+                {
+                    connection.abortRequests();
+                }
+            }
+        });
+        return result;
+    }
+
+    private <T> void run(Operation<T> operation, CompletableFuture<T> result, AtomicReference<PanoramaConnection> running)
+    {
+        if (result.isDone())
+        {
+            return; // Cancelled while waiting in the queue
+        }
+        PanoramaConnection connection = null;
+        try
+        {
+            connection = borrowConnection();
+            connection.startTracking();
+            running.set(connection);
+            if (result.isDone())
+            {
+                return;
+            }
+            result.complete(operation.run(connection));
+        }
+        catch (ClientException e)
+        {
+            result.completeExceptionally(e);
+        }
+        catch (InterruptedException e)
+        {
+            result.completeExceptionally(new ClientException("Operation was interrupted.", e));
+        }
+        catch (RuntimeException e)
+        {
+            result.completeExceptionally(new ClientException(e.getMessage(), e));
+        }
+        finally
+        {
+            if (connection != null)
+            {
+                running.set(null);
+                connection.stopTracking();
+                _idleConnections.offer(connection);
+            }
+        }
+    }
+
+    private PanoramaConnection borrowConnection() throws ClientException
+    {
+        PanoramaConnection connection = _idleConnections.poll();
+        return connection != null ? connection : _connectionFactory.create();
+    }
+
+    /**
+     * State of a {@link #mapAll(Iterable, int, Function)} call.
+     */
+    private static class BoundedRun<T, R>
+    {
+        private final Iterator<T> _items;
+        private final int _maxInFlight;
+        private final Function<? super T, CompletableFuture<R>> _operation;
+        private final CompletableFuture<List<R>> _result = new CompletableFuture<>();
+        private final List<R> _results = new ArrayList<>();
+        private final Set<CompletableFuture<R>> _inFlight = new HashSet<>();
+        private boolean _launching;
+
+        BoundedRun(Iterator<T> items, int maxInFlight, Function<? super T, CompletableFuture<R>> operation)
+        {
+            _items = items;
+            _maxInFlight = maxInFlight;
+            _operation = operation;
+            _result.whenComplete((results, error) -> {
+                if (error != null)
+                {
+                    cancelInFlight();
+                }
+            });
+        }
+
+        CompletableFuture<List<R>> start()
+        {
+            launch();
+            return _result;
+        }
+
+        private synchronized void launch()
+        {
+            if (_launching)
+            {
+                return; // An operation completed while it was being started. The loop below starts the next one.
+            }
+            _launching = true;
+            try
+            {
+                while (!_result.isDone() && _inFlight.size() < _maxInFlight && _items.hasNext())
+                {
+                    int index = _results.size();
+                    _results.add(null);
+                    CompletableFuture<R> future;
+                    try
+                    {
+                        future = _operation.apply(_items.next());
+                    }
+                    catch (RuntimeException e)
+                    {
+                        _result.completeExceptionally(e);
+                        return;
+                    }
+                    _inFlight.add(future);
+                    future.whenComplete((value, error) -> completed(index, future, value, error));
+                }
+                if (_inFlight.isEmpty() && !_items.hasNext())
+                {
+                    _result.complete(Collections.unmodifiableList(_results));
+                }
+            }
+            finally
+            {
+                _launching = false;
+            }
+        }
+
+        private synchronized void completed(int index, CompletableFuture<R> future, R value, Throwable error)
+        {
+            _inFlight.remove(future);
+            if (error != null)
+            {
+                _result.completeExceptionally(error);
+                return;
+            }
+            _results.set(index, value);
+            launch();
+        }
+
+        private void cancelInFlight()
+        {
+            List<CompletableFuture<R>> inFlight;
+            synchronized (this)
+            {
+                inFlight = new ArrayList<>(_inFlight);
+            }
+            for (CompletableFuture<R> future : inFlight)
+            {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -3,6 +3,14 @@ package edu.maccosslab.panoramaclient;
 import org.apache.commons.cli.*;
 
 import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public abstract class CLOptionsGroup<T extends ActionOptions>
 {
@@ -13,6 +21,30 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
     public static Option webdavFolderOption = Option.builder("w").longOpt("webdav_url").hasArg(true).required(true).desc("WebDav URL of the folder on the Panorama server").build();
     public static Option destDownloadPathOption = Option.builder("t").longOpt("dest_download_path").hasArg(true).required(false).desc("Destination download folder path").build();
     public static Option fileExtOption = Option.builder("e").longOpt("extension").hasArg(true).required(false).desc("File extension").build();
+    public static Option segmentsOption = Option.builder("s").longOpt("segments").hasArg(true).required(false)
+            .desc("Number of byte ranges of a large file to download in parallel (default: 1)").build();
+    public static Option segmentThresholdOption = Option.builder("m").longOpt("segment_threshold").hasArg(true).required(false)
+            .desc("Minimum size in MB of a file that is downloaded in segments (default: " + SegmentedDownload.DEFAULT_MIN_FILE_SIZE / (1024 * 1024) + ")").build();
+    public static Option bufferSizeOption = Option.builder("b").longOpt("buffer_size").hasArg(true).required(false)
+            .desc("Size in KB of the buffer used to write downloaded files (default: " + DownloadSink.DEFAULT_BUFFER_SIZE / 1024 + ")").build();
+    public static Option includeOption = Option.builder("I").longOpt("include").hasArg(true).required(false)
+            .desc("Only select files matching this pattern. Patterns are globs (e.g. *.raw), or regular expressions with the prefix \"regex:\". Can be used more than once").build();
+    public static Option excludeOption = Option.builder("X").longOpt("exclude").hasArg(true).required(false)
+            .desc("Skip files matching this pattern. Can be used more than once").build();
+    public static Option minSizeOption = Option.builder("z").longOpt("min_size").hasArg(true).required(false)
+            .desc("Only select files at least this large. Size in bytes, or with a K, M or G suffix").build();
+    public static Option maxSizeOption = Option.builder("Z").longOpt("max_size").hasArg(true).required(false)
+            .desc("Only select files at most this large. Size in bytes, or with a K, M or G suffix").build();
+    public static Option newerThanOption = Option.builder("N").longOpt("newer_than").hasArg(true).required(false)
+            .desc("Only select files modified after this time. A date (2024-01-31), date and time (2024-01-31T13:00:00) or an age (e.g. 12h, 7d)").build();
+    public static Option olderThanOption = Option.builder("O").longOpt("older_than").hasArg(true).required(false)
+            .desc("Only select files modified before this time. A date (2024-01-31), date and time (2024-01-31T13:00:00) or an age (e.g. 12h, 7d)").build();
+    public static Option cacheTtlOption = Option.builder("L").longOpt("cache_ttl").hasArg(true).required(false)
+            .desc("Cache folder listings on disk, and use a cached listing for this many seconds before asking the server if it has changed."
+                    + " With 0 the server is asked every time").build();
+    public static Option cacheSizeOption = Option.builder("S").longOpt("cache_size").hasArg(true).required(false)
+            .desc("Maximum size in MB of the listing cache (default: " + ListingCache.DEFAULT_MAX_SIZE_MB + ")").build();
+    public static Option threadsOption = Option.builder("n").longOpt("threads").hasArg(true).required(false).desc("Number of files to transfer in parallel (default: 1)").build();
 
     public CLOptionsGroup(Option mainOption, String helpMessage)
     {
@@ -80,6 +112,197 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
         return cl;
     }
 
+    static int getPositiveIntValue(CommandLine cl, Option option, int defaultValue) throws ParseException
+    {
+        String value = cl.getOptionValue(option.getOpt());
+        if(value == null)
+        {
+            return defaultValue;
+        }
+        try
+        {
+            int intValue = Integer.parseInt(value.trim());
+            if(intValue > 0)
+            {
+                return intValue;
+            }
+        }
+        catch (NumberFormatException ignored) {}
+        throw new ParseException("Value for option -" + option.getOpt() + " must be a positive integer. Found: " + value);
+    }
+
+    static int getNonNegativeIntValue(CommandLine cl, Option option, int defaultValue) throws ParseException
+    {
+        String value = cl.getOptionValue(option.getOpt());
+        if(value == null)
+        {
+            return defaultValue;
+        }
+        try
+        {
+            int intValue = Integer.parseInt(value.trim());
+            if(intValue >= 0)
+            {
+                return intValue;
+            }
+        }
+        catch (NumberFormatException ignored) {}
+        throw new ParseException("Value for option -" + option.getOpt() + " must be zero or a positive integer. Found: " + value);
+    }
+
+    /**
+     * @return values of an option that can be used more than once, or an empty list if the option was not used
+     */
+    static List<String> getOptionValues(CommandLine cl, Option option)
+    {
+        String[] values = cl.getOptionValues(option.getOpt());
+        return values != null ? Arrays.asList(values) : Collections.emptyList();
+    }
+
+    static void addDownloadOptions(Options options)
+    {
+        options.addOption(segmentsOption);
+        options.addOption(segmentThresholdOption);
+        options.addOption(bufferSizeOption);
+    }
+
+    static void setDownloadOptions(CommandLine cl, ActionOptions.DownloadActionOptions opts) throws ParseException
+    {
+        opts.setSegmentCount(getPositiveIntValue(cl, segmentsOption, 1));
+        long defaultThresholdMb = SegmentedDownload.DEFAULT_MIN_FILE_SIZE / (1024 * 1024);
+        opts.setMinSegmentedFileSize(getPositiveIntValue(cl, segmentThresholdOption, (int) defaultThresholdMb) * 1024L * 1024L);
+        opts.setBufferSize(getPositiveIntValue(cl, bufferSizeOption, DownloadSink.DEFAULT_BUFFER_SIZE / 1024) * 1024);
+    }
+
+    static void addFilterOptions(Options options)
+    {
+        options.addOption(includeOption);
+        options.addOption(excludeOption);
+        options.addOption(minSizeOption);
+        options.addOption(maxSizeOption);
+        options.addOption(newerThanOption);
+        options.addOption(olderThanOption);
+    }
+
+    static void addCacheOptions(Options options)
+    {
+        options.addOption(cacheTtlOption);
+        options.addOption(cacheSizeOption);
+    }
+
+    /**
+     * @return listing cache in the default folder, or null if the cache was not enabled with the cache_ttl option
+     */
+    static ListingCache getListingCache(CommandLine cl) throws ParseException
+    {
+        int ttlSeconds = getNonNegativeIntValue(cl, cacheTtlOption, -1);
+        int sizeMb = getPositiveIntValue(cl, cacheSizeOption, (int) ListingCache.DEFAULT_MAX_SIZE_MB);
+        if(ttlSeconds < 0)
+        {
+            if(cl.hasOption(cacheSizeOption.getOpt()))
+            {
+                throw new ParseException("Option -" + cacheSizeOption.getOpt() + " can only be used with -" + cacheTtlOption.getOpt());
+            }
+            return null;
+        }
+        return new ListingCache(ListingCache.getDefaultDir(), ttlSeconds, sizeMb);
+    }
+
+    static RemoteFileFilter getFileFilter(CommandLine cl) throws ParseException
+    {
+        RemoteFileFilter filter = new RemoteFileFilter().setExtension(cl.getOptionValue(fileExtOption.getOpt()));
+        try
+        {
+            for (Option option : new Option[] {includeOption, excludeOption})
+            {
+                String[] patterns = cl.getOptionValues(option.getOpt());
+                for (int i = 0; patterns != null && i < patterns.length; i++)
+                {
+                    if (option == includeOption)
+                    {
+                        filter.include(patterns[i]);
+                    }
+                    else
+                    {
+                        filter.exclude(patterns[i]);
+                    }
+                }
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ParseException(e.getMessage());
+        }
+        filter.setMinSize(getSizeValue(cl, minSizeOption));
+        filter.setMaxSize(getSizeValue(cl, maxSizeOption));
+        filter.setNewerThan(getTimeValue(cl, newerThanOption, System.currentTimeMillis()));
+        filter.setOlderThan(getTimeValue(cl, olderThanOption, System.currentTimeMillis()));
+        return filter;
+    }
+
+    /**
+     * @return size in bytes, or -1 if the option was not given. Accepts a K, M or G suffix (powers of 1024).
+     */
+    static long getSizeValue(CommandLine cl, Option option) throws ParseException
+    {
+        String value = cl.getOptionValue(option.getOpt());
+        if (value == null)
+        {
+            return -1;
+        }
+        String size = value.trim().toUpperCase();
+        long multiplier = 1;
+        int unit = size.isEmpty() ? -1 : "KMG".indexOf(size.charAt(size.length() - 1));
+        if (unit >= 0)
+        {
+            multiplier = 1L << (10 * (unit + 1));
+            size = size.substring(0, size.length() - 1).trim();
+        }
+        try
+        {
+            double number = Double.parseDouble(size);
+            if (number >= 0)
+            {
+                return (long) (number * multiplier);
+            }
+        }
+        catch (NumberFormatException ignored) {}
+        throw new ParseException("Value for option -" + option.getOpt() + " must be a size in bytes, optionally followed by K, M or G. Found: " + value);
+    }
+
+    /**
+     * @return time in milliseconds since the epoch, or -1 if the option was not given. Accepts a date or date and
+     * time in the local time zone, or an age relative to now in minutes (m), hours (h) or days (d).
+     */
+    static long getTimeValue(CommandLine cl, Option option, long now) throws ParseException
+    {
+        String value = cl.getOptionValue(option.getOpt());
+        if (value == null)
+        {
+            return -1;
+        }
+        String time = value.trim();
+        try
+        {
+            if (time.matches("\\d+[mhd]"))
+            {
+                long amount = Long.parseLong(time.substring(0, time.length() - 1));
+                TimeUnit unit = time.endsWith("m") ? TimeUnit.MINUTES : time.endsWith("h") ? TimeUnit.HOURS : TimeUnit.DAYS;
+                return now - unit.toMillis(amount);
+            }
+            if (time.length() == 10)
+            {
+                return LocalDate.parse(time).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(time).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException | NumberFormatException e)
+        {
+            throw new ParseException("Value for option -" + option.getOpt() + " must be a date (yyyy-MM-dd), a date and time (yyyy-MM-ddTHH:mm:ss)"
+                    + " or an age (e.g. 30m, 12h, 7d). Found: " + value);
+        }
+    }
+
     private Options getOptionsToParse()
     {
         Options optsToParse = new Options();
@@ -113,6 +336,7 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
             options.addOption(webdavFileOption);
             options.addOption(apiKeyOption);
             options.addOption(destDownloadPathOption);
+            addDownloadOptions(options);
             return options;
         }
 
@@ -124,6 +348,7 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
             opts.setWebdavUrl(cl.getOptionValue(webdavFileOption.getOpt()));
             opts.setDestDirPath(cl.getOptionValue(destDownloadPathOption.getOpt()));
             opts.setApiKey(cl.getOptionValue(apiKeyOption.getOpt()));
+            setDownloadOptions(cl, opts);
             return opts;
         }
     }
@@ -131,6 +356,14 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
     public static class DownloadFiles extends CLOptionsGroup<ActionOptions.DownloadFiles>
     {
         private static final Option downloadFilesOpt = Option.builder("a").required(true).hasArg(false).longOpt("download_files").desc("Download files from a Panorama folder").build();
+        private static final Option syncOption = Option.builder("y").longOpt("sync").hasArg(false).required(false)
+                .desc("Download only files that are missing from the destination folder, or that have a different size or last modified time than the file on the server").build();
+        private static final Option recursiveOption = Option.builder("r").longOpt("recursive").hasArg(false).required(false)
+                .desc("Also download files in subfolders, recreating the folder structure in the destination folder").build();
+        private static final Option listThreadsOption = Option.builder("j").longOpt("list_threads").hasArg(true).required(false)
+                .desc("Number of folders to list in parallel with -r (default: " + FolderWalker.DEFAULT_THREAD_COUNT + ")").build();
+        private static final Option propfindOption = Option.builder("g").longOpt("propfind").hasArg(false).required(false)
+                .desc("With -r, list all subfolders with a single WebDAV PROPFIND request instead of one request per folder").build();
 
         public DownloadFiles()
         {
@@ -145,6 +378,14 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
             options.addOption(destDownloadPathOption);
             options.addOption(fileExtOption);
             options.addOption(apiKeyOption);
+            options.addOption(threadsOption);
+            options.addOption(syncOption);
+            options.addOption(recursiveOption);
+            options.addOption(listThreadsOption);
+            options.addOption(propfindOption);
+            addFilterOptions(options);
+            addCacheOptions(options);
+            addDownloadOptions(options);
             return options;
         }
 
@@ -157,6 +398,14 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
             opts.setDestDirPath(cl.getOptionValue(destDownloadPathOption.getOpt()));
             opts.setApiKey(cl.getOptionValue(apiKeyOption.getOpt()));
             opts.setExtension(cl.getOptionValue(fileExtOption.getOpt()));
+            opts.setThreadCount(getPositiveIntValue(cl, threadsOption, 1));
+            opts.setSync(cl.hasOption(syncOption.getOpt()));
+            opts.setRecursive(cl.hasOption(recursiveOption.getOpt()));
+            opts.setListThreadCount(getPositiveIntValue(cl, listThreadsOption, FolderWalker.DEFAULT_THREAD_COUNT));
+            opts.setPropfind(cl.hasOption(propfindOption.getOpt()));
+            opts.setFileFilter(getFileFilter(cl));
+            opts.setListingCache(getListingCache(cl));
+            setDownloadOptions(cl, opts);
             return opts;
         }
     }
@@ -165,8 +414,17 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
     {
         private static final String description = "Upload a file";
         private static final Option uploadFileOpt = Option.builder("u").required().hasArg(false).longOpt("upload").desc(description).build();
-        private static final Option srcFilePathOption = Option.builder("f").longOpt("source_file_path").hasArg(true).required(true).desc("Path of the file to be uploaded").build();
+        private static final Option srcFilePathOption = Option.builder("f").longOpt("source_file_path").hasArg(true).required(true)
+                .desc("Path of the file to be uploaded. Can be used more than once. If this is a directory, all the files in the directory are uploaded").build();
         private static final Option createDirIfNotExistsOption = Option.builder("c").longOpt("create_dir").hasArg(false).required(false).desc("Create the target directory if it does not exist").build();
+        static final Option putOption = Option.builder("P").longOpt("put").hasArg(false).required(false)
+                .desc("Upload with a WebDAV PUT request that streams the file, instead of a multipart form POST request").build();
+        static final Option uploadBufferSizeOption = Option.builder("b").longOpt("buffer_size").hasArg(true).required(false)
+                .desc("Size in KB of the buffer used to read files that are uploaded with -P (default: " + WebDavCommand.Put.DEFAULT_BUFFER_SIZE / 1024 + ")").build();
+        static final Option uploadSyncOption = Option.builder("y").longOpt("sync").hasArg(false).required(false)
+                .desc("Do not upload files that are identical to the files on the server, according to an index of the files uploaded before").build();
+        static final Option uploadRecursiveOption = Option.builder("r").longOpt("recursive").hasArg(false).required(false)
+                .desc("Also upload the files in subdirectories of a source directory, recreating the subdirectories in the target directory").build();
 
         public UploadFile()
         {
@@ -181,6 +439,11 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
             options.addOption(srcFilePathOption);
             options.addOption(webdavFolderOption);
             options.addOption(apiKeyOption);
+            options.addOption(threadsOption);
+            options.addOption(uploadRecursiveOption);
+            options.addOption(putOption);
+            options.addOption(uploadBufferSizeOption);
+            options.addOption(uploadSyncOption);
             return options;
         }
 
@@ -190,7 +453,12 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
             CommandLine cl = parseCommandLine(args);
             ActionOptions.Upload opts = new ActionOptions.Upload();
             opts.setCreateTargetDir(cl.hasOption(createDirIfNotExistsOption.getOpt()));
-            opts.setSrcFilePath(cl.getOptionValue(srcFilePathOption.getOpt()));
+            opts.setSrcFilePaths(Arrays.asList(cl.getOptionValues(srcFilePathOption.getOpt())));
+            opts.setThreadCount(getPositiveIntValue(cl, threadsOption, 1));
+            opts.setRecursive(cl.hasOption(uploadRecursiveOption.getOpt()));
+            opts.setPut(cl.hasOption(putOption.getOpt()));
+            opts.setBufferSize(getPositiveIntValue(cl, uploadBufferSizeOption, WebDavCommand.Put.DEFAULT_BUFFER_SIZE / 1024) * 1024);
+            opts.setSync(cl.hasOption(uploadSyncOption.getOpt()));
             opts.setWebdavUrl(cl.getOptionValue(webdavFolderOption.getOpt()));
             opts.setApiKey(cl.getOptionValue(apiKeyOption.getOpt()));
             return opts;
@@ -216,6 +484,8 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
             options.addOption(fileExtOption);
             options.addOption(outputFileOpt);
             options.addOption(apiKeyOption);
+            addFilterOptions(options);
+            addCacheOptions(options);
             return options;
         }
 
@@ -227,6 +497,8 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
             opts.setWebdavUrl(cl.getOptionValue(webdavFolderOption.getOpt()));
             opts.setExtension(cl.getOptionValue(fileExtOption.getOpt()));
             opts.setOutputFile(cl.getOptionValue(outputFileOpt.getOpt()));
+            opts.setFileFilter(getFileFilter(cl));
+            opts.setListingCache(getListingCache(cl));
             opts.setApiKey(cl.getOptionValue(apiKeyOption.getOpt()));
             return opts;
         }
@@ -238,14 +510,19 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
         public static Option importSkyDocOpt = Option.builder("i").required().hasArg(false).longOpt("import_skydoc").desc(description).build();
         public static Option panoramaFolderUrl = Option.builder("p").longOpt("panorama_folder_url").hasArg(true).required(true).desc("URL of the folder on the Panorama server").build();
         public static Option skydocPathLocalOpt = Option.builder("s").longOpt("skydoc_path").hasArg(true).required(false)
-                .desc("Path of the Skyline document to be uploaded and imported. Only one of -s or -t should be specified.").build();
+                .desc("Path of the Skyline document to be uploaded and imported. Can be used more than once to import several documents."
+                        + " Only one of -s or -t should be specified.").build();
         public static Option skydocNameRemoteOpt = Option.builder("t").longOpt("skydoc_name_remote").hasArg(true).required(false)
-                .desc("Name of the Skyline document to import. Document (sky.zip) must already exist in the Panorama folder. Only one of -s or -t should be specified.").build();
+                .desc("Name of the Skyline document to import. Document (sky.zip) must already exist in the Panorama folder."
+                        + " Can be used more than once to import several documents. Only one of -s or -t should be specified.").build();
         public static Option webdavFolderUrlOption = Option.builder("w").longOpt("webdav_url").hasArg(true).required(false)
                 .desc("WebDav URL of a directory in the Panorama folder." +
                         " If used with the -s option this is the directory where the Skyline document will be uploaded." +
                         " If used with the -t option this is the directory that contains the Skyline document." +
                         " This option is not required if the directory is the Panorama folder root (e.g. https://panoramaweb.org/_webdav/MyProject/MyFolder/@files)").build();
+        public static Option maxImportsOption = Option.builder("m").longOpt("max_imports").hasArg(true).required(false)
+                .desc("Maximum number of submitted imports that are not done yet when several documents are imported."
+                        + " The next document is imported when one of them is done. Default: 0 (no limit)").build();
 
         public ImportSkyDoc()
         {
@@ -260,6 +537,7 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
             options.addOption(skydocPathLocalOpt);
             options.addOption(skydocNameRemoteOpt);
             options.addOption(webdavFolderUrlOption);
+            options.addOption(maxImportsOption);
             options.addOption(apiKeyOption);
             return options;
         }
@@ -270,9 +548,10 @@ public abstract class CLOptionsGroup<T extends ActionOptions>
             CommandLine cl = parseCommandLine(args);
             ActionOptions.ImportSkyDoc opts = new ActionOptions.ImportSkyDoc();
             opts.setPanoramaFolderUrl(cl.getOptionValue(panoramaFolderUrl.getOpt()));
-            opts.setSkyDocPathLocal(cl.getOptionValue(skydocPathLocalOpt.getOpt()));
-            opts.setSkyDocNameRemote(cl.getOptionValue(skydocNameRemoteOpt.getOpt()));
+            opts.setSkyDocPathsLocal(getOptionValues(cl, skydocPathLocalOpt));
+            opts.setSkyDocNamesRemote(getOptionValues(cl, skydocNameRemoteOpt));
             opts.setWebdavUrl(cl.getOptionValue(webdavFolderUrlOption.getOpt()));
+            opts.setMaxImports(getNonNegativeIntValue(cl, maxImportsOption, 0));
             opts.setApiKey(cl.getOptionValue(apiKeyOption.getOpt()));
             if (opts.getSkyDocNameRemote() == null && opts.getSkyDocPathLocal() == null)
             {
@@ -2,7 +2,6 @@ package edu.maccosslab.panoramaclient;
 
 import org.apache.log4j.Logger;
 import org.labkey.remoteapi.ApiKeyCredentialsProvider;
-import org.labkey.remoteapi.Connection;
 import org.labkey.remoteapi.NetrcCredentialsProvider;
 
 import java.io.IOException;
@@ -13,16 +12,16 @@ public abstract class ClientAction<T extends ActionOptions>
 
     public abstract boolean doAction(T commandOptions) throws ClientException;
 
-    static Connection getConnection(WebdavUrlParts webdavUrlParts, String apiKey) throws ClientException
+    static PanoramaConnection getConnection(WebdavUrlParts webdavUrlParts, String apiKey) throws ClientException
     {
         return getConnection(webdavUrlParts.getServerUrl(), apiKey);
     }
 
-    static Connection getConnection(String serverUri, String apiKey) throws ClientException
+    static PanoramaConnection getConnection(String serverUri, String apiKey) throws ClientException
     {
         if(apiKey != null && apiKey.trim().length() > 0)
         {
-            return new Connection(serverUri, new ApiKeyCredentialsProvider(apiKey));
+            return new PanoramaConnection(serverUri, new ApiKeyCredentialsProvider(apiKey), "apikey:" + FileHelper.sha256Hex(apiKey));
         }
         else
         {
@@ -30,11 +29,11 @@ public abstract class ClientAction<T extends ActionOptions>
         }
     }
 
-    static Connection getConnection(String serverUri) throws ClientException
+    static PanoramaConnection getConnection(String serverUri) throws ClientException
     {
         try
         {
-            return new Connection(serverUri, new NetrcCredentialsProvider(serverUri));
+            return new PanoramaConnection(serverUri, new NetrcCredentialsProvider(serverUri), "netrc");
         }
         catch (IOException e)
         {
@@ -42,6 +41,11 @@ public abstract class ClientAction<T extends ActionOptions>
         }
     }
 
+    static ConnectionFactory getConnectionFactory(String serverUri, String apiKey)
+    {
+        return () -> getConnection(serverUri, apiKey);
+    }
+
     static WebdavUrlParts getWebdavUrl(String urlString) throws ClientException
     {
         if(urlString == null || urlString.trim().length() == 0)
@@ -51,4 +55,12 @@ public abstract class ClientAction<T extends ActionOptions>
 
         return URLHelper.buildWebdavUrlParts(urlString);
     }
+
+    /**
+     * Creates connections for worker threads. A connection should not be used by more than one thread at a time.
+     */
+    public interface ConnectionFactory
+    {
+        PanoramaConnection create() throws ClientException;
+    }
 }
@@ -1,14 +1,29 @@
 package edu.maccosslab.panoramaclient;
 
 import org.labkey.remoteapi.CommandException;
-import org.labkey.remoteapi.CommandResponse;
-import org.labkey.remoteapi.Connection;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 
 public class ClientActionDownload extends ClientAction<ActionOptions.Download>
 {
+    private SegmentedDownload _segmentedDownload;
+    private DownloadSink _sink = new DownloadSink();
+
+    void setDownloadSink(DownloadSink sink)
+    {
+        _sink = sink;
+    }
+
+    /**
+     * Download large files as several byte ranges in parallel.
+     */
+    void setSegmentedDownload(SegmentedDownload segmentedDownload)
+    {
+        _segmentedDownload = segmentedDownload;
+    }
+
     @Override
     public boolean doAction(ActionOptions.Download options) throws ClientException
     {
@@ -32,27 +47,58 @@ public class ClientActionDownload extends ClientAction<ActionOptions.Download>
             }
         }
 
-        Connection connection = getConnection(webdavUrlParts, options.getApiKey());
+        PanoramaConnection connection = getConnection(webdavUrlParts, options.getApiKey());
+        setDownloadSink(new DownloadSink(options.getBufferSize()));
+        if(options.getSegmentCount() > 1)
+        {
+            setSegmentedDownload(new SegmentedDownload(options.getSegmentCount(), options.getMinSegmentedFileSize(),
+                    getConnectionFactory(webdavUrlParts.getServerUrl(), options.getApiKey()), _sink));
+        }
         downloadFile(webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp(), downloadDir, connection);
         return true;
     }
 
-    void downloadFile(String containerPath, String sourceFilePath, String targetFolder, Connection connection) throws ClientException
+    /**
+     * @return number of bytes downloaded in this attempt, which is less than the size of the file if the download was resumed
+     */
+    long downloadFile(String containerPath, String sourceFilePath, String targetFolder, PanoramaConnection connection) throws ClientException
+    {
+        return downloadFile(containerPath, sourceFilePath, targetFolder, connection, -1);
+    }
+
+    /**
+     * @param size size of the file from a folder listing, or -1 if it is not known. Files that are known to be smaller
+     *             than the segment threshold are downloaded without first getting the file details with a HEAD request.
+     * @return number of bytes downloaded in this attempt, which is less than the size of the file if the download was resumed
+     */
+    long downloadFile(String containerPath, String sourceFilePath, String targetFolder, PanoramaConnection connection, long size) throws ClientException
     {
         LOG.info("File will be downloaded to " + targetFolder);
 
-        WebDavCommand.Download cmd = new WebDavCommand.Download();
+        WebDavCommand.Download cmd = new WebDavCommand.Download(_sink);
         int idx = sourceFilePath.lastIndexOf('/');
         String fileName = sourceFilePath.substring(idx + 1);
         String targetFilePath = targetFolder + File.separatorChar + fileName;
         try
         {
-            CommandResponse response = cmd.download(connection, containerPath, sourceFilePath, targetFilePath);
+            if(_segmentedDownload != null && _segmentedDownload.isCandidate(size))
+            {
+                WebDavCommand.HeadResponse fileInfo = new WebDavCommand.Head().head(connection, containerPath, sourceFilePath);
+                if(_segmentedDownload.useSegments(fileInfo))
+                {
+                    long bytes = _segmentedDownload.download(containerPath, sourceFilePath, Paths.get(targetFilePath), fileInfo);
+                    LOG.info("File downloaded to " + targetFilePath);
+                    return bytes;
+                }
+            }
+
+            WebDavCommand.DownloadResponse response = cmd.download(connection, containerPath, sourceFilePath, targetFilePath);
             if (response.getStatusCode() != 200)
             {
                 throw new ClientException("Received HTTP status code " + response.getStatusCode());
             }
             LOG.info("File downloaded to " + targetFilePath);
+            return response.getBytesReceived();
         }
         catch (IOException | CommandException e)
         {
@@ -1,12 +1,22 @@
 package edu.maccosslab.panoramaclient;
 
-import org.labkey.remoteapi.Connection;
-
 import java.io.File;
-import java.util.List;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ClientActionDownloadFiles extends ClientAction<ActionOptions.DownloadFiles>
 {
+    private static final long MODIFIED_TIME_TOLERANCE_MS = 2000;
+
+    private boolean _sync;
+    private FolderWalker _folderWalker;
+    private ListingCache _listingCache;
+
     @Override
     public boolean doAction(ActionOptions.DownloadFiles options) throws ClientException
     {
@@ -30,32 +40,261 @@ public class ClientActionDownloadFiles extends ClientAction<ActionOptions.Downlo
             }
         }
 
-        Connection connection = getConnection(webdavUrlParts, options.getApiKey());
-        return downloadFiles(webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp(), downloadDir, options.getExtension(), connection);
+        ConnectionFactory connectionFactory = getConnectionFactory(webdavUrlParts.getServerUrl(), options.getApiKey());
+        ClientActionDownload cmdDownload = new ClientActionDownload();
+        DownloadSink sink = new DownloadSink(options.getBufferSize());
+        cmdDownload.setDownloadSink(sink);
+        if(options.getSegmentCount() > 1)
+        {
+            cmdDownload.setSegmentedDownload(new SegmentedDownload(options.getSegmentCount(), options.getMinSegmentedFileSize(), connectionFactory, sink));
+        }
+        setSync(options.isSync());
+        setListingCache(options.getListingCache());
+        if(options.isRecursive())
+        {
+            FolderWalker folderWalker = new FolderWalker(options.getListThreadCount(), connectionFactory, options.isPropfind());
+            folderWalker.setListingCache(_listingCache);
+            setFolderWalker(folderWalker);
+        }
+        try
+        {
+            return downloadFiles(webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp(), downloadDir, options.getFileFilter(),
+                    options.getThreadCount(), connectionFactory, cmdDownload);
+        }
+        finally
+        {
+            if(_listingCache != null)
+            {
+                _listingCache.logStats();
+            }
+        }
+    }
+
+    /**
+     * Skip files that already exist in the target folder with the same size and last modified time as the file on the server.
+     */
+    void setSync(boolean sync)
+    {
+        _sync = sync;
+    }
+
+    /**
+     * Read folder listings from, and add them to, this cache. Null to always get the listing from the server.
+     */
+    void setListingCache(ListingCache listingCache)
+    {
+        _listingCache = listingCache;
+    }
+
+    /**
+     * Also download the files in subfolders, recreating the folder structure in the target folder.
+     */
+    void setFolderWalker(FolderWalker folderWalker)
+    {
+        _folderWalker = folderWalker;
     }
 
-    public boolean downloadFiles(String containerPath, String fwpFolderPath, String targetFolder, String extension, Connection connection) throws ClientException
+    public boolean downloadFiles(String containerPath, String fwpFolderPath, String targetFolder, RemoteFileFilter filter,
+                                 int threadCount, ConnectionFactory connectionFactory, ClientActionDownload cmdDownload) throws ClientException
     {
         LOG.info("Files will be downloaded to " + targetFolder);
 
+        if(_folderWalker != null)
+        {
+            return downloadTree(containerPath, fwpFolderPath, targetFolder, filter, threadCount, connectionFactory, cmdDownload);
+        }
+
+        // Downloads start while the rest of the listing is still being read from the server
+        PanoramaConnection connection = connectionFactory.create();
         ClientActionListFiles cmdListFiles = new ClientActionListFiles();
-        List<String> fileNames = cmdListFiles.listFiles(containerPath, fwpFolderPath, extension, connection);
-        if(fileNames != null && fileNames.size() > 0)
+        cmdListFiles.setListingCache(_listingCache);
+        String pathStringForMsg = getPathStringForMsg(containerPath, fwpFolderPath);
+        SkippedFiles skipped = new SkippedFiles();
+        AtomicInteger submittedCount = new AtomicInteger();
+        TransferPool pool = new TransferPool("download", threadCount, connectionFactory);
+        int fileCount;
+        TransferPool.Summary summary;
+        try
+        {
+            fileCount = cmdListFiles.listFiles(containerPath, fwpFolderPath, filter, connection, file -> {
+                if(!skipped.skipIfUnchanged(file, Paths.get(targetFolder, file.getName())))
+                {
+                    submittedCount.incrementAndGet();
+                    submitDownload(pool, containerPath, FolderWalker.join(fwpFolderPath, file.getName()), Paths.get(targetFolder), file, cmdDownload);
+                }
+            });
+        }
+        finally
+        {
+            summary = pool.awaitCompletion();
+        }
+
+        if(fileCount == 0)
+        {
+            LOG.warn("No files " + filter + " found in containerPath '" + containerPath + "' and FWP folder '" + fwpFolderPath + "'");
+            return false;
+        }
+        LOG.info("Found " + fileCount + " files " + filter + " in " + pathStringForMsg);
+        skipped.log(fileCount);
+        if(submittedCount.get() > 0)
         {
-            String pathStringForMsg = " container '" + containerPath + "'" + (fwpFolderPath.length() > 0 ? " and FWP folder '" + fwpFolderPath + "'" : "");
-            LOG.info("Found " + fileNames.size() + " files " + (extension != null ? "matching the extension \"" + extension + "\"" : "") + " in " + pathStringForMsg);
-            ClientActionDownload cmdDownload = new ClientActionDownload();
-            for(String sourceFile: fileNames)
+            summary.log("Downloaded");
+        }
+        int failedCount = summary.getFailures().size();
+        if(failedCount > 0)
+        {
+            throw new ClientException(failedCount + " of " + submittedCount.get() + " files could not be downloaded from" + pathStringForMsg);
+        }
+        return true;
+    }
+
+    /**
+     * Downloads the files in the folder and all its subfolders. Downloads start as soon as the folder containing
+     * the file has been listed, while the rest of the tree is still being walked.
+     */
+    private boolean downloadTree(String containerPath, String fwpFolderPath, String targetFolder, RemoteFileFilter filter,
+                                 int threadCount, ConnectionFactory connectionFactory, ClientActionDownload cmdDownload) throws ClientException
+    {
+        String pathStringForMsg = getPathStringForMsg(containerPath, fwpFolderPath);
+        LOG.info("Getting a list of files in" + pathStringForMsg + " and its subfolders");
+
+        SkippedFiles skipped = new SkippedFiles();
+        AtomicInteger submittedCount = new AtomicInteger();
+        TransferPool pool = new TransferPool("download", threadCount, connectionFactory);
+        FolderWalker.Summary walk;
+        TransferPool.Summary summary;
+        try
+        {
+            walk = _folderWalker.walk(containerPath, fwpFolderPath, filter, (relativeFolderPath, file) -> {
+                Path localFolder = Paths.get(targetFolder, relativeFolderPath);
+                if(skipped.skipIfUnchanged(file, localFolder.resolve(file.getName())))
+                {
+                    return;
+                }
+                try
+                {
+                    Files.createDirectories(localFolder);
+                }
+                catch (IOException e)
+                {
+                    throw new ClientException("Could not create directory " + localFolder + ": " + e.getMessage(), e);
+                }
+                submittedCount.incrementAndGet();
+                String sourceFilePath = FolderWalker.join(FolderWalker.join(fwpFolderPath, relativeFolderPath), file.getName());
+                submitDownload(pool, containerPath, sourceFilePath, localFolder, file, cmdDownload);
+            });
+        }
+        finally
+        {
+            summary = pool.awaitCompletion();
+        }
+
+        LOG.info("Found " + walk.getFileCount() + " files " + filter
+                + " in " + walk.getFolderCount() + " folders");
+        skipped.log(walk.getFileCount());
+        if(submittedCount.get() > 0)
+        {
+            summary.log("Downloaded");
+        }
+        int failedCount = summary.getFailures().size();
+        int folderErrorCount = walk.getErrors().size();
+        if(failedCount > 0 || folderErrorCount > 0)
+        {
+            throw new ClientException((folderErrorCount > 0 ? folderErrorCount + " folders could not be listed and " : "")
+                    + failedCount + " of " + submittedCount.get() + " files could not be downloaded from" + pathStringForMsg);
+        }
+        if(walk.getFileCount() == 0)
+        {
+            LOG.warn("No files " + filter + " found in" + pathStringForMsg + " or its subfolders");
+            return false;
+        }
+        return true;
+    }
+
+    private static String getPathStringForMsg(String containerPath, String fwpFolderPath)
+    {
+        return " container '" + containerPath + "'" + (fwpFolderPath.length() > 0 ? " and FWP folder '" + fwpFolderPath + "'" : "");
+    }
+
+    private static void submitDownload(TransferPool pool, String containerPath, String sourceFilePath, Path localFolder, RemoteFile file,
+                                       ClientActionDownload cmdDownload)
+    {
+        pool.submit(sourceFilePath, conn -> {
+            long bytes = cmdDownload.downloadFile(containerPath, sourceFilePath, localFolder.toString(), conn, file.getSize());
+            setLastModified(localFolder.resolve(file.getName()), file);
+            return bytes;
+        });
+    }
+
+    /**
+     * Counts the files skipped in sync mode. Used from the listing threads when downloading recursively.
+     */
+    private class SkippedFiles
+    {
+        private final AtomicInteger _count = new AtomicInteger();
+        private final AtomicLong _bytes = new AtomicLong();
+
+        boolean skipIfUnchanged(RemoteFile remoteFile, Path localFile)
+        {
+            if(_sync && isUnchanged(remoteFile, localFile))
             {
-                String sourceFilePath = fwpFolderPath.length() > 0 ? fwpFolderPath + "/" + sourceFile : sourceFile;
-                cmdDownload.downloadFile(containerPath, sourceFilePath, targetFolder, connection);
+                _count.incrementAndGet();
+                _bytes.addAndGet(remoteFile.getSize());
+                return true;
             }
-            return true;
+            return false;
         }
-        else
+
+        void log(int fileCount)
+        {
+            if(_sync)
+            {
+                LOG.info("Skipped " + _count.get() + " of " + fileCount + " files that are unchanged since they were last downloaded ("
+                        + TransferPool.formatBytes(_bytes.get()) + " not transferred)");
+            }
+        }
+    }
+
+    /**
+     * @return true if the local file has the same size and last modified time as the file on the server. Files are
+     * only considered unchanged if the server returned both values.
+     */
+    public static boolean isUnchanged(RemoteFile remoteFile, Path localFile)
+    {
+        if(remoteFile.getSize() < 0 || remoteFile.getLastModified() < 0 || !Files.isRegularFile(localFile))
         {
-            LOG.warn("No files " + (extension != null ? "matching the extension \"" + extension + "\"" : "") + " found in containerPath '" + containerPath + "' and FWP folder '" + fwpFolderPath + "'");
             return false;
         }
+        try
+        {
+            long localModified = Files.getLastModifiedTime(localFile).toMillis();
+            // The listing may round times to the second, and some file systems store times with 2 second precision
+            return Files.size(localFile) == remoteFile.getSize()
+                    && Math.abs(localModified - remoteFile.getLastModified()) < MODIFIED_TIME_TOLERANCE_MS;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Give the downloaded file the last modified time of the file on the server, so that a later sync can tell that it
+     * is unchanged.
+     */
+    private static void setLastModified(Path localFile, RemoteFile remoteFile) throws ClientException
+    {
+        if(remoteFile.getLastModified() < 0)
+        {
+            return;
+        }
+        try
+        {
+            Files.setLastModifiedTime(localFile, FileTime.fromMillis(remoteFile.getLastModified()));
+        }
+        catch (IOException e)
+        {
+            throw new ClientException("Could not set the last modified time of " + localFile + ": " + e.getMessage(), e);
+        }
     }
 }
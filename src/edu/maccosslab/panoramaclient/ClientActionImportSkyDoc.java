@@ -11,10 +11,18 @@ import org.labkey.remoteapi.query.SelectRowsResponse;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 public class ClientActionImportSkyDoc extends ClientAction<ActionOptions.ImportSkyDoc>
 {
@@ -22,8 +30,8 @@ public class ClientActionImportSkyDoc extends ClientAction<ActionOptions.ImportS
     public boolean doAction(ActionOptions.ImportSkyDoc options) throws ClientException
     {
         String panoramaFolderUrl = options.getPanoramaFolderUrl();
-        String skyDocPathLocal = options.getSkyDocPathLocal();
-        String skyDocNameRemote = options.getSkyDocNameRemote();
+        List<String> skyDocPathsLocal = options.getSkyDocPathsLocal();
+        List<String> skyDocNamesRemote = options.getSkyDocNamesRemote();
 
         if(panoramaFolderUrl == null || panoramaFolderUrl.trim().length() == 0)
         {
@@ -31,7 +39,7 @@ public class ClientActionImportSkyDoc extends ClientAction<ActionOptions.ImportS
         }
 
         LabKeyUrlParts labKeyUrlParts = URLHelper.buildLabKeyUrlParts(panoramaFolderUrl);
-        Connection connection = getConnection(labKeyUrlParts.getServerUrl(), options.getApiKey());
+        PanoramaConnection connection = getConnection(labKeyUrlParts.getServerUrl(), options.getApiKey());
 
         WebdavUrlParts webdavUrlParts = null;
         if (options.getWebdavUrl() != null)
@@ -50,13 +58,22 @@ public class ClientActionImportSkyDoc extends ClientAction<ActionOptions.ImportS
                         + ". Folder path in the WebDAV URL: " + webdavUrlParts.getContainerPath());
             }
         }
-        if (skyDocPathLocal != null)
+        if (skyDocPathsLocal.size() == 1)
         {
-            uploadAndImport(labKeyUrlParts, skyDocPathLocal, webdavUrlParts, connection);
+            uploadAndImport(labKeyUrlParts, skyDocPathsLocal.get(0), webdavUrlParts, connection);
         }
-        else if (skyDocNameRemote != null)
+        else if (skyDocPathsLocal.size() > 1)
         {
-            importDocumentOnServer(labKeyUrlParts, skyDocNameRemote.trim(), webdavUrlParts, connection);
+            uploadAndImportAll(labKeyUrlParts, skyDocPathsLocal, webdavUrlParts, connection,
+                    getConnectionFactory(labKeyUrlParts.getServerUrl(), options.getApiKey()), getMaxImports(options));
+        }
+        else if (skyDocNamesRemote.size() == 1)
+        {
+            importDocumentOnServer(labKeyUrlParts, skyDocNamesRemote.get(0).trim(), webdavUrlParts, connection);
+        }
+        else if (skyDocNamesRemote.size() > 1)
+        {
+            importAllDocumentsOnServer(labKeyUrlParts, skyDocNamesRemote, webdavUrlParts, connection, getMaxImports(options));
         }
         else
         {
@@ -65,7 +82,106 @@ public class ClientActionImportSkyDoc extends ClientAction<ActionOptions.ImportS
         return true;
     }
 
+    private static int getMaxImports(ActionOptions.ImportSkyDoc options)
+    {
+        return options.getMaxImports() > 0 ? options.getMaxImports() : Integer.MAX_VALUE;
+    }
+
     private void uploadAndImport(LabKeyUrlParts labKeyUrlParts, String skyZipPath, WebdavUrlParts webdavUrlParts, Connection connection) throws ClientException
+    {
+        checkLocalDocument(skyZipPath);
+
+        String serverUri = labKeyUrlParts.getServerUrl();
+        String containerPath = labKeyUrlParts.getContainerPath();
+        LOG.info("Starting upload and import of Skyline document " + skyZipPath + " into Panorama folder '" + containerPath + "'");
+
+        ClientActionUpload cmd = new ClientActionUpload();
+        WebdavUrlParts uploadToWebdavUrlParts = webdavUrlParts != null ? webdavUrlParts : new WebdavUrlParts(serverUri, containerPath, "");
+        cmd.uploadFile(uploadToWebdavUrlParts, skyZipPath, connection);
+        LOG.info("Uploaded Skyline document " + skyZipPath + " to " + uploadToWebdavUrlParts.combinePartsQuoted());
+
+        importSkylineDocument(labKeyUrlParts, new File(skyZipPath).getName(), getFolderRelativeSkyZipPath(uploadToWebdavUrlParts), connection);
+    }
+
+    /**
+     * Uploads the documents one after the other on a separate thread, with its own connection, and submits the import
+     * of each document as soon as it is uploaded. The uploads of the later documents overlap the imports of the earlier
+     * ones on the server. The import jobs are tracked together while the uploads run, and the outcome of each import
+     * is logged when its job is done. At most maxImports imports are submitted and not done at any time; the import of
+     * the next document waits for one of them to be done. A document that could not be uploaded or imported does not
+     * stop the others.
+     */
+    private void uploadAndImportAll(LabKeyUrlParts labKeyUrlParts, List<String> skyZipPaths, WebdavUrlParts webdavUrlParts, Connection connection,
+                                    ConnectionFactory connectionFactory, int maxImports) throws ClientException
+    {
+        for (String skyZipPath : skyZipPaths)
+        {
+            checkLocalDocument(skyZipPath);
+        }
+
+        String serverUri = labKeyUrlParts.getServerUrl();
+        String containerPath = labKeyUrlParts.getContainerPath();
+        LOG.info("Starting upload and import of " + skyZipPaths.size() + " Skyline documents into Panorama folder '" + containerPath + "'");
+
+        ClientActionUpload cmd = new ClientActionUpload();
+        WebdavUrlParts uploadToWebdavUrlParts = webdavUrlParts != null ? webdavUrlParts : new WebdavUrlParts(serverUri, containerPath, "");
+        PanoramaConnection uploadConnection = connectionFactory.create();
+        PipelineJobMonitor monitor = new PipelineJobMonitor(connection, serverUri, containerPath);
+        List<String> failed = new ArrayList<>();
+        PipelineJobMonitor.Listener listener = importListener(failed);
+
+        ExecutorService uploader = TransferThreads.newExecutor("upload", 1);
+        try
+        {
+            List<Future<?>> uploads = new ArrayList<>();
+            for (String skyZipPath : skyZipPaths)
+            {
+                uploads.add(uploader.submit(() -> {
+                    cmd.uploadFile(uploadToWebdavUrlParts, skyZipPath, uploadConnection);
+                    LOG.info("Uploaded Skyline document " + skyZipPath + " to " + uploadToWebdavUrlParts.combinePartsQuoted());
+                    return null;
+                }));
+            }
+            for (int i = 0; i < skyZipPaths.size(); i++)
+            {
+                String skyZipPath = skyZipPaths.get(i);
+                String skyZipName = new File(skyZipPath).getName();
+                try
+                {
+                    // The monitor handles errors while polling the jobs itself, so an exception here is from the upload
+                    monitor.waitFor(uploads.get(i), listener);
+                }
+                catch (ExecutionException e)
+                {
+                    LOG.error("Skyline document " + skyZipPath + " was not uploaded. " + e.getCause().getMessage());
+                    failed.add(skyZipName);
+                    continue;
+                }
+                monitor.waitForPendingBelow(maxImports, listener);
+                try
+                {
+                    long jobId = startImport(containerPath, skyZipName, getFolderRelativeSkyZipPath(uploadToWebdavUrlParts), connection);
+                    monitor.add(jobId, skyZipName);
+                }
+                catch (ClientException e)
+                {
+                    LOG.error("Skyline document " + skyZipPath + " was not imported. " + e.getMessage());
+                    failed.add(skyZipName);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new ClientException("Interrupted while uploading and importing Skyline documents", e);
+        }
+        finally
+        {
+            uploader.shutdownNow();
+        }
+        waitForImports(monitor, listener, failed, skyZipPaths.size());
+    }
+
+    private static void checkLocalDocument(String skyZipPath) throws ClientException
     {
         File file = new File(skyZipPath);
         if (!file.exists())
@@ -80,25 +196,97 @@ public class ClientActionImportSkyDoc extends ClientAction<ActionOptions.ImportS
         {
             throw new ClientException("Not a Skyline shared zip file " + file.getName());
         }
+    }
 
-        String serverUri = labKeyUrlParts.getServerUrl();
-        String containerPath = labKeyUrlParts.getContainerPath();
-        LOG.info("Starting upload and import of Skyline document " + skyZipPath + " into Panorama folder '" + containerPath + "'");
+    private String getFolderRelativeSkyZipPath(WebdavUrlParts webdavUrlParts)
+    {
+        return "".equals(webdavUrlParts.getPathInFwp()) ? "./" : webdavUrlParts.getPathInFwp();
+    }
 
-        ClientActionUpload cmd = new ClientActionUpload();
-        WebdavUrlParts uploadToWebdavUrlParts = webdavUrlParts != null ? webdavUrlParts : new WebdavUrlParts(serverUri, containerPath, "");
-        cmd.uploadFile(uploadToWebdavUrlParts, skyZipPath, connection);
-        LOG.info("Uploaded Skyline document " + skyZipPath + " to " + uploadToWebdavUrlParts.combinePartsQuoted());
+    private void importDocumentOnServer(LabKeyUrlParts labKeyUrlParts, String skyDocNameRemote, WebdavUrlParts webdavUrlParts, PanoramaConnection connection) throws ClientException
+    {
+        skyDocNameRemote = getRemoteDocumentName(skyDocNameRemote);
 
-        importSkylineDocument(labKeyUrlParts, new File(skyZipPath).getName(), getFolderRelativeSkyZipPath(uploadToWebdavUrlParts), connection);
+        if (webdavUrlParts == null)
+        {
+            webdavUrlParts = new WebdavUrlParts(labKeyUrlParts.getServerUrl(), labKeyUrlParts.getContainerPath(), "");
+        }
+        WebdavUrlParts skyZipWebDavUrl = webdavUrlParts.appendToWebdavPath(skyDocNameRemote);
+        if (!documentExistsInPanoramaFolder(skyZipWebDavUrl, connection))
+        {
+            throw new ClientException("Skyline document does not exist: " + skyZipWebDavUrl.combinePartsQuoted());
+        }
+
+        LOG.info("Starting import of Skyline document " + skyDocNameRemote + " into Panorama folder '" + labKeyUrlParts.getContainerPath() + "'");
+        importSkylineDocument(labKeyUrlParts, skyDocNameRemote, getFolderRelativeSkyZipPath(webdavUrlParts), connection);
     }
 
-    private String getFolderRelativeSkyZipPath(WebdavUrlParts webdavUrlParts)
+    /**
+     * Submits the imports of all the documents, and then tracks the import jobs together. The outcome of each import
+     * is logged when its job is done. At most maxImports imports are submitted and not done at any time.
+     * A document that is missing or could not be imported does not stop the others.
+     */
+    private void importAllDocumentsOnServer(LabKeyUrlParts labKeyUrlParts, List<String> skyDocNamesRemote, WebdavUrlParts webdavUrlParts,
+                                            PanoramaConnection connection, int maxImports) throws ClientException
     {
-        return "".equals(webdavUrlParts.getPathInFwp()) ? "./" : webdavUrlParts.getPathInFwp();
+        List<String> names = new ArrayList<>();
+        for (String skyDocNameRemote : skyDocNamesRemote)
+        {
+            names.add(getRemoteDocumentName(skyDocNameRemote.trim()));
+        }
+
+        String containerPath = labKeyUrlParts.getContainerPath();
+        if (webdavUrlParts == null)
+        {
+            webdavUrlParts = new WebdavUrlParts(labKeyUrlParts.getServerUrl(), containerPath, "");
+        }
+        LOG.info("Starting import of " + names.size() + " Skyline documents into Panorama folder '" + containerPath + "'");
+
+        PipelineJobMonitor monitor = new PipelineJobMonitor(connection, labKeyUrlParts.getServerUrl(), containerPath);
+        List<String> failed = new ArrayList<>();
+        PipelineJobMonitor.Listener listener = importListener(failed);
+        for (String skyDocNameRemote : names)
+        {
+            WebdavUrlParts skyZipWebDavUrl = webdavUrlParts.appendToWebdavPath(skyDocNameRemote);
+            try
+            {
+                if (!documentExistsInPanoramaFolder(skyZipWebDavUrl, connection))
+                {
+                    throw new ClientException("Skyline document does not exist: " + skyZipWebDavUrl.combinePartsQuoted());
+                }
+            }
+            catch (ClientException e)
+            {
+                LOG.error("Skyline document " + skyDocNameRemote + " was not imported. " + e.getMessage());
+                failed.add(skyDocNameRemote);
+                continue;
+            }
+            try
+            {
+                monitor.waitForPendingBelow(maxImports, listener);
+            }
+            catch (InterruptedException e)
+            {
+                throw new ClientException("Interrupted while importing Skyline documents", e);
+            }
+            try
+            {
+                long jobId = startImport(containerPath, skyDocNameRemote, getFolderRelativeSkyZipPath(webdavUrlParts), connection);
+                monitor.add(jobId, skyDocNameRemote);
+            }
+            catch (ClientException e)
+            {
+                LOG.error("Skyline document " + skyDocNameRemote + " was not imported. " + e.getMessage());
+                failed.add(skyDocNameRemote);
+            }
+        }
+        waitForImports(monitor, listener, failed, names.size());
     }
 
-    private void importDocumentOnServer(LabKeyUrlParts labKeyUrlParts, String skyDocNameRemote, WebdavUrlParts webdavUrlParts, Connection connection) throws ClientException
+    /**
+     * @return the decoded name of a document in the Panorama folder
+     */
+    private static String getRemoteDocumentName(String skyDocNameRemote) throws ClientException
     {
         // URLEncodedUtils.parsePathSegments will decode percent encoded octets, but will not replace '+' with space character.
         List<String> pathSegments = URLEncodedUtils.parsePathSegments(skyDocNameRemote);
@@ -108,19 +296,51 @@ public class ClientActionImportSkyDoc extends ClientAction<ActionOptions.ImportS
         {
             throw new ClientException("Not a Skyline shared zip file " + skyDocNameRemote);
         }
+        return skyDocNameRemote;
+    }
 
-        if (webdavUrlParts == null)
+    /**
+     * @param failed names of the documents that were not imported. Documents whose import fails are added.
+     * @return listener that logs the outcome of each import as soon as its job is done
+     */
+    private static PipelineJobMonitor.Listener importListener(List<String> failed)
+    {
+        return job -> {
+            if (job.isComplete())
+            {
+                LOG.info("Imported Skyline document " + job.getName() + ". Job status: " + job.getStatus() + " after " + job.getPollCount() + " status checks");
+            }
+            else
+            {
+                String outcome = job.getError() != null ? job.getError() : "Job status: " + job.getStatus() + " after " + job.getPollCount() + " status checks";
+                LOG.error("Skyline document " + job.getName() + " was not imported. " + outcome + ". Error details can be found at " + job.getStatusUri());
+                failed.add(job.getName());
+            }
+        };
+    }
+
+    /**
+     * Waits for the import jobs that are not done yet.
+     * @param failed names of the documents that were not imported
+     * @param total number of documents, including the ones that could not be submitted
+     */
+    private static void waitForImports(PipelineJobMonitor monitor, PipelineJobMonitor.Listener listener, List<String> failed, int total) throws ClientException
+    {
+        LOG.info("Waiting for " + monitor.getPendingCount() + " Skyline document imports. Checking status");
+        try
         {
-            webdavUrlParts = new WebdavUrlParts(labKeyUrlParts.getServerUrl(), labKeyUrlParts.getContainerPath(), "");
+            monitor.waitForAll(listener);
         }
-        WebdavUrlParts skyZipWebDavUrl = webdavUrlParts.appendToWebdavPath(skyDocNameRemote);
-        if (!documentExistsInPanoramaFolder(skyZipWebDavUrl, connection))
+        catch (InterruptedException e)
         {
-            throw new ClientException("Skyline document does not exist: " + skyZipWebDavUrl.combinePartsQuoted());
+            throw new ClientException("Interrupted while checking the status of the import jobs", e);
         }
 
-        LOG.info("Starting import of Skyline document " + skyDocNameRemote + " into Panorama folder '" + labKeyUrlParts.getContainerPath() + "'");
-        importSkylineDocument(labKeyUrlParts, skyDocNameRemote, getFolderRelativeSkyZipPath(webdavUrlParts), connection);
+        LOG.info("Imported " + (total - failed.size()) + " of " + total + " Skyline documents");
+        if (!failed.isEmpty())
+        {
+            throw new ClientException(failed.size() + " of " + total + " Skyline documents were not imported: " + String.join(", ", failed));
+        }
     }
 
 //    private String getDecodedFileName(String skyDocNameRemote, LabKeyUrlParts urlParts) throws ClientException
@@ -135,31 +355,54 @@ public class ClientActionImportSkyDoc extends ClientAction<ActionOptions.ImportS
 //        return tempParts.getContainerPath();
 //    }
 
-    private boolean documentExistsInPanoramaFolder(WebdavUrlParts webdavUrlParts, Connection connection) throws ClientException
+    private boolean documentExistsInPanoramaFolder(WebdavUrlParts webdavUrlParts, PanoramaConnection connection) throws ClientException
     {
-        WebDavCommand.CheckWebdavPathExists cmd = new WebDavCommand.CheckWebdavPathExists();
+        WebDavCommand.Stat cmd = new WebDavCommand.Stat();
         try
         {
-            CommandResponse response = cmd.check(connection, webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp());
-            if (response.getStatusCode() != 200)
-            {
-                return false;
-            }
+            WebDavCommand.StatResponse response = cmd.stat(connection, webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp());
+            return response.exists() && !response.isCollection();
         }
         catch (IOException | CommandException e)
         {
-            if(e instanceof CommandException && ((CommandException)e).getStatusCode() == 404)
-            {
-                return false;
-            }
             throw new ClientException("Error checking if Skyline document exists: "
                     + webdavUrlParts.combinePartsQuoted()
                     + ". Error was: " + e.getMessage(), e);
         }
-        return true;
     }
 
     private void importSkylineDocument(LabKeyUrlParts labKeyUrlParts, String skyZipName, String skyZipServerPath, Connection connection) throws ClientException
+    {
+        String serverUri = labKeyUrlParts.getServerUrl();
+        String containerPath = labKeyUrlParts.getContainerPath();
+        long jobId = startImport(containerPath, skyZipName, skyZipServerPath, connection);
+
+        PipelineJobMonitor monitor = new PipelineJobMonitor(connection, serverUri, containerPath);
+        PipelineJobMonitor.Job job = monitor.add(jobId, skyZipName);
+        LOG.info("Job submitted at: " + job.getStatusUri() + ". Checking status");
+        try
+        {
+            monitor.waitForAll(done -> {});
+            LOG.info("Job done: " + job.getStatusUri());
+            LOG.info("Job status: " + job.getStatus() + " after " + job.getPollCount() + " status checks");
+            if(!job.isComplete())
+            {
+                throw new ClientException("Skyline document was not imported. " + (job.getError() != null ? job.getError() + ". " : "")
+                        + "Error details can be found at " + job.getStatusUri());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new ClientException("Error checking status of jobId " + jobId, e);
+        }
+    }
+
+    /**
+     * Submits a pipeline job that imports a Skyline document that is in the file root of the folder.
+     * @param skyZipServerPath folder of the document, relative to the file root. "./" for the file root.
+     * @return id of the pipeline job
+     */
+    static long startImport(String containerPath, String skyZipName, String skyZipServerPath, Connection connection) throws ClientException
     {
         PostCommand<CommandResponse> importCmd = new PostCommand<>("targetedms", "skylineDocUploadApi");
         Map<String, Object> params = new HashMap<>();
@@ -168,8 +411,6 @@ public class ClientActionImportSkyDoc extends ClientAction<ActionOptions.ImportS
         importCmd.setParameters(params);
 
         Long jobId;
-        String serverUri = labKeyUrlParts.getServerUrl();
-        String containerPath = labKeyUrlParts.getContainerPath();
         try
         {
             LOG.info("Starting Skyline document import");
@@ -185,75 +426,96 @@ public class ClientActionImportSkyDoc extends ClientAction<ActionOptions.ImportS
         {
             throw new ClientException("Error starting Skyline document import on the server.", e);
         }
+        if (jobId == null)
+        {
+            throw new ClientException("Error starting Skyline document import. The server did not return a job id.");
+        }
+        return jobId;
+    }
 
+    static String getPipelineStatusUri(String serverUri, String containerPath, long jobId)
+    {
         // Example: https://panoramaweb-dr.gs.washington.edu/pipeline-status/00Developer/vsharma/PanoramaClientTest/details.view?rowId=85274
         // Example: https://panoramaweb-dr.gs.washington.edu/00Developer/vsharma/PanoramaClientTest/pipeline-status-details.view?rowId=85274
-        String pipelineStatusUri = serverUri + "/" + containerPath + "/pipeline-status-details.view?rowId=" + jobId;
-        LOG.info("Job submitted at: " + pipelineStatusUri + ". Checking status");
-        try
-        {
-            SelectRowsCommand selectJobStatus = new SelectRowsCommand("pipeline", "job");
-            selectJobStatus.setColumns(Collections.singletonList("Status"));
-            Filter filter = new Filter("rowId", jobId);
-            selectJobStatus.addFilter(filter);
-
-            int i = 0;
-            String status = null;
-            while(!jobDone(status))
-            {
-                Thread.sleep(6 * 1000);
+        return serverUri + "/" + containerPath + "/pipeline-status-details.view?rowId=" + jobId;
+    }
 
-                status = getStatus(connection, containerPath, selectJobStatus, jobId);
+    /**
+     * @return status of the pipeline job, e.g. "RUNNING" or "COMPLETE"
+     */
+    static String getJobStatus(Connection connection, String containerPath, long jobId) throws ClientException, InterruptedException
+    {
+        String status = getJobStatuses(connection, containerPath, Collections.singletonList(jobId)).get(jobId);
+        if (status == null)
+        {
+            throw new ClientException("No status returned for jobId " + jobId);
+        }
+        return status;
+    }
 
-                if(i % 10 == 0)
-                {
-                    LOG.info("Job status is: " + status);
-                }
-                i++;
-            }
-            LOG.info("Job done: " + pipelineStatusUri);
-            LOG.info("Job status: " + status);
-            if(!isComplete(status))
-            {
-                throw new ClientException("Skyline document was not imported. Error details can be found at " + pipelineStatusUri);
-            }
+    /**
+     * Gets the status of all the jobs with one SelectRows query, with an IN filter on the job ids.
+     * @return status of each job, keyed by job id. Jobs that the server did not return a row for are missing.
+     */
+    static Map<Long, String> getJobStatuses(Connection connection, String containerPath, Collection<Long> jobIds) throws ClientException, InterruptedException
+    {
+        SelectRowsCommand selectJobStatus = new SelectRowsCommand("pipeline", "job");
+        selectJobStatus.setColumns(Arrays.asList("RowId", "Status"));
+        Filter filter = new Filter("RowId", jobIds.stream().map(String::valueOf).collect(Collectors.joining(";")), Filter.Operator.IN);
+        selectJobStatus.addFilter(filter);
+        selectJobStatus.setMaxRows(jobIds.size());
+        try
+        {
+            return getStatuses(connection, containerPath, selectJobStatus, jobIds);
         }
-        catch (IOException | CommandException | InterruptedException e)
+        catch (IOException | CommandException e)
         {
-            throw new ClientException("Error checking status of jobId " + jobId, e);
+            throw new ClientException("Error checking status of " + describeJobs(jobIds) + ". Error was: " + e.getMessage(), e);
         }
     }
 
-    private String getStatus(Connection connection, String containerPath, SelectRowsCommand cmd, long jobId) throws IOException, CommandException, ClientException, InterruptedException
+    private static Map<Long, String> getStatuses(Connection connection, String containerPath, SelectRowsCommand cmd, Collection<Long> jobIds)
+            throws IOException, CommandException, ClientException, InterruptedException
     {
         int tryCount = 0;
         int maxTryCount = 5;
+        PollScheduler retryScheduler = new PollScheduler(1000, 16 * 1000, 2, PollScheduler.DEFAULT_JITTER, new Random());
         while(++tryCount <= maxTryCount)
         {
             SelectRowsResponse response = cmd.execute(connection, containerPath);
             if(response.getStatusCode() == 200)
             {
-                if(response.getRowCount().equals(0))
+                Map<Long, String> statuses = new HashMap<>();
+                for (Map<String, Object> row : response.getRows())
                 {
-                    throw new ClientException("No status returned for jobId " + jobId);
+                    Object rowId = row.get("RowId");
+                    if (rowId instanceof Number)
+                    {
+                        statuses.put(((Number) rowId).longValue(), (String) row.get("Status"));
+                    }
                 }
-                return (String) response.getRows().get(0).get("Status");
+                return statuses;
             }
             else
             {
                 LOG.warn("Checking job status. Received unexpected HTTP status code " + response.getStatusCode());
             }
-            Thread.sleep(5 * 1000); // Try again after 5 seconds.
+            Thread.sleep(retryScheduler.nextDelay()); // Try again after about 1, 2, 4 and 8 seconds.
         }
-        throw new ClientException("Could not get status of jobId " + jobId + ". Giving up after trying " + maxTryCount + " times.");
+        throw new ClientException("Could not get status of " + describeJobs(jobIds) + ". Giving up after trying " + maxTryCount + " times.");
+    }
+
+    private static String describeJobs(Collection<Long> jobIds)
+    {
+        return jobIds.size() == 1 ? "jobId " + jobIds.iterator().next() : jobIds.size() + " jobs";
     }
 
-    private boolean jobDone(String status)
+    static boolean jobDone(String status)
     {
         return status != null && (!(status.toLowerCase().contains("running") || status.toLowerCase().contains("waiting")));
     }
 
-    private boolean isComplete(String status)
+    static boolean isComplete(String status)
     {
         return status != null && status.toLowerCase().contains("complete");
     }
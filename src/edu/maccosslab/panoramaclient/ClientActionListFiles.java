@@ -1,92 +1,137 @@
 package edu.maccosslab.panoramaclient;
 
 import org.labkey.remoteapi.CommandException;
-import org.labkey.remoteapi.Connection;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ClientActionListFiles extends ClientAction<ActionOptions.ListFiles>
 {
+    private ListingCache _listingCache;
+
     @Override
     public boolean doAction(ActionOptions.ListFiles options) throws ClientException
     {
         WebdavUrlParts webdavUrlParts = ClientAction.getWebdavUrl(options.getWebdavUrl());
 
         String apiKey = options.getApiKey();
-        String extension = options.getExtension();
+        RemoteFileFilter filter = options.getFileFilter();
 
         String outputFilePath = options.getOutputFile();
         File outputFile = outputFilePath != null ? new File(outputFilePath) : null;
 
-        Connection connection = getConnection(webdavUrlParts, apiKey);
-        List<String> files = listFiles(webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp(), extension, connection);
-        if(files.size() > 0)
+        PanoramaConnection connection = getConnection(webdavUrlParts, apiKey);
+        setListingCache(options.getListingCache());
+        int count;
+        try
+        {
+            count = listFiles(webdavUrlParts, filter, outputFile, connection);
+        }
+        finally
+        {
+            if(_listingCache != null)
+            {
+                _listingCache.logStats();
+            }
+        }
+        if(count > 0)
         {
-            printFileList(files, outputFile);
             return true;
         }
         else
         {
-            LOG.warn("No files " + (extension != null ? "matching the extension \"" + extension + "\"" : "") + " found in containerPath '"
+            LOG.warn("No files " + filter + " found in containerPath '"
                     + webdavUrlParts.getContainerPath() + "' and FWP folder '" + webdavUrlParts.getPathInFwp() + "'");
             return false;
         }
     }
 
-    private void printFileList(List<String> files, File outputFile) throws ClientException
+    private int listFiles(WebdavUrlParts webdavUrlParts, RemoteFileFilter filter, File outputFile, PanoramaConnection connection) throws ClientException
     {
+        // Print the names while the listing is read, so that very large folders do not have to fit in memory
+        int count;
         if(outputFile == null)
         {
-            for(String file: files)
-            {
-                LOG.info(file);
-            }
+            count = listFiles(webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp(), filter, connection, file -> LOG.info(file.getName()));
         }
         else
         {
             try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile)))
             {
-                for(String file: files)
-                {
-                    writer.write(file);
-                    writer.newLine();
-                }
+                count = listFiles(webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp(), filter, connection, file -> {
+                    try
+                    {
+                        writer.write(file.getName());
+                        writer.newLine();
+                    }
+                    catch (IOException e)
+                    {
+                        throw new ClientException("Error writing to file " + outputFile.getAbsolutePath(), e);
+                    }
+                });
             }
             catch (IOException e)
             {
                 throw new ClientException("Error writing to file " + outputFile.getAbsolutePath(), e);
             }
-            LOG.info("File list written to " + outputFile);
+            if(count > 0)
+            {
+                LOG.info("File list written to " + outputFile);
+            }
         }
+        return count;
     }
 
+    /**
+     * Read folder listings from, and add them to, this cache. Null to always get the listing from the server.
+     */
+    void setListingCache(ListingCache listingCache)
+    {
+        _listingCache = listingCache;
+    }
 
-    List<String> listFiles(String containerPath, String fwpFolderPath, String extension, Connection connection) throws ClientException
+    public interface FileHandler
+    {
+        void file(RemoteFile file) throws ClientException;
+    }
+
+    /**
+     * Passes each file in the folder that is accepted by the filter to the handler as the listing is read from the server.
+     * Subfolders are ignored.
+     * @return number of files passed to the handler
+     */
+    int listFiles(String containerPath, String fwpFolderPath, RemoteFileFilter filter, PanoramaConnection connection, FileHandler handler) throws ClientException
     {
         String pathStringForMsg = " container '" + containerPath + "'" + (fwpFolderPath.length() > 0 ? " and FWP folder '" + fwpFolderPath + "'"
                 : "");
         LOG.info("Getting a list of files in" + pathStringForMsg);
 
+        AtomicInteger count = new AtomicInteger();
         WebDavCommand.ListFiles cmd = new WebDavCommand.ListFiles();
         try
         {
-            WebDavCommand.ListFilesResponse response = cmd.list(connection, containerPath, fwpFolderPath);
-            if (response.getStatusCode() != 200)
-            {
-                throw new ClientException("Received HTTP status code " + response.getStatusCode());
-            }
-            List<String> fileNames = response.getFiles();
-            if(extension == null || extension.trim().length() == 0 || "*".equalsIgnoreCase(extension))
+            cmd.list(connection, containerPath, fwpFolderPath, _listingCache, new ListingParser.Handler()
             {
-                return fileNames;
-            }
-            String ext = "." + extension.trim().toLowerCase();
-            return fileNames.stream().filter(f -> f.toLowerCase().endsWith(ext)).collect(Collectors.toList());
+                @Override
+                public void file(RemoteFile file) throws ClientException
+                {
+                    if(filter.accept(file.getName(), file))
+                    {
+                        count.incrementAndGet();
+                        handler.file(file);
+                    }
+                }
+
+                @Override
+                public void folder(String name)
+                {
+                    // Ignore directories
+                }
+            });
+            return count.get();
         }
         catch (IOException | CommandException e)
         {
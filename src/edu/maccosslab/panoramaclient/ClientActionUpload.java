@@ -1,179 +1,539 @@
 package edu.maccosslab.panoramaclient;
 
-import org.labkey.remoteapi.Command;
 import org.labkey.remoteapi.CommandException;
 import org.labkey.remoteapi.CommandResponse;
 import org.labkey.remoteapi.Connection;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 public class ClientActionUpload extends ClientAction<ActionOptions.Upload>
 {
+    // Directories known to exist on the server, shared by all the uploads in this process
+    private static final Set<String> KNOWN_DIRS = ConcurrentHashMap.newKeySet();
+
+    private boolean _put;
+    private int _bufferSize = WebDavCommand.Put.DEFAULT_BUFFER_SIZE;
+    private UploadIndex _uploadIndex;
+    // Uploaded files, and the SHA-256 hash of the bytes that were sent, or null if it was not computed
+    private final Map<UploadItem, String> _uploaded = Collections.synchronizedMap(new LinkedHashMap<>());
+
     @Override
     public boolean doAction(ActionOptions.Upload options) throws ClientException
     {
         var webdavUrlParts = ClientAction.getWebdavUrl(options.getWebdavUrl());
 
-        String srcFilePath = options.getSrcFilePath();
-
-        File srcFile = new File(srcFilePath);
-        if(!srcFile.exists())
+        List<UploadItem> items = getUploadItems(options.getSrcFilePaths(), options.isRecursive());
+        if(items.isEmpty())
         {
-            throw new ClientException("Source file does not exist: " + srcFilePath);
+            throw new ClientException("No files found to upload in " + String.join(", ", options.getSrcFilePaths()));
         }
-        if(!srcFile.isFile())
+
+        PanoramaConnection connection = getConnection(webdavUrlParts, options.getApiKey());
+        setPut(options.isPut(), options.getBufferSize());
+        if(options.isSync())
         {
-            throw new ClientException("Not a file " + srcFilePath);
+            setUploadIndex(new UploadIndex(UploadIndex.getDefaultFile()));
         }
 
-        Connection connection = getConnection(webdavUrlParts, options.getApiKey());
-
+        // The folder and target directory are checked once for all the files
         LOG.info("Checking if folder exists on Panorama: '" + webdavUrlParts.getContainerPath() + "'");
-        if (!containerExists(webdavUrlParts, connection))
+        ContainerProbe.Result container = ContainerProbe.probe(webdavUrlParts, connection);
+        if (!container.exists())
         {
             throw new ClientException("Unable to upload. Folder does not exist on Panorama: '" + webdavUrlParts.getContainerPath() + "'");
         }
+        if (!container.canInsert())
+        {
+            LOG.warn("The server reports that you do not have permission to insert data in folder '" + webdavUrlParts.getContainerPath()
+                    + "'. The upload may fail.");
+        }
 
-        LOG.info("Checking if target directory exists on Panorama: " + webdavUrlParts.combinePartsQuoted());
-        if(!webdavDirExists(webdavUrlParts, connection))
+        if(options.isCreateTargetDir())
+        {
+            LOG.info("Creating target directory on Panorama if it does not exist: " + webdavUrlParts.combinePartsQuoted());
+            createWebdavPath(webdavUrlParts, connection);
+        }
+        else if(!isKnownDir(webdavUrlParts))
         {
-            if(options.isCreateTargetDir())
+            LOG.info("Checking if target directory exists on Panorama: " + webdavUrlParts.combinePartsQuoted());
+            if(!webdavDirExists(webdavUrlParts, connection))
             {
-                LOG.info("Creating target directory on Panorama: " + webdavUrlParts.combinePartsQuoted());
-                createWebdavPath(webdavUrlParts, connection);
+                throw new ClientException("Unable to upload. Target directory does not exist on Panorama: " + webdavUrlParts.combinePartsQuoted());
             }
-            else
+            KNOWN_DIRS.add(getDirKey(webdavUrlParts));
+        }
+
+        if(_uploadIndex != null)
+        {
+            items = skipIdenticalFiles(webdavUrlParts, items, connection);
+            if(items.isEmpty())
             {
-                throw new ClientException("Unable to upload. Target directory does not exist on Panorama: " + webdavUrlParts.combinePartsQuoted());
+                return true;
             }
         }
-        uploadFile(webdavUrlParts, srcFilePath, connection);
-        LOG.info("File uploaded");
-        return true;
-    }
 
-    private boolean containerExists(WebdavUrlParts webdavUrlParts, Connection connection) throws ClientException
-    {
-        Command<CommandResponse> cmd = new Command<>("project", "begin");
         try
         {
-            CommandResponse response = cmd.execute(connection, webdavUrlParts.getContainerPath());
-            if (response.getStatusCode() != 200)
+            if(items.size() == 1 && items.get(0).getRelativeDir().isEmpty())
             {
-                return false;
+                long start = System.nanoTime();
+                _uploaded.put(items.get(0), transferFile(webdavUrlParts, items.get(0).getPath(), connection));
+                long elapsed = System.nanoTime() - start;
+                LOG.info(String.format(Locale.US, "File uploaded (%s in %.1f seconds. Throughput: %s/s)", TransferPool.formatBytes(items.get(0).getSize()),
+                        elapsed / 1e9, TransferPool.formatBytes(TransferPool.bytesPerSecond(items.get(0).getSize(), elapsed))));
+                return true;
             }
+            return uploadFiles(webdavUrlParts, items, options.getThreadCount(), connection,
+                    getConnectionFactory(webdavUrlParts.getServerUrl(), options.getApiKey()));
         }
-        catch (IOException | CommandException e)
+        finally
+        {
+            if(_uploadIndex != null)
+            {
+                recordUploads(webdavUrlParts, connection);
+            }
+        }
+    }
+
+    /**
+     * Lists each target directory once and removes the files that are identical to the file on the server.
+     * @return the files that need to be uploaded
+     */
+    private List<UploadItem> skipIdenticalFiles(WebdavUrlParts webdavUrlParts, List<UploadItem> items, PanoramaConnection connection) throws ClientException
+    {
+        List<UploadItem> changed = new ArrayList<>();
+        long skippedBytes = 0;
+        for (Map.Entry<String, List<UploadItem>> dir : groupByDir(items).entrySet())
         {
-            if(e instanceof CommandException)
+            WebdavUrlParts target = getTarget(webdavUrlParts, dir.getKey());
+            Map<String, RemoteFile> remoteFiles = listRemoteFiles(target, connection);
+            for (UploadItem item : dir.getValue())
             {
-                CommandException ex = (CommandException)e;
-                if(ex.getStatusCode() == 404)
+                String name = item.getPath().getFileName().toString();
+                if(_uploadIndex.isIdentical(item.getPath(), getRemoteUrl(target, name), remoteFiles.get(name)))
+                {
+                    skippedBytes += item.getSize();
+                }
+                else
                 {
-                    return false;
+                    changed.add(item);
                 }
-                ClientException clEx = WebDavCommand.getIfPermissionsException(webdavUrlParts.getContainerPath(), ex);
-                if(clEx != null) throw clEx;
             }
-            throw new ClientException("Error checking if folder exists: '"
-                    + webdavUrlParts.getContainerPath()
-                    + "'. Error was: " + e.getMessage(), e);
         }
-        return true;
+        _uploadIndex.save(); // Saves the new times of files that were rewritten with the same content
+        LOG.info("Skipped " + (items.size() - changed.size()) + " of " + items.size() + " files that are identical to the files on the server ("
+                + TransferPool.formatBytes(skippedBytes) + " not transferred)");
+        return changed;
     }
 
-    private boolean webdavDirExists(WebdavUrlParts webdavUrlParts, Connection connection) throws ClientException
+    /**
+     * Adds the files that were uploaded to the upload index, with the size, last modified time and ETag that the
+     * server now reports for them. Errors are logged, since the files were uploaded.
+     */
+    private void recordUploads(WebdavUrlParts webdavUrlParts, PanoramaConnection connection)
     {
-        WebDavCommand.CheckWebdavPathExists cmd = new WebDavCommand.CheckWebdavPathExists();
+        Map<UploadItem, String> uploaded;
+        synchronized (_uploaded)
+        {
+            uploaded = new LinkedHashMap<>(_uploaded);
+        }
         try
         {
-            CommandResponse response = cmd.check(connection, webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp());
-            if (response.getStatusCode() != 200)
+            for (Map.Entry<String, List<UploadItem>> dir : groupByDir(new ArrayList<>(uploaded.keySet())).entrySet())
             {
-                return false;
+                WebdavUrlParts target = getTarget(webdavUrlParts, dir.getKey());
+                Map<String, RemoteFile> remoteFiles = listRemoteFiles(target, connection);
+                for (UploadItem item : dir.getValue())
+                {
+                    String name = item.getPath().getFileName().toString();
+                    RemoteFile remoteFile = remoteFiles.get(name);
+                    if(remoteFile != null)
+                    {
+                        _uploadIndex.record(item.getPath(), getRemoteUrl(target, name), remoteFile, uploaded.get(item));
+                    }
+                }
             }
+            _uploadIndex.save();
         }
-        catch (IOException | CommandException e)
+        catch (ClientException e)
         {
-            if(e instanceof CommandException && ((CommandException)e).getStatusCode() == 404)
-            {
-                return false;
-            }
-            throw new ClientException("Error checking if directory exists: "
-                    + webdavUrlParts.combinePartsQuoted()
-                    + ". Error was: " + e.getMessage(), e);
+            LOG.warn("Could not update the upload index. The files will be uploaded again by the next sync. Error was: " + e.getMessage());
         }
-        return true;
     }
 
-    private void createWebdavPath(WebdavUrlParts webdavUrlParts, Connection connection) throws ClientException
+    private static Map<String, List<UploadItem>> groupByDir(List<UploadItem> items)
     {
-        for (String path: webdavUrlParts.getWebdavPathParts())
+        Map<String, List<UploadItem>> dirs = new LinkedHashMap<>();
+        for (UploadItem item : items)
         {
-            WebdavUrlParts partWebdavPathUrl = new WebdavUrlParts(webdavUrlParts.getServerUrl(), webdavUrlParts.getContainerPath(), path);
-            tryTwiceCreateWebdavPath(connection, partWebdavPathUrl);
+            dirs.computeIfAbsent(item.getRelativeDir(), dir -> new ArrayList<>()).add(item);
         }
+        return dirs;
+    }
+
+    private static WebdavUrlParts getTarget(WebdavUrlParts webdavUrlParts, String relativeDir)
+    {
+        return relativeDir.isEmpty() ? webdavUrlParts : webdavUrlParts.appendToWebdavPath(relativeDir);
+    }
+
+    private static String getRemoteUrl(WebdavUrlParts target, String fileName)
+    {
+        String path = target.combineParts();
+        return target.getServerUrl() + "/" + (path.endsWith("/") ? path : path + "/") + fileName;
     }
 
-    private void tryTwiceCreateWebdavPath(Connection connection, WebdavUrlParts partWebdavPathUrl) throws ClientException
+    /**
+     * @return files in the directory by name. Empty if the directory does not exist.
+     */
+    private static Map<String, RemoteFile> listRemoteFiles(WebdavUrlParts target, PanoramaConnection connection) throws ClientException
     {
+        Map<String, RemoteFile> files = new HashMap<>();
         try
         {
-            createWebdavPath(connection, partWebdavPathUrl);
+            new WebDavCommand.ListFiles().list(connection, target.getContainerPath(), target.getPathInFwp(), new ListingParser.Handler()
+            {
+                @Override
+                public void file(RemoteFile file)
+                {
+                    files.put(file.getName(), file);
+                }
+
+                @Override
+                public void folder(String name) {}
+            });
         }
         catch (CommandException e)
         {
-            // An exception can be thrown if the two processes try to create a directory simultaneously (e.g. two processes running on the MacCoss lab's Cromwell server
-            // trying to upload files to the same directory on the Panorama server).
-            // Usually the error is: HTTP 405 Method Not Allowed response status code indicates that the request method is known by the server but is not supported by the target resource
-            LOG.warn("Error creating directory " + partWebdavPathUrl.combinePartsQuoted() + ". Error was: " + e.getMessage() + ". Trying again...");
-            try
+            if(e.getStatusCode() != 404)
+            {
+                throw new ClientException("Error getting a list of files in " + target.combinePartsQuoted() + ". Error was: " + e.getMessage(), e);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new ClientException("Error getting a list of files in " + target.combinePartsQuoted() + ". Error was: " + e.getMessage(), e);
+        }
+        return files;
+    }
+
+    /**
+     * Uploads the files in parallel. Subdirectories of the target directory that are needed for the files are created
+     * first. A failed upload does not stop the remaining uploads.
+     * @param connection connection used to create subdirectories
+     */
+    boolean uploadFiles(WebdavUrlParts webdavUrlParts, List<UploadItem> items, int threadCount, Connection connection,
+                        ConnectionFactory connectionFactory) throws ClientException
+    {
+        TreeSet<String> relativeDirs = new TreeSet<>();
+        for (UploadItem item : items)
+        {
+            if(!item.getRelativeDir().isEmpty())
             {
-                createWebdavPath(connection, partWebdavPathUrl);
+                relativeDirs.add(item.getRelativeDir());
             }
-            catch (CommandException ex)
+        }
+        // Subdirectories sort after their parents. Creating them first also marks the parents as existing, so a tree
+        // that is already on the server costs one request per leaf directory.
+        for (String dir : relativeDirs.descendingSet())
+        {
+            createWebdavPath(webdavUrlParts.appendToWebdavPath(dir), connection);
+        }
+
+        LOG.info("Uploading " + items.size() + " files to " + webdavUrlParts.combinePartsQuoted());
+        TransferPool pool = new TransferPool("upload", threadCount, connectionFactory);
+        TransferPool.Summary summary;
+        try
+        {
+            for (UploadItem item : items)
             {
-                throw new ClientException("Error creating directory on Panorama: " + partWebdavPathUrl.combinePartsQuoted() + ". Error was: " + e.getMessage(), e);
+                WebdavUrlParts target = getTarget(webdavUrlParts, item.getRelativeDir());
+                pool.submit(item.getPath().toString(), conn -> {
+                    _uploaded.put(item, transferFile(target, item.getPath(), conn));
+                    return item.getSize();
+                });
             }
         }
+        finally
+        {
+            summary = pool.awaitCompletion();
+        }
+        summary.log("Uploaded");
+        int failedCount = summary.getFailures().size();
+        if(failedCount > 0)
+        {
+            throw new ClientException(failedCount + " of " + items.size() + " files could not be uploaded to " + webdavUrlParts.combinePartsQuoted());
+        }
+        return true;
     }
 
-    private void createWebdavPath(Connection connection, WebdavUrlParts partWebdavPathUrl) throws ClientException, CommandException
+    /**
+     * @param srcPaths paths of files and directories. All the files in a directory are uploaded to the target directory.
+     * @param recursive also include files in subdirectories of the directories
+     */
+    static List<UploadItem> getUploadItems(List<String> srcPaths, boolean recursive) throws ClientException
     {
-        LOG.info("Checking if directory exists: " + partWebdavPathUrl.combinePartsQuoted());
-        if(webdavDirExists(partWebdavPathUrl, connection))
+        List<UploadItem> items = new ArrayList<>();
+        for (String srcPath : srcPaths)
         {
-            LOG.info("Directory exists: " + partWebdavPathUrl.combinePartsQuoted());
-            return;
+            File srcFile = new File(srcPath);
+            if(!srcFile.exists())
+            {
+                throw new ClientException("Source file does not exist: " + srcPath);
+            }
+            if(srcFile.isFile())
+            {
+                items.add(new UploadItem(srcFile.toPath(), "", srcFile.length()));
+            }
+            else if(srcFile.isDirectory())
+            {
+                Path dir = srcFile.toPath();
+                try (Stream<Path> files = Files.walk(dir, recursive ? Integer.MAX_VALUE : 1))
+                {
+                    for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile).sorted()::iterator)
+                    {
+                        String relativeDir = dir.relativize(file.getParent()).toString().replace(File.separatorChar, '/');
+                        items.add(new UploadItem(file, relativeDir, file.toFile().length()));
+                    }
+                }
+                catch (IOException | UncheckedIOException e)
+                {
+                    throw new ClientException("Error reading directory " + srcPath + ". Error was: " + e.getMessage(), e);
+                }
+            }
+            else
+            {
+                throw new ClientException("Not a file " + srcPath);
+            }
         }
+        return items;
+    }
 
-        WebDavCommand.CreateDir cmd = new WebDavCommand.CreateDir();
-        LOG.info("Creating directory: " + partWebdavPathUrl.combinePartsQuoted());
+    static class UploadItem
+    {
+        private final Path _path;
+        private final String _relativeDir;
+        private final long _size;
+
+        /**
+         * @param relativeDir directory, relative to the target directory, that the file is uploaded to. Empty for the
+         *                    target directory.
+         */
+        UploadItem(Path path, String relativeDir, long size)
+        {
+            _path = path;
+            _relativeDir = relativeDir;
+            _size = size;
+        }
+
+        Path getPath()
+        {
+            return _path;
+        }
+
+        String getRelativeDir()
+        {
+            return _relativeDir;
+        }
+
+        long getSize()
+        {
+            return _size;
+        }
+    }
+
+    private boolean webdavDirExists(WebdavUrlParts webdavUrlParts, PanoramaConnection connection) throws ClientException
+    {
+        WebDavCommand.Stat cmd = new WebDavCommand.Stat();
         try
         {
-            CommandResponse response = cmd.create(connection, partWebdavPathUrl.getContainerPath(), partWebdavPathUrl.getPathInFwp());
-            if (response.getStatusCode() != 201)
+            WebDavCommand.StatResponse response = cmd.stat(connection, webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp());
+            return response.exists() && response.isCollection();
+        }
+        catch (IOException | CommandException e)
+        {
+            throw new ClientException("Error checking if directory exists: "
+                    + webdavUrlParts.combinePartsQuoted()
+                    + ". Error was: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates the directory and any missing parent directories. MKCOL is sent for the deepest directory first, and
+     * parent directories are only created if the server answers 409 (Conflict), which it does when the parent does
+     * not exist. 405 (Method Not Allowed) means that the directory already exists. Directories that were created, or
+     * found to exist, are remembered for the rest of the process, so that they are not requested again.
+     */
+    public void createWebdavPath(WebdavUrlParts webdavUrlParts, Connection connection) throws ClientException
+    {
+        List<String> paths = webdavUrlParts.getWebdavPathParts();
+        createWebdavPath(webdavUrlParts, paths, paths.size() - 1, connection);
+    }
+
+    /**
+     * @param paths the path of the directory and its parents, parents first
+     * @param level index in paths of the directory to create
+     */
+    private void createWebdavPath(WebdavUrlParts webdavUrlParts, List<String> paths, int level, Connection connection) throws ClientException
+    {
+        if(level < 0)
+        {
+            return; // The file root always exists
+        }
+        WebdavUrlParts dir = new WebdavUrlParts(webdavUrlParts.getServerUrl(), webdavUrlParts.getContainerPath(), paths.get(level));
+        if(isKnownDir(dir))
+        {
+            return;
+        }
+
+        int status = mkcol(dir, connection);
+        if(status == 409)
+        {
+            createWebdavPath(webdavUrlParts, paths, level - 1, connection);
+            status = mkcol(dir, connection);
+        }
+        if(status != 201 && status != 405)
+        {
+            // An error can be returned if two processes try to create a directory simultaneously (e.g. two processes running on the MacCoss lab's
+            // Cromwell server trying to upload files to the same directory on the Panorama server).
+            LOG.warn("Error creating directory " + dir.combinePartsQuoted() + ". HTTP status code: " + status + ". Trying again...");
+            status = mkcol(dir, connection);
+            if(status != 201 && status != 405)
             {
-                throw new ClientException("Could not create directory " + partWebdavPathUrl.combinePartsQuoted()
-                        + ". HTTP status code: " + response.getStatusCode()
-                        + ". Response text: " + response.getText());
+                throw new ClientException("Error creating directory on Panorama: " + dir.combinePartsQuoted() + ". HTTP status code: " + status);
             }
         }
+        LOG.info((status == 201 ? "Created directory: " : "Directory exists: ") + dir.combinePartsQuoted());
+        for (int i = 0; i <= level; i++)
+        {
+            KNOWN_DIRS.add(getDirKey(new WebdavUrlParts(webdavUrlParts.getServerUrl(), webdavUrlParts.getContainerPath(), paths.get(i))));
+        }
+    }
+
+    /**
+     * @return HTTP status code of the MKCOL request
+     */
+    private static int mkcol(WebdavUrlParts dir, Connection connection) throws ClientException
+    {
+        WebDavCommand.CreateDir cmd = new WebDavCommand.CreateDir();
+        try
+        {
+            return cmd.create(connection, dir.getContainerPath(), dir.getPathInFwp()).getStatusCode();
+        }
+        catch (CommandException e)
+        {
+            return e.getStatusCode();
+        }
         catch (IOException e)
         {
-            throw new ClientException("Error creating directory on Panorama: " + partWebdavPathUrl.combinePartsQuoted() + ". Error was: " + e.getMessage(), e);
+            throw new ClientException("Error creating directory on Panorama: " + dir.combinePartsQuoted() + ". Error was: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Forgets the directories that were created, or found to exist. Used by tests.
+     */
+    public static void clearKnownDirs()
+    {
+        KNOWN_DIRS.clear();
+    }
+
+    private static boolean isKnownDir(WebdavUrlParts dir)
+    {
+        return dir.getWebdavPathParts().isEmpty() || KNOWN_DIRS.contains(getDirKey(dir));
+    }
+
+    private static String getDirKey(WebdavUrlParts dir)
+    {
+        List<String> paths = dir.getWebdavPathParts();
+        return dir.getServerUrl() + "/" + dir.getContainerPath() + "/" + (paths.isEmpty() ? "" : paths.get(paths.size() - 1));
+    }
+
+    /**
+     * Upload files with a WebDav PUT request that streams the file, instead of a multipart POST request.
+     * @param bufferSize size in bytes of the buffer used to read the file when uploading with PUT
+     */
+    void setPut(boolean put, int bufferSize)
+    {
+        _put = put;
+        _bufferSize = bufferSize;
+    }
+
+    /**
+     * Skip files that are identical to the file on the server, according to the index of files that were uploaded
+     * before. Files that are uploaded are added to the index.
+     */
+    void setUploadIndex(UploadIndex uploadIndex)
+    {
+        _uploadIndex = uploadIndex;
+    }
+
+    /**
+     * @return hex encoded SHA-256 hash of the bytes that were sent, if the upload index is used and the whole file
+     * was sent in this attempt, otherwise null
+     */
+    private String transferFile(WebdavUrlParts webdavUrlParts, Path srcFile, PanoramaConnection connection) throws ClientException
+    {
+        long size = srcFile.toFile().length();
+        UploadDigest digest = _uploadIndex != null ? new UploadDigest() : null;
+        if(_put)
+        {
+            putFile(webdavUrlParts, srcFile, connection, digest);
+        }
+        else
+        {
+            uploadFile(webdavUrlParts, srcFile.toString(), connection, digest);
+        }
+        return digest != null ? digest.getHex(size) : null;
+    }
+
+    void putFile(WebdavUrlParts webdavUrlParts, Path srcFile, PanoramaConnection connection) throws ClientException
+    {
+        putFile(webdavUrlParts, srcFile, connection, null);
+    }
+
+    private void putFile(WebdavUrlParts webdavUrlParts, Path srcFile, PanoramaConnection connection, UploadDigest digest) throws ClientException
+    {
+        LOG.info("Uploading " + srcFile + " to " + webdavUrlParts.combinePartsQuoted() + " with PUT");
+
+        WebDavCommand.Put cmd = new WebDavCommand.Put(_bufferSize);
+        try
+        {
+            cmd.put(connection, webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp(), srcFile, digest);
+        }
+        catch (IOException | CommandException e)
+        {
+            throw new ClientException("Error uploading file to " + webdavUrlParts.combinePartsQuoted() + ". Error was: " + e.getMessage(), e);
         }
     }
 
     void uploadFile(WebdavUrlParts webdavUrlParts, String srcFilePath, Connection connection) throws ClientException
+    {
+        uploadFile(webdavUrlParts, srcFilePath, connection, null);
+    }
+
+    private void uploadFile(WebdavUrlParts webdavUrlParts, String srcFilePath, Connection connection, UploadDigest digest) throws ClientException
     {
         LOG.info("Uploading " + srcFilePath + " to " + webdavUrlParts.combinePartsQuoted());
 
         WebDavCommand.Upload cmd = new WebDavCommand.Upload();
         try
         {
-            CommandResponse response = cmd.upload(connection, webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp(), srcFilePath);
+            CommandResponse response = cmd.upload(connection, webdavUrlParts.getContainerPath(), webdavUrlParts.getPathInFwp(), srcFilePath, digest);
             if (response.getStatusCode() != 200 && response.getStatusCode() != 207)
             {
                 throw new ClientException("File could not be uploaded. HTTP status code: " + response.getStatusCode() + ". Response text: " + response.getText());
@@ -0,0 +1,133 @@
+package edu.maccosslab.panoramaclient;
+
+import org.labkey.remoteapi.CommandException;
+import org.labkey.remoteapi.Connection;
+import org.labkey.remoteapi.security.GetContainersCommand;
+import org.labkey.remoteapi.security.GetContainersResponse;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks if a folder exists on the server with the project-getContainers API, without subfolders. Unlike project-begin,
+ * which renders the portal page of the folder, the response only describes the folder and the permissions of the user
+ * in it. A folder that was found is cached per server, folder path and credentials for the life of the process, so a
+ * batch of operations on the same folder checks it only once. Folders that were not found, and errors, are not cached,
+ * so that a later probe with other credentials, or after a transient error, asks the server again. Nothing is cached
+ * for a connection whose credentials are not known.
+ */
+public class ContainerProbe
+{
+    /** Permission bit for inserting data, which includes uploading files. The same as ACL.PERM_INSERT on the server. */
+    public static final int PERM_INSERT = 0x00000002;
+
+    private static final Map<String, Result> CACHE = new ConcurrentHashMap<>();
+
+    private ContainerProbe() {}
+
+    public static Result probe(LabKeyUrlParts urlParts, Connection connection) throws ClientException
+    {
+        String credentialsId = connection instanceof PanoramaConnection ? ((PanoramaConnection) connection).getCredentialsId() : null;
+        if (credentialsId == null)
+        {
+            return fetch(urlParts.getContainerPath(), connection);
+        }
+        String key = urlParts.getServerUrl() + "|" + normalize(urlParts.getContainerPath()) + "|" + credentialsId;
+        Result result = CACHE.get(key);
+        if (result == null)
+        {
+            result = fetch(urlParts.getContainerPath(), connection);
+            if (result.exists())
+            {
+                CACHE.putIfAbsent(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forgets the folders that were checked. Used by tests.
+     */
+    public static void clearCache()
+    {
+        CACHE.clear();
+    }
+
+    private static Result fetch(String containerPath, Connection connection) throws ClientException
+    {
+        GetContainersCommand cmd = new GetContainersCommand();
+        cmd.setIncludeSubfolders(false);
+        try
+        {
+            GetContainersResponse response = cmd.execute(connection, containerPath);
+            if (response.getStatusCode() != 200)
+            {
+                return new Result(false, -1);
+            }
+            Integer permissions = response.getUserPermissions();
+            return new Result(true, permissions != null ? permissions : -1);
+        }
+        catch (IOException | CommandException e)
+        {
+            if (e instanceof CommandException)
+            {
+                CommandException ex = (CommandException) e;
+                if (ex.getStatusCode() == 404)
+                {
+                    return new Result(false, -1);
+                }
+                ClientException clEx = WebDavCommand.getIfPermissionsException(containerPath, ex);
+                if (clEx != null) throw clEx;
+            }
+            throw new ClientException("Error checking if folder exists: '" + containerPath + "'. Error was: " + e.getMessage(), e);
+        }
+    }
+
+    private static String normalize(String containerPath)
+    {
+        String path = containerPath == null ? "" : containerPath.replace('\\', '/');
+        while (path.startsWith("/"))
+        {
+            path = path.substring(1);
+        }
+        while (path.endsWith("/"))
+        {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path.toLowerCase();
+    }
+
+    public static class Result
+    {
+        private final boolean _exists;
+        private final int _userPermissions;
+
+        Result(boolean exists, int userPermissions)
+        {
+            _exists = exists;
+            _userPermissions = userPermissions;
+        }
+
+        public boolean exists()
+        {
+            return _exists;
+        }
+
+        /**
+         * @return the permission bits of the user in the folder, or -1 if the server did not return them
+         */
+        public int getUserPermissions()
+        {
+            return _userPermissions;
+        }
+
+        /**
+         * @return false only if the server reported the permissions of the user, and they do not include insert
+         */
+        public boolean canInsert()
+        {
+            return _userPermissions < 0 || (_userPermissions & PERM_INSERT) != 0;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package edu.maccosslab.panoramaclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Local file helpers shared by the download, upload and cache code.
+ */
+final class FileHelper
+{
+    private FileHelper() {}
+
+    /**
+     * Moves source to target, replacing the target if it exists. The move is atomic if the file system supports it,
+     * so that a reader never sees a partly written target.
+     */
+    static void moveReplacing(Path source, Path target) throws IOException
+    {
+        try
+        {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the properties to a new temporary file next to the file, and then moves it over the file, so that a crash
+     * while writing does not leave a truncated file. Each call writes its own temporary file, so processes that save the
+     * same file at the same time do not write into each other's file; the last move wins.
+     */
+    static void storeProperties(Properties props, Path file, String comment) throws IOException
+    {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try
+        {
+            try (OutputStream out = Files.newOutputStream(temp))
+            {
+                props.store(out, comment);
+            }
+            moveReplacing(temp, file);
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static MessageDigest newSha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e); // Every JVM supports SHA-256
+        }
+    }
+
+    /**
+     * @return hex encoded SHA-256 hash of the UTF-8 bytes of the value
+     */
+    static String sha256Hex(String value)
+    {
+        return toHex(newSha256().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String toHex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,328 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.log4j.Logger;
+import org.labkey.remoteapi.CommandException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks a WebDav folder and its subfolders. Folders are listed concurrently by a bounded number of threads, and
+ * each file is passed to the Visitor as soon as the folder that contains it has been listed, so that work on the
+ * files (e.g. downloads) can start while the rest of the tree is still being listed.
+ * A folder that cannot be listed does not stop the walk; errors are returned in the Summary.
+ * Optionally the whole tree is listed with a single PROPFIND request, which saves a round trip per folder.
+ */
+public class FolderWalker
+{
+    private static final Logger LOG = Logger.getLogger(FolderWalker.class);
+
+    public static final int DEFAULT_THREAD_COUNT = 4;
+
+    private final int _threadCount;
+    private final ClientAction.ConnectionFactory _connectionFactory;
+    private final boolean _singleRequest;
+    private ListingCache _listingCache;
+    private final WebDavCommand.ListFiles _listFiles = new WebDavCommand.ListFiles(); // Shared by the listing threads
+
+    public FolderWalker(int threadCount, ClientAction.ConnectionFactory connectionFactory)
+    {
+        this(threadCount, connectionFactory, false);
+    }
+
+    /**
+     * @param singleRequest list the whole tree with one PROPFIND request (Depth: infinity) instead of one request per
+     *                      folder. Falls back to listing one folder at a time if the server does not allow it.
+     */
+    public FolderWalker(int threadCount, ClientAction.ConnectionFactory connectionFactory, boolean singleRequest)
+    {
+        if (threadCount < 1)
+        {
+            throw new IllegalArgumentException("Thread count must be at least 1. Found " + threadCount);
+        }
+        _threadCount = threadCount;
+        _connectionFactory = connectionFactory;
+        _singleRequest = singleRequest;
+    }
+
+    /**
+     * Folder listings are read from, and added to, this cache when folders are listed one at a time.
+     * The PROPFIND listing of the whole tree is not cached.
+     */
+    public void setListingCache(ListingCache listingCache)
+    {
+        _listingCache = listingCache;
+    }
+
+    public interface Visitor
+    {
+        /**
+         * Called from the listing threads, so implementations must be thread-safe and should not block for long.
+         * @param relativeFolderPath path of the folder that contains the file, relative to the folder where the walk
+         *                           started. Empty for files in the starting folder.
+         */
+        void visitFile(String relativeFolderPath, RemoteFile file) throws ClientException;
+    }
+
+    /**
+     * Lists the folder and all its subfolders, and waits for the walk to finish.
+     * @param filter only files accepted by the filter are passed to the visitor
+     */
+    public Summary walk(String containerPath, String fwpFolderPath, RemoteFileFilter filter, Visitor visitor) throws ClientException
+    {
+        Walk walk = new Walk(containerPath, fwpFolderPath, filter, visitor);
+        PanoramaConnection.reserveConnections(_threadCount);
+        try
+        {
+            return walk.run();
+        }
+        finally
+        {
+            PanoramaConnection.releaseConnections(_threadCount);
+        }
+    }
+
+    private class Walk
+    {
+        private final String _containerPath;
+        private final String _rootPath;
+        private final RemoteFileFilter _filter;
+        private final Visitor _visitor;
+        private final ExecutorService _executor;
+        private final AtomicInteger _pending = new AtomicInteger();
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private final ConcurrentLinkedQueue<PanoramaConnection> _idleConnections = new ConcurrentLinkedQueue<>();
+        private final List<String> _errors = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger _folderCount = new AtomicInteger();
+        private final AtomicInteger _fileCount = new AtomicInteger();
+
+        Walk(String containerPath, String rootPath, RemoteFileFilter filter, Visitor visitor)
+        {
+            _containerPath = containerPath;
+            _rootPath = rootPath;
+            _filter = filter;
+            _visitor = visitor;
+            _executor = TransferThreads.newExecutor("list", _threadCount);
+        }
+
+        Summary run() throws ClientException
+        {
+            if (_singleRequest && listTree())
+            {
+                _executor.shutdownNow();
+                return new Summary(_folderCount.get(), _fileCount.get(), new ArrayList<>(_errors));
+            }
+
+            submit("");
+            try
+            {
+                _done.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new ClientException("Interrupted while listing folders in container '" + _containerPath + "'", e);
+            }
+            finally
+            {
+                _executor.shutdownNow();
+            }
+            return new Summary(_folderCount.get(), _fileCount.get(), new ArrayList<>(_errors));
+        }
+
+        /**
+         * Lists the whole tree with a single PROPFIND request.
+         * @return false if the server rejected the request before any entries were read, and the tree should be
+         * listed one folder at a time instead
+         */
+        private boolean listTree()
+        {
+            AtomicBoolean started = new AtomicBoolean();
+            try
+            {
+                PanoramaConnection connection = _connectionFactory.create();
+                new WebDavCommand.Propfind(WebDavCommand.Propfind.DEPTH_INFINITY).list(connection, _containerPath, _rootPath, new PropfindParser.Handler()
+                {
+                    @Override
+                    public void file(String relativeFolderPath, RemoteFile file) throws ClientException
+                    {
+                        started.set(true);
+                        if (isSafePath(relativeFolderPath))
+                        {
+                            visit(relativeFolderPath, join(_rootPath, relativeFolderPath), file);
+                        }
+                    }
+
+                    @Override
+                    public void folder(String relativePath)
+                    {
+                        started.set(true);
+                        _folderCount.incrementAndGet();
+                    }
+                });
+                _folderCount.incrementAndGet();
+                return true;
+            }
+            catch (IOException | CommandException | ClientException e)
+            {
+                if (!started.get())
+                {
+                    LOG.warn("Could not list the folder tree with a single PROPFIND request. Listing one folder at a time. Error was: " + e.getMessage());
+                    return false;
+                }
+                String error = "Error listing folder '" + _rootPath + "' in container '" + _containerPath + "': " + e.getMessage();
+                LOG.error(error);
+                _errors.add(error);
+                return true;
+            }
+        }
+
+        private void visit(String relativeFolderPath, String folderPath, RemoteFile file) throws ClientException
+        {
+            if (!isSafeName(file.getName()))
+            {
+                LOG.warn("Skipping file with an invalid name: " + join(folderPath, file.getName()));
+            }
+            else if (_filter.accept(join(relativeFolderPath, file.getName()), file))
+            {
+                _fileCount.incrementAndGet();
+                _visitor.visitFile(relativeFolderPath, file);
+            }
+        }
+
+        private void submit(String relativePath)
+        {
+            // Subfolders are submitted before the task that found them finishes, so the count only reaches 0 when the walk is done.
+            _pending.incrementAndGet();
+            _executor.execute(() -> {
+                try
+                {
+                    listFolder(relativePath);
+                }
+                finally
+                {
+                    if (_pending.decrementAndGet() == 0)
+                    {
+                        _done.countDown();
+                    }
+                }
+            });
+        }
+
+        private void listFolder(String relativePath)
+        {
+            String folderPath = join(_rootPath, relativePath);
+            PanoramaConnection connection = null;
+            try
+            {
+                connection = _idleConnections.poll();
+                if (connection == null)
+                {
+                    connection = _connectionFactory.create();
+                }
+                _listFiles.list(connection, new WebDavCommand.Request(_containerPath, folderPath), _listingCache, new ListingParser.Handler()
+                {
+                    @Override
+                    public void file(RemoteFile file) throws ClientException
+                    {
+                        visit(relativePath, folderPath, file);
+                    }
+
+                    @Override
+                    public void folder(String name)
+                    {
+                        if (isSafeName(name))
+                        {
+                            submit(join(relativePath, name));
+                        }
+                        else
+                        {
+                            LOG.warn("Skipping folder with an invalid name: " + join(folderPath, name));
+                        }
+                    }
+                });
+                _folderCount.incrementAndGet();
+            }
+            catch (IOException | CommandException | ClientException e)
+            {
+                String error = "Error listing folder '" + folderPath + "' in container '" + _containerPath + "': " + e.getMessage();
+                LOG.error(error);
+                _errors.add(error);
+            }
+            finally
+            {
+                if (connection != null)
+                {
+                    _idleConnections.offer(connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * Names come from the server and are used to build local paths, so reject names that could point outside the folder.
+     */
+    private static boolean isSafeName(String name)
+    {
+        return name != null && name.length() > 0 && !name.equals(".") && !name.equals("..")
+                && name.indexOf('/') == -1 && name.indexOf('\\') == -1;
+    }
+
+    private static boolean isSafePath(String relativePath)
+    {
+        if (relativePath.isEmpty())
+        {
+            return true;
+        }
+        for (String name : relativePath.split("/", -1))
+        {
+            if (!isSafeName(name))
+            {
+                LOG.warn("Skipping files in a folder with an invalid name: " + relativePath);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String join(String parent, String child)
+    {
+        return parent.length() > 0 ? parent + "/" + child : child;
+    }
+
+    public static class Summary
+    {
+        private final int _folderCount;
+        private final int _fileCount;
+        private final List<String> _errors;
+
+        Summary(int folderCount, int fileCount, List<String> errors)
+        {
+            _folderCount = folderCount;
+            _fileCount = fileCount;
+            _errors = errors;
+        }
+
+        public int getFolderCount()
+        {
+            return _folderCount;
+        }
+
+        public int getFileCount()
+        {
+            return _fileCount;
+        }
+
+        public List<String> getErrors()
+        {
+            return _errors;
+        }
+    }
+}
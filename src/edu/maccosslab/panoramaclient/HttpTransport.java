@@ -0,0 +1,37 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Engine that sends the requests built by WebDavCommand. Requests and responses use the Apache HttpClient types that
+ * the commands are written against, so an engine can be swapped without changing the commands. The engine is chosen
+ * with the system property "panoramaclient.http.engine" (see {@link TransportConfig}), or with
+ * {@link PanoramaConnection#setTransport(HttpTransport)}.
+ * <p>
+ * LabKey API commands that are executed with Command.execute() always use the Apache HttpClient of the connection.
+ */
+public interface HttpTransport
+{
+    /**
+     * @return name of the engine for log messages, e.g. "apache"
+     */
+    String getName();
+
+    /**
+     * @param context context to which the connection's credentials provider has added the credentials for the request
+     * @return the response. The caller must close the response.
+     */
+    CloseableHttpResponse execute(PanoramaConnection connection, HttpUriRequest request, HttpClientContext context) throws IOException;
+
+    /**
+     * Like {@link #execute(PanoramaConnection, HttpUriRequest, HttpClientContext)}, but does not block the calling
+     * thread. The future completes when the response headers have been received; the body is read from the entity
+     * of the response. Cancelling the future aborts the request.
+     */
+    CompletableFuture<CloseableHttpResponse> executeAsync(PanoramaConnection connection, HttpUriRequest request, HttpClientContext context);
+}
@@ -0,0 +1,482 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.methods.AbstractExecutionAwareRequest;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.log4j.Logger;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Sends requests with java.net.http.HttpClient. Over HTTPS the client negotiates HTTP/2 with ALPN, and concurrent
+ * requests to the same server (e.g. the files of a parallel upload, or the PROPFIND and HEAD requests of a sync) are
+ * multiplexed as streams of a single TLS connection instead of each taking a connection from the pool. Servers that only
+ * speak HTTP/1.1 are handled by the same client. Select it with -Dpanoramaclient.http.engine=jdk.
+ * <p>
+ * The client is shared by all connections, but cookies are kept per connection, so a session cookie received with one
+ * API key is never sent with another. Redirects are not followed, as with the Apache engine for WebDAV methods, so the
+ * commands see the 301 or 302 response (e.g. Stat retries a folder with a trailing slash).
+ * <p>
+ * The commands build Apache HttpClient requests; they are converted here, and the responses are wrapped so that the
+ * commands read them as they read responses from the Apache engine.
+ */
+public class JdkHttpTransport implements HttpTransport
+{
+    private static final Logger LOG = Logger.getLogger(JdkHttpTransport.class);
+
+    public static final String NAME = "jdk";
+
+    // Headers that java.net.http.HttpClient sets itself and does not allow on a request
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade",
+            "keep-alive", "transfer-encoding", "te");
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "jdk-http-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    private static volatile HttpClient _client;
+
+    // Writes request bodies that can only be written to a stream, e.g. multipart bodies
+    private static final ExecutorService BODY_WRITER = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "jdk-http-body-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    private static HttpClient getClient()
+    {
+        if (_client == null)
+        {
+            synchronized (JdkHttpTransport.class)
+            {
+                if (_client == null)
+                {
+                    _client = HttpClient.newBuilder()
+                            .version(HttpClient.Version.HTTP_2)
+                            .followRedirects(HttpClient.Redirect.NEVER)
+                            .connectTimeout(Duration.ofMinutes(1))
+                            .build();
+                    LOG.debug("Created java.net.http.HttpClient for HTTP/2");
+                }
+            }
+        }
+        return _client;
+    }
+
+    @Override
+    public CloseableHttpResponse execute(PanoramaConnection connection, HttpUriRequest request, HttpClientContext context) throws IOException
+    {
+        CompletableFuture<CloseableHttpResponse> future = executeAsync(connection, request, context);
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response to " + request.getMethod() + " " + request.getURI());
+        }
+        catch (CancellationException e)
+        {
+            throw new IOException("Request was aborted: " + request.getMethod() + " " + request.getURI());
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<CloseableHttpResponse> executeAsync(PanoramaConnection connection, HttpUriRequest request, HttpClientContext context)
+    {
+        int timeout = getSocketTimeout(connection, request);
+        HttpRequest jdkRequest;
+        try
+        {
+            jdkRequest = toJdkRequest(connection, request, context, timeout);
+        }
+        catch (IOException e)
+        {
+            return CompletableFuture.failedFuture(e);
+        }
+        // Cancelling the future returned by sendAsync() cancels the exchange
+        CompletableFuture<HttpResponse<InputStream>> sent = getClient().sendAsync(jdkRequest, HttpResponse.BodyHandlers.ofInputStream());
+        if (request instanceof AbstractExecutionAwareRequest)
+        {
+            // request.abort() cancels the exchange, or closes the body if the response has been received
+            ((AbstractExecutionAwareRequest) request).setCancellable(() -> {
+                sent.cancel(true);
+                sent.thenAccept(response -> closeQuietly(response.body()));
+                return true;
+            });
+        }
+        CompletableFuture<CloseableHttpResponse> future = sent.thenApply(response -> {
+            storeCookies(connection, response);
+            return new Response(response, timeout);
+        });
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled())
+            {
+                sent.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    private static void closeQuietly(InputStream in)
+    {
+        try
+        {
+            in.close();
+        }
+        catch (IOException ignored) {}
+    }
+
+    /**
+     * @return milliseconds without data after which the request fails, as the Apache client uses them: the socket
+     * timeout of the request if it has one, otherwise the timeout of the connection. 0 waits indefinitely.
+     */
+    private static int getSocketTimeout(PanoramaConnection connection, HttpUriRequest request)
+    {
+        if (request instanceof Configurable && ((Configurable) request).getConfig() != null)
+        {
+            int timeout = ((Configurable) request).getConfig().getSocketTimeout();
+            if (timeout >= 0)
+            {
+                return timeout;
+            }
+        }
+        return connection.getTimeout();
+    }
+
+    private static HttpRequest toJdkRequest(PanoramaConnection connection, HttpUriRequest request, HttpClientContext context, int timeout) throws IOException
+    {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getURI());
+        for (Header header : request.getAllHeaders())
+        {
+            if (!RESTRICTED_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT)))
+            {
+                builder.header(header.getName(), header.getValue());
+            }
+        }
+        addBasicCredentials(builder, request, context);
+        addCookies(builder, connection, request);
+
+        if (request instanceof Configurable && ((Configurable) request).getConfig() != null)
+        {
+            builder.expectContinue(((Configurable) request).getConfig().isExpectContinueEnabled());
+        }
+        if (timeout > 0)
+        {
+            // Time until the response headers are received. Reading the body is limited by TimeoutInputStream.
+            builder.timeout(Duration.ofMillis(timeout));
+        }
+
+        HttpEntity entity = request instanceof HttpEntityEnclosingRequest ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+        if (entity == null)
+        {
+            builder.method(request.getMethod(), HttpRequest.BodyPublishers.noBody());
+        }
+        else
+        {
+            if (entity.getContentType() != null && request.getFirstHeader(HttpHeaders.CONTENT_TYPE) == null)
+            {
+                builder.header(HttpHeaders.CONTENT_TYPE, entity.getContentType().getValue());
+            }
+            long length = entity.getContentLength();
+            if (length == 0)
+            {
+                // fromPublisher does not accept a length of 0, e.g. for the upload of an empty file
+                builder.method(request.getMethod(), HttpRequest.BodyPublishers.noBody());
+            }
+            else
+            {
+                HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.ofInputStream(getContent(entity));
+                builder.method(request.getMethod(), length > 0 ? HttpRequest.BodyPublishers.fromPublisher(body, length) : body);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * The Apache client answers a Basic authentication challenge with the credentials in the context (e.g. from a
+     * .netrc file). The JDK client does not use that context, so the credentials are sent with the first request.
+     * API keys are added as a request header by the credentials provider, and are copied with the other headers.
+     */
+    private static void addBasicCredentials(HttpRequest.Builder builder, HttpUriRequest request, HttpClientContext context)
+    {
+        if (context.getCredentialsProvider() == null || request.getFirstHeader(HttpHeaders.AUTHORIZATION) != null)
+        {
+            return;
+        }
+        URI uri = request.getURI();
+        Credentials credentials = context.getCredentialsProvider().getCredentials(new AuthScope(uri.getHost(), uri.getPort()));
+        if (credentials != null && credentials.getUserPrincipal() != null && credentials.getPassword() != null)
+        {
+            String userPass = credentials.getUserPrincipal().getName() + ":" + credentials.getPassword();
+            builder.header(HttpHeaders.AUTHORIZATION, "Basic " + Base64.getEncoder().encodeToString(userPass.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Adds the cookies that the connection received from the server. The shared client has no cookie handler.
+     */
+    private static void addCookies(HttpRequest.Builder builder, PanoramaConnection connection, HttpUriRequest request) throws IOException
+    {
+        if (request.getFirstHeader("Cookie") != null)
+        {
+            return;
+        }
+        for (Map.Entry<String, List<String>> header : connection.getCookieManager().get(request.getURI(), Map.of()).entrySet())
+        {
+            if (!header.getValue().isEmpty())
+            {
+                builder.header(header.getKey(), String.join("; ", header.getValue()));
+            }
+        }
+    }
+
+    private static void storeCookies(PanoramaConnection connection, HttpResponse<?> response)
+    {
+        try
+        {
+            connection.getCookieManager().put(response.request().uri(), response.headers().map());
+        }
+        catch (IOException e)
+        {
+            LOG.debug("Could not store the cookies of the response to " + response.request().uri() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return supplier of the request body. Entities that cannot be read as a stream (e.g. multipart bodies) are written
+     * to a pipe by another thread.
+     */
+    private static Supplier<InputStream> getContent(HttpEntity entity)
+    {
+        return () -> {
+            try
+            {
+                return entity.getContent();
+            }
+            catch (UnsupportedOperationException e)
+            {
+                return pipe(entity);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private static InputStream pipe(HttpEntity entity)
+    {
+        try
+        {
+            PipedInputStream in = new PipedInputStream(64 * 1024);
+            PipedOutputStream out = new PipedOutputStream(in);
+            CompletableFuture<Void> written = CompletableFuture.runAsync(() -> {
+                try (out)
+                {
+                    entity.writeTo(out);
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }, BODY_WRITER);
+            return new FilterInputStream(in)
+            {
+                @Override
+                public void close() throws IOException
+                {
+                    super.close();
+                    try
+                    {
+                        written.get();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    catch (ExecutionException e)
+                    {
+                        throw new IOException("Error writing the request body: " + e.getCause().getMessage(), e.getCause());
+                    }
+                }
+            };
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Response of the JDK client presented as an Apache response. Closing it closes the body stream, which releases the
+     * HTTP/2 stream or the HTTP/1.1 connection.
+     */
+    private static class Response extends BasicHttpResponse implements CloseableHttpResponse
+    {
+        private final InputStream _body;
+
+        Response(HttpResponse<InputStream> response, int timeout)
+        {
+            super(response.version() == HttpClient.Version.HTTP_2 ? HTTP_2 : HttpVersion.HTTP_1_1, response.statusCode(),
+                    EnglishReasonPhraseCatalog.INSTANCE.getReason(response.statusCode(), Locale.ENGLISH));
+            _body = timeout > 0 ? new TimeoutInputStream(response.body(), timeout) : response.body();
+            for (Map.Entry<String, List<String>> header : response.headers().map().entrySet())
+            {
+                if (header.getKey().startsWith(":"))
+                {
+                    continue; // HTTP/2 pseudo-header
+                }
+                for (String value : header.getValue())
+                {
+                    addHeader(header.getKey(), value);
+                }
+            }
+            long length = response.headers().firstValueAsLong(HttpHeaders.CONTENT_LENGTH).orElse(-1);
+            InputStreamEntity entity = new InputStreamEntity(_body, length);
+            response.headers().firstValue(HttpHeaders.CONTENT_TYPE).ifPresent(entity::setContentType);
+            response.headers().firstValue(HttpHeaders.CONTENT_ENCODING).ifPresent(entity::setContentEncoding);
+            setEntity(entity);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            _body.close();
+        }
+    }
+
+    /**
+     * Fails a read of the response body when no data has arrived for the given time, like the socket timeout of the
+     * Apache client. Without it a download from a server that stops sending would wait forever. The stream is closed
+     * by a shared timer thread, which makes the blocked read throw an IOException.
+     */
+    private static class TimeoutInputStream extends FilterInputStream
+    {
+        private final long _timeoutNanos;
+        private final ScheduledFuture<?> _check;
+        private volatile long _lastProgress = System.nanoTime();
+        private volatile boolean _reading;
+        private volatile boolean _timedOut;
+
+        TimeoutInputStream(InputStream in, int timeoutMillis)
+        {
+            super(in);
+            _timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            long period = Math.max(100, Math.min(timeoutMillis / 4, 1000));
+            _check = TIMER.scheduleWithFixedDelay(this::checkTimeout, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        private void checkTimeout()
+        {
+            if (_reading && System.nanoTime() - _lastProgress > _timeoutNanos)
+            {
+                _timedOut = true;
+                try
+                {
+                    close();
+                }
+                catch (IOException ignored) {}
+            }
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            _lastProgress = System.nanoTime();
+            _reading = true;
+            try
+            {
+                int read = super.read(b, off, len);
+                _lastProgress = System.nanoTime();
+                return read;
+            }
+            catch (IOException e)
+            {
+                if (_timedOut)
+                {
+                    throw new SocketTimeoutException("No data received for " + TimeUnit.NANOSECONDS.toMillis(_timeoutNanos) + " ms");
+                }
+                throw e;
+            }
+            finally
+            {
+                _reading = false;
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            _check.cancel(false);
+            super.close();
+        }
+    }
+}
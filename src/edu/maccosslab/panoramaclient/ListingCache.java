@@ -0,0 +1,392 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of the folder listings returned by WebDavCommand.ListFiles. Entries are keyed by the listing URL,
+ * which includes the server, container and FWP folder path, and by the id of the credentials that fetched the listing
+ * ({@link PanoramaConnection#getCredentialsId()}). A listing is never read with other credentials than the ones that
+ * fetched it, since the files that can be seen depend on the user.
+ * <p>
+ * A listing that was fetched or revalidated less than the time-to-live ago is read from disk without contacting the
+ * server. An older listing is sent back to the server with If-None-Match / If-Modified-Since; if the server answers
+ * 304 (Not Modified) the cached listing is used. When the cache grows past its size limit the entries that were
+ * least recently fetched or revalidated are deleted.
+ * <p>
+ * The listing is written to the cache while it is being parsed, so caching does not hold the listing in memory.
+ * Entries are written to a temporary file and moved into place, so concurrent runs never read a partial entry.
+ */
+public class ListingCache
+{
+    private static final Logger LOG = Logger.getLogger(ListingCache.class);
+
+    public static final long DEFAULT_MAX_SIZE_MB = 100;
+
+    private static final int FORMAT_VERSION = 2;
+    private static final String SUFFIX = ".listing";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path _dir;
+    private final long _ttlMillis;
+    private final long _maxBytes;
+
+    private final AtomicInteger _hits = new AtomicInteger();
+    private final AtomicInteger _revalidated = new AtomicInteger();
+    private final AtomicInteger _misses = new AtomicInteger();
+
+    /**
+     * @param dir folder for the cache files. Created if it does not exist.
+     * @param ttlSeconds number of seconds a listing is used without asking the server. With 0 every listing is revalidated.
+     * @param maxSizeMb maximum size of the cache in MB
+     */
+    public ListingCache(Path dir, long ttlSeconds, long maxSizeMb)
+    {
+        _dir = dir;
+        _ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        _maxBytes = maxSizeMb * 1024 * 1024;
+    }
+
+    /**
+     * @return ~/.panoramaclient/listing-cache
+     */
+    public static Path getDefaultDir()
+    {
+        return Paths.get(System.getProperty("user.home"), ".panoramaclient", "listing-cache");
+    }
+
+    /**
+     * @return the listing for the URL cached for the credentials, or null if there is none
+     */
+    Entry get(URI uri, String credentialsId)
+    {
+        Path path = getPath(uri, credentialsId);
+        if (!Files.isRegularFile(path))
+        {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path))))
+        {
+            if (in.readInt() != FORMAT_VERSION || !uri.toString().equals(in.readUTF()) || !credentialsId.equals(in.readUTF()))
+            {
+                return null;
+            }
+            return new Entry(path, in.readUTF(), in.readUTF(), in.readUTF(), Files.getLastModifiedTime(path).toMillis());
+        }
+        catch (IOException e)
+        {
+            LOG.debug("Could not read cached listing " + path + ": " + e.getMessage());
+            remove(path);
+            return null;
+        }
+    }
+
+    /**
+     * Starts a new entry for the URL and credentials. Bytes read through {@link EntryWriter#tee(InputStream)} are
+     * written to the entry, which replaces any existing entry for the URL and credentials when it is committed.
+     * @param credentialsId id of the credentials that fetched the listing
+     * @param etag ETag header of the response, or null
+     * @param lastModified Last-Modified header of the response, or null
+     */
+    EntryWriter newEntry(URI uri, String credentialsId, String etag, String lastModified, Charset charset) throws IOException
+    {
+        Files.createDirectories(_dir);
+        Path temp = Files.createTempFile(_dir, null, TEMP_SUFFIX);
+        EntryWriter writer = new EntryWriter(getPath(uri, credentialsId), temp);
+        writer._out.writeInt(FORMAT_VERSION);
+        writer._out.writeUTF(uri.toString());
+        writer._out.writeUTF(credentialsId);
+        writer._out.writeUTF(etag != null ? etag : "");
+        writer._out.writeUTF(lastModified != null ? lastModified : "");
+        writer._out.writeUTF(charset.name());
+        return writer;
+    }
+
+    void hit()
+    {
+        _hits.incrementAndGet();
+    }
+
+    void miss()
+    {
+        _misses.incrementAndGet();
+    }
+
+    /**
+     * Called when the server confirmed that the cached listing is unchanged. Resets the age of the entry.
+     */
+    void revalidated(Entry entry)
+    {
+        _revalidated.incrementAndGet();
+        try
+        {
+            Files.setLastModifiedTime(entry._path, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (IOException e)
+        {
+            LOG.debug("Could not update cached listing " + entry._path + ": " + e.getMessage());
+        }
+    }
+
+    void remove(Entry entry)
+    {
+        remove(entry._path);
+    }
+
+    public int getHitCount()
+    {
+        return _hits.get();
+    }
+
+    public int getRevalidatedCount()
+    {
+        return _revalidated.get();
+    }
+
+    public int getMissCount()
+    {
+        return _misses.get();
+    }
+
+    public void logStats()
+    {
+        LOG.info("Listing cache: " + _hits.get() + " hits, " + _revalidated.get() + " revalidated with the server, "
+                + _misses.get() + " misses");
+    }
+
+    private Path getPath(URI uri, String credentialsId)
+    {
+        return _dir.resolve(FileHelper.sha256Hex(credentialsId + "|" + uri) + SUFFIX);
+    }
+
+    /**
+     * Deletes the least recently validated entries until the cache is no larger than the maximum size.
+     */
+    private synchronized void evict()
+    {
+        List<Path> entries = new ArrayList<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(_dir, "*" + SUFFIX))
+        {
+            for (Path path : stream)
+            {
+                entries.add(path);
+                totalSize += Files.size(path);
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.debug("Could not read the listing cache folder " + _dir + ": " + e.getMessage());
+            return;
+        }
+        if (totalSize <= _maxBytes)
+        {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(ListingCache::lastModified));
+        for (Path path : entries)
+        {
+            if (totalSize <= _maxBytes)
+            {
+                break;
+            }
+            long size = path.toFile().length();
+            if (remove(path))
+            {
+                totalSize -= size;
+            }
+        }
+    }
+
+    private static long lastModified(Path path)
+    {
+        return path.toFile().lastModified();
+    }
+
+    private static boolean remove(Path path)
+    {
+        try
+        {
+            return Files.deleteIfExists(path);
+        }
+        catch (IOException e)
+        {
+            LOG.debug("Could not delete cached listing " + path + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    class Entry
+    {
+        private final Path _path;
+        private final String _etag;
+        private final String _lastModified;
+        private final Charset _charset;
+        private final long _validated;
+
+        private Entry(Path path, String etag, String lastModified, String charset, long validated)
+        {
+            _path = path;
+            _etag = etag.isEmpty() ? null : etag;
+            _lastModified = lastModified.isEmpty() ? null : lastModified;
+            _charset = Charset.isSupported(charset) ? Charset.forName(charset) : StandardCharsets.UTF_8;
+            _validated = validated;
+        }
+
+        String getEtag()
+        {
+            return _etag;
+        }
+
+        String getLastModified()
+        {
+            return _lastModified;
+        }
+
+        /**
+         * @return true if the entry can be used without revalidating it with the server
+         */
+        boolean isFresh()
+        {
+            return System.currentTimeMillis() - _validated < _ttlMillis;
+        }
+
+        /**
+         * @return reader for the cached listing. The caller must close the reader.
+         */
+        Reader openReader() throws IOException
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(_path)));
+            try
+            {
+                in.readInt();
+                for (int i = 0; i < 5; i++)
+                {
+                    in.readUTF();
+                }
+            }
+            catch (IOException e)
+            {
+                in.close();
+                throw e;
+            }
+            return new InputStreamReader(in, _charset);
+        }
+    }
+
+    class EntryWriter implements AutoCloseable
+    {
+        private final Path _path;
+        private final Path _temp;
+        private final DataOutputStream _out;
+        private boolean _committed;
+
+        private EntryWriter(Path path, Path temp) throws IOException
+        {
+            _path = path;
+            _temp = temp;
+            _out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+        }
+
+        /**
+         * @return stream that writes the bytes read from the given stream to the entry
+         */
+        InputStream tee(InputStream in)
+        {
+            return new FilterInputStream(in)
+            {
+                @Override
+                public int read() throws IOException
+                {
+                    int b = super.read();
+                    if (b >= 0)
+                    {
+                        _out.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException
+                {
+                    int count = super.read(b, off, len);
+                    if (count > 0)
+                    {
+                        _out.write(b, off, count);
+                    }
+                    return count;
+                }
+
+                @Override
+                public long skip(long n) throws IOException
+                {
+                    byte[] buffer = new byte[(int) Math.min(n, 8192)];
+                    int count = read(buffer, 0, buffer.length);
+                    return Math.max(count, 0);
+                }
+
+                @Override
+                public boolean markSupported()
+                {
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Reads the rest of the stream, so that the complete response is cached, and replaces any existing entry
+         * for the URL with this one.
+         */
+        void commit(InputStream in) throws IOException
+        {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) >= 0)
+            {
+                // Bytes are written to the entry by the stream returned by tee()
+            }
+            _out.close();
+            FileHelper.moveReplacing(_temp, _path);
+            _committed = true;
+            evict();
+        }
+
+        /**
+         * Discards the entry if it was not committed.
+         */
+        @Override
+        public void close()
+        {
+            if (!_committed)
+            {
+                try
+                {
+                    _out.close();
+                }
+                catch (IOException ignored) {}
+                remove(_temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package edu.maccosslab.panoramaclient;
+
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses the JSON folder listing returned by the WebDav "JSON" method directly from the response stream.
+ * Each entry in the "files" array is passed to the Handler as soon as it has been read, so memory use does not
+ * grow with the number of files in the folder. Only the simple values of an entry (name, size, dates etc.) are kept
+ * while the entry is being read; nested values are skipped.
+ */
+public class ListingParser implements ContentHandler
+{
+    private static final String FILES = "files";
+
+    public interface Handler
+    {
+        void file(RemoteFile file) throws ClientException;
+
+        void folder(String name) throws ClientException;
+    }
+
+    private final Handler _handler;
+
+    private int _depth; // Nesting depth of objects and arrays
+    private String _topLevelKey;
+    private boolean _foundFiles;
+    private boolean _inFiles;
+    private Map<String, Object> _entry;
+    private String _entryKey;
+    private int _entryCount;
+
+    private ListingParser(Handler handler)
+    {
+        _handler = handler;
+    }
+
+    /**
+     * @return number of entries in the listing
+     */
+    public static int parse(Reader reader, Handler handler) throws IOException, ClientException
+    {
+        ListingParser listingParser = new ListingParser(handler);
+        try
+        {
+            new JSONParser().parse(reader, listingParser);
+        }
+        catch (HandlerException e)
+        {
+            throw e.getCause();
+        }
+        catch (ParseException e)
+        {
+            throw new ClientException("Could not parse the folder listing returned by the server: " + e, e);
+        }
+        if (!listingParser._foundFiles)
+        {
+            throw new ClientException("No file list returned from the server.");
+        }
+        return listingParser._entryCount;
+    }
+
+    @Override
+    public void startJSON()
+    {
+    }
+
+    @Override
+    public void endJSON()
+    {
+    }
+
+    @Override
+    public boolean startObject()
+    {
+        _depth++;
+        if (_inFiles && _depth == 3)
+        {
+            _entry = new HashMap<>();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endObject()
+    {
+        if (_inFiles && _depth == 3 && _entry != null)
+        {
+            endEntry(_entry);
+            _entry = null;
+        }
+        _depth--;
+        return true;
+    }
+
+    @Override
+    public boolean startObjectEntry(String key)
+    {
+        if (_depth == 1)
+        {
+            _topLevelKey = key;
+        }
+        else if (_entry != null && _depth == 3)
+        {
+            _entryKey = key;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endObjectEntry()
+    {
+        if (_entry != null && _depth == 3)
+        {
+            _entryKey = null;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startArray()
+    {
+        _depth++;
+        if (_depth == 2 && FILES.equals(_topLevelKey))
+        {
+            _inFiles = true;
+            _foundFiles = true;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endArray()
+    {
+        if (_depth == 2)
+        {
+            _inFiles = false;
+        }
+        _depth--;
+        return true;
+    }
+
+    @Override
+    public boolean primitive(Object value)
+    {
+        if (_entry != null && _depth == 3 && _entryKey != null)
+        {
+            _entry.put(_entryKey, value);
+        }
+        return true;
+    }
+
+    private void endEntry(Map<String, Object> entry)
+    {
+        _entryCount++;
+        try
+        {
+            Object isCollection = entry.get("collection");
+            if (isCollection != null && Boolean.parseBoolean(isCollection.toString()))
+            {
+                _handler.folder((String) entry.get("text"));
+            }
+            else
+            {
+                _handler.file(RemoteFile.fromJson(entry));
+            }
+        }
+        catch (ClientException e)
+        {
+            throw new HandlerException(e);
+        }
+    }
+
+    /**
+     * Carries an exception thrown by the Handler out of the JSONParser callbacks.
+     */
+    private static class HandlerException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        HandlerException(ClientException cause)
+        {
+            super(cause);
+        }
+
+        @Override
+        public synchronized ClientException getCause()
+        {
+            return (ClientException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+import org.labkey.remoteapi.Connection;
+import org.labkey.remoteapi.CredentialsProvider;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection that uses a connection pool shared by all PanoramaConnection instances in the process, so WebDav and
+ * LabKey API requests to the same server reuse connections and TLS sessions. The pool in
+ * org.labkey.remoteapi.Connection allows only 2 connections per server, which would serialize any concurrent transfers
+ * to the same Panorama server.
+ * <p>
+ * The pool is configured with the system properties described in {@link TransportConfig}. WebDAV requests executed with
+ * executeRaw() are sent by the {@link HttpTransport} selected there.
+ */
+public class PanoramaConnection extends Connection
+{
+    private static final Logger LOG = Logger.getLogger(PanoramaConnection.class);
+
+    private static final TransportConfig CONFIG = TransportConfig.fromSystemProperties();
+    private static final PoolingHttpClientConnectionManager CONNECTION_MANAGER = createConnectionManager(CONFIG);
+    private static volatile HttpTransport _transport = CONFIG.createTransport();
+
+    static
+    {
+        LOG.debug("HTTP connection pool settings: " + CONFIG);
+        if (CONFIG.getIdleTimeoutSeconds() > 0)
+        {
+            startIdleConnectionEvictor(CONFIG.getIdleTimeoutSeconds());
+        }
+    }
+
+    private final CredentialsProvider _credentialsProvider;
+    private final String _credentialsId;
+    private final CookieManager _cookieManager = new CookieManager();
+    private volatile Set<HttpUriRequest> _trackedRequests;
+
+    public PanoramaConnection(String baseUrl, CredentialsProvider credentialsProvider)
+    {
+        this(baseUrl, credentialsProvider, null);
+    }
+
+    /**
+     * @param credentialsId identifies the user of the credentials, e.g. a hash of the API key. Results that depend
+     *                      on the user, like the ones cached by {@link ContainerProbe}, are only shared between
+     *                      connections with the same id. Must not contain the secret itself.
+     */
+    public PanoramaConnection(String baseUrl, CredentialsProvider credentialsProvider, String credentialsId)
+    {
+        super(baseUrl, credentialsProvider);
+        _credentialsProvider = credentialsProvider;
+        _credentialsId = credentialsId;
+    }
+
+    /**
+     * @return id of the credentials used by this connection, or null if it is not known
+     */
+    public String getCredentialsId()
+    {
+        return _credentialsId;
+    }
+
+    /**
+     * @return cookies of the requests sent by {@link JdkHttpTransport}. The JDK client is shared by all connections, so
+     * the cookies of each connection are kept here, as the Apache engine keeps them in the HttpClient of the connection.
+     */
+    CookieManager getCookieManager()
+    {
+        return _cookieManager;
+    }
+
+    @Override
+    protected HttpClientBuilder clientBuilder()
+    {
+        return super.clientBuilder()
+                .setConnectionManager(CONNECTION_MANAGER)
+                .setConnectionManagerShared(true)
+                .setKeepAliveStrategy(PanoramaConnection::getKeepAliveDuration);
+    }
+
+    private static PoolingHttpClientConnectionManager createConnectionManager(TransportConfig config)
+    {
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setDefaultMaxPerRoute(config.getMaxPerRoute());
+        manager.setMaxTotal(Math.max(config.getMaxTotal(), config.getMaxPerRoute()));
+        manager.setValidateAfterInactivity(config.getValidateAfterInactivityMillis());
+        manager.setDefaultSocketConfig(SocketConfig.custom()
+                .setTcpNoDelay(config.isTcpNoDelay())
+                .setSoKeepAlive(true)
+                .setSndBufSize(config.getSendBufferSize())
+                .setRcvBufSize(config.getReceiveBufferSize())
+                .build());
+        return manager;
+    }
+
+    /**
+     * HttpClientBuilder only evicts idle connections from a pool that it owns, so the shared pool has its own evictor.
+     */
+    private static void startIdleConnectionEvictor(int idleTimeoutSeconds)
+    {
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, Math.min(idleTimeoutSeconds, 10));
+        evictor.scheduleWithFixedDelay(() -> {
+            CONNECTION_MANAGER.closeExpiredConnections();
+            CONNECTION_MANAGER.closeIdleConnections(idleTimeoutSeconds, TimeUnit.SECONDS);
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return milliseconds an idle connection may be reused: the server's Keep-Alive timeout, limited to the configured
+     * keep-alive time
+     */
+    private static long getKeepAliveDuration(HttpResponse response, HttpContext context)
+    {
+        long serverDuration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+        long maxDuration = TimeUnit.SECONDS.toMillis(CONFIG.getKeepAliveSeconds());
+        if (maxDuration <= 0)
+        {
+            return serverDuration;
+        }
+        return serverDuration > 0 ? Math.min(serverDuration, maxDuration) : maxDuration;
+    }
+
+    /**
+     * @return number of leased, available and pending connections in the shared pool, for all servers
+     */
+    public static PoolStats getPoolStats()
+    {
+        return CONNECTION_MANAGER.getTotalStats();
+    }
+
+    /**
+     * @return the pool statistics, e.g. "2 leased, 6 available, 0 pending (limit 8 per server, 20 total)"
+     */
+    public static String formatPoolStats()
+    {
+        PoolStats stats = getPoolStats();
+        return stats.getLeased() + " leased, " + stats.getAvailable() + " available, " + stats.getPending() + " pending (limit "
+                + CONNECTION_MANAGER.getDefaultMaxPerRoute() + " per server, " + stats.getMax() + " total)";
+    }
+
+    public static HttpTransport getTransport()
+    {
+        return _transport;
+    }
+
+    /**
+     * Replaces the engine that sends the WebDAV requests of all connections, e.g. to compare engines in a benchmark.
+     */
+    public static void setTransport(HttpTransport transport)
+    {
+        _transport = transport;
+        LOG.debug("HTTP engine: " + transport.getName());
+    }
+
+    private static int _reservedConnections = 0;
+
+    /**
+     * Raise the per-server limit of the shared pool by the given number of connections. Transfers running at the same
+     * time (e.g. parallel file downloads, each downloading several segments) each reserve the connections they need.
+     */
+    static synchronized void reserveConnections(int connectionCount)
+    {
+        _reservedConnections += connectionCount;
+        updatePoolLimits();
+    }
+
+    static synchronized void releaseConnections(int connectionCount)
+    {
+        _reservedConnections = Math.max(0, _reservedConnections - connectionCount);
+        updatePoolLimits();
+    }
+
+    private static void updatePoolLimits()
+    {
+        int maxPerRoute = Math.max(CONFIG.getMaxPerRoute(), _reservedConnections);
+        CONNECTION_MANAGER.setDefaultMaxPerRoute(maxPerRoute);
+        CONNECTION_MANAGER.setMaxTotal(Math.max(CONFIG.getMaxTotal(), maxPerRoute));
+    }
+
+    /**
+     * Executes a request that was not built by a Command. Command.Response does not expose the response headers,
+     * so requests that need them (e.g. ETag, Content-Range) are executed here. The caller must close the response.
+     */
+    CloseableHttpResponse executeRaw(HttpUriRequest request) throws IOException, ClientException
+    {
+        HttpClientContext context = createContext(request);
+        track(request);
+        beforeExecute(request);
+        try
+        {
+            return _transport.execute(this, request, context);
+        }
+        finally
+        {
+            afterExecute();
+        }
+    }
+
+    /**
+     * Like executeRaw(), but returns without waiting for the response. The future completes with the response once its
+     * headers have been received. The caller must close the response.
+     */
+    CompletableFuture<CloseableHttpResponse> executeRawAsync(HttpUriRequest request) throws ClientException
+    {
+        HttpClientContext context = createContext(request);
+        track(request);
+        beforeExecute(request);
+        try
+        {
+            return _transport.executeAsync(this, request, context);
+        }
+        finally
+        {
+            afterExecute();
+        }
+    }
+
+    /**
+     * Starts recording the requests executed with executeRaw(), so that they can be aborted with abortRequests().
+     * Used when the connection runs a single operation that may be cancelled. Tracking stops with stopTracking().
+     */
+    void startTracking()
+    {
+        _trackedRequests = ConcurrentHashMap.newKeySet();
+    }
+
+    void stopTracking()
+    {
+        _trackedRequests = null;
+    }
+
+    /**
+     * Aborts the requests recorded since startTracking(). A request that is waiting for a connection, for the response
+     * or for more of the response body fails with an IOException.
+     */
+    void abortRequests()
+    {
+        Set<HttpUriRequest> requests = _trackedRequests;
+        if (requests != null)
+        {
+            for (HttpUriRequest request : requests)
+            {
+                request.abort();
+            }
+        }
+    }
+
+    private void track(HttpUriRequest request)
+    {
+        Set<HttpUriRequest> requests = _trackedRequests;
+        if (requests != null)
+        {
+            requests.add(request);
+        }
+    }
+
+    private HttpClientContext createContext(HttpUriRequest request) throws ClientException
+    {
+        HttpClientContext context = HttpClientContext.create();
+        try
+        {
+            _credentialsProvider.configureRequest(getBaseURI(), request, context);
+        }
+        catch (AuthenticationException e)
+        {
+            throw new ClientException("Could not add credentials to request " + request.getURI() + ". Error was: " + e.getMessage(), e);
+        }
+        return context;
+    }
+}
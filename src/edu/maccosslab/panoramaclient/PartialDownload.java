@@ -0,0 +1,283 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+/**
+ * A download in progress. Bytes are written to &lt;target&gt;.part, and the ETag and Last-Modified values returned
+ * by the server are saved in &lt;target&gt;.part.info. A later download of the same file can resume from the end of
+ * the partial file if the server still has the same version of the file. The partial file is renamed to the
+ * target file when the download is complete.
+ * Segmented downloads write byte ranges out of order, so they also save the ranges that have been completed.
+ */
+public class PartialDownload
+{
+    private static final Logger LOG = Logger.getLogger(PartialDownload.class);
+
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String COMPLETED_RANGES = "completedRanges";
+
+    private final Path _targetFile;
+    private final Path _partFile;
+    private final Path _infoFile;
+
+    private String _etag;
+    private String _lastModified;
+    private List<long[]> _completedRanges; // null for sequential downloads
+
+    public PartialDownload(Path targetFile) throws IOException
+    {
+        _targetFile = targetFile;
+        _partFile = targetFile.resolveSibling(targetFile.getFileName() + ".part");
+        _infoFile = targetFile.resolveSibling(targetFile.getFileName() + ".part.info");
+        readInfo();
+    }
+
+    private void readInfo() throws IOException
+    {
+        if (Files.isRegularFile(_infoFile) && Files.isRegularFile(_partFile))
+        {
+            Properties props = new Properties();
+            try (InputStream in = Files.newInputStream(_infoFile))
+            {
+                props.load(in);
+                _etag = props.getProperty(ETAG);
+                _lastModified = props.getProperty(LAST_MODIFIED);
+                _completedRanges = parseRanges(props.getProperty(COMPLETED_RANGES));
+            }
+            catch (IllegalArgumentException e)
+            {
+                // Includes NumberFormatException. A corrupt info file is ignored, and the partial file is discarded below.
+                LOG.warn("Ignoring invalid partial download info " + _infoFile + ": " + e.getMessage());
+                _etag = null;
+                _lastModified = null;
+                _completedRanges = null;
+            }
+        }
+        if (getIfRangeValidator() == null)
+        {
+            // We cannot tell if a partial file without a saved ETag or Last-Modified value is still current.
+            discard();
+        }
+    }
+
+    public Path getTargetFile()
+    {
+        return _targetFile;
+    }
+
+    public Path getPartFile()
+    {
+        return _partFile;
+    }
+
+    /**
+     * @return number of bytes at the start of the file that have already been downloaded, or 0 if there is nothing to resume
+     */
+    public synchronized long getResumeOffset() throws IOException
+    {
+        if (getIfRangeValidator() == null || !Files.isRegularFile(_partFile))
+        {
+            return 0;
+        }
+        if (_completedRanges == null)
+        {
+            return Files.size(_partFile);
+        }
+        long offset = 0;
+        boolean extended = true;
+        while (extended)
+        {
+            extended = false;
+            for (long[] range : _completedRanges)
+            {
+                if (range[0] <= offset && range[1] >= offset)
+                {
+                    offset = range[1] + 1;
+                    extended = true;
+                }
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * @return byte ranges (inclusive) that have already been downloaded
+     */
+    public synchronized List<long[]> getCompletedRanges() throws IOException
+    {
+        if (_completedRanges != null)
+        {
+            return new ArrayList<>(_completedRanges);
+        }
+        long size = getResumeOffset();
+        return size > 0 ? Collections.singletonList(new long[]{0, size - 1}) : Collections.emptyList();
+    }
+
+    public synchronized boolean isRangeComplete(long start, long end)
+    {
+        if (_completedRanges != null)
+        {
+            for (long[] range : _completedRanges)
+            {
+                if (range[0] <= start && range[1] >= end)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public synchronized void markRangeComplete(long start, long end) throws IOException
+    {
+        if (_completedRanges == null)
+        {
+            throw new IllegalStateException("Not a segmented download: " + _targetFile);
+        }
+        _completedRanges.add(new long[]{start, end});
+        writeInfo();
+    }
+
+    /**
+     * @return value for the If-Range request header. A strong ETag is preferred; weak ETags cannot be used in If-Range.
+     */
+    public String getIfRangeValidator()
+    {
+        if (_etag != null && !isWeakEtag(_etag))
+        {
+            return _etag;
+        }
+        return _lastModified;
+    }
+
+    /**
+     * @return true if the ETag or Last-Modified returned by the server do not match the values saved when
+     * the partial file was started.
+     */
+    public boolean isStale(String etag, String lastModified)
+    {
+        if (_etag != null && etag != null)
+        {
+            return !Objects.equals(stripWeakPrefix(_etag), stripWeakPrefix(etag));
+        }
+        if (_lastModified != null && lastModified != null)
+        {
+            return !Objects.equals(_lastModified, lastModified);
+        }
+        // Server did not return the validator we saved
+        return true;
+    }
+
+    /**
+     * Save the version of the remote file. Call this before writing any bytes to the partial file.
+     */
+    public synchronized void start(String etag, String lastModified) throws IOException
+    {
+        _etag = etag;
+        _lastModified = lastModified;
+        _completedRanges = null;
+        writeInfo();
+    }
+
+    /**
+     * Save the version of the remote file, and the byte ranges that were already downloaded, before starting
+     * a segmented download.
+     */
+    public synchronized void startSegmented(String etag, String lastModified, List<long[]> completedRanges) throws IOException
+    {
+        _etag = etag;
+        _lastModified = lastModified;
+        _completedRanges = new ArrayList<>(completedRanges);
+        writeInfo();
+    }
+
+    private void writeInfo() throws IOException
+    {
+        Properties props = new Properties();
+        if (_etag != null)
+        {
+            props.setProperty(ETAG, _etag);
+        }
+        if (_lastModified != null)
+        {
+            props.setProperty(LAST_MODIFIED, _lastModified);
+        }
+        if (_completedRanges != null)
+        {
+            props.setProperty(COMPLETED_RANGES, formatRanges(_completedRanges));
+        }
+        FileHelper.storeProperties(props, _infoFile, "Partial download of " + _targetFile.getFileName());
+    }
+
+    /**
+     * Rename the partial file to the target file.
+     */
+    public void complete() throws IOException
+    {
+        FileHelper.moveReplacing(_partFile, _targetFile);
+        Files.deleteIfExists(_infoFile);
+    }
+
+    public void discard() throws IOException
+    {
+        Files.deleteIfExists(_partFile);
+        Files.deleteIfExists(_infoFile);
+        _etag = null;
+        _lastModified = null;
+        _completedRanges = null;
+    }
+
+    /**
+     * @throws NumberFormatException if a range is not two non-negative numbers in order
+     */
+    private static List<long[]> parseRanges(String value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>();
+        for (String range : value.split(","))
+        {
+            int idx = range.indexOf('-');
+            if (idx > 0)
+            {
+                long start = Long.parseLong(range.substring(0, idx).trim());
+                long end = Long.parseLong(range.substring(idx + 1).trim());
+                if (start < 0 || end < start)
+                {
+                    throw new NumberFormatException("Invalid byte range " + range);
+                }
+                ranges.add(new long[]{start, end});
+            }
+        }
+        return ranges;
+    }
+
+    private static String formatRanges(List<long[]> ranges)
+    {
+        return ranges.stream().map(r -> r[0] + "-" + r[1]).collect(Collectors.joining(","));
+    }
+
+    private static boolean isWeakEtag(String etag)
+    {
+        return etag.startsWith("W/");
+    }
+
+    private static String stripWeakPrefix(String etag)
+    {
+        return isWeakEtag(etag) ? etag.substring(2) : etag;
+    }
+}
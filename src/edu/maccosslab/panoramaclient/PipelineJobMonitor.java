@@ -0,0 +1,279 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.log4j.Logger;
+import org.labkey.remoteapi.Connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tracks the pipeline jobs in a Panorama folder in a single polling loop. Each poll gets the status of all the jobs
+ * that are not done with one SelectRows query on pipeline.job, instead of one query per job. The delay between polls
+ * is set by a {@link PollScheduler}, and starts over when the status of any of the jobs changes. A job for which the
+ * server returns no status fails without affecting the other jobs. While waiting, a poll that fails is logged and
+ * tried again at the next poll; after {@link #MAX_POLL_ERRORS} failed polls in a row the pending jobs fail.
+ */
+public class PipelineJobMonitor
+{
+    private static final Logger LOG = Logger.getLogger(PipelineJobMonitor.class);
+
+    public static final int MAX_POLL_ERRORS = 5;
+
+    private final Connection _connection;
+    private final String _serverUri;
+    private final String _containerPath;
+    private final PollScheduler _scheduler;
+    private final Map<Long, Job> _pending = new LinkedHashMap<>();
+    private long _nextPoll; // System.nanoTime() of the next poll
+    private int _pollErrors; // Failed polls since the last poll that succeeded
+
+    PipelineJobMonitor(Connection connection, String serverUri, String containerPath)
+    {
+        this(connection, serverUri, containerPath, new PollScheduler());
+    }
+
+    public PipelineJobMonitor(Connection connection, String serverUri, String containerPath, PollScheduler scheduler)
+    {
+        _connection = connection;
+        _serverUri = serverUri;
+        _containerPath = containerPath;
+        _scheduler = scheduler;
+    }
+
+    public interface Listener
+    {
+        /**
+         * Called when a job is done, whether it completed or failed.
+         */
+        void jobDone(Job job);
+    }
+
+    /**
+     * @param name name shown in the log for the job, e.g. the name of the imported document
+     */
+    public Job add(long jobId, String name)
+    {
+        Job job = new Job(jobId, name, ClientActionImportSkyDoc.getPipelineStatusUri(_serverUri, _containerPath, jobId));
+        if (_pending.isEmpty())
+        {
+            scheduleNextPoll();
+        }
+        _pending.put(jobId, job);
+        return job;
+    }
+
+    public int getPendingCount()
+    {
+        return _pending.size();
+    }
+
+    /**
+     * Gets the status of all the pending jobs with one query.
+     * @return jobs that are done since the last poll, in the order they were added
+     */
+    public List<Job> poll() throws ClientException, InterruptedException
+    {
+        List<Job> done = new ArrayList<>();
+        if (_pending.isEmpty())
+        {
+            return done;
+        }
+        Map<Long, String> statuses = ClientActionImportSkyDoc.getJobStatuses(_connection, _containerPath, _pending.keySet());
+        boolean changed = false;
+        for (Job job : new ArrayList<>(_pending.values()))
+        {
+            String status = statuses.get(job.getJobId());
+            job._pollCount++;
+            if (status == null)
+            {
+                job._error = "No status returned for jobId " + job.getJobId();
+                LOG.warn(job._error + " (" + job.getName() + ")");
+                _pending.remove(job.getJobId());
+                done.add(job);
+                continue;
+            }
+            if (!status.equals(job.getStatus()))
+            {
+                LOG.info("Job " + job.getJobId() + " (" + job.getName() + ") status is: " + status);
+                changed = true;
+            }
+            job._status = status;
+            if (ClientActionImportSkyDoc.jobDone(status))
+            {
+                _pending.remove(job.getJobId());
+                done.add(job);
+            }
+        }
+        if (changed)
+        {
+            _scheduler.reset();
+        }
+        return done;
+    }
+
+    /**
+     * Polls until all the jobs are done. The listener is called for each job as soon as it is done.
+     * @return all the jobs that were pending, in the order they were added
+     */
+    public List<Job> waitForAll(Listener listener) throws InterruptedException
+    {
+        List<Job> jobs = new ArrayList<>(_pending.values());
+        waitForPendingBelow(1, listener);
+        return jobs;
+    }
+
+    /**
+     * Polls until fewer than maxPending jobs are pending. The listener is called for each job as soon as it is done.
+     */
+    public void waitForPendingBelow(int maxPending, Listener listener) throws InterruptedException
+    {
+        while (_pending.size() >= maxPending)
+        {
+            Thread.sleep(getMillisUntilNextPoll());
+            pollAndReport(listener);
+        }
+    }
+
+    /**
+     * Waits for a task that runs on another thread, e.g. an upload, and keeps polling the pending jobs in the meantime.
+     * @return result of the task
+     * @throws ExecutionException if the task failed. Errors while polling the jobs are not thrown.
+     */
+    public <T> T waitFor(Future<T> task, Listener listener) throws InterruptedException, ExecutionException
+    {
+        while (!_pending.isEmpty())
+        {
+            try
+            {
+                return task.get(getMillisUntilNextPoll(), TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                pollAndReport(listener);
+            }
+        }
+        return task.get();
+    }
+
+    private void pollAndReport(Listener listener) throws InterruptedException
+    {
+        List<Job> done;
+        try
+        {
+            done = poll();
+            _pollErrors = 0;
+        }
+        catch (ClientException e)
+        {
+            done = pollFailed(e);
+        }
+        scheduleNextPoll();
+        for (Job job : done)
+        {
+            listener.jobDone(job);
+        }
+    }
+
+    /**
+     * @return the pending jobs, which fail, if the poll failed too many times in a row, otherwise no jobs
+     */
+    private List<Job> pollFailed(ClientException e)
+    {
+        _pollErrors++;
+        if (_pollErrors < MAX_POLL_ERRORS)
+        {
+            LOG.warn("Could not check the status of " + _pending.size() + " jobs. Trying again at the next status check. " + e.getMessage());
+            return Collections.emptyList();
+        }
+        LOG.error("Could not check the status of " + _pending.size() + " jobs " + _pollErrors + " times in a row. Giving up. " + e.getMessage());
+        List<Job> failed = new ArrayList<>(_pending.values());
+        for (Job job : failed)
+        {
+            job._error = "Could not check the job status: " + e.getMessage();
+        }
+        _pending.clear();
+        _pollErrors = 0;
+        return failed;
+    }
+
+    private void scheduleNextPoll()
+    {
+        _nextPoll = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_scheduler.nextDelay());
+    }
+
+    private long getMillisUntilNextPoll()
+    {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(_nextPoll - System.nanoTime()));
+    }
+
+    public static class Job
+    {
+        private final long _jobId;
+        private final String _name;
+        private final String _statusUri;
+        private String _status;
+        private String _error;
+        private int _pollCount;
+
+        Job(long jobId, String name, String statusUri)
+        {
+            _jobId = jobId;
+            _name = name;
+            _statusUri = statusUri;
+        }
+
+        public long getJobId()
+        {
+            return _jobId;
+        }
+
+        public String getName()
+        {
+            return _name;
+        }
+
+        /**
+         * @return URL of the page that shows the details of the job on the server
+         */
+        public String getStatusUri()
+        {
+            return _statusUri;
+        }
+
+        /**
+         * @return last status returned by the server, or null if the job has not been polled yet
+         */
+        public String getStatus()
+        {
+            return _status;
+        }
+
+        /**
+         * @return number of status queries that included this job
+         */
+        public int getPollCount()
+        {
+            return _pollCount;
+        }
+
+        /**
+         * @return why the job failed without a final status from the server, or null
+         */
+        public String getError()
+        {
+            return _error;
+        }
+
+        public boolean isComplete()
+        {
+            return ClientActionImportSkyDoc.isComplete(_status);
+        }
+    }
+}
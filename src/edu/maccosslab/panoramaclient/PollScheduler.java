@@ -0,0 +1,86 @@
+package edu.maccosslab.panoramaclient;
+
+import java.util.Random;
+
+/**
+ * Delays between the polls of a pipeline job status. The first poll comes soon, so a short job is seen as done
+ * soon after it finishes. Each following delay is longer, by the multiplier, up to a maximum, so a job that waits in
+ * the queue or runs for hours is not polled every few seconds. When the status changes (e.g. from WAITING to
+ * RUNNING) the delay starts over from the initial delay. A random jitter spreads out the polls of clients that
+ * started at the same time.
+ */
+public class PollScheduler
+{
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 2000;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 60 * 1000;
+    public static final double DEFAULT_MULTIPLIER = 2;
+    public static final double DEFAULT_JITTER = 0.2;
+
+    private final long _initialDelay;
+    private final long _maxDelay;
+    private final double _multiplier;
+    private final double _jitter;
+    private final Random _random;
+
+    private long _delay;
+    private int _pollCount;
+
+    public PollScheduler()
+    {
+        this(DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_MULTIPLIER, DEFAULT_JITTER, new Random());
+    }
+
+    /**
+     * @param initialDelayMillis delay before the first poll, and after a status change
+     * @param maxDelayMillis longest delay between two polls, including the jitter
+     * @param multiplier factor by which the delay grows after each poll
+     * @param jitter fraction of the delay by which a delay may be shorter or longer at random, e.g. 0.2 for +/- 20%
+     */
+    public PollScheduler(long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter, Random random)
+    {
+        if (initialDelayMillis < 1 || maxDelayMillis < initialDelayMillis)
+        {
+            throw new IllegalArgumentException("Delays must be positive, and the maximum delay at least the initial delay. Found "
+                    + initialDelayMillis + " and " + maxDelayMillis);
+        }
+        if (multiplier < 1 || jitter < 0 || jitter >= 1)
+        {
+            throw new IllegalArgumentException("Multiplier must be at least 1, and jitter between 0 and 1. Found " + multiplier + " and " + jitter);
+        }
+        _initialDelay = initialDelayMillis;
+        _maxDelay = maxDelayMillis;
+        _multiplier = multiplier;
+        _jitter = jitter;
+        _random = random;
+        _delay = initialDelayMillis;
+    }
+
+    /**
+     * Counts a poll and grows the delay for the poll after it.
+     * @return milliseconds to wait before the next poll
+     */
+    public synchronized long nextDelay()
+    {
+        long delay = _delay;
+        _delay = (long) Math.min(_maxDelay, _delay * _multiplier);
+        _pollCount++;
+        double jittered = delay * (1 + _jitter * (2 * _random.nextDouble() - 1));
+        return Math.max(1, Math.min(_maxDelay, Math.round(jittered)));
+    }
+
+    /**
+     * Starts over from the initial delay. Call this when the status of the job changes.
+     */
+    public synchronized void reset()
+    {
+        _delay = _initialDelay;
+    }
+
+    /**
+     * @return number of delays returned by nextDelay(), i.e. the number of polls
+     */
+    public synchronized int getPollCount()
+    {
+        return _pollCount;
+    }
+}
@@ -0,0 +1,213 @@
+package edu.maccosslab.panoramaclient;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Parses a WebDav PROPFIND multistatus response with a streaming XML reader. Each &lt;response&gt; element is
+ * passed to the Handler as soon as it has been read, so memory use does not grow with the size of the tree.
+ */
+public class PropfindParser
+{
+    private static final String DAV_NS = "DAV:";
+
+    public interface Handler
+    {
+        /**
+         * @param relativeFolderPath path of the folder that contains the file, relative to the requested folder.
+         *                           Empty for files in the requested folder.
+         */
+        void file(String relativeFolderPath, RemoteFile file) throws ClientException;
+
+        /**
+         * @param relativePath path of the folder relative to the requested folder
+         */
+        void folder(String relativePath) throws ClientException;
+
+        /**
+         * Called for the requested file or folder itself, which is not counted as an entry.
+         * @param file the requested file or folder. The name is the last part of its path.
+         */
+        default void requested(RemoteFile file, boolean collection) throws ClientException {}
+    }
+
+    private final String _basePath;
+    private final Handler _handler;
+
+    private String _href;
+    private boolean _collection;
+    private String _contentLength;
+    private String _lastModified;
+    private String _etag;
+    private int _entryCount;
+
+    private PropfindParser(String basePath, Handler handler)
+    {
+        _basePath = stripTrailingSlash(basePath);
+        _handler = handler;
+    }
+
+    /**
+     * @param basePath decoded path of the requested folder. Hrefs in the response are made relative to this path.
+     * @return number of files and folders in the response, not including the requested folder
+     */
+    public static int parse(InputStream in, String basePath, Handler handler) throws ClientException
+    {
+        PropfindParser parser = new PropfindParser(basePath, handler);
+        XMLStreamReader reader = null;
+        try
+        {
+            reader = createInputFactory().createXMLStreamReader(in);
+            parser.read(reader);
+        }
+        catch (XMLStreamException e)
+        {
+            throw new ClientException("Could not parse the PROPFIND response returned by the server: " + e.getMessage(), e);
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (XMLStreamException ignored) {}
+            }
+        }
+        return parser._entryCount;
+    }
+
+    private static XMLInputFactory createInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // The response comes from a remote server; do not resolve DTDs or external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+
+    private void read(XMLStreamReader reader) throws XMLStreamException, ClientException
+    {
+        while (reader.hasNext())
+        {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT && DAV_NS.equals(reader.getNamespaceURI()))
+            {
+                switch (reader.getLocalName())
+                {
+                    case "response":
+                        _href = null;
+                        _collection = false;
+                        _contentLength = null;
+                        _lastModified = null;
+                        _etag = null;
+                        break;
+                    case "href":
+                        _href = reader.getElementText().trim();
+                        break;
+                    case "collection":
+                        _collection = true;
+                        break;
+                    case "getcontentlength":
+                        _contentLength = emptyToNull(reader.getElementText());
+                        break;
+                    case "getlastmodified":
+                        _lastModified = emptyToNull(reader.getElementText());
+                        break;
+                    case "getetag":
+                        _etag = emptyToNull(reader.getElementText());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT && DAV_NS.equals(reader.getNamespaceURI())
+                    && "response".equals(reader.getLocalName()))
+            {
+                endResponse();
+            }
+        }
+    }
+
+    private void endResponse() throws ClientException
+    {
+        if (_href == null)
+        {
+            return;
+        }
+        String path = stripTrailingSlash(decodePath(_href));
+        if (path.equals(_basePath))
+        {
+            _handler.requested(createFile(path.substring(path.lastIndexOf('/') + 1)), _collection);
+            return;
+        }
+        if (!path.startsWith(_basePath + "/"))
+        {
+            throw new ClientException("Unexpected path in PROPFIND response: " + _href + ". Expected a path under " + _basePath);
+        }
+        String relativePath = path.substring(_basePath.length() + 1);
+        _entryCount++;
+        if (_collection)
+        {
+            _handler.folder(relativePath);
+        }
+        else
+        {
+            int idx = relativePath.lastIndexOf('/');
+            String folder = idx > 0 ? relativePath.substring(0, idx) : "";
+            _handler.file(folder, createFile(relativePath.substring(idx + 1)));
+        }
+    }
+
+    private RemoteFile createFile(String name)
+    {
+        long size = _contentLength != null ? parseLong(_contentLength) : -1;
+        return new RemoteFile(name, size, RemoteFile.parseDate(_lastModified), _etag);
+    }
+
+    /**
+     * Hrefs may be absolute URLs or absolute paths, and are percent-encoded.
+     */
+    static String decodePath(String href)
+    {
+        try
+        {
+            String path = new URI(href).getPath();
+            return path != null ? path : href;
+        }
+        catch (URISyntaxException e)
+        {
+            return href;
+        }
+    }
+
+    private static String stripTrailingSlash(String path)
+    {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static String emptyToNull(String value)
+    {
+        value = value.trim();
+        return value.length() > 0 ? value : null;
+    }
+
+    private static long parseLong(String value)
+    {
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+}
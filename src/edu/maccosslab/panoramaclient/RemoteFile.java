@@ -0,0 +1,129 @@
+package edu.maccosslab.panoramaclient;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A file in a WebDav folder listing, with the size, last modified time and ETag returned by the server.
+ * Size and last modified time are -1, and the ETag is null, if the server did not return them.
+ */
+public class RemoteFile
+{
+    private final String _name;
+    private final long _size;
+    private final long _lastModified;
+    private final String _etag;
+
+    public RemoteFile(String name, long size, long lastModified, String etag)
+    {
+        _name = name;
+        _size = size;
+        _lastModified = lastModified;
+        _etag = etag;
+    }
+
+    /**
+     * @param fileDetails a file in the "files" array of the JSON folder listing
+     */
+    static RemoteFile fromJson(Map<String, Object> fileDetails)
+    {
+        Object size = fileDetails.get("size");
+        if (size == null)
+        {
+            size = fileDetails.get("contentlength");
+        }
+        Object etag = fileDetails.get("etag");
+        return new RemoteFile((String) fileDetails.get("text"),
+                parseLong(size),
+                parseDate(fileDetails.get("lastmodified")),
+                etag != null ? etag.toString() : null);
+    }
+
+    public String getName()
+    {
+        return _name;
+    }
+
+    /**
+     * @return size in bytes, or -1 if not known
+     */
+    public long getSize()
+    {
+        return _size;
+    }
+
+    /**
+     * @return last modified time in milliseconds since the epoch, or -1 if not known
+     */
+    public long getLastModified()
+    {
+        return _lastModified;
+    }
+
+    public String getEtag()
+    {
+        return _etag;
+    }
+
+    private static long parseLong(Object value)
+    {
+        if (value instanceof Number)
+        {
+            return ((Number) value).longValue();
+        }
+        if (value != null)
+        {
+            try
+            {
+                return Long.parseLong(value.toString().trim());
+            }
+            catch (NumberFormatException ignored) {}
+        }
+        return -1;
+    }
+
+    /**
+     * The listing returns dates either as milliseconds since the epoch or as formatted strings, depending on the
+     * server version.
+     */
+    static long parseDate(Object value)
+    {
+        if (value == null)
+        {
+            return -1;
+        }
+        long millis = parseLong(value);
+        if (millis != -1)
+        {
+            return millis;
+        }
+        String date = value.toString().trim();
+        try
+        {
+            return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException ignored) {}
+        try
+        {
+            return ZonedDateTime.parse(date).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException ignored) {}
+        // Format used by JavaScript's Date.toString(), which LabKey uses when it serializes a java.util.Date to JSON
+        for (String pattern : new String[] {"EEE MMM dd yyyy HH:mm:ss 'GMT'Z", "yyyy/MM/dd HH:mm:ss Z", "yyyy/MM/dd HH:mm:ss"})
+        {
+            try
+            {
+                Date parsed = new SimpleDateFormat(pattern, Locale.US).parse(date);
+                return parsed.getTime();
+            }
+            catch (ParseException ignored) {}
+        }
+        return -1;
+    }
+}
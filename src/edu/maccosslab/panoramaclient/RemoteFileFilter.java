@@ -0,0 +1,286 @@
+package edu.maccosslab.panoramaclient;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Selects files in a folder listing by name, size and last modified time. Patterns are compiled when they are added,
+ * and the filter is applied to each entry as the listing is read, so files that are not needed are never kept in
+ * memory or downloaded.
+ * <p>
+ * Include and exclude patterns are a glob, optionally with the prefix "glob:", or a regular expression with the prefix
+ * "regex:". Globs are converted by {@link #globToRegex(String)}. They look like the globs of
+ * {@link java.nio.file.FileSystem#getPathMatcher(String)}, but are not case-sensitive on any platform, and always use
+ * '/' as the separator, because they are matched against names on the server rather than local paths. Regular
+ * expressions are case-sensitive. Both must match the whole name or path. A pattern that contains '/' is matched
+ * against the path of the file relative to the folder being listed; other patterns are matched against the file name.
+ * <p>
+ * If any include patterns are given, a file must match at least one of them. A file that matches an exclude pattern
+ * is rejected. Files for which the server did not return a size or last modified time are rejected by the size and
+ * date filters.
+ */
+public class RemoteFileFilter
+{
+    private static final String GLOB = "glob:";
+    private static final String REGEX = "regex:";
+
+    private final List<PathPattern> _includes = new ArrayList<>();
+    private final List<PathPattern> _excludes = new ArrayList<>();
+    private String _extension; // lower case, with the leading dot
+    private long _minSize = -1;
+    private long _maxSize = -1;
+    private long _newerThan = -1;
+    private long _olderThan = -1;
+
+    /**
+     * Only accept files with the given extension (case-insensitive). "*" or an empty value accepts all extensions.
+     */
+    public RemoteFileFilter setExtension(String extension)
+    {
+        _extension = extension == null || extension.trim().length() == 0 || "*".equals(extension.trim())
+                ? null : "." + extension.trim().toLowerCase();
+        return this;
+    }
+
+    public RemoteFileFilter include(String pattern)
+    {
+        _includes.add(compile(pattern));
+        return this;
+    }
+
+    public RemoteFileFilter exclude(String pattern)
+    {
+        _excludes.add(compile(pattern));
+        return this;
+    }
+
+    /**
+     * @param minSize minimum file size in bytes, or -1 for no minimum
+     */
+    public RemoteFileFilter setMinSize(long minSize)
+    {
+        _minSize = minSize;
+        return this;
+    }
+
+    /**
+     * @param maxSize maximum file size in bytes, or -1 for no maximum
+     */
+    public RemoteFileFilter setMaxSize(long maxSize)
+    {
+        _maxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * @param newerThan only accept files modified after this time (milliseconds since the epoch), or -1
+     */
+    public RemoteFileFilter setNewerThan(long newerThan)
+    {
+        _newerThan = newerThan;
+        return this;
+    }
+
+    /**
+     * @param olderThan only accept files modified before this time (milliseconds since the epoch), or -1
+     */
+    public RemoteFileFilter setOlderThan(long olderThan)
+    {
+        _olderThan = olderThan;
+        return this;
+    }
+
+    /**
+     * @param relativePath path of the file relative to the folder being listed, e.g. "subfolder/file.raw"
+     */
+    public boolean accept(String relativePath, RemoteFile file)
+    {
+        String name = file.getName();
+        if (_extension != null && !name.toLowerCase().endsWith(_extension))
+        {
+            return false;
+        }
+        if (_minSize >= 0 && (file.getSize() < 0 || file.getSize() < _minSize))
+        {
+            return false;
+        }
+        if (_maxSize >= 0 && (file.getSize() < 0 || file.getSize() > _maxSize))
+        {
+            return false;
+        }
+        if (_newerThan >= 0 && (file.getLastModified() < 0 || file.getLastModified() <= _newerThan))
+        {
+            return false;
+        }
+        if (_olderThan >= 0 && (file.getLastModified() < 0 || file.getLastModified() >= _olderThan))
+        {
+            return false;
+        }
+        if (!_includes.isEmpty() && _includes.stream().noneMatch(p -> p.matches(relativePath, name)))
+        {
+            return false;
+        }
+        return _excludes.stream().noneMatch(p -> p.matches(relativePath, name));
+    }
+
+    /**
+     * @return true if the filter accepts all files
+     */
+    public boolean isEmpty()
+    {
+        return _extension == null && _includes.isEmpty() && _excludes.isEmpty()
+                && _minSize < 0 && _maxSize < 0 && _newerThan < 0 && _olderThan < 0;
+    }
+
+    /**
+     * @return description of the filter for log messages, e.g. "matching the extension ".raw"", or an empty string
+     */
+    @Override
+    public String toString()
+    {
+        List<String> parts = new ArrayList<>();
+        if (_extension != null)
+        {
+            parts.add("the extension \"" + _extension.substring(1) + "\"");
+        }
+        _includes.forEach(p -> parts.add("\"" + p._source + "\""));
+        _excludes.forEach(p -> parts.add("not \"" + p._source + "\""));
+        if (_minSize >= 0)
+        {
+            parts.add("size >= " + TransferPool.formatBytes(_minSize));
+        }
+        if (_maxSize >= 0)
+        {
+            parts.add("size <= " + TransferPool.formatBytes(_maxSize));
+        }
+        if (_newerThan >= 0)
+        {
+            parts.add("modified after " + Instant.ofEpochMilli(_newerThan));
+        }
+        if (_olderThan >= 0)
+        {
+            parts.add("modified before " + Instant.ofEpochMilli(_olderThan));
+        }
+        return parts.isEmpty() ? "" : "matching " + String.join(", ", parts);
+    }
+
+    private static PathPattern compile(String pattern)
+    {
+        try
+        {
+            if (pattern.startsWith(REGEX))
+            {
+                String regex = pattern.substring(REGEX.length());
+                return new PathPattern(pattern, Pattern.compile(regex), regex.indexOf('/') >= 0);
+            }
+            String glob = pattern.startsWith(GLOB) ? pattern.substring(GLOB.length()) : pattern;
+            return new PathPattern(pattern, Pattern.compile(globToRegex(glob), Pattern.CASE_INSENSITIVE), glob.indexOf('/') >= 0);
+        }
+        catch (PatternSyntaxException e)
+        {
+            throw new IllegalArgumentException("Invalid pattern '" + pattern + "': " + e.getDescription());
+        }
+    }
+
+    /**
+     * Converts a glob to a regular expression, which is compiled case-insensitive by the caller.
+     * <ul>
+     *     <li>* matches any number of characters within a folder name, ** also matches across folders</li>
+     *     <li>? matches one character other than '/'</li>
+     *     <li>[abc], [a-z] match one of the characters, [!abc] one character that is not listed. The characters between the
+     *     brackets are used as they are in a regular expression character class, except for '\' and '['.</li>
+     *     <li>{a,b} matches either of the comma separated globs. Groups cannot be nested.</li>
+     *     <li>\ makes the next character literal. All other characters match themselves.</li>
+     * </ul>
+     */
+    static String globToRegex(String glob)
+    {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++)
+        {
+            char c = glob.charAt(i);
+            switch (c)
+            {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*')
+                    {
+                        regex.append(".*");
+                        i++;
+                    }
+                    else
+                    {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 1);
+                    if (end < 0)
+                    {
+                        throw new PatternSyntaxException("Missing ']'", glob, i);
+                    }
+                    String chars = glob.substring(i + 1, end);
+                    if (chars.startsWith("!"))
+                    {
+                        chars = "^" + chars.substring(1);
+                    }
+                    regex.append('[').append(chars.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = end;
+                    break;
+                case '{':
+                    if (inGroup)
+                    {
+                        throw new PatternSyntaxException("Nested groups are not supported", glob, i);
+                    }
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    regex.append(inGroup ? ")" : "\\}");
+                    inGroup = false;
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                case '\\':
+                    if (i + 1 < glob.length())
+                    {
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                    }
+                    break;
+                default:
+                    regex.append(Character.isLetterOrDigit(c) || c == '/' ? String.valueOf(c) : Pattern.quote(String.valueOf(c)));
+            }
+        }
+        if (inGroup)
+        {
+            throw new PatternSyntaxException("Missing '}'", glob, glob.length());
+        }
+        return regex.toString();
+    }
+
+    private static class PathPattern
+    {
+        private final String _source;
+        private final Pattern _pattern;
+        private final boolean _matchPath;
+
+        PathPattern(String source, Pattern pattern, boolean matchPath)
+        {
+            _source = source;
+            _pattern = pattern;
+            _matchPath = matchPath;
+        }
+
+        boolean matches(String relativePath, String name)
+        {
+            return _pattern.matcher(_matchPath ? relativePath : name).matches();
+        }
+    }
+}
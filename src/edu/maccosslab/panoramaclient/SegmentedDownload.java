@@ -0,0 +1,154 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.log4j.Logger;
+import org.labkey.remoteapi.CommandException;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Downloads a large file as several byte ranges in parallel. The partial file is preallocated to the size of the
+ * remote file, and each range is written at its own position. Completed ranges are recorded in the PartialDownload,
+ * so that a failed download can be resumed by fetching only the missing ranges.
+ */
+public class SegmentedDownload
+{
+    private static final Logger LOG = Logger.getLogger(SegmentedDownload.class);
+
+    public static final long DEFAULT_MIN_FILE_SIZE = 512L * 1024 * 1024;
+
+    private final int _segmentCount;
+    private final long _minFileSize;
+    private final ClientAction.ConnectionFactory _connectionFactory;
+    private final WebDavCommand.Download _download; // Shared by the threads that download the segments
+
+    public SegmentedDownload(int segmentCount, long minFileSize, ClientAction.ConnectionFactory connectionFactory, DownloadSink sink)
+    {
+        _segmentCount = segmentCount;
+        _minFileSize = minFileSize;
+        _connectionFactory = connectionFactory;
+        _download = new WebDavCommand.Download(sink);
+    }
+
+    /**
+     * @param size size of the file from a folder listing, or -1 if it is not known
+     * @return false if the file is too small to be downloaded in segments. The HEAD request for useSegments() is only
+     * needed for files for which this returns true.
+     */
+    public boolean isCandidate(long size)
+    {
+        return _segmentCount > 1 && (size < 0 || (size >= _minFileSize && size >= _segmentCount));
+    }
+
+    /**
+     * @return true if the file should be downloaded in segments. Returns false for small files and if the server
+     * does not support byte range requests for the file.
+     */
+    public boolean useSegments(WebDavCommand.HeadResponse fileInfo)
+    {
+        return _segmentCount > 1
+                && fileInfo.acceptsRanges()
+                && fileInfo.getContentLength() >= _minFileSize
+                && fileInfo.getContentLength() >= _segmentCount;
+    }
+
+    /**
+     * @return number of bytes downloaded in this attempt
+     */
+    public long download(String containerPath, String sourceFilePath, Path targetFile, WebDavCommand.HeadResponse fileInfo) throws ClientException
+    {
+        long fileSize = fileInfo.getContentLength();
+        long segmentSize = (fileSize + _segmentCount - 1) / _segmentCount;
+        int segmentCount = (int) ((fileSize + segmentSize - 1) / segmentSize);
+
+        try
+        {
+            PartialDownload partial = new PartialDownload(targetFile);
+            if (partial.getIfRangeValidator() != null && partial.isStale(fileInfo.getEtag(), fileInfo.getLastModified()))
+            {
+                LOG.info("File " + sourceFilePath + " has changed on the server since the partial download was started. Downloading from the beginning.");
+                partial.discard();
+            }
+            partial.startSegmented(fileInfo.getEtag(), fileInfo.getLastModified(), partial.getCompletedRanges());
+            String ifRange = partial.getIfRangeValidator();
+
+            LOG.info("Downloading " + sourceFilePath + " (" + TransferPool.formatBytes(fileSize) + ") in " + segmentCount + " segments");
+            TransferPool.Summary summary;
+            try (RandomAccessFile raf = new RandomAccessFile(partial.getPartFile().toFile(), "rw"))
+            {
+                raf.setLength(fileSize);
+                FileChannel channel = raf.getChannel();
+
+                TransferPool pool = new TransferPool("segment", segmentCount, _connectionFactory);
+                int pendingCount = 0;
+                for (int i = 0; i < segmentCount; i++)
+                {
+                    long start = i * segmentSize;
+                    long end = Math.min(fileSize, start + segmentSize) - 1;
+                    if (partial.isRangeComplete(start, end))
+                    {
+                        continue;
+                    }
+                    pendingCount++;
+                    pool.submit(sourceFilePath + " [bytes " + start + "-" + end + "]",
+                            connection -> downloadSegment(connection, containerPath, sourceFilePath, start, end, ifRange, channel, partial));
+                }
+                if (pendingCount < segmentCount)
+                {
+                    LOG.info("Resuming download of " + sourceFilePath + ". " + (segmentCount - pendingCount) + " of " + segmentCount + " segments were already downloaded.");
+                }
+                summary = pool.awaitCompletion();
+                channel.force(false);
+            }
+
+            int failedCount = summary.getFailures().size();
+            if (failedCount > 0)
+            {
+                throw new ClientException(failedCount + " of " + summary.getResults().size() + " segments of " + sourceFilePath
+                        + " could not be downloaded. Run the download again to fetch the missing segments.");
+            }
+
+            for (int i = 0; i < segmentCount; i++)
+            {
+                long start = i * segmentSize;
+                long end = Math.min(fileSize, start + segmentSize) - 1;
+                if (!partial.isRangeComplete(start, end))
+                {
+                    throw new ClientException("Segment " + start + "-" + end + " of " + sourceFilePath + " is missing.");
+                }
+            }
+            long downloadedSize = partial.getPartFile().toFile().length();
+            if (downloadedSize != fileSize)
+            {
+                throw new ClientException("Size of the downloaded file " + partial.getPartFile() + " (" + downloadedSize
+                        + " bytes) does not match the size of the file on the server (" + fileSize + " bytes).");
+            }
+            partial.complete();
+            return summary.getTotalBytes();
+        }
+        catch (IOException e)
+        {
+            throw new ClientException("Error downloading file " + sourceFilePath + ": " + e.getMessage(), e);
+        }
+    }
+
+    private long downloadSegment(PanoramaConnection connection, String containerPath, String sourceFilePath, long start, long end, String ifRange,
+                                 FileChannel channel, PartialDownload partial) throws ClientException
+    {
+        try
+        {
+            long bytes = _download.downloadRange(connection, new WebDavCommand.RangeRequest(containerPath, sourceFilePath, start, end, ifRange), channel);
+            // The range must be on disk before it is recorded as complete. Otherwise a resume after a crash
+            // would skip a range that was never written.
+            channel.force(false);
+            partial.markRangeComplete(start, end);
+            return bytes;
+        }
+        catch (IOException | CommandException e)
+        {
+            throw new ClientException("Error downloading bytes " + start + "-" + end + ": " + e.getMessage(), e);
+        }
+    }
+}
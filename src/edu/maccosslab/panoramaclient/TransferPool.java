@@ -0,0 +1,264 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.http.pool.PoolStats;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of worker threads that run file transfers concurrently. Each worker borrows a connection from
+ * the pool for the duration of a transfer. The workers are platform or virtual threads, see {@link TransferThreads}. A failed transfer does not stop the remaining ones; failures are
+ * collected in the Summary returned by {@link #awaitCompletion()}.
+ */
+public class TransferPool
+{
+    private static final Logger LOG = Logger.getLogger(TransferPool.class);
+
+    private final ExecutorService _executor;
+    private final ClientAction.ConnectionFactory _connectionFactory;
+    private final ConcurrentLinkedQueue<PanoramaConnection> _idleConnections = new ConcurrentLinkedQueue<>();
+    private final List<Future<Result>> _futures = Collections.synchronizedList(new ArrayList<>());
+    private final int _threadCount;
+    private final long _startNanos;
+    private final AtomicInteger _peakLeased = new AtomicInteger();
+    private final AtomicInteger _peakPending = new AtomicInteger();
+
+    public TransferPool(String name, int threadCount, ClientAction.ConnectionFactory connectionFactory)
+    {
+        if (threadCount < 1)
+        {
+            throw new IllegalArgumentException("Thread count must be at least 1. Found " + threadCount);
+        }
+        _threadCount = threadCount;
+        PanoramaConnection.reserveConnections(threadCount);
+        _executor = TransferThreads.newExecutor(name, threadCount);
+        LOG.debug("Running up to " + threadCount + " " + name + " transfers at a time on " + TransferThreads.getMode() + " threads");
+        _connectionFactory = connectionFactory;
+        _startNanos = System.nanoTime();
+    }
+
+    public void submit(String itemName, Task task)
+    {
+        _futures.add(_executor.submit(() -> run(itemName, task)));
+    }
+
+    private Result run(String itemName, Task task)
+    {
+        long start = System.nanoTime();
+        PanoramaConnection connection = null;
+        try
+        {
+            connection = borrowConnection();
+            long bytes = task.transfer(connection);
+            return new Result(itemName, bytes, System.nanoTime() - start, null);
+        }
+        catch (ClientException e)
+        {
+            LOG.error("Transfer failed for " + itemName + ". Error was: " + e.getMessage());
+            return new Result(itemName, 0, System.nanoTime() - start, e);
+        }
+        catch (RuntimeException e)
+        {
+            LOG.error("Transfer failed for " + itemName + ". Error was: " + e.getMessage(), e);
+            return new Result(itemName, 0, System.nanoTime() - start, new ClientException(e.getMessage(), e));
+        }
+        finally
+        {
+            if (connection != null)
+            {
+                _idleConnections.offer(connection);
+            }
+            samplePoolStats();
+        }
+    }
+
+    /**
+     * Records the largest number of leased and pending connections in the shared pool, which shows whether transfers
+     * had to wait for a connection.
+     */
+    private void samplePoolStats()
+    {
+        PoolStats stats = PanoramaConnection.getPoolStats();
+        _peakLeased.accumulateAndGet(stats.getLeased(), Math::max);
+        _peakPending.accumulateAndGet(stats.getPending(), Math::max);
+    }
+
+    private PanoramaConnection borrowConnection() throws ClientException
+    {
+        PanoramaConnection connection = _idleConnections.poll();
+        return connection != null ? connection : _connectionFactory.create();
+    }
+
+    /**
+     * Waits for all submitted transfers to finish and shuts down the worker threads.
+     */
+    public Summary awaitCompletion() throws ClientException
+    {
+        _executor.shutdown();
+        List<Result> results = new ArrayList<>();
+        try
+        {
+            synchronized (_futures)
+            {
+                for (Future<Result> future : _futures)
+                {
+                    results.add(future.get());
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            _executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new ClientException("Interrupted while waiting for transfers to complete.", e);
+        }
+        catch (ExecutionException e)
+        {
+            // Task failures are captured in the Result, so this should not happen.
+            throw new ClientException("Unexpected error in transfer: " + e.getMessage(), e.getCause());
+        }
+        finally
+        {
+            PanoramaConnection.releaseConnections(_threadCount);
+        }
+        return new Summary(results, System.nanoTime() - _startNanos, _peakLeased.get(), _peakPending.get());
+    }
+
+    public interface Task
+    {
+        /**
+         * @return number of bytes transferred
+         */
+        long transfer(PanoramaConnection connection) throws ClientException;
+    }
+
+    public static class Result
+    {
+        private final String _itemName;
+        private final long _bytes;
+        private final long _elapsedNanos;
+        private final ClientException _error;
+
+        Result(String itemName, long bytes, long elapsedNanos, ClientException error)
+        {
+            _itemName = itemName;
+            _bytes = bytes;
+            _elapsedNanos = elapsedNanos;
+            _error = error;
+        }
+
+        public String getItemName()
+        {
+            return _itemName;
+        }
+
+        public long getBytes()
+        {
+            return _bytes;
+        }
+
+        public long getElapsedNanos()
+        {
+            return _elapsedNanos;
+        }
+
+        public ClientException getError()
+        {
+            return _error;
+        }
+
+        public boolean isSuccess()
+        {
+            return _error == null;
+        }
+    }
+
+    public static class Summary
+    {
+        private final List<Result> _results;
+        private final long _elapsedNanos;
+        private final int _peakLeased;
+        private final int _peakPending;
+
+        Summary(List<Result> results, long elapsedNanos, int peakLeased, int peakPending)
+        {
+            _results = results;
+            _elapsedNanos = elapsedNanos;
+            _peakLeased = peakLeased;
+            _peakPending = peakPending;
+        }
+
+        public List<Result> getResults()
+        {
+            return _results;
+        }
+
+        public List<Result> getFailures()
+        {
+            List<Result> failures = new ArrayList<>();
+            for (Result result : _results)
+            {
+                if (!result.isSuccess())
+                {
+                    failures.add(result);
+                }
+            }
+            return failures;
+        }
+
+        public long getTotalBytes()
+        {
+            return _results.stream().mapToLong(Result::getBytes).sum();
+        }
+
+        public long getElapsedNanos()
+        {
+            return _elapsedNanos;
+        }
+
+        public void log(String verb)
+        {
+            List<Result> failures = getFailures();
+            int successCount = _results.size() - failures.size();
+            LOG.info(String.format(Locale.US, "%s %d of %d files (%s) in %.1f seconds. Throughput: %s/s",
+                    verb, successCount, _results.size(), formatBytes(getTotalBytes()),
+                    _elapsedNanos / 1e9, formatBytes(bytesPerSecond(getTotalBytes(), _elapsedNanos))));
+            LOG.info("Connection pool: " + PanoramaConnection.formatPoolStats() + ". During the transfers at most "
+                    + _peakLeased + " connections were leased and " + _peakPending + " requests waited for a connection");
+            for (Result failure : failures)
+            {
+                LOG.error("Failed: " + failure.getItemName() + ". Error was: " + failure.getError().getMessage());
+            }
+        }
+    }
+
+    static long bytesPerSecond(long bytes, long elapsedNanos)
+    {
+        return elapsedNanos > 0 ? (long) (bytes / (elapsedNanos / 1e9)) : 0;
+    }
+
+    static String formatBytes(long bytes)
+    {
+        if (bytes < 1024)
+        {
+            return bytes + " B";
+        }
+        String units = "KMGTPE";
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length() - 1)
+        {
+            value /= 1024;
+            unit++;
+        }
+        return String.format(Locale.US, "%.1f %siB", value, units.charAt(unit));
+    }
+}
@@ -0,0 +1,230 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors that run file transfers and folder listings. The mode is read from the system property
+ * "panoramaclient.threads":
+ * <ul>
+ *     <li>platform: a fixed pool with one thread for each transfer that may run at the same time (default)</li>
+ *     <li>virtual: a new virtual thread for each task, with a semaphore that limits how many tasks run at the same
+ *     time. A task blocked on network I/O does not hold an OS thread, so thousands of small files can be transferred
+ *     with a high limit (e.g. -n 200). Requires Java 21 or later; on older versions the platform mode is used.</li>
+ * </ul>
+ * In both modes the limit is the number of tasks that run at the same time, so the load on the server is the same.
+ */
+public class TransferThreads
+{
+    private static final Logger LOG = Logger.getLogger(TransferThreads.class);
+
+    public static final String PROPERTY = "panoramaclient.threads";
+    public static final String PLATFORM = "platform";
+    public static final String VIRTUAL = "virtual";
+
+    private static final boolean VIRTUAL_THREADS_AVAILABLE = createVirtualThreadFactory("probe") != null;
+    private static final boolean USE_VIRTUAL_THREADS = useVirtualThreads(System.getProperty(PROPERTY));
+
+    private TransferThreads() {}
+
+    /**
+     * @return true if the JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadsAvailable()
+    {
+        return VIRTUAL_THREADS_AVAILABLE;
+    }
+
+    /**
+     * @return "virtual" if transfers run on virtual threads, otherwise "platform"
+     */
+    public static String getMode()
+    {
+        return USE_VIRTUAL_THREADS ? VIRTUAL : PLATFORM;
+    }
+
+    /**
+     * @param name prefix of the thread names
+     * @param limit maximum number of tasks that run at the same time
+     */
+    public static ExecutorService newExecutor(String name, int limit)
+    {
+        return newExecutor(name, limit, USE_VIRTUAL_THREADS);
+    }
+
+    /**
+     * Like {@link #newExecutor(String, int)}, but with the mode given by the caller instead of the system property.
+     * Falls back to platform threads if virtual threads are not available.
+     */
+    public static ExecutorService newExecutor(String name, int limit, boolean virtualThreads)
+    {
+        if (limit < 1)
+        {
+            throw new IllegalArgumentException("Thread count must be at least 1. Found " + limit);
+        }
+        if (virtualThreads && VIRTUAL_THREADS_AVAILABLE)
+        {
+            ExecutorService threadPerTask = newThreadPerTaskExecutor(createVirtualThreadFactory(name));
+            if (threadPerTask != null)
+            {
+                return new LimitedExecutor(threadPerTask, limit);
+            }
+        }
+        return Executors.newFixedThreadPool(limit, new PlatformThreadFactory(name));
+    }
+
+    private static boolean useVirtualThreads(String mode)
+    {
+        if (mode == null || mode.trim().equalsIgnoreCase(PLATFORM))
+        {
+            return false;
+        }
+        if (!mode.trim().equalsIgnoreCase(VIRTUAL))
+        {
+            LOG.warn("Invalid value for " + PROPERTY + ": " + mode + ". Expected " + PLATFORM + " or " + VIRTUAL + ". Using " + PLATFORM + " threads");
+            return false;
+        }
+        if (!VIRTUAL_THREADS_AVAILABLE)
+        {
+            LOG.warn("Virtual threads require Java 21 or later. This is Java " + System.getProperty("java.version") + ". Using " + PLATFORM + " threads");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The client runs on Java 11 and later (it needs java.net.http), so the virtual thread API is looked up by reflection:
+     * Thread.ofVirtual().name(name + "-", 1).factory()
+     * @return null if virtual threads are not available, or are a preview feature that is not enabled
+     */
+    private static ThreadFactory createVirtualThreadFactory(String name)
+    {
+        try
+        {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    private static ExecutorService newThreadPerTaskExecutor(ThreadFactory factory)
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        }
+        catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e)
+        {
+            LOG.warn("Could not create a virtual thread executor. Using " + PLATFORM + " threads. Error was: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Starts a thread for every task, but runs at most the given number of tasks at the same time. Tasks beyond the
+     * limit wait for a permit on their own (virtual) thread.
+     */
+    private static class LimitedExecutor extends AbstractExecutorService
+    {
+        private final ExecutorService _delegate;
+        private final Semaphore _permits;
+
+        LimitedExecutor(ExecutorService delegate, int limit)
+        {
+            _delegate = delegate;
+            _permits = new Semaphore(limit);
+        }
+
+        @Override
+        public void execute(Runnable command)
+        {
+            _delegate.execute(() -> {
+                try
+                {
+                    _permits.acquire();
+                }
+                catch (InterruptedException e)
+                {
+                    // Shut down while waiting for a permit. Do not leave the caller waiting for a task that never runs.
+                    if (command instanceof Future)
+                    {
+                        ((Future<?>) command).cancel(false);
+                    }
+                    return;
+                }
+                try
+                {
+                    command.run();
+                }
+                finally
+                {
+                    _permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown()
+        {
+            _delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            return _delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown()
+        {
+            return _delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated()
+        {
+            return _delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+        {
+            return _delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    private static class PlatformThreadFactory implements ThreadFactory
+    {
+        private final String _name;
+        private final AtomicInteger _count = new AtomicInteger();
+
+        PlatformThreadFactory(String name)
+        {
+            _name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, _name + "-" + _count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.log4j.Logger;
+
+import java.util.Properties;
+
+/**
+ * Settings of the HTTP connection pool that is shared by all the connections in the process. Read from system
+ * properties with the prefix "panoramaclient.http.", e.g. -Dpanoramaclient.http.maxPerRoute=8. Invalid values are
+ * logged and the default is used instead.
+ * <ul>
+ *     <li>maxPerRoute: connections per server when no transfers have reserved more (default: 2)</li>
+ *     <li>maxTotal: connections to all servers when no transfers have reserved more (default: 20)</li>
+ *     <li>idleTimeout: seconds after which idle connections are closed. 0 keeps them open (default: 60)</li>
+ *     <li>keepAlive: maximum seconds an idle connection is reused, if the server does not ask for less. 0 uses the
+ *     server's Keep-Alive header only (default: 60)</li>
+ *     <li>validateAfterInactivity: milliseconds of inactivity after which a pooled connection is checked before it is
+ *     reused (default: 2000)</li>
+ *     <li>tcpNoDelay: disable Nagle's algorithm (default: true)</li>
+ *     <li>sendBufferSize, receiveBufferSize: socket buffer sizes in KB. 0 uses the system default (default: 0)</li>
+ *     <li>engine: "apache" sends WebDAV requests with Apache HttpClient over HTTP/1.1 connections from the pool; "jdk"
+ *     sends them with java.net.http.HttpClient, which uses HTTP/2 when the server supports it (default: apache)</li>
+ * </ul>
+ */
+public class TransportConfig
+{
+    private static final Logger LOG = Logger.getLogger(TransportConfig.class);
+
+    public static final String PREFIX = "panoramaclient.http.";
+
+    private int _maxPerRoute = 2;
+    private int _maxTotal = 20;
+    private int _idleTimeoutSeconds = 60;
+    private int _keepAliveSeconds = 60;
+    private int _validateAfterInactivityMillis = 2000;
+    private boolean _tcpNoDelay = true;
+    private int _sendBufferSizeKb;
+    private int _receiveBufferSizeKb;
+    private String _engine = ApacheHttpTransport.NAME;
+
+    public static TransportConfig fromSystemProperties()
+    {
+        return fromProperties(System.getProperties());
+    }
+
+    public static TransportConfig fromProperties(Properties props)
+    {
+        TransportConfig config = new TransportConfig();
+        config._maxPerRoute = getInt(props, "maxPerRoute", config._maxPerRoute, 1);
+        config._maxTotal = getInt(props, "maxTotal", config._maxTotal, 1);
+        config._idleTimeoutSeconds = getInt(props, "idleTimeout", config._idleTimeoutSeconds, 0);
+        config._keepAliveSeconds = getInt(props, "keepAlive", config._keepAliveSeconds, 0);
+        config._validateAfterInactivityMillis = getInt(props, "validateAfterInactivity", config._validateAfterInactivityMillis, 0);
+        config._sendBufferSizeKb = getInt(props, "sendBufferSize", config._sendBufferSizeKb, 0);
+        config._receiveBufferSizeKb = getInt(props, "receiveBufferSize", config._receiveBufferSizeKb, 0);
+        String noDelay = props.getProperty(PREFIX + "tcpNoDelay");
+        if (noDelay != null)
+        {
+            config._tcpNoDelay = Boolean.parseBoolean(noDelay.trim());
+        }
+        String engine = props.getProperty(PREFIX + "engine");
+        if (engine != null)
+        {
+            engine = engine.trim().toLowerCase();
+            if (engine.equals(ApacheHttpTransport.NAME) || engine.equals(JdkHttpTransport.NAME))
+            {
+                config._engine = engine;
+            }
+            else
+            {
+                LOG.warn("Invalid value for " + PREFIX + "engine: " + engine + ". Expected " + ApacheHttpTransport.NAME + " or "
+                        + JdkHttpTransport.NAME + ". Using the default (" + config._engine + ")");
+            }
+        }
+        return config;
+    }
+
+    private static int getInt(Properties props, String name, int defaultValue, int minValue)
+    {
+        String value = props.getProperty(PREFIX + name);
+        if (value == null)
+        {
+            return defaultValue;
+        }
+        try
+        {
+            int intValue = Integer.parseInt(value.trim());
+            if (intValue >= minValue)
+            {
+                return intValue;
+            }
+        }
+        catch (NumberFormatException ignored) {}
+        LOG.warn("Invalid value for " + PREFIX + name + ": " + value + ". Expected an integer >= " + minValue + ". Using the default (" + defaultValue + ")");
+        return defaultValue;
+    }
+
+    public int getMaxPerRoute()
+    {
+        return _maxPerRoute;
+    }
+
+    public int getMaxTotal()
+    {
+        return _maxTotal;
+    }
+
+    public int getIdleTimeoutSeconds()
+    {
+        return _idleTimeoutSeconds;
+    }
+
+    public int getKeepAliveSeconds()
+    {
+        return _keepAliveSeconds;
+    }
+
+    public int getValidateAfterInactivityMillis()
+    {
+        return _validateAfterInactivityMillis;
+    }
+
+    public boolean isTcpNoDelay()
+    {
+        return _tcpNoDelay;
+    }
+
+    public int getSendBufferSize()
+    {
+        return _sendBufferSizeKb * 1024;
+    }
+
+    public int getReceiveBufferSize()
+    {
+        return _receiveBufferSizeKb * 1024;
+    }
+
+    public String getEngine()
+    {
+        return _engine;
+    }
+
+    /**
+     * @return a new instance of the configured engine
+     */
+    public HttpTransport createTransport()
+    {
+        return JdkHttpTransport.NAME.equals(_engine) ? new JdkHttpTransport() : new ApacheHttpTransport();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "maxPerRoute=" + _maxPerRoute + ", maxTotal=" + _maxTotal + ", idleTimeout=" + _idleTimeoutSeconds + "s"
+                + ", keepAlive=" + _keepAliveSeconds + "s, validateAfterInactivity=" + _validateAfterInactivityMillis + "ms"
+                + ", tcpNoDelay=" + _tcpNoDelay + ", sendBufferSize=" + _sendBufferSizeKb + "KB, receiveBufferSize=" + _receiveBufferSizeKb + "KB"
+                + ", engine=" + _engine;
+    }
+}
@@ -0,0 +1,61 @@
+package edu.maccosslab.panoramaclient;
+
+import java.security.MessageDigest;
+
+/**
+ * SHA-256 hash of a file computed from the bytes that are sent in upload requests, so that the file does not have to
+ * be read again to hash it. Request bodies are hashed in order from the start of the file. Each body starts from a
+ * copy of the hash taken when its request was created, and the copy replaces the hash only after the whole body has
+ * been written, so a body that is sent again when the request is retried is hashed once. A body that starts at the
+ * beginning of the file starts the hash over.
+ */
+class UploadDigest
+{
+    private MessageDigest _digest = FileHelper.newSha256();
+    private long _length;
+
+    /**
+     * @return a copy of the hash to be continued with the bytes of a request body that starts at offset, or null if
+     * the bytes before offset were not hashed
+     */
+    synchronized MessageDigest copyAt(long offset)
+    {
+        if (offset == 0)
+        {
+            return FileHelper.newSha256();
+        }
+        return offset == _length ? copy(_digest) : null;
+    }
+
+    /**
+     * Called when a request body that was hashed with a copy from copyAt(offset) has been written.
+     */
+    synchronized void update(long offset, long length, MessageDigest digest)
+    {
+        if (offset == 0 || offset == _length)
+        {
+            _digest = copy(digest);
+            _length = offset + length;
+        }
+    }
+
+    /**
+     * @return hex encoded SHA-256 hash of the file, or null if the bytes sent do not cover a file of this size
+     */
+    synchronized String getHex(long fileSize)
+    {
+        return _length == fileSize ? FileHelper.toHex(copy(_digest).digest()) : null;
+    }
+
+    static MessageDigest copy(MessageDigest digest)
+    {
+        try
+        {
+            return (MessageDigest) digest.clone();
+        }
+        catch (CloneNotSupportedException e)
+        {
+            throw new IllegalStateException(e); // The SHA-256 implementations of the JDK can be cloned
+        }
+    }
+}
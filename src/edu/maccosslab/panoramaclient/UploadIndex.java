@@ -0,0 +1,278 @@
+package edu.maccosslab.panoramaclient;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the files that were uploaded, so that an upload in sync mode can skip files that are identical to the
+ * copy on the server. For each local file and remote URL the index stores the size, last modified time and SHA-256
+ * hash of the local file, and the size, last modified time and ETag that the server reported after the upload.
+ * <p>
+ * A file is identical to the copy on the server if the server still reports the recorded state, and the local file
+ * has the recorded size and either the recorded last modified time or, if the file was rewritten, the recorded hash.
+ * A file is only hashed when it is uploaded or when its last modified time has changed, so large files that have not
+ * been touched are not read again.
+ * <p>
+ * The index is a properties file that is read once and written when {@link #save()} is called. Entries added by
+ * other runs since the index was read are kept.
+ */
+public class UploadIndex
+{
+    private static final Logger LOG = Logger.getLogger(UploadIndex.class);
+
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path _file;
+    private final Map<String, Entry> _entries = new ConcurrentHashMap<>();
+    private final Map<String, Entry> _updated = new ConcurrentHashMap<>();
+
+    /**
+     * @param file index file. Created when the index is saved if it does not exist.
+     */
+    public UploadIndex(Path file) throws ClientException
+    {
+        _file = file;
+        _entries.putAll(read(file));
+    }
+
+    /**
+     * @return ~/.panoramaclient/upload-index.properties
+     */
+    public static Path getDefaultFile()
+    {
+        return Paths.get(System.getProperty("user.home"), ".panoramaclient", "upload-index.properties");
+    }
+
+    /**
+     * @param remoteUrl URL of the file on the server
+     * @param remoteFile the file in the listing of the target folder, or null if it is not on the server
+     * @return true if the local file does not need to be uploaded again
+     */
+    public boolean isIdentical(Path localFile, String remoteUrl, RemoteFile remoteFile) throws ClientException
+    {
+        if (remoteFile == null)
+        {
+            return false;
+        }
+        String key = getKey(localFile, remoteUrl);
+        Entry entry = _entries.get(key);
+        if (entry == null || !entry.matchesRemote(remoteFile))
+        {
+            return false;
+        }
+        try
+        {
+            long size = Files.size(localFile);
+            long lastModified = Files.getLastModifiedTime(localFile).toMillis();
+            if (size != entry._size)
+            {
+                return false;
+            }
+            if (lastModified == entry._lastModified)
+            {
+                return true;
+            }
+            // The file was rewritten. Skip it if the content is the same, and remember the new time.
+            if (!entry._hash.equals(hash(localFile)))
+            {
+                return false;
+            }
+            put(key, new Entry(size, lastModified, entry._hash, entry._remoteSize, entry._remoteLastModified, entry._remoteEtag));
+            return true;
+        }
+        catch (IOException e)
+        {
+            throw new ClientException("Error reading " + localFile + ". Error was: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Records that the local file was uploaded.
+     * @param remoteFile the uploaded file in the listing of the target folder
+     */
+    public void record(Path localFile, String remoteUrl, RemoteFile remoteFile) throws ClientException
+    {
+        record(localFile, remoteUrl, remoteFile, null);
+    }
+
+    /**
+     * Records that the local file was uploaded.
+     * @param remoteFile the uploaded file in the listing of the target folder
+     * @param hash hex encoded SHA-256 hash of the bytes that were uploaded, or null to read the file to hash it
+     */
+    public void record(Path localFile, String remoteUrl, RemoteFile remoteFile, String hash) throws ClientException
+    {
+        try
+        {
+            put(getKey(localFile, remoteUrl), new Entry(Files.size(localFile), Files.getLastModifiedTime(localFile).toMillis(),
+                    hash != null ? hash : hash(localFile), remoteFile.getSize(), remoteFile.getLastModified(), remoteFile.getEtag()));
+        }
+        catch (IOException e)
+        {
+            throw new ClientException("Error reading " + localFile + ". Error was: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the entries recorded in this run to the index file.
+     */
+    public synchronized void save() throws ClientException
+    {
+        if (_updated.isEmpty())
+        {
+            return;
+        }
+        Properties props = new Properties();
+        read(_file).forEach((key, entry) -> props.setProperty(key, entry.toString()));
+        _updated.forEach((key, entry) -> props.setProperty(key, entry.toString()));
+        try
+        {
+            FileHelper.storeProperties(props, _file, "Files uploaded by PanoramaClient");
+            _updated.clear();
+        }
+        catch (IOException e)
+        {
+            throw new ClientException("Error saving the upload index " + _file + ". Error was: " + e.getMessage(), e);
+        }
+    }
+
+    private void put(String key, Entry entry)
+    {
+        _entries.put(key, entry);
+        _updated.put(key, entry);
+    }
+
+    private static String getKey(Path localFile, String remoteUrl)
+    {
+        return localFile.toAbsolutePath().normalize() + " -> " + remoteUrl;
+    }
+
+    private static Map<String, Entry> read(Path file) throws ClientException
+    {
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        if (!Files.isRegularFile(file))
+        {
+            return entries;
+        }
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file))
+        {
+            props.load(in);
+        }
+        catch (IOException e)
+        {
+            throw new ClientException("Error reading the upload index " + file + ". Error was: " + e.getMessage(), e);
+        }
+        for (String key : props.stringPropertyNames())
+        {
+            Entry entry = Entry.parse(props.getProperty(key));
+            if (entry != null)
+            {
+                entries.put(key, entry);
+            }
+            else
+            {
+                LOG.debug("Ignoring invalid entry in the upload index " + file + ": " + key);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return hex encoded SHA-256 hash of the file
+     */
+    static String hash(Path file) throws IOException
+    {
+        MessageDigest digest = FileHelper.newSha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            while (channel.read(buffer) >= 0)
+            {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return FileHelper.toHex(digest.digest());
+    }
+
+    private static class Entry
+    {
+        private final long _size;
+        private final long _lastModified;
+        private final String _hash;
+        private final long _remoteSize;
+        private final long _remoteLastModified;
+        private final String _remoteEtag;
+
+        Entry(long size, long lastModified, String hash, long remoteSize, long remoteLastModified, String remoteEtag)
+        {
+            _size = size;
+            _lastModified = lastModified;
+            _hash = hash;
+            _remoteSize = remoteSize;
+            _remoteLastModified = remoteLastModified;
+            _remoteEtag = remoteEtag;
+        }
+
+        /**
+         * The ETag is compared if the server returned one; otherwise the last modified time must be known and the same.
+         */
+        boolean matchesRemote(RemoteFile remoteFile)
+        {
+            if (remoteFile.getSize() != _remoteSize)
+            {
+                return false;
+            }
+            if (_remoteEtag != null && remoteFile.getEtag() != null)
+            {
+                return _remoteEtag.equals(remoteFile.getEtag());
+            }
+            return _remoteLastModified >= 0 && remoteFile.getLastModified() == _remoteLastModified
+                    && Objects.equals(_remoteEtag, remoteFile.getEtag());
+        }
+
+        /**
+         * @return size,lastModified,hash,remoteSize,remoteLastModified,remoteEtag. The ETag is last because it may
+         * contain commas.
+         */
+        @Override
+        public String toString()
+        {
+            return _size + "," + _lastModified + "," + _hash + "," + _remoteSize + "," + _remoteLastModified
+                    + (_remoteEtag != null ? "," + _remoteEtag : "");
+        }
+
+        static Entry parse(String value)
+        {
+            String[] parts = value.split(",", 6);
+            if (parts.length < 5)
+            {
+                return null;
+            }
+            try
+            {
+                return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2], Long.parseLong(parts[3]),
+                        Long.parseLong(parts[4]), parts.length == 6 ? parts[5] : null);
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+        }
+    }
+}
@@ -1,32 +1,68 @@
 package edu.maccosslab.panoramaclient;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
 import org.json.simple.JSONObject;
 import org.labkey.remoteapi.Command;
 import org.labkey.remoteapi.CommandException;
 import org.labkey.remoteapi.CommandResponse;
 import org.labkey.remoteapi.Connection;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
-public abstract class WebDavCommand<ResponseType extends CommandResponse> extends Command<ResponseType>
+/**
+ * Base class of the WebDav commands. The container path and the path after the file root of each call are passed in
+ * a {@link Request}; a command object keeps only its configuration (e.g. buffer size), so a single instance can be
+ * used by many threads at the same time.
+ */
+public abstract class WebDavCommand<ResponseType extends CommandResponse, RequestType extends WebDavCommand.Request> extends Command<ResponseType>
 {
+    private static final Logger LOG = Logger.getLogger(WebDavCommand.class);
+
     public WebDavCommand()
     {
         super(URLHelper.WEBDAV, "NO_ACTION");
@@ -38,8 +74,16 @@ public abstract class WebDavCommand<ResponseType extends CommandResponse> extend
         return null;
     }
 
+    /**
+     * @return URL of the file root of the container
+     */
     @Override
     protected URI getActionUrl(Connection connection, String folderPath) throws URISyntaxException
+    {
+        return getActionUrl(connection, new Request(folderPath, null));
+    }
+
+    protected URI getActionUrl(Connection connection, Request request) throws URISyntaxException
     {
         URI uri = new URI(connection.getBaseURI().toString().replace('\\', '/'));
         StringBuilder path = new StringBuilder(uri.getPath() != null && !"".equals(uri.getPath()) ? uri.getPath() : "/");
@@ -50,6 +94,7 @@ public abstract class WebDavCommand<ResponseType extends CommandResponse> extend
 
         path.append(controller);
         String folder;
+        String folderPath = request.getContainerPath();
         if (null != folderPath && folderPath.length() > 0) {
             folder = folderPath.replace('\\', '/');
             if (folder.charAt(0) != '/' && path.charAt(path.length() - 1) != '/') {
@@ -64,8 +109,8 @@ public abstract class WebDavCommand<ResponseType extends CommandResponse> extend
             path.append('/');
         }
         path.append(URLHelper.FILE_ROOT);
-        String pathAfterFileRoot = pathAfterFileRoot();
-        if(pathAfterFileRoot != null && pathAfterFileRoot.length() > 0 && pathAfterFileRoot.charAt(0) != '/')
+        String pathAfterFileRoot = request.getPathAfterFileRoot();
+        if(pathAfterFileRoot.length() > 0 && pathAfterFileRoot.charAt(0) != '/')
         {
             path.append('/');
         }
@@ -74,15 +119,35 @@ public abstract class WebDavCommand<ResponseType extends CommandResponse> extend
         return (new URIBuilder(uri)).setPath(path.toString()).build();
     }
 
-    public ResponseType executeCmd(Connection connection, String folderPath) throws IOException, CommandException, ClientException
+    URI getActionUrl(Connection connection, Request request, String errorFolder) throws ClientException
     {
         try
         {
-            return super.execute(connection, folderPath);
+            return getActionUrl(connection, request);
+        }
+        catch (URISyntaxException e)
+        {
+            throw new ClientException("Could not build the request URL for folder '" + errorFolder + "'. Error was: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Builds the HTTP request for a single call of the command. Must not modify the command object.
+     */
+    abstract HttpUriRequest createRequest(URI uri, RequestType request);
+
+    /**
+     * Executes the command with Command.execute(), which reads the response as JSON. Works with any Connection.
+     */
+    protected ResponseType executeCmd(Connection connection, RequestType request) throws IOException, CommandException, ClientException
+    {
+        try
+        {
+            return new Call<>(this, request).execute(connection, request.getContainerPath());
         }
         catch(CommandException e)
         {
-            ClientException ex = getIfPermissionsException(folderPath, e);
+            ClientException ex = getIfPermissionsException(request.getContainerPath(), e);
             if(ex != null) throw ex;
             throw e;
         }
@@ -101,105 +166,891 @@ public abstract class WebDavCommand<ResponseType extends CommandResponse> extend
         return null;
     }
 
-    protected Command.Response executeGetResponse(Connection connection, String folderPath) throws CommandException, IOException, ClientException
+    /**
+     * Executes the request returned by createRequest() without going through Command.execute() so that the response
+     * headers are available. HTTP error status codes are reported as exceptions, like Command.execute() does.
+     * The caller must close the response.
+     */
+    protected CloseableHttpResponse executeRaw(PanoramaConnection connection, RequestType request) throws IOException, CommandException, ClientException
     {
-        try
-        {
-            return super._execute(connection, folderPath);
-        }
-        catch(CommandException e)
+        String folderPath = request.getContainerPath();
+        HttpUriRequest httpRequest = createRequest(getActionUrl(connection, request, folderPath), request);
+
+        CloseableHttpResponse response = connection.executeRaw(httpRequest);
+        StatusLine statusLine = response.getStatusLine();
+        if (statusLine.getStatusCode() >= 400)
         {
+            String text;
+            try (response)
+            {
+                text = response.getEntity() != null ? EntityUtils.toString(response.getEntity()) : null;
+            }
+            CommandException e = new CommandException(statusLine.getReasonPhrase(), statusLine.getStatusCode(), null, text,
+                    getHeaderValue(response, HttpHeaders.CONTENT_TYPE));
             ClientException ex = getIfPermissionsException(folderPath, e);
-            if(ex != null) throw ex;
+            if (ex != null) throw ex;
             throw e;
         }
+        return response;
     }
 
-    abstract String getFwpPath();
-    String pathAfterFileRoot()
+    static String getHeaderValue(HttpResponse response, String name)
     {
-        String _folderPath = getFwpPath();
-        return (_folderPath != null && _folderPath.trim().length() > 0) ? _folderPath.trim() : "";
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
     }
 
-    public static class Upload extends WebDavCommand<CommandResponse>
+    /**
+     * Runs one call of a WebDavCommand through Command.execute(), which builds the HTTP request and the response
+     * from the command object. The request is held by this short-lived object instead of the WebDavCommand.
+     */
+    private static class Call<ResponseType extends CommandResponse, RequestType extends Request> extends Command<ResponseType>
     {
-        private String _sourceFilePath;
-        private String _folderPath; // Part of the path after the file root. e.g sub-folder path in the FWP.
+        private final WebDavCommand<ResponseType, RequestType> _command;
+        private final RequestType _request;
 
-        public CommandResponse upload(Connection connection, String containerPath, String folderPath, String sourceFilePath) throws IOException, CommandException, ClientException
+        Call(WebDavCommand<ResponseType, RequestType> command, RequestType request)
         {
-            this._sourceFilePath = sourceFilePath;
-            _folderPath = folderPath;
-            return super.executeCmd(connection, containerPath);
+            super(command.getControllerName(), command.getActionName());
+            _command = command;
+            _request = request;
+            setTimeout(command.getTimeout());
         }
 
         @Override
-        String getFwpPath()
+        protected String getQueryString()
         {
-            return _folderPath;
+            return null;
+        }
+
+        @Override
+        protected URI getActionUrl(Connection connection, String folderPath) throws URISyntaxException
+        {
+            return _command.getActionUrl(connection, _request);
         }
 
         @Override
         protected HttpUriRequest createRequest(URI uri)
+        {
+            return _command.createRequest(uri, _request);
+        }
+
+        @Override
+        protected ResponseType createResponse(String text, int status, String contentType, JSONObject json)
+        {
+            return _command.createResponse(text, status, contentType, json);
+        }
+    }
+
+    /**
+     * Container and file paths of a single call of a command. Instances are immutable.
+     */
+    public static class Request
+    {
+        private final String _containerPath;
+        private final String _path; // Part of the path after the file root. e.g file or sub-folder path in the FWP.
+
+        /**
+         * @param containerPath path of the Panorama folder
+         * @param path path of a file or folder relative to the file root of the container, or null for the file root
+         */
+        public Request(String containerPath, String path)
+        {
+            _containerPath = containerPath;
+            _path = path;
+        }
+
+        public String getContainerPath()
+        {
+            return _containerPath;
+        }
+
+        public String getPath()
+        {
+            return _path;
+        }
+
+        String getPathAfterFileRoot()
+        {
+            return (_path != null && _path.trim().length() > 0) ? _path.trim() : "";
+        }
+    }
+
+    /**
+     * Request for a byte range of a file. The whole file is requested if start is 0 and end is -1.
+     */
+    public static class RangeRequest extends Request
+    {
+        private final long _start;
+        private final long _end; // Inclusive; -1 requests everything after _start
+        private final String _ifRange;
+
+        /**
+         * @param ifRange ETag or Last-Modified value of the expected version of the file, or null
+         */
+        public RangeRequest(String containerPath, String path, long start, long end, String ifRange)
+        {
+            super(containerPath, path);
+            _start = start;
+            _end = end;
+            _ifRange = ifRange;
+        }
+
+        public long getStart()
+        {
+            return _start;
+        }
+
+        public long getEnd()
+        {
+            return _end;
+        }
+
+        public String getIfRange()
+        {
+            return _ifRange;
+        }
+    }
+
+    /**
+     * Request that sends a local file.
+     */
+    public static class FileRequest extends Request
+    {
+        private final Path _sourceFile;
+        private final UploadDigest _digest;
+
+        public FileRequest(String containerPath, String path, Path sourceFile)
+        {
+            this(containerPath, path, sourceFile, null);
+        }
+
+        /**
+         * @param digest hash of the file to which the bytes are added as they are sent, or null
+         */
+        FileRequest(String containerPath, String path, Path sourceFile, UploadDigest digest)
+        {
+            super(containerPath, path);
+            _sourceFile = sourceFile;
+            _digest = digest;
+        }
+
+        public Path getSourceFile()
+        {
+            return _sourceFile;
+        }
+
+        UploadDigest getDigest()
+        {
+            return _digest;
+        }
+    }
+
+    /**
+     * Request with the validators of a cached response. The server answers with HTTP 304 if the resource has not
+     * changed.
+     */
+    public static class ConditionalRequest extends Request
+    {
+        private final String _etag;
+        private final String _lastModified;
+
+        public ConditionalRequest(String containerPath, String path, String etag, String lastModified)
+        {
+            super(containerPath, path);
+            _etag = etag;
+            _lastModified = lastModified;
+        }
+
+        public String getEtag()
+        {
+            return _etag;
+        }
+
+        public String getLastModified()
+        {
+            return _lastModified;
+        }
+    }
+
+    public static class Upload extends WebDavCommand<CommandResponse, FileRequest>
+    {
+        public CommandResponse upload(Connection connection, String containerPath, String folderPath, String sourceFilePath) throws IOException, CommandException, ClientException
+        {
+            return upload(connection, containerPath, folderPath, sourceFilePath, null);
+        }
+
+        /**
+         * @param digest hash of the file to which the bytes are added as they are sent, or null
+         */
+        CommandResponse upload(Connection connection, String containerPath, String folderPath, String sourceFilePath, UploadDigest digest)
+                throws IOException, CommandException, ClientException
+        {
+            return upload(connection, new FileRequest(containerPath, folderPath, Paths.get(sourceFilePath), digest));
+        }
+
+        /**
+         * @param request the path of the request is the folder in the FWP to which the file is uploaded
+         */
+        public CommandResponse upload(Connection connection, FileRequest request) throws IOException, CommandException, ClientException
+        {
+            return executeCmd(connection, request);
+        }
+
+        @Override
+        HttpUriRequest createRequest(URI uri, FileRequest fileRequest)
         {
             HttpPost request = new HttpPost(uri);
-            HttpEntity multipartEntity = MultipartEntityBuilder.create().addBinaryBody("file", new File(_sourceFilePath)).build();
+            File file = fileRequest.getSourceFile().toFile();
+            UploadDigest digest = fileRequest.getDigest();
+            FileBody body = digest == null ? new FileBody(file, ContentType.DEFAULT_BINARY, file.getName()) : new DigestFileBody(file, digest);
+            HttpEntity multipartEntity = MultipartEntityBuilder.create().addPart("file", body).build();
             request.setEntity(multipartEntity);
             request.setConfig(RequestConfig.copy(RequestConfig.DEFAULT).setSocketTimeout(0).build());
             return request;
         }
     }
 
-    public static class Download extends WebDavCommand<CommandResponse>
+    /**
+     * File part of a multipart upload that adds the bytes of the file to an UploadDigest as they are written.
+     */
+    private static class DigestFileBody extends FileBody
     {
-        private String _sourceFile;
+        private final UploadDigest _digest;
+        private final MessageDigest _start;
+
+        DigestFileBody(File file, UploadDigest digest)
+        {
+            super(file, ContentType.DEFAULT_BINARY, file.getName());
+            _digest = digest;
+            _start = digest.copyAt(0);
+        }
 
         @Override
-        String getFwpPath()
+        public void writeTo(OutputStream out) throws IOException
         {
-            return _sourceFile;
+            MessageDigest md = UploadDigest.copy(_start);
+            super.writeTo(new DigestOutputStream(out, md));
+            _digest.update(0, getContentLength(), md);
         }
+    }
 
-        public CommandResponse download(Connection connection, String containerPath, String sourceFile, String targetFilePath) throws CommandException, IOException, ClientException
+    /**
+     * Uploads a file with a plain WebDav PUT request to the URL of the file. The file is streamed from a FileChannel
+     * as the request body with a Content-Length header, without the multipart framing of Upload, so the server can
+     * write the body to the file as it arrives.
+     */
+    public static class Put extends WebDavCommand<CommandResponse, FileRequest>
+    {
+        public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+        private final int _bufferSize;
+
+        public Put()
         {
-            _sourceFile = sourceFile;
+            this(DEFAULT_BUFFER_SIZE);
+        }
+
+        /**
+         * @param bufferSize size in bytes of the buffer used to read the file and write it to the request
+         */
+        public Put(int bufferSize)
+        {
+            _bufferSize = bufferSize;
+        }
+
+        /**
+         * @return HTTP status code returned by the server (200, 201 or 204)
+         */
+        public int put(PanoramaConnection connection, String containerPath, String folderPath, Path sourceFile) throws IOException, CommandException, ClientException
+        {
+            return put(connection, containerPath, folderPath, sourceFile, null);
+        }
+
+        /**
+         * @param digest hash of the file to which the bytes are added as they are sent, or null
+         */
+        int put(PanoramaConnection connection, String containerPath, String folderPath, Path sourceFile, UploadDigest digest) throws IOException, CommandException, ClientException
+        {
+            return put(connection, new FileRequest(containerPath, FolderWalker.join(folderPath, sourceFile.getFileName().toString()), sourceFile, digest));
+        }
+
+        /**
+         * @param request the path of the request is the path of the file in the FWP
+         * @return HTTP status code returned by the server (200, 201 or 204)
+         */
+        public int put(PanoramaConnection connection, FileRequest request) throws IOException, CommandException, ClientException
+        {
+            try (CloseableHttpResponse response = executeRaw(connection, request))
+            {
+                int status = response.getStatusLine().getStatusCode();
+                EntityUtils.consume(response.getEntity());
+                if (status != HttpStatus.SC_OK && status != HttpStatus.SC_CREATED && status != HttpStatus.SC_NO_CONTENT)
+                {
+                    throw new ClientException("File could not be uploaded. HTTP status code: " + status);
+                }
+                return status;
+            }
+        }
+
+        @Override
+        HttpUriRequest createRequest(URI uri, FileRequest fileRequest)
+        {
+            HttpPut request = new HttpPut(uri);
+            Path file = fileRequest.getSourceFile();
+            request.setEntity(new FileChannelEntity(file, file.toFile().length(), _bufferSize, fileRequest.getDigest()));
+            request.setConfig(RequestConfig.copy(RequestConfig.DEFAULT).setSocketTimeout(0).build());
+            return request;
+        }
+    }
+
+    /**
+     * Request body that reads a file through a FileChannel into a single reusable buffer. The content length is taken
+     * when the request is created, so the body is not sent with chunked encoding, and bytes appended to the file
+     * during the upload are not sent. If an UploadDigest is given, the bytes are added to it as they are sent.
+     */
+    private static class FileChannelEntity extends AbstractHttpEntity
+    {
+        private final Path _file;
+        private final long _length;
+        private final int _bufferSize;
+        private final UploadDigest _digest;
+        private final MessageDigest _start; // null if the bytes are not hashed
+
+        FileChannelEntity(Path file, long length, int bufferSize, UploadDigest digest)
+        {
+            _file = file;
+            _length = length;
+            _bufferSize = bufferSize;
+            _digest = digest;
+            _start = digest != null ? digest.copyAt(0) : null;
+            setContentType(ContentType.APPLICATION_OCTET_STREAM.toString());
+        }
 
-            Response response = super.executeGetResponse(connection, containerPath);
-            try (BufferedInputStream is = new BufferedInputStream(response.getInputStream()))
+        @Override
+        public boolean isRepeatable()
+        {
+            return true;
+        }
+
+        @Override
+        public long getContentLength()
+        {
+            return _length;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException
+        {
+            FileChannel channel = FileChannel.open(_file, StandardOpenOption.READ);
+            InputStream in = new BoundedInputStream(Channels.newInputStream(channel), _length);
+            if (_start == null)
+            {
+                return in;
+            }
+            MessageDigest md = UploadDigest.copy(_start);
+            return new DigestInputStream(in, md)
             {
-                try (BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(targetFilePath)))
+                private long _read;
+
+                @Override
+                public int read() throws IOException
                 {
-                    byte[] bytes = new byte[8096];
-                    int bytesRead;
-                    while ((bytesRead = is.read(bytes)) != -1)
+                    int b = super.read();
+                    counted(b >= 0 ? 1 : 0);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException
+                {
+                    int count = super.read(b, off, len);
+                    counted(count);
+                    return count;
+                }
+
+                private void counted(int count)
+                {
+                    if (count > 0)
                     {
-                        fos.write(bytes, 0, bytesRead);
+                        _read += count;
+                        if (_read == _length)
+                        {
+                            _digest.update(0, _length, md);
+                        }
                     }
                 }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException
+        {
+            MessageDigest md = _start != null ? UploadDigest.copy(_start) : null;
+            try (FileChannel channel = FileChannel.open(_file, StandardOpenOption.READ))
+            {
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(_bufferSize, _length)));
+                long position = 0;
+                long remaining = _length;
+                while (remaining > 0)
+                {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+                    int read = channel.read(buffer, position);
+                    if (read < 0)
+                    {
+                        throw new IOException("File " + _file + " is shorter than expected. It may have changed during the upload.");
+                    }
+                    out.write(buffer.array(), 0, read);
+                    if (md != null)
+                    {
+                        md.update(buffer.array(), 0, read);
+                    }
+                    position += read;
+                    remaining -= read;
+                }
+            }
+            out.flush();
+            if (md != null)
+            {
+                _digest.update(0, _length, md);
             }
-            return createResponse(response.getText(), response.getStatusCode(), response.getContentType(), new JSONObject());
+        }
+
+        @Override
+        public boolean isStreaming()
+        {
+            return false;
         }
     }
 
-    public static class ListFiles extends WebDavCommand<ListFilesResponse>
+    /**
+     * Reads at most the given number of bytes from the wrapped stream.
+     */
+    private static class BoundedInputStream extends FilterInputStream
     {
-        private String _folderPath; // Part of the path after the file root. e.g sub-folder path in the FWP.
+        private long _remaining;
 
-        public ListFilesResponse list(Connection connection, String containerPath, String folderPath) throws IOException, CommandException, ClientException
+        BoundedInputStream(InputStream in, long length)
         {
-            _folderPath = folderPath;
-            return super.executeCmd(connection, containerPath);
+            super(in);
+            _remaining = length;
         }
 
         @Override
-        String getFwpPath()
+        public int read() throws IOException
         {
-            return _folderPath;
+            if (_remaining <= 0)
+            {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0)
+            {
+                _remaining--;
+            }
+            return b;
         }
 
         @Override
-        protected HttpUriRequest createRequest(URI uri)
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (_remaining <= 0)
+            {
+                return -1;
+            }
+            int count = super.read(b, off, (int) Math.min(len, _remaining));
+            if (count > 0)
+            {
+                _remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+
+    public static class Download extends WebDavCommand<CommandResponse, RangeRequest>
+    {
+        private final DownloadSink _sink;
+
+        public Download()
+        {
+            this(new DownloadSink());
+        }
+
+        public Download(DownloadSink sink)
+        {
+            _sink = sink;
+        }
+
+        /**
+         * Downloads the file to a partial file next to the target file, and renames it to the target file when
+         * the download is complete. If a partial file from an earlier attempt exists, the download resumes from the
+         * end of the partial file, provided that the file on the server has not changed.
+         * @return response with the number of bytes received in this attempt, which is less than the size of the file
+         * if the download was resumed
+         */
+        public DownloadResponse download(PanoramaConnection connection, String containerPath, String sourceFile, String targetFilePath) throws CommandException, IOException, ClientException
+        {
+            PartialDownload partial = new PartialDownload(Paths.get(targetFilePath));
+            long rangeStart = partial.getResumeOffset();
+            if (rangeStart > 0)
+            {
+                LOG.info("Resuming download of " + sourceFile + " from byte " + rangeStart);
+            }
+
+            CloseableHttpResponse response;
+            try
+            {
+                response = executeRaw(connection, new RangeRequest(containerPath, sourceFile, rangeStart, -1, partial.getIfRangeValidator()));
+            }
+            catch (CommandException e)
+            {
+                if (e.getStatusCode() == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && rangeStart > 0)
+                {
+                    // The partial file is not shorter than the file on the server. Start over.
+                    LOG.info("Partial download of " + sourceFile + " does not match the file on the server. Downloading from the beginning.");
+                    partial.discard();
+                    return download(connection, containerPath, sourceFile, targetFilePath);
+                }
+                throw e;
+            }
+
+            try (response)
+            {
+                String etag = getHeaderValue(response, HttpHeaders.ETAG);
+                String lastModified = getHeaderValue(response, HttpHeaders.LAST_MODIFIED);
+                boolean append = false;
+                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT)
+                {
+                    if (partial.isStale(etag, lastModified) || getContentRangeStart(response) != rangeStart)
+                    {
+                        LOG.info("File " + sourceFile + " has changed on the server since the partial download was started. Downloading from the beginning.");
+                        partial.discard();
+                        response.close();
+                        return download(connection, containerPath, sourceFile, targetFilePath);
+                    }
+                    append = true;
+                }
+                else if (rangeStart > 0)
+                {
+                    LOG.info("File " + sourceFile + " has changed on the server since the partial download was started. Downloading from the beginning.");
+                }
+
+                partial.start(etag, lastModified);
+
+                HttpEntity entity = response.getEntity();
+                long expectedBytes = entity.getContentLength();
+                long bytesWritten;
+                try (InputStream is = entity.getContent();
+                     FileChannel channel = FileChannel.open(partial.getPartFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+                {
+                    long position = append ? rangeStart : 0;
+                    // A partial file from a segmented download may have bytes past the resume offset.
+                    channel.truncate(position);
+                    bytesWritten = _sink.write(is, channel, position, -1);
+                }
+                if (expectedBytes >= 0 && bytesWritten != expectedBytes)
+                {
+                    throw new IOException("Download of " + sourceFile + " is incomplete. Received " + bytesWritten + " of " + expectedBytes + " bytes."
+                            + " Run the download again to resume.");
+                }
+                partial.complete();
+
+                String contentType = entity.getContentType() != null ? entity.getContentType().getValue() : null;
+                return new DownloadResponse(HttpStatus.SC_OK, contentType, bytesWritten, this);
+            }
+        }
+
+        @Override
+        HttpUriRequest createRequest(URI uri, RangeRequest rangeRequest)
+        {
+            HttpGet request = new HttpGet(uri);
+            long start = rangeRequest.getStart();
+            long end = rangeRequest.getEnd();
+            if (start > 0 || end >= 0)
+            {
+                request.setHeader(HttpHeaders.RANGE, "bytes=" + start + "-" + (end >= 0 ? end : ""));
+                if (rangeRequest.getIfRange() != null)
+                {
+                    request.setHeader(HttpHeaders.IF_RANGE, rangeRequest.getIfRange());
+                }
+            }
+            return request;
+        }
+
+        /**
+         * Downloads the bytes from start to end (inclusive) of the file, and writes them to the channel at the same
+         * position. The FileChannel may be shared by threads downloading other ranges of the file.
+         * @param ifRange ETag or Last-Modified value of the expected version of the file
+         * @return number of bytes written
+         */
+        public long downloadRange(PanoramaConnection connection, String containerPath, String sourceFile, long start, long end, String ifRange,
+                                  FileChannel channel) throws CommandException, IOException, ClientException
+        {
+            return downloadRange(connection, new RangeRequest(containerPath, sourceFile, start, end, ifRange), channel);
+        }
+
+        /**
+         * Like {@link #downloadRange(PanoramaConnection, String, String, long, long, String, FileChannel)}, with the
+         * path and the byte range in the request. The end of the range must be given.
+         * @return number of bytes written
+         */
+        public long downloadRange(PanoramaConnection connection, RangeRequest request, FileChannel channel) throws CommandException, IOException, ClientException
+        {
+            String sourceFile = request.getPath();
+            long start = request.getStart();
+            long end = request.getEnd();
+            try (CloseableHttpResponse response = executeRaw(connection, request))
+            {
+                if (response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT || getContentRangeStart(response) != start)
+                {
+                    // The server sends the whole file (200) if the file changed since we got the If-Range value.
+                    throw new ClientException("Server did not return the requested byte range " + start + "-" + end + " of " + sourceFile
+                            + ". HTTP status code: " + response.getStatusLine().getStatusCode() + ". The file may have changed on the server.");
+                }
+
+                long expectedBytes = end - start + 1;
+                long bytesWritten;
+                try (InputStream is = response.getEntity().getContent())
+                {
+                    bytesWritten = _sink.write(is, channel, start, expectedBytes);
+                }
+                if (bytesWritten != expectedBytes)
+                {
+                    throw new IOException("Download of byte range " + start + "-" + end + " of " + sourceFile + " is incomplete. Received "
+                            + bytesWritten + " of " + expectedBytes + " bytes.");
+                }
+                return bytesWritten;
+            }
+        }
+
+        /**
+         * @return first byte position in a Content-Range header value like "bytes 100-999/1000", or -1 if the header is missing.
+         */
+        private static long getContentRangeStart(HttpResponse response)
+        {
+            String contentRange = getHeaderValue(response, HttpHeaders.CONTENT_RANGE);
+            if (contentRange == null || !contentRange.startsWith("bytes "))
+            {
+                return -1;
+            }
+            int idx = contentRange.indexOf('-');
+            try
+            {
+                return idx == -1 ? -1 : Long.parseLong(contentRange.substring("bytes ".length(), idx).trim());
+            }
+            catch (NumberFormatException e)
+            {
+                return -1;
+            }
+        }
+    }
+
+    public static class Head extends WebDavCommand<HeadResponse, Request>
+    {
+        public HeadResponse head(PanoramaConnection connection, String containerPath, String path) throws IOException, CommandException, ClientException
+        {
+            return head(connection, new Request(containerPath, path));
+        }
+
+        public HeadResponse head(PanoramaConnection connection, Request request) throws IOException, CommandException, ClientException
+        {
+            try (CloseableHttpResponse response = executeRaw(connection, request))
+            {
+                String contentLength = getHeaderValue(response, HttpHeaders.CONTENT_LENGTH);
+                return new HeadResponse(response.getStatusLine().getStatusCode(),
+                        getHeaderValue(response, HttpHeaders.CONTENT_TYPE),
+                        contentLength != null ? Long.parseLong(contentLength.trim()) : -1,
+                        getHeaderValue(response, HttpHeaders.ETAG),
+                        getHeaderValue(response, HttpHeaders.LAST_MODIFIED),
+                        "bytes".equalsIgnoreCase(getHeaderValue(response, HttpHeaders.ACCEPT_RANGES)),
+                        this);
+            }
+        }
+
+        @Override
+        HttpUriRequest createRequest(URI uri, Request request)
+        {
+            return new HttpHead(uri);
+        }
+    }
+
+    public static class DownloadResponse extends CommandResponse
+    {
+        private final long _bytesReceived;
+
+        public DownloadResponse(int statusCode, String contentType, long bytesReceived, Command<?> sourceCommand)
+        {
+            super(null, statusCode, contentType, new JSONObject(), sourceCommand);
+            _bytesReceived = bytesReceived;
+        }
+
+        /**
+         * @return number of bytes received from the server and written to the file
+         */
+        public long getBytesReceived()
+        {
+            return _bytesReceived;
+        }
+    }
+
+    public static class HeadResponse extends CommandResponse
+    {
+        private final long _contentLength;
+        private final String _etag;
+        private final String _lastModified;
+        private final boolean _acceptsRanges;
+
+        public HeadResponse(int statusCode, String contentType, long contentLength, String etag, String lastModified, boolean acceptsRanges, Command<?> sourceCommand)
+        {
+            super(null, statusCode, contentType, new JSONObject(), sourceCommand);
+            _contentLength = contentLength;
+            _etag = etag;
+            _lastModified = lastModified;
+            _acceptsRanges = acceptsRanges;
+        }
+
+        /**
+         * @return size of the file in bytes, or -1 if the server did not send a Content-Length header
+         */
+        public long getContentLength()
+        {
+            return _contentLength;
+        }
+
+        public String getEtag()
+        {
+            return _etag;
+        }
+
+        public String getLastModified()
+        {
+            return _lastModified;
+        }
+
+        public boolean acceptsRanges()
+        {
+            return _acceptsRanges;
+        }
+    }
+
+    public static class ListFiles extends WebDavCommand<ListFilesResponse, ConditionalRequest>
+    {
+        public ListFilesResponse list(Connection connection, String containerPath, String folderPath) throws IOException, CommandException, ClientException
+        {
+            return list(connection, new Request(containerPath, folderPath));
+        }
+
+        public ListFilesResponse list(Connection connection, Request request) throws IOException, CommandException, ClientException
+        {
+            return executeCmd(connection, new ConditionalRequest(request.getContainerPath(), request.getPath(), null, null));
+        }
+
+        /**
+         * Streams the folder listing to the handler without reading the whole response into memory.
+         * Use this instead of list() for folders that may contain a very large number of files.
+         * @return number of files and folders in the listing
+         */
+        public int list(PanoramaConnection connection, String containerPath, String folderPath, ListingParser.Handler handler) throws IOException, CommandException, ClientException
+        {
+            return list(connection, containerPath, folderPath, null, handler);
+        }
+
+        /**
+         * Like {@link #list(PanoramaConnection, String, String, ListingParser.Handler)}, but the listing is read from
+         * the cache if it is fresh, or if the server confirms that the cached listing has not changed (HTTP 304).
+         * Listings fetched from the server are added to the cache. Cached listings are only used by connections with
+         * the same credentials id; the cache is not used if the connection has no credentials id.
+         * @param cache listing cache, or null to always fetch the listing from the server
+         */
+        public int list(PanoramaConnection connection, String containerPath, String folderPath, ListingCache cache,
+                        ListingParser.Handler handler) throws IOException, CommandException, ClientException
+        {
+            return list(connection, new Request(containerPath, folderPath), cache, handler);
+        }
+
+        /**
+         * Like {@link #list(PanoramaConnection, String, String, ListingCache, ListingParser.Handler)}, with the
+         * container and folder path in the request.
+         */
+        public int list(PanoramaConnection connection, Request request, ListingCache cache, ListingParser.Handler handler) throws IOException, CommandException, ClientException
+        {
+            URI uri = null;
+            String credentialsId = connection.getCredentialsId();
+            if (credentialsId == null)
+            {
+                cache = null; // Listings depend on the user, so they cannot be shared between unknown credentials
+            }
+            ListingCache.Entry cachedEntry = null; // Cached listing that the server is asked to revalidate
+            if (cache != null)
+            {
+                uri = getActionUrl(connection, request, request.getContainerPath());
+                ListingCache.Entry entry = cache.get(uri, credentialsId);
+                if (entry != null && entry.isFresh())
+                {
+                    cache.hit();
+                    return parseCached(cache, entry, handler);
+                }
+                cachedEntry = entry;
+            }
+
+            ConditionalRequest conditionalRequest = new ConditionalRequest(request.getContainerPath(), request.getPath(),
+                    cachedEntry != null ? cachedEntry.getEtag() : null, cachedEntry != null ? cachedEntry.getLastModified() : null);
+            try (CloseableHttpResponse response = executeRaw(connection, conditionalRequest))
+            {
+                int status = response.getStatusLine().getStatusCode();
+                if (status == HttpStatus.SC_NOT_MODIFIED && cachedEntry != null)
+                {
+                    cache.revalidated(cachedEntry);
+                    return parseCached(cache, cachedEntry, handler);
+                }
+                HttpEntity entity = response.getEntity();
+                if (status != HttpStatus.SC_OK || entity == null)
+                {
+                    throw new ClientException("Received HTTP status code " + status);
+                }
+                Charset charset = ContentType.getLenientOrDefault(entity).getCharset();
+                charset = charset != null ? charset : StandardCharsets.UTF_8;
+                if (cache == null)
+                {
+                    try (Reader reader = new BufferedReader(new InputStreamReader(entity.getContent(), charset)))
+                    {
+                        return ListingParser.parse(reader, handler);
+                    }
+                }
+
+                cache.miss();
+                try (ListingCache.EntryWriter writer = cache.newEntry(uri, credentialsId, getHeaderValue(response, HttpHeaders.ETAG),
+                        getHeaderValue(response, HttpHeaders.LAST_MODIFIED), charset);
+                     InputStream in = writer.tee(entity.getContent()))
+                {
+                    int count = ListingParser.parse(new BufferedReader(new InputStreamReader(in, charset)), handler);
+                    writer.commit(in);
+                    return count;
+                }
+            }
+        }
+
+        private static int parseCached(ListingCache cache, ListingCache.Entry entry, ListingParser.Handler handler) throws IOException, ClientException
+        {
+            try (Reader reader = new BufferedReader(entry.openReader()))
+            {
+                return ListingParser.parse(reader, handler);
+            }
+            catch (IOException | ClientException e)
+            {
+                cache.remove(entry); // Fetch the listing from the server next time
+                throw e;
+            }
+        }
+
+        @Override
+        HttpUriRequest createRequest(URI uri, ConditionalRequest conditionalRequest)
         {
             HttpEntityEnclosingRequestBase request = new HttpEntityEnclosingRequestBase()
             {
@@ -212,6 +1063,14 @@ public abstract class WebDavCommand<ResponseType extends CommandResponse> extend
                 }
             };
             request.setURI(uri);
+            if (conditionalRequest.getEtag() != null)
+            {
+                request.setHeader(HttpHeaders.IF_NONE_MATCH, conditionalRequest.getEtag());
+            }
+            if (conditionalRequest.getLastModified() != null)
+            {
+                request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, conditionalRequest.getLastModified());
+            }
             return request;
         }
 
@@ -224,55 +1083,140 @@ public abstract class WebDavCommand<ResponseType extends CommandResponse> extend
 
     public static class ListFilesResponse extends CommandResponse
     {
-        private List<String> _fileNames;
+        private List<RemoteFile> _files;
+        private List<String> _folders;
 
-        public ListFilesResponse(String text, int statusCode, String contentType, JSONObject json, Command sourceCommand)
+        public ListFilesResponse(String text, int statusCode, String contentType, JSONObject json, Command<?> sourceCommand)
         {
             super(text, statusCode, contentType, json, sourceCommand);
         }
 
         public List<String> getFiles()
         {
-            if (_fileNames == null)
+            return getRemoteFiles().stream().map(RemoteFile::getName).collect(Collectors.toList());
+        }
+
+        /**
+         * @return files in the folder, with the size and last modified time returned by the server. Directories are not included.
+         */
+        public List<RemoteFile> getRemoteFiles()
+        {
+            if (_files == null)
             {
                 List<Map<String, Object>> fileList = getProperty("files");
                 if (fileList == null)
                     throw new IllegalStateException("No file list returned from the server.");
 
-                _fileNames = new ArrayList<>();
+                _files = new ArrayList<>();
+                _folders = new ArrayList<>();
                 for (Map<String, Object> fileDetails: fileList)
                 {
                     Object isCollection = fileDetails.get("collection");
                     if(isCollection != null && Boolean.parseBoolean(isCollection.toString()))
                     {
-                        // Ignore directories
+                        _folders.add((String) fileDetails.get("text"));
                         continue;
                     }
-                    _fileNames.add((String) fileDetails.get("text")); // Just the filename
+                    _files.add(RemoteFile.fromJson(fileDetails));
                 }
             }
-            return _fileNames;
+            return _files;
+        }
+
+        /**
+         * @return names of the subfolders in the folder
+         */
+        public List<String> getFolders()
+        {
+            getRemoteFiles();
+            return _folders;
         }
     }
 
-    public static class CreateDir extends WebDavCommand<CommandResponse>
+    /**
+     * Lists a folder with a standard WebDav PROPFIND request. With Depth: infinity the whole subtree is returned in
+     * a single response, instead of one request per folder with ListFiles. The response is parsed as a stream.
+     */
+    public static class Propfind extends WebDavCommand<CommandResponse, Request>
     {
-        private String _folderPath; // Part of the path after the file root. e.g sub-folder path in the FWP.
+        public static final String DEPTH_ONE = "1";
+        public static final String DEPTH_INFINITY = "infinity";
 
-        public CommandResponse create(Connection connection, String containerPath, String folderPath) throws IOException, CommandException, ClientException
+        static final String PROPFIND_BODY = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+                + "<D:propfind xmlns:D=\"DAV:\"><D:prop>"
+                + "<D:resourcetype/><D:getcontentlength/><D:getlastmodified/><D:getetag/>"
+                + "</D:prop></D:propfind>";
+
+        private final String _depth;
+
+        public Propfind(String depth)
         {
-            _folderPath = folderPath;
-            return super.executeCmd(connection, containerPath);
+            _depth = depth;
+        }
+
+        /**
+         * @return number of files and folders in the response, not including the requested folder
+         */
+        public int list(PanoramaConnection connection, String containerPath, String folderPath, PropfindParser.Handler handler) throws IOException, CommandException, ClientException
+        {
+            return list(connection, new Request(containerPath, folderPath), handler);
+        }
+
+        /**
+         * @return number of files and folders in the response, not including the requested folder
+         */
+        public int list(PanoramaConnection connection, Request request, PropfindParser.Handler handler) throws IOException, CommandException, ClientException
+        {
+            String basePath = getActionUrl(connection, request, request.getContainerPath()).getPath();
+            try (CloseableHttpResponse response = executeRaw(connection, request))
+            {
+                int status = response.getStatusLine().getStatusCode();
+                HttpEntity entity = response.getEntity();
+                if (status != HttpStatus.SC_MULTI_STATUS || entity == null)
+                {
+                    throw new ClientException("Received HTTP status code " + status + " for PROPFIND request. Expected " + HttpStatus.SC_MULTI_STATUS);
+                }
+                try (InputStream in = entity.getContent())
+                {
+                    return PropfindParser.parse(in, basePath, handler);
+                }
+            }
         }
 
         @Override
-        String getFwpPath()
+        HttpUriRequest createRequest(URI uri, Request propfindRequest)
+        {
+            HttpEntityEnclosingRequestBase request = new HttpEntityEnclosingRequestBase()
+            {
+                @Override
+                public String getMethod()
+                {
+                    return "PROPFIND";
+                }
+            };
+            // Collections are addressed with a trailing slash; some servers redirect otherwise
+            String path = uri.getRawPath();
+            request.setURI(path.endsWith("/") ? uri : uri.resolve(path + "/"));
+            request.setHeader("Depth", _depth);
+            request.setEntity(new StringEntity(PROPFIND_BODY, ContentType.create("application/xml", StandardCharsets.UTF_8)));
+            return request;
+        }
+    }
+
+    public static class CreateDir extends WebDavCommand<CommandResponse, Request>
+    {
+        public CommandResponse create(Connection connection, String containerPath, String folderPath) throws IOException, CommandException, ClientException
+        {
+            return create(connection, new Request(containerPath, folderPath));
+        }
+
+        public CommandResponse create(Connection connection, Request request) throws IOException, CommandException, ClientException
         {
-            return _folderPath;
+            return executeCmd(connection, request);
         }
 
         @Override
-        protected HttpUriRequest createRequest(URI uri)
+        HttpUriRequest createRequest(URI uri, Request mkcolRequest)
         {
             HttpEntityEnclosingRequestBase request = new HttpEntityEnclosingRequestBase()
             {
@@ -287,26 +1231,156 @@ public abstract class WebDavCommand<ResponseType extends CommandResponse> extend
         }
     }
 
-    public static class CheckWebdavPathExists extends WebDavCommand<CommandResponse>
+    /**
+     * Gets the size, last modified time and ETag of a file or folder with a WebDav PROPFIND request with Depth: 0.
+     * Unlike a GET request, the response does not include the content of the file. A missing file or folder is
+     * returned as a response for which {@link StatResponse#exists()} is false, not as an exception.
+     */
+    public static class Stat extends WebDavCommand<StatResponse, Request>
     {
-        private String _folderPath; // Part of the path after the file root. e.g sub-folder path in the FWP.
+        public StatResponse stat(PanoramaConnection connection, String containerPath, String path) throws IOException, CommandException, ClientException
+        {
+            return stat(connection, new Request(containerPath, path));
+        }
 
-        public CommandResponse check(Connection connection, String containerPath, String folderPath) throws IOException, CommandException, ClientException
+        public StatResponse stat(PanoramaConnection connection, Request request) throws IOException, CommandException, ClientException
         {
-            _folderPath = folderPath;
-            return super.executeCmd(connection, containerPath);
+            return stat(connection, request, true);
         }
 
-        @Override
-        String getFwpPath()
+        /**
+         * @param followRedirect if true, and the server redirects a path without a trailing slash to the same path with
+         *                       a slash, as it does for folders, the request is repeated with the trailing slash
+         */
+        private StatResponse stat(PanoramaConnection connection, Request request, boolean followRedirect) throws IOException, CommandException, ClientException
         {
-            return _folderPath;
+            String basePath = getActionUrl(connection, request, request.getContainerPath()).getPath();
+
+            CloseableHttpResponse response;
+            try
+            {
+                response = executeRaw(connection, request);
+            }
+            catch (CommandException e)
+            {
+                if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                {
+                    return new StatResponse(e.getStatusCode(), null, false, this);
+                }
+                throw e;
+            }
+            try (response)
+            {
+                int status = response.getStatusLine().getStatusCode();
+                if (followRedirect && isRedirect(status) && !basePath.endsWith("/"))
+                {
+                    String location = getHeaderValue(response, HttpHeaders.LOCATION);
+                    if (location != null && location.endsWith("/"))
+                    {
+                        String path = request.getPathAfterFileRoot();
+                        return stat(connection, new Request(request.getContainerPath(), path + "/"), false);
+                    }
+                }
+                HttpEntity entity = response.getEntity();
+                if (status != HttpStatus.SC_MULTI_STATUS || entity == null)
+                {
+                    throw new ClientException("Received HTTP status code " + status + " for PROPFIND request. Expected " + HttpStatus.SC_MULTI_STATUS);
+                }
+                RemoteFile[] file = new RemoteFile[1];
+                boolean[] collection = new boolean[1];
+                try (InputStream in = entity.getContent())
+                {
+                    PropfindParser.parse(in, basePath, new PropfindParser.Handler()
+                    {
+                        @Override
+                        public void file(String relativeFolderPath, RemoteFile remoteFile) {}
+
+                        @Override
+                        public void folder(String relativePath) {}
+
+                        @Override
+                        public void requested(RemoteFile remoteFile, boolean isCollection)
+                        {
+                            file[0] = remoteFile;
+                            collection[0] = isCollection;
+                        }
+                    });
+                }
+                if (file[0] == null)
+                {
+                    throw new ClientException("The PROPFIND response for " + basePath + " did not include the requested path");
+                }
+                return new StatResponse(status, file[0], collection[0], this);
+            }
         }
 
         @Override
-        protected HttpUriRequest createRequest(URI uri)
+        HttpUriRequest createRequest(URI uri, Request statRequest)
+        {
+            HttpEntityEnclosingRequestBase request = new HttpEntityEnclosingRequestBase()
+            {
+                @Override
+                public String getMethod()
+                {
+                    return "PROPFIND";
+                }
+            };
+            request.setURI(uri);
+            request.setHeader("Depth", "0");
+            request.setEntity(new StringEntity(Propfind.PROPFIND_BODY, ContentType.create("application/xml", StandardCharsets.UTF_8)));
+            return request;
+        }
+
+        private static boolean isRedirect(int status)
+        {
+            return status == 301 || status == 302 || status == 307 || status == 308;
+        }
+    }
+
+    public static class StatResponse extends CommandResponse
+    {
+        private final RemoteFile _file;
+        private final boolean _collection;
+
+        /**
+         * @param file the file or folder, or null if it does not exist
+         */
+        public StatResponse(int statusCode, RemoteFile file, boolean collection, Command<?> sourceCommand)
+        {
+            super(null, statusCode, null, new JSONObject(), sourceCommand);
+            _file = file;
+            _collection = collection;
+        }
+
+        public boolean exists()
+        {
+            return _file != null;
+        }
+
+        public boolean isCollection()
+        {
+            return _collection;
+        }
+
+        /**
+         * @return size of the file in bytes, or -1 if the file does not exist or the server did not return the size
+         */
+        public long getSize()
+        {
+            return _file != null ? _file.getSize() : -1;
+        }
+
+        /**
+         * @return last modified time in milliseconds since the epoch, or -1 if not known
+         */
+        public long getLastModified()
+        {
+            return _file != null ? _file.getLastModified() : -1;
+        }
+
+        public String getEtag()
         {
-           return new HttpGet(uri);
+            return _file != null ? _file.getEtag() : null;
         }
     }
 }
@@ -0,0 +1,424 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.AsyncPanoramaClient;
+import edu.maccosslab.panoramaclient.ClientException;
+import edu.maccosslab.panoramaclient.RemoteFile;
+import edu.maccosslab.panoramaclient.WebDavCommand;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs the operations of the client against a server that keeps the files and folders of the file root of the "home"
+ * folder in memory. The file slow.raw is sent slowly, so that its download can be cancelled while it runs.
+ */
+public class AsyncPanoramaClientTest
+{
+    private static final String FILE_ROOT = "/_webdav/home/@files";
+    private static final long JOB_ID = 42;
+
+    @Rule
+    public TemporaryFolder _tempFolder = new TemporaryFolder();
+
+    private HttpServer _server;
+    private AsyncPanoramaClient _client;
+    // Paths relative to the file root
+    private final Map<String, byte[]> _files = new ConcurrentHashMap<>();
+    private final Set<String> _folders = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch _slowDownloadStarted = new CountDownLatch(1);
+    private final CountDownLatch _slowDownloadAborted = new CountDownLatch(1);
+    private final AtomicInteger _statusChecks = new AtomicInteger();
+    private volatile String _importedFile;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+        _server.setExecutor(Executors.newCachedThreadPool());
+        _server.createContext("/", this::handle);
+        _server.start();
+        _client = new AsyncPanoramaClient("http://127.0.0.1:" + _server.getAddress().getPort(), "apikey", 2);
+    }
+
+    @After
+    public void tearDown()
+    {
+        _client.close();
+        _server.stop(0);
+    }
+
+    @Test
+    public void testList() throws Exception
+    {
+        _folders.add("data");
+        _files.put("data/a.raw", new byte[10]);
+        _files.put("data/b.raw", new byte[20]);
+        _folders.add("data/sub");
+        _files.put("data/sub/c.raw", new byte[30]);
+        _files.put("other.raw", new byte[40]);
+
+        List<RemoteFile> files = _client.list("home", "data").get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(List.of("a.raw", "b.raw"), files.stream().map(RemoteFile::getName).sorted().collect(Collectors.toList()));
+        Assert.assertEquals(20, files.stream().filter(f -> f.getName().equals("b.raw")).findFirst().get().getSize());
+    }
+
+    @Test
+    public void testStat() throws Exception
+    {
+        _files.put("data/a.raw", new byte[10]);
+        WebDavCommand.StatResponse response = _client.stat("home", "data/a.raw").get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(response.exists());
+        Assert.assertEquals(10, response.getSize());
+        Assert.assertFalse(_client.stat("home", "data/missing.raw").get(10, TimeUnit.SECONDS).exists());
+    }
+
+    @Test
+    public void testDownload() throws Exception
+    {
+        byte[] data = "downloaded".getBytes(StandardCharsets.UTF_8);
+        _files.put("data/a.raw", data);
+        Path file = _client.download("home", "data/a.raw", _tempFolder.getRoot().toPath()).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(_tempFolder.getRoot().toPath().resolve("a.raw"), file);
+        Assert.assertArrayEquals(data, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void testUploadCreatesFolder() throws Exception
+    {
+        Path file = _tempFolder.newFile("a.raw").toPath();
+        Files.write(file, "uploaded".getBytes(StandardCharsets.UTF_8));
+        _client.upload(file, "home", "new/sub").get(10, TimeUnit.SECONDS);
+        Assert.assertArrayEquals(Files.readAllBytes(file), _files.get("new/sub/a.raw"));
+        Assert.assertTrue(_folders.contains("new"));
+
+        try
+        {
+            _client.upload(_tempFolder.getRoot().toPath().resolve("missing.raw"), "home", "new").get(10, TimeUnit.SECONDS);
+            Assert.fail("Expected an error for a missing file");
+        }
+        catch (ExecutionException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof ClientException);
+        }
+    }
+
+    @Test
+    public void testMkdir() throws Exception
+    {
+        _client.mkdir("home", "a/b/c").get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(Set.of("a", "a/b", "a/b/c"), _folders);
+    }
+
+    @Test
+    public void testImportSkyDoc() throws Exception
+    {
+        long jobId = _client.importSkyDoc("home", "docs/study.sky.zip").get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(JOB_ID, jobId);
+        Assert.assertEquals("docs/study.sky.zip", _importedFile);
+        Assert.assertEquals(1, _statusChecks.get());
+    }
+
+    @Test
+    public void testCancelRunningOperation() throws Exception
+    {
+        CompletableFuture<Path> download = _client.download("home", "slow.raw", _tempFolder.getRoot().toPath());
+        Assert.assertTrue(_slowDownloadStarted.await(10, TimeUnit.SECONDS));
+
+        Assert.assertTrue(download.cancel(true));
+        Assert.assertTrue("The HTTP request was not aborted", _slowDownloadAborted.await(10, TimeUnit.SECONDS));
+
+        // The workers and connections of the client can be used again
+        _files.put("a.raw", new byte[10]);
+        for (int i = 0; i < 3; i++)
+        {
+            Assert.assertEquals(10, _client.stat("home", "a.raw").get(10, TimeUnit.SECONDS).getSize());
+        }
+    }
+
+    @Test
+    public void testMapAllLimitsOperationsInFlight() throws Exception
+    {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+        {
+            items.add(i);
+        }
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Integer> results = _client.mapAll(items, 4, item -> CompletableFuture.supplyAsync(() -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sleep(5);
+            running.decrementAndGet();
+            return item * 2;
+        })).get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(50, results.size());
+        for (int i = 0; i < results.size(); i++)
+        {
+            Assert.assertEquals(i * 2, (int) results.get(i));
+        }
+        Assert.assertTrue("Found " + maxRunning.get() + " operations in flight", maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void testMapAllStopsAfterFailure() throws Exception
+    {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+        {
+            items.add(i);
+        }
+        AtomicInteger started = new AtomicInteger();
+        CompletableFuture<List<Integer>> result = _client.mapAll(items, 2, item -> {
+            started.incrementAndGet();
+            return item == 3 ? CompletableFuture.failedFuture(new ClientException("failed " + item)) : CompletableFuture.completedFuture(item);
+        });
+        try
+        {
+            result.get(10, TimeUnit.SECONDS);
+            Assert.fail("Expected the failure of item 3");
+        }
+        catch (ExecutionException e)
+        {
+            Assert.assertEquals("failed 3", e.getCause().getMessage());
+        }
+        Assert.assertEquals(4, started.get());
+    }
+
+    @Test
+    public void testCancelMapAllCancelsOperations()
+    {
+        CompletableFuture<Integer> pending = new CompletableFuture<>();
+        CompletableFuture<List<Integer>> result = _client.mapAll(List.of(1), 1, item -> pending);
+        result.cancel(true);
+        Assert.assertTrue(pending.isCancelled());
+        try
+        {
+            result.join();
+            Assert.fail("Expected a CancellationException");
+        }
+        catch (CancellationException expected) {}
+    }
+
+    @Test
+    public void testOperationAfterClose() throws Exception
+    {
+        _client.close();
+        _client.close();
+        try
+        {
+            _client.stat("home", "file.raw").get(10, TimeUnit.SECONDS);
+            Assert.fail("Expected an error for an operation submitted after close()");
+        }
+        catch (ExecutionException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof ClientException);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            String filePath = path.startsWith(FILE_ROOT) ? trimSlashes(path.substring(FILE_ROOT.length())) : null;
+            if (path.endsWith("whoami.api"))
+            {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                send(exchange, 200, "{\"id\": 1, \"displayName\": \"test\", \"CSRF\": \"test\", \"success\": true}");
+            }
+            else if (path.endsWith("skylineDocUploadApi.api"))
+            {
+                Map<String, String> params = new TreeMap<>();
+                for (NameValuePair param : URLEncodedUtils.parse(exchange.getRequestURI(), StandardCharsets.UTF_8))
+                {
+                    params.put(param.getName(), param.getValue());
+                }
+                _importedFile = params.get("path") + "/" + params.get("file");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                send(exchange, 200, "{\"UploadedJobDetails\": [{\"RowId\": " + JOB_ID + "}]}");
+            }
+            else if (path.endsWith("selectRows.api"))
+            {
+                _statusChecks.incrementAndGet();
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                send(exchange, 200, "{\"rowCount\": 1, \"rows\": [{\"RowId\": " + JOB_ID + ", \"Status\": \"COMPLETE\"}]}");
+            }
+            else if (filePath == null)
+            {
+                send(exchange, 404, "");
+            }
+            else if ("slow.raw".equals(filePath) && "GET".equals(method))
+            {
+                sendSlowly(exchange);
+            }
+            else if ("GET".equals(method) && _files.containsKey(filePath))
+            {
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                send(exchange, 200, _files.get(filePath));
+            }
+            else if ("JSON".equals(method) && _folders.contains(filePath))
+            {
+                List<String> entries = new ArrayList<>();
+                for (String child : children(filePath))
+                {
+                    String name = child.substring(child.lastIndexOf('/') + 1);
+                    boolean folder = _folders.contains(child);
+                    entries.add("{\"id\": \"/home/@files/" + child + "\", \"text\": \"" + name + "\", \"collection\": " + folder
+                            + (folder ? "" : ", \"size\": " + _files.get(child).length) + "}");
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                send(exchange, 200, "{\"fileCount\": " + entries.size() + ", \"files\": [" + String.join(", ", entries) + "]}");
+            }
+            else if ("PROPFIND".equals(method) && _files.containsKey(filePath))
+            {
+                exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+                send(exchange, 207, "<?xml version=\"1.0\" encoding=\"utf-8\"?><D:multistatus xmlns:D=\"DAV:\"><D:response><D:href>"
+                        + exchange.getRequestURI().getRawPath() + "</D:href><D:propstat><D:prop><D:resourcetype/>"
+                        + "<D:getcontentlength>" + _files.get(filePath).length + "</D:getcontentlength>"
+                        + "</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response></D:multistatus>");
+            }
+            else if ("MKCOL".equals(method))
+            {
+                String parent = filePath.contains("/") ? filePath.substring(0, filePath.lastIndexOf('/')) : "";
+                if (_folders.contains(filePath))
+                {
+                    send(exchange, 405, "");
+                }
+                else if (!parent.isEmpty() && !_folders.contains(parent))
+                {
+                    send(exchange, 409, "");
+                }
+                else
+                {
+                    _folders.add(filePath);
+                    send(exchange, 201, "");
+                }
+            }
+            else if ("PUT".equals(method))
+            {
+                _files.put(filePath, body);
+                send(exchange, 201, "");
+            }
+            else
+            {
+                send(exchange, 404, "");
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends the headers of a large file, and then the content slowly, until the client closes the connection.
+     */
+    private void sendSlowly(HttpExchange exchange)
+    {
+        try
+        {
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, 1L << 30);
+            OutputStream out = exchange.getResponseBody();
+            byte[] buffer = new byte[64 * 1024];
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (System.nanoTime() < deadline)
+            {
+                out.write(buffer);
+                out.flush();
+                _slowDownloadStarted.countDown();
+                Thread.sleep(10);
+            }
+        }
+        catch (IOException e)
+        {
+            _slowDownloadAborted.countDown();
+        }
+        catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * @return the paths of the files and folders directly in the folder
+     */
+    private Set<String> children(String folder)
+    {
+        Set<String> children = new TreeSet<>();
+        String prefix = folder.isEmpty() ? "" : folder + "/";
+        for (String path : Stream.concat(_files.keySet().stream(), _folders.stream()).collect(Collectors.toList()))
+        {
+            if (path.startsWith(prefix) && path.length() > prefix.length() && path.indexOf('/', prefix.length()) < 0)
+            {
+                children.add(path);
+            }
+        }
+        return children;
+    }
+
+    private static String trimSlashes(String path)
+    {
+        return path.replaceAll("^/+|/+$", "");
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException
+    {
+        send(exchange, status, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException
+    {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0)
+        {
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+    }
+
+    private static void sleep(int millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
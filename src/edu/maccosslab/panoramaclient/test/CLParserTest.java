@@ -1,11 +1,17 @@
 package edu.maccosslab.panoramaclient.test;
 
+import edu.maccosslab.panoramaclient.ActionOptions;
 import edu.maccosslab.panoramaclient.CLOptionsGroup;
 import edu.maccosslab.panoramaclient.PanoramaClient;
+import edu.maccosslab.panoramaclient.RemoteFile;
+import edu.maccosslab.panoramaclient.RemoteFileFilter;
 import org.apache.commons.cli.ParseException;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
 public class CLParserTest
 {
     @Test
@@ -16,6 +22,7 @@ public class CLParserTest
         testFailParsingMainOption(client, new String[] {"-x"}, "Unrecognized option: -x");
 
         testParseDownloadFile(client);
+        testParseDownloadFiles(client);
         testParseImportSkylineDoc(client);
     }
 
@@ -42,6 +49,56 @@ public class CLParserTest
         testFailParsingSubOptions(optionsGroup, new String[] {"-w", "https://localhost:8080", apiKeyLongOpt, "apikey", "-t"}, "Missing argument for option: t");
     }
 
+    private void testParseDownloadFiles(PanoramaClient client)
+    {
+        CLOptionsGroup optionsGroup = client.getClOptionsGroup("download_files");
+        Assert.assertTrue("Expected instance of CLOptionsGroup.DownloadFiles", optionsGroup instanceof CLOptionsGroup.DownloadFiles);
+
+        testFailParsingSubOptions(optionsGroup, new String[] {"-w", "https://localhost:8080", "-n"}, "Missing argument for option: n");
+        testFailParsingSubOptions(optionsGroup, new String[] {"-w", "https://localhost:8080", "-n", "0"}, "Value for option -n must be a positive integer. Found: 0");
+        testFailParsingSubOptions(optionsGroup, new String[] {"-w", "https://localhost:8080", "-n", "four"}, "Value for option -n must be a positive integer. Found: four");
+        testFailParsingSubOptions(optionsGroup, new String[] {"-w", "https://localhost:8080", "-z", "ten"},
+                "Value for option -z must be a size in bytes, optionally followed by K, M or G. Found: ten");
+        testFailParsingSubOptions(optionsGroup, new String[] {"-w", "https://localhost:8080", "-N", "yesterday"},
+                "Value for option -N must be a date (yyyy-MM-dd), a date and time (yyyy-MM-ddTHH:mm:ss) or an age (e.g. 30m, 12h, 7d). Found: yesterday");
+        testFailParsingSubOptions(optionsGroup, new String[] {"-w", "https://localhost:8080", "-I", "regex:("},
+                "Invalid pattern 'regex:(': Unclosed group");
+        testFailParsingSubOptions(optionsGroup, new String[] {"-w", "https://localhost:8080", "-L", "-1"},
+                "Value for option -L must be zero or a positive integer. Found: -1");
+        testFailParsingSubOptions(optionsGroup, new String[] {"-w", "https://localhost:8080", "-S", "10"},
+                "Option -S can only be used with -L");
+        try
+        {
+            ActionOptions.DownloadFiles opts = (ActionOptions.DownloadFiles) optionsGroup.getActionOptions(new String[] {"-w", "https://localhost:8080"});
+            Assert.assertEquals(1, opts.getThreadCount());
+            Assert.assertFalse(opts.isSync());
+            opts = (ActionOptions.DownloadFiles) optionsGroup.getActionOptions(new String[] {"-w", "https://localhost:8080", "--threads", "8", "--sync"});
+            Assert.assertEquals(8, opts.getThreadCount());
+            Assert.assertTrue(opts.isSync());
+            Assert.assertFalse(opts.isRecursive());
+            opts = (ActionOptions.DownloadFiles) optionsGroup.getActionOptions(new String[] {"-w", "https://localhost:8080", "-r", "-j", "2"});
+            Assert.assertTrue(opts.isRecursive());
+            Assert.assertEquals(2, opts.getListThreadCount());
+            Assert.assertTrue(opts.getFileFilter().isEmpty());
+            Assert.assertNull(opts.getListingCache());
+            opts = (ActionOptions.DownloadFiles) optionsGroup.getActionOptions(new String[] {"-w", "https://localhost:8080",
+                    "-I", "*.raw", "-I", "regex:.*\\.wiff2?", "-X", "blank_*", "--min_size", "1.5K", "--max_size", "2G", "--newer_than", "7d"});
+            RemoteFileFilter filter = opts.getFileFilter();
+            long now = System.currentTimeMillis();
+            Assert.assertTrue(filter.accept("QC_1.raw", new RemoteFile("QC_1.raw", 2048, now, null)));
+            Assert.assertTrue(filter.accept("QC_1.wiff2", new RemoteFile("QC_1.wiff2", 2048, now, null)));
+            Assert.assertFalse(filter.accept("blank_1.raw", new RemoteFile("blank_1.raw", 2048, now, null)));
+            Assert.assertFalse(filter.accept("QC_1.raw", new RemoteFile("QC_1.raw", 1024, now, null)));
+            Assert.assertFalse(filter.accept("QC_1.raw", new RemoteFile("QC_1.raw", 2048, now - TimeUnit.DAYS.toMillis(8), null)));
+            opts = (ActionOptions.DownloadFiles) optionsGroup.getActionOptions(new String[] {"-w", "https://localhost:8080", "--cache_ttl", "0"});
+            Assert.assertNotNull(opts.getListingCache());
+        }
+        catch (ParseException e)
+        {
+            Assert.fail("Should not have failed." + e.getMessage());
+        }
+    }
+
     private void testFailParsingMainOption(PanoramaClient client, String[] args, String errMsg)
     {
         try
@@ -93,5 +150,28 @@ public class CLParserTest
                 "Please specify a value for ONLY one of the options: -s or -t.");
         testFailParsingSubOptions(optionsGroup, new String[] {"-p", "https://localhost:8080"},
                 "Please specify a value for one of the options: -s or -t.");
+        testFailParsingSubOptions(optionsGroup, new String[] {"-p", "https://localhost:8080", "-s", "a.sky.zip", "-t", "b.sky.zip", "-t", "c.sky.zip"},
+                "Please specify a value for ONLY one of the options: -s or -t.");
+        testFailParsingSubOptions(optionsGroup, new String[] {"-p", "https://localhost:8080", "-s", "a.sky.zip", "-m", "-1"},
+                "Value for option -m must be zero or a positive integer. Found: -1");
+        try
+        {
+            ActionOptions.ImportSkyDoc opts = (ActionOptions.ImportSkyDoc) optionsGroup.getActionOptions(new String[] {"-p", "https://localhost:8080",
+                    "-s", "a.sky.zip"});
+            Assert.assertEquals("a.sky.zip", opts.getSkyDocPathLocal());
+            Assert.assertTrue(opts.getSkyDocNamesRemote().isEmpty());
+            Assert.assertEquals(0, opts.getMaxImports());
+            opts = (ActionOptions.ImportSkyDoc) optionsGroup.getActionOptions(new String[] {"-p", "https://localhost:8080",
+                    "-t", "a.sky.zip", "-t", "b.sky.zip", "-t", "c.sky.zip"});
+            Assert.assertEquals(Arrays.asList("a.sky.zip", "b.sky.zip", "c.sky.zip"), opts.getSkyDocNamesRemote());
+            Assert.assertNull(opts.getSkyDocPathLocal());
+            opts = (ActionOptions.ImportSkyDoc) optionsGroup.getActionOptions(new String[] {"-p", "https://localhost:8080",
+                    "-s", "a.sky.zip", "-s", "b.sky.zip", "-m", "2"});
+            Assert.assertEquals(2, opts.getMaxImports());
+        }
+        catch (ParseException e)
+        {
+            Assert.fail("Should not have failed." + e.getMessage());
+        }
     }
 }
@@ -0,0 +1,308 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.ActionOptions;
+import edu.maccosslab.panoramaclient.ClientAction;
+import edu.maccosslab.panoramaclient.ClientActionDownloadFiles;
+import edu.maccosslab.panoramaclient.RemoteFile;
+import org.apache.log4j.Logger;
+import org.apache.log4j.SimpleLayout;
+import org.apache.log4j.WriterAppender;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Downloads a folder from a server that lists each file with its size and last modified time, and that answers byte
+ * range requests. Checks which files are downloaded again in sync mode, and which files get a HEAD request when large
+ * files are downloaded in segments. Files in the listing are given as paths relative to the folder that is downloaded.
+ */
+public class ClientActionDownloadFilesTest
+{
+    private static final String ROOT = "RawFiles";
+    private static final long MODIFIED = 1760000000000L;
+
+    @Rule
+    public TemporaryFolder _tempFolder = new TemporaryFolder();
+
+    private HttpServer _server;
+    private String _serverUrl;
+    private Path _targetDir;
+    private final Map<String, byte[]> _files = Collections.synchronizedMap(new TreeMap<>());
+    private final Map<String, Long> _modified = Collections.synchronizedMap(new TreeMap<>());
+    private final List<String> _downloads = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> _heads = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> _ranges = Collections.synchronizedList(new ArrayList<>());
+    private final Set<String> _unlistedSizes = ConcurrentHashMap.newKeySet();
+    private final StringWriter _log = new StringWriter();
+    private WriterAppender _appender;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+        _server.createContext("/", this::handle);
+        _server.start();
+        _serverUrl = "http://127.0.0.1:" + _server.getAddress().getPort();
+        _targetDir = _tempFolder.newFolder("target").toPath();
+        _appender = new WriterAppender(new SimpleLayout(), _log);
+        Logger.getLogger(ClientAction.class).addAppender(_appender);
+    }
+
+    @After
+    public void tearDown()
+    {
+        Logger.getLogger(ClientAction.class).removeAppender(_appender);
+        _server.stop(0);
+    }
+
+    @Test
+    public void testIsUnchanged() throws Exception
+    {
+        Path file = Files.write(_targetDir.resolve("a.raw"), new byte[10]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(MODIFIED));
+
+        Assert.assertTrue(ClientActionDownloadFiles.isUnchanged(new RemoteFile("a.raw", 10, MODIFIED, null), file));
+        // The listing may be rounded to the second, and some file systems store times with 2 second precision
+        Assert.assertTrue(ClientActionDownloadFiles.isUnchanged(new RemoteFile("a.raw", 10, MODIFIED + 1999, null), file));
+        Assert.assertTrue(ClientActionDownloadFiles.isUnchanged(new RemoteFile("a.raw", 10, MODIFIED - 1999, null), file));
+        Assert.assertFalse(ClientActionDownloadFiles.isUnchanged(new RemoteFile("a.raw", 10, MODIFIED + 2000, null), file));
+        Assert.assertFalse(ClientActionDownloadFiles.isUnchanged(new RemoteFile("a.raw", 10, MODIFIED - 2000, null), file));
+        Assert.assertFalse(ClientActionDownloadFiles.isUnchanged(new RemoteFile("a.raw", 11, MODIFIED, null), file));
+
+        // Both values are needed to tell that the file has not changed
+        Assert.assertFalse(ClientActionDownloadFiles.isUnchanged(new RemoteFile("a.raw", -1, MODIFIED, null), file));
+        Assert.assertFalse(ClientActionDownloadFiles.isUnchanged(new RemoteFile("a.raw", 10, -1, null), file));
+
+        Assert.assertFalse(ClientActionDownloadFiles.isUnchanged(new RemoteFile("b.raw", 0, MODIFIED, null), _targetDir.resolve("b.raw")));
+        Assert.assertFalse(ClientActionDownloadFiles.isUnchanged(new RemoteFile("target", 0, MODIFIED, null), _targetDir));
+    }
+
+    @Test
+    public void testSync() throws Exception
+    {
+        addFile("a.raw", 1024, MODIFIED);
+        addFile("b.raw", 2048, MODIFIED + 1000);
+        addFile("c.raw", 3072, MODIFIED + 2000);
+        sync(false);
+        Assert.assertEquals(Arrays.asList("a.raw", "b.raw", "c.raw"), sorted(_downloads));
+        assertDownloaded("a.raw", "b.raw", "c.raw");
+        Assert.assertTrue(_log.toString().contains("Skipped 0 of 3 files"));
+
+        // The downloaded files have the last modified time from the listing, so nothing is downloaded again
+        _downloads.clear();
+        sync(false);
+        Assert.assertTrue(_downloads.isEmpty());
+        Assert.assertTrue(_log.toString().contains("Skipped 3 of 3 files that are unchanged since they were last downloaded (6.0 KiB not transferred)"));
+
+        // A file that changed on the server, and a local file that was modified, are downloaded again
+        _downloads.clear();
+        addFile("b.raw", 2000, MODIFIED + 60000);
+        Files.setLastModifiedTime(_targetDir.resolve("c.raw"), FileTime.fromMillis(MODIFIED + 10000));
+        sync(false);
+        Assert.assertEquals(Arrays.asList("b.raw", "c.raw"), sorted(_downloads));
+        assertDownloaded("a.raw", "b.raw", "c.raw");
+        Assert.assertTrue(_log.toString().contains("Skipped 1 of 3 files that are unchanged since they were last downloaded (1.0 KiB not transferred)"));
+    }
+
+    @Test
+    public void testSyncRecursive() throws Exception
+    {
+        addFile("a.raw", 1024, MODIFIED);
+        addFile("sub/b.raw", 2048, MODIFIED);
+        addFile("sub/deep/c.raw", 1024, MODIFIED);
+        sync(true);
+        Assert.assertEquals(Arrays.asList("a.raw", "sub/b.raw", "sub/deep/c.raw"), sorted(_downloads));
+        assertDownloaded("a.raw", "sub/b.raw", "sub/deep/c.raw");
+
+        _downloads.clear();
+        addFile("sub/deep/c.raw", 1024, MODIFIED + 5000);
+        sync(true);
+        Assert.assertEquals(Collections.singletonList("sub/deep/c.raw"), _downloads);
+        Assert.assertTrue(_log.toString().contains("Skipped 2 of 3 files that are unchanged since they were last downloaded (3.0 KiB not transferred)"));
+    }
+
+    @Test
+    public void testHeadOnlyForSegmentCandidates() throws Exception
+    {
+        addFile("a.raw", 1024, MODIFIED);
+        addFile("b.raw", 99999, MODIFIED);
+        addFile("big.raw", 300000, MODIFIED);
+        addFile("unlisted.raw", 2048, MODIFIED);
+        _unlistedSizes.add("unlisted.raw");
+
+        ActionOptions.DownloadFiles options = options(false, false);
+        options.setSegmentCount(3);
+        options.setMinSegmentedFileSize(100000);
+        Assert.assertTrue(new ClientActionDownloadFiles().doAction(options));
+
+        // Files that the listing shows to be below the threshold are downloaded without a HEAD request
+        Assert.assertEquals(Arrays.asList("big.raw", "unlisted.raw"), sorted(_heads));
+        Assert.assertEquals(Arrays.asList("a.raw", "b.raw", "unlisted.raw"), sorted(_downloads));
+        Assert.assertEquals(Arrays.asList("big.raw bytes=0-99999", "big.raw bytes=100000-199999", "big.raw bytes=200000-299999"), sorted(_ranges));
+        assertDownloaded("a.raw", "b.raw", "big.raw", "unlisted.raw");
+    }
+
+    private void sync(boolean recursive) throws Exception
+    {
+        Assert.assertTrue(new ClientActionDownloadFiles().doAction(options(true, recursive)));
+    }
+
+    private ActionOptions.DownloadFiles options(boolean sync, boolean recursive)
+    {
+        ActionOptions.DownloadFiles options = new ActionOptions.DownloadFiles();
+        options.setWebdavUrl(_serverUrl + "/_webdav/home/@files/" + ROOT);
+        options.setApiKey("none");
+        options.setDestDirPath(_targetDir.toString());
+        options.setSync(sync);
+        options.setRecursive(recursive);
+        options.setThreadCount(2);
+        return options;
+    }
+
+    private void addFile(String path, int length, long modified)
+    {
+        byte[] content = new byte[length];
+        Arrays.fill(content, (byte) (path.length() + length));
+        _files.put(path, content);
+        _modified.put(path, modified);
+    }
+
+    private void assertDownloaded(String... paths) throws IOException
+    {
+        for (String path : paths)
+        {
+            Path file = _targetDir.resolve(path);
+            Assert.assertArrayEquals(path, _files.get(path), Files.readAllBytes(file));
+            Assert.assertEquals(path, (long) _modified.get(path), Files.getLastModifiedTime(file).toMillis());
+        }
+    }
+
+    private static List<String> sorted(List<String> list)
+    {
+        List<String> sorted = new ArrayList<>(list);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("whoami.api"))
+            {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                send(exchange, 200, "{\"id\": 1, \"displayName\": \"test\", \"CSRF\": \"test\", \"success\": true}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            String name = path.substring(path.indexOf("/@files/") + "/@files/".length()).replaceAll("/+$", "");
+            String relative = name.equals(ROOT) ? "" : name.substring(ROOT.length() + 1);
+            if ("JSON".equals(exchange.getRequestMethod()))
+            {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                send(exchange, 200, list(relative).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            byte[] content = _files.get(relative);
+            if (content == null)
+            {
+                send(exchange, 404, new byte[0]);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().set("ETag", "\"" + relative + _modified.get(relative) + "\"");
+            if ("HEAD".equals(exchange.getRequestMethod()))
+            {
+                _heads.add(relative);
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range == null)
+            {
+                _downloads.add(relative);
+                send(exchange, 200, content);
+                return;
+            }
+            _ranges.add(relative + " " + range);
+            int start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            int end = Integer.parseInt(range.substring(range.indexOf('-') + 1));
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            send(exchange, 206, Arrays.copyOfRange(content, start, end + 1));
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private String list(String folder)
+    {
+        String prefix = folder.isEmpty() ? "" : folder + "/";
+        List<String> entries = new ArrayList<>();
+        List<String> folders = new ArrayList<>();
+        synchronized (_files)
+        {
+            for (String path : _files.keySet())
+            {
+                if (!path.startsWith(prefix))
+                {
+                    continue;
+                }
+                String name = path.substring(prefix.length());
+                int idx = name.indexOf('/');
+                if (idx == -1)
+                {
+                    entries.add("{\"id\": \"" + path + "\", \"text\": \"" + name + "\", \"collection\": false, "
+                            + (_unlistedSizes.contains(path) ? "" : "\"size\": " + _files.get(path).length + ", ")
+                            + "\"lastmodified\": " + _modified.get(path) + "}");
+                }
+                else if (!folders.contains(name.substring(0, idx)))
+                {
+                    folders.add(name.substring(0, idx));
+                    entries.add("{\"id\": \"" + prefix + name.substring(0, idx) + "\", \"text\": \"" + name.substring(0, idx)
+                            + "\", \"collection\": true}");
+                }
+            }
+        }
+        return "{\"files\": [" + String.join(", ", entries) + "]}";
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException
+    {
+        exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+        if (body.length > 0)
+        {
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.ActionOptions;
+import edu.maccosslab.panoramaclient.ClientActionUpload;
+import edu.maccosslab.panoramaclient.ClientException;
+import edu.maccosslab.panoramaclient.ContainerProbe;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import edu.maccosslab.panoramaclient.WebdavUrlParts;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates directories with ClientActionUpload on a WebDAV server that answers MKCOL with 201 if the parent directory
+ * exists, 409 if it does not, and 405 if the directory already exists. The server can be set to fail the MKCOL
+ * requests for a directory a number of times. Files are uploaded with PUT, which fails with 409 if the directory of the
+ * file does not exist, and with 500 for the files that the server is set to reject.
+ */
+public class ClientActionUploadTest
+{
+    @Rule
+    public TemporaryFolder _tempFolder = new TemporaryFolder();
+
+    private HttpServer _server;
+    private String _serverUrl;
+    private PanoramaConnection _connection;
+    private final Set<String> _dirs = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> _failures = new ConcurrentHashMap<>();
+    private final List<String> _requests = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, byte[]> _files = new ConcurrentHashMap<>();
+    private final Set<String> _rejectedFiles = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger _containerRequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        ClientActionUpload.clearKnownDirs();
+        ContainerProbe.clearCache();
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+        _server.createContext("/", this::handle);
+        _server.start();
+        _serverUrl = "http://127.0.0.1:" + _server.getAddress().getPort();
+        _connection = new PanoramaConnection(_serverUrl, new ApiKeyCredentialsProvider("none"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.stop(0);
+        ClientActionUpload.clearKnownDirs();
+        ContainerProbe.clearCache();
+    }
+
+    @Test
+    public void testMissingParentsAreCreated() throws Exception
+    {
+        createDir("a/b/c");
+        // The deepest directory is requested first, and each missing parent answers 409 until one can be created
+        Assert.assertEquals(Arrays.asList("MKCOL a/b/c", "MKCOL a/b", "MKCOL a", "MKCOL a/b", "MKCOL a/b/c"), _requests);
+        Assert.assertEquals(Set.of("a", "a/b", "a/b/c"), _dirs);
+
+        // Created directories, and their parents, are not requested again
+        _requests.clear();
+        createDir("a/b/c");
+        createDir("a/b");
+        createDir("a");
+        Assert.assertTrue(_requests.isEmpty());
+
+        createDir("a/b/d");
+        Assert.assertEquals(Collections.singletonList("MKCOL a/b/d"), _requests);
+    }
+
+    @Test
+    public void testExistingDirectoryIsOneRequest() throws Exception
+    {
+        _dirs.addAll(Arrays.asList("a", "a/b", "a/b/c"));
+        createDir("a/b/c");
+        Assert.assertEquals(Collections.singletonList("MKCOL a/b/c"), _requests);
+
+        // 405 also means that the parents exist
+        createDir("a/b");
+        createDir("a/b/c");
+        Assert.assertEquals(1, _requests.size());
+
+        // A created parent stops the recursion, and a parent that exists answers 405
+        _requests.clear();
+        createDir("a/x/y");
+        Assert.assertEquals(Arrays.asList("MKCOL a/x/y", "MKCOL a/x", "MKCOL a/x/y"), _requests);
+        _requests.clear();
+        createDir("a/b/e/f");
+        Assert.assertEquals(Arrays.asList("MKCOL a/b/e/f", "MKCOL a/b/e", "MKCOL a/b/e/f"), _requests);
+    }
+
+    @Test
+    public void testFailedRequestIsRetriedOnce() throws Exception
+    {
+        _dirs.add("a");
+        _failures.put("a/b", 1);
+        createDir("a/b");
+        Assert.assertEquals(Arrays.asList("MKCOL a/b", "MKCOL a/b"), _requests);
+        Assert.assertTrue(_dirs.contains("a/b"));
+
+        _requests.clear();
+        _failures.put("a/c", 2);
+        try
+        {
+            createDir("a/c");
+            Assert.fail("Expected the second failed MKCOL request to be an error");
+        }
+        catch (ClientException expected)
+        {
+            Assert.assertTrue(expected.getMessage().contains("500"));
+        }
+        Assert.assertEquals(Arrays.asList("MKCOL a/c", "MKCOL a/c"), _requests);
+
+        // A directory that could not be created is not remembered
+        _requests.clear();
+        createDir("a/c");
+        Assert.assertEquals(Collections.singletonList("MKCOL a/c"), _requests);
+        Assert.assertTrue(_dirs.contains("a/c"));
+    }
+
+    @Test
+    public void testFileRootIsNotCreated() throws Exception
+    {
+        createDir("");
+        Assert.assertTrue(_requests.isEmpty());
+    }
+
+    @Test
+    public void testDirectoryUpload() throws Exception
+    {
+        Path srcDir = createSourceTree();
+        Assert.assertTrue(new ClientActionUpload().doAction(uploadOptions(srcDir, 3)));
+
+        // The target directory, then the subdirectories deepest first. Creating sub/deep also creates sub.
+        Assert.assertEquals(Arrays.asList("MKCOL Target", "MKCOL Target/sub/deep", "MKCOL Target/sub", "MKCOL Target/sub/deep",
+                "MKCOL Target/other"), mkcolRequests());
+        Assert.assertEquals(1, _containerRequests.get());
+        assertUploaded(srcDir, "a.raw", "sub/b.raw", "sub/deep/c.raw", "sub/deep/bad.raw", "other/d.raw");
+        Assert.assertEquals(5, _files.size());
+
+        // Directories are not created again for the next upload in the same process
+        _requests.clear();
+        Assert.assertTrue(new ClientActionUpload().doAction(uploadOptions(srcDir, 1)));
+        Assert.assertTrue(mkcolRequests().isEmpty());
+        Assert.assertEquals(1, _containerRequests.get());
+    }
+
+    @Test
+    public void testFailedFilesDoNotStopTheUpload() throws Exception
+    {
+        Path srcDir = createSourceTree();
+        _rejectedFiles.add("Target/sub/deep/bad.raw");
+        _rejectedFiles.add("Target/a.raw");
+        try
+        {
+            new ClientActionUpload().doAction(uploadOptions(srcDir, 2));
+            Assert.fail("Expected an error for the rejected files");
+        }
+        catch (ClientException expected)
+        {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().startsWith("2 of 5 files could not be uploaded"));
+        }
+        assertUploaded(srcDir, "sub/b.raw", "sub/deep/c.raw", "other/d.raw");
+        Assert.assertEquals(3, _files.size());
+        Assert.assertEquals(1, _containerRequests.get());
+    }
+
+    private Path createSourceTree() throws IOException
+    {
+        Path srcDir = _tempFolder.newFolder("src").toPath();
+        int i = 0;
+        for (String file : Arrays.asList("a.raw", "sub/b.raw", "sub/deep/c.raw", "sub/deep/bad.raw", "other/d.raw"))
+        {
+            Path path = srcDir.resolve(file);
+            Files.createDirectories(path.getParent());
+            byte[] content = new byte[1000 + 100 * i++];
+            Arrays.fill(content, (byte) i);
+            Files.write(path, content);
+        }
+        return srcDir;
+    }
+
+    private ActionOptions.Upload uploadOptions(Path srcDir, int threadCount)
+    {
+        ActionOptions.Upload options = new ActionOptions.Upload();
+        options.setWebdavUrl(_serverUrl + "/_webdav/home/@files/Target");
+        options.setApiKey("none");
+        options.setSrcFilePath(srcDir.toString());
+        options.setRecursive(true);
+        options.setCreateTargetDir(true);
+        options.setPut(true);
+        options.setThreadCount(threadCount);
+        return options;
+    }
+
+    private List<String> mkcolRequests()
+    {
+        List<String> mkcols = new ArrayList<>();
+        for (String request : new ArrayList<>(_requests))
+        {
+            if (request.startsWith("MKCOL "))
+            {
+                mkcols.add(request);
+            }
+        }
+        return mkcols;
+    }
+
+    private void assertUploaded(Path srcDir, String... files) throws IOException
+    {
+        for (String file : files)
+        {
+            Assert.assertArrayEquals(file, Files.readAllBytes(srcDir.resolve(file)), _files.get("Target/" + file));
+        }
+    }
+
+    private void createDir(String path) throws ClientException
+    {
+        new ClientActionUpload().createWebdavPath(new WebdavUrlParts(_serverUrl, "home", path), _connection);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            String path = exchange.getRequestURI().getPath();
+            if (!"PUT".equals(exchange.getRequestMethod()))
+            {
+                exchange.getRequestBody().readAllBytes();
+            }
+            if (path.endsWith("whoami.api"))
+            {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                send(exchange, 200, "{\"id\": 1, \"displayName\": \"test\", \"CSRF\": \"test\", \"success\": true}");
+                return;
+            }
+            if (path.endsWith("getContainers.api"))
+            {
+                _containerRequests.incrementAndGet();
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                send(exchange, 200, "{\"id\": \"1\", \"path\": \"/home\", \"userPermissions\": 15}");
+                return;
+            }
+            String dir = path.substring(path.indexOf("/@files/") + "/@files/".length()).replaceAll("/+$", "");
+            _requests.add(exchange.getRequestMethod() + " " + dir);
+            if ("PUT".equals(exchange.getRequestMethod()))
+            {
+                put(exchange, dir);
+                return;
+            }
+            if (!"MKCOL".equals(exchange.getRequestMethod()))
+            {
+                send(exchange, 404, "");
+                return;
+            }
+            int failures = _failures.getOrDefault(dir, 0);
+            if (failures > 0)
+            {
+                _failures.put(dir, failures - 1);
+                send(exchange, 500, "");
+                return;
+            }
+            int idx = dir.lastIndexOf('/');
+            if (_dirs.contains(dir))
+            {
+                send(exchange, 405, "");
+            }
+            else if (idx != -1 && !_dirs.contains(dir.substring(0, idx)))
+            {
+                send(exchange, 409, "");
+            }
+            else
+            {
+                _dirs.add(dir);
+                send(exchange, 201, "");
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void put(HttpExchange exchange, String file) throws IOException
+    {
+        byte[] content = exchange.getRequestBody().readAllBytes();
+        if (!_dirs.contains(file.substring(0, file.lastIndexOf('/'))))
+        {
+            send(exchange, 409, "");
+        }
+        else if (_rejectedFiles.contains(file))
+        {
+            send(exchange, 500, "");
+        }
+        else
+        {
+            _files.put(file, content);
+            send(exchange, 201, "");
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException
+    {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+        if (body.length > 0)
+        {
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+    }
+}
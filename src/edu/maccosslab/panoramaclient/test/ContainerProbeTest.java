@@ -0,0 +1,138 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.ContainerProbe;
+import edu.maccosslab.panoramaclient.LabKeyUrlParts;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Probes folders on a server that answers project-getContainers for one existing folder, and 404 for others.
+ */
+public class ContainerProbeTest
+{
+    private HttpServer _server;
+    private String _serverUrl;
+    private final AtomicInteger _requests = new AtomicInteger();
+    private volatile String _existingFolder = "home";
+
+    @Before
+    public void setUp() throws IOException
+    {
+        ContainerProbe.clearCache();
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+        _server.createContext("/", this::handle);
+        _server.start();
+        _serverUrl = "http://127.0.0.1:" + _server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.stop(0);
+        ContainerProbe.clearCache();
+    }
+
+    @Test
+    public void testFoundFolderIsCached() throws Exception
+    {
+        PanoramaConnection connection = connection("key1", "apikey:1");
+        Assert.assertTrue(ContainerProbe.probe(folder("home"), connection).exists());
+        Assert.assertTrue(ContainerProbe.probe(folder("/Home/"), connection).exists());
+        Assert.assertEquals(1, _requests.get());
+        Assert.assertEquals(15, ContainerProbe.probe(folder("home"), connection).getUserPermissions());
+    }
+
+    @Test
+    public void testMissingFolderIsNotCached() throws Exception
+    {
+        PanoramaConnection connection = connection("key1", "apikey:1");
+        Assert.assertFalse(ContainerProbe.probe(folder("other"), connection).exists());
+
+        // The folder is created, or it could not be seen with these credentials before
+        _existingFolder = "other";
+        Assert.assertTrue(ContainerProbe.probe(folder("other"), connection).exists());
+        Assert.assertEquals(2, _requests.get());
+    }
+
+    @Test
+    public void testCacheIsPerCredentials() throws Exception
+    {
+        Assert.assertTrue(ContainerProbe.probe(folder("home"), connection("key1", "apikey:1")).exists());
+        Assert.assertTrue(ContainerProbe.probe(folder("home"), connection("key2", "apikey:2")).exists());
+        Assert.assertEquals(2, _requests.get());
+
+        // Connections without a credentials id are never cached
+        ContainerProbe.probe(folder("home"), new PanoramaConnection(_serverUrl, new ApiKeyCredentialsProvider("key1")));
+        ContainerProbe.probe(folder("home"), new PanoramaConnection(_serverUrl, new ApiKeyCredentialsProvider("key1")));
+        Assert.assertEquals(4, _requests.get());
+    }
+
+    private LabKeyUrlParts folder(String containerPath)
+    {
+        return new LabKeyUrlParts(_serverUrl, containerPath);
+    }
+
+    private PanoramaConnection connection(String apiKey, String credentialsId)
+    {
+        return new PanoramaConnection(_serverUrl, new ApiKeyCredentialsProvider(apiKey), credentialsId);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if (path.endsWith("whoami.api"))
+            {
+                send(exchange, 200, "{\"id\": 1, \"displayName\": \"test\", \"CSRF\": \"test\", \"success\": true}");
+            }
+            else if (path.endsWith("getContainers.api"))
+            {
+                _requests.incrementAndGet();
+                String folder = path.substring(1, path.lastIndexOf('/'));
+                folder = folder.substring(folder.indexOf('/') + 1);
+                if (folder.equalsIgnoreCase(_existingFolder))
+                {
+                    send(exchange, 200, "{\"id\": \"1\", \"path\": \"/" + folder + "\", \"userPermissions\": 15}");
+                }
+                else
+                {
+                    send(exchange, 404, "{\"exception\": \"Folder not found\", \"success\": false}");
+                }
+            }
+            else
+            {
+                send(exchange, 404, "{}");
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException
+    {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+}
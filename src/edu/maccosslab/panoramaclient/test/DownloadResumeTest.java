@@ -0,0 +1,233 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import edu.maccosslab.panoramaclient.PartialDownload;
+import edu.maccosslab.panoramaclient.WebDavCommand;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resumes sequential downloads with WebDavCommand.Download, against a server that answers Range requests with 206 if
+ * the If-Range value matches the current ETag or Last-Modified value of the file, and with the whole file otherwise.
+ * The server can be set to ignore If-Range, or to close the connection half way through the file.
+ */
+public class DownloadResumeTest
+{
+    private static final String FILE = "data.raw";
+    private static final String LAST_MODIFIED = "Mon, 12 Oct 2026 10:00:00 GMT";
+    private static final String OLD_LAST_MODIFIED = "Thu, 01 Oct 2026 10:00:00 GMT";
+
+    @Rule
+    public TemporaryFolder _tempFolder = new TemporaryFolder();
+
+    private HttpServer _server;
+    private PanoramaConnection _connection;
+    private Path _target;
+    private final byte[] _content = new byte[100000];
+    private volatile String _etag = "\"v2\"";
+    private volatile boolean _ignoreIfRange;
+    private volatile boolean _truncate;
+    private final List<String> _ranges = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> _ifRanges = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException
+    {
+        for (int i = 0; i < _content.length; i++)
+        {
+            _content[i] = (byte) (i * 31 + 7);
+        }
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+        _server.createContext("/", this::handle);
+        _server.start();
+        _connection = new PanoramaConnection("http://127.0.0.1:" + _server.getAddress().getPort(), new ApiKeyCredentialsProvider("none"));
+        _target = _tempFolder.getRoot().toPath().resolve(FILE);
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.stop(0);
+    }
+
+    @Test
+    public void testResumeFromPartLength() throws Exception
+    {
+        startPartial(40000, _etag, LAST_MODIFIED);
+
+        Assert.assertEquals(60000, download());
+        Assert.assertEquals(Collections.singletonList("bytes=40000-"), _ranges);
+        Assert.assertEquals(Collections.singletonList(_etag), _ifRanges);
+        assertComplete();
+    }
+
+    @Test
+    public void testIfRangeMismatchDownloadsWholeFile() throws Exception
+    {
+        startPartial(40000, "\"v1\"", OLD_LAST_MODIFIED);
+
+        // The server sends the whole file with 200, which replaces the partial file
+        Assert.assertEquals(_content.length, download());
+        Assert.assertEquals(Collections.singletonList("bytes=40000-"), _ranges);
+        Assert.assertEquals(Collections.singletonList("\"v1\""), _ifRanges);
+        assertComplete();
+    }
+
+    @Test
+    public void testUnsatisfiableRangeStartsOver() throws Exception
+    {
+        startPartial(_content.length, _etag, LAST_MODIFIED);
+
+        Assert.assertEquals(_content.length, download());
+        Assert.assertEquals(Arrays.asList("bytes=100000-", ""), _ranges);
+        assertComplete();
+    }
+
+    @Test
+    public void testStaleValidatorStartsOver() throws Exception
+    {
+        _ignoreIfRange = true;
+
+        // The server answers 206 although the ETag saved with the partial file is out of date
+        startPartial(40000, "\"v1\"", OLD_LAST_MODIFIED);
+        Assert.assertEquals(_content.length, download());
+        Assert.assertEquals(Arrays.asList("bytes=40000-", ""), _ranges);
+        assertComplete();
+
+        // Only a Last-Modified value was saved with the partial file
+        _ranges.clear();
+        Files.delete(_target);
+        startPartial(40000, null, OLD_LAST_MODIFIED);
+        Assert.assertEquals(_content.length, download());
+        Assert.assertEquals(Arrays.asList("bytes=40000-", ""), _ranges);
+        Assert.assertEquals(OLD_LAST_MODIFIED, _ifRanges.get(_ifRanges.size() - 1));
+        assertComplete();
+    }
+
+    @Test
+    public void testTargetIsReplacedWhenComplete() throws Exception
+    {
+        Files.write(_target, "old version".getBytes(StandardCharsets.UTF_8));
+        _truncate = true;
+        try
+        {
+            download();
+            Assert.fail("Expected the truncated download to fail");
+        }
+        catch (IOException expected) {}
+
+        // The target file is untouched until the download is complete
+        Assert.assertEquals("old version", new String(Files.readAllBytes(_target), StandardCharsets.UTF_8));
+        long partLength = Files.size(partFile());
+        Assert.assertTrue(partLength > 0 && partLength < _content.length);
+
+        _truncate = false;
+        Assert.assertEquals(_content.length - partLength, download());
+        Assert.assertEquals(Arrays.asList("", "bytes=" + partLength + "-"), _ranges);
+        assertComplete();
+    }
+
+    private long download() throws Exception
+    {
+        WebDavCommand.DownloadResponse response = new WebDavCommand.Download().download(_connection, "home", FILE, _target.toString());
+        Assert.assertEquals(200, response.getStatusCode());
+        return response.getBytesReceived();
+    }
+
+    private void startPartial(int length, String etag, String lastModified) throws IOException
+    {
+        new PartialDownload(_target).start(etag, lastModified);
+        Files.write(partFile(), Arrays.copyOf(_content, length));
+    }
+
+    private Path partFile()
+    {
+        return _target.resolveSibling(FILE + ".part");
+    }
+
+    private void assertComplete() throws IOException
+    {
+        Assert.assertArrayEquals(_content, Files.readAllBytes(_target));
+        Assert.assertFalse(Files.exists(partFile()));
+        Assert.assertFalse(Files.exists(_target.resolveSibling(FILE + ".part.info")));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            exchange.getRequestBody().readAllBytes();
+            if (!"GET".equals(exchange.getRequestMethod()) || !exchange.getRequestURI().getPath().endsWith("/" + FILE))
+            {
+                send(exchange, 404, new byte[0], 0, 0);
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            _ranges.add(range != null ? range : "");
+            if (ifRange != null)
+            {
+                _ifRanges.add(ifRange);
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("ETag", _etag);
+            exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+            boolean current = ifRange == null || _ignoreIfRange || ifRange.equals(_etag) || ifRange.equals(LAST_MODIFIED);
+            if (range == null || !current)
+            {
+                send(exchange, 200, _content, 0, _content.length);
+                return;
+            }
+            int start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            if (start >= _content.length)
+            {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + _content.length);
+                send(exchange, 416, new byte[0], 0, 0);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (_content.length - 1) + "/" + _content.length);
+            send(exchange, 206, _content, start, _content.length - start);
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] body, int offset, int length) throws IOException
+    {
+        exchange.sendResponseHeaders(status, length > 0 ? length : -1);
+        if (length > 0)
+        {
+            OutputStream out = exchange.getResponseBody();
+            // A truncated response sends half of the body and then closes the connection
+            out.write(body, offset, _truncate ? length / 2 : length);
+            out.flush();
+            if (!_truncate)
+            {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.DownloadSink;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import edu.maccosslab.panoramaclient.WebDavCommand;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+import org.labkey.remoteapi.CommandResponse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares the CPU time used to download a file with WebDavCommand.Download and DownloadSinks of different buffer
+ * sizes. The file is served by an HTTP server on the loopback interface, so the response is read from the HTTP
+ * client as it would be from a Panorama server. The first row is the copy loop used before DownloadSink, which read
+ * the response through a BufferedInputStream in 8096 byte reads and wrote it through a BufferedOutputStream.
+ * Usage: DownloadSinkBenchmark [size in MB] [buffer size in KB]...
+ */
+public class DownloadSinkBenchmark
+{
+    private static final int RUNS = 3;
+    private static final String FILE = "bench.raw";
+
+    public static void main(String[] args) throws Exception
+    {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 1024) * 1024 * 1024;
+        int[] bufferSizesKb;
+        if (args.length > 1)
+        {
+            bufferSizesKb = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+            {
+                bufferSizesKb[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        else
+        {
+            bufferSizesKb = new int[] {8, 64, 256, 1024, 4096};
+        }
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        HttpServer server = startServer(size);
+        Path target = Files.createTempDirectory("download-sink-benchmark").resolve(FILE);
+        try
+        {
+            PanoramaConnection connection = new PanoramaConnection("http://127.0.0.1:" + server.getAddress().getPort(), new ApiKeyCredentialsProvider("none"));
+            System.out.println(String.format(Locale.US, "Downloading %d MB; best of %d runs", size / (1024 * 1024), RUNS));
+            System.out.println(String.format(Locale.US, "%-28s %10s %10s %14s", "Mode", "Seconds", "MB/s", "CPU s per GB"));
+            WebDavCommand.Download legacy = new WebDavCommand.Download(new BufferedStreamSink());
+            report("Buffered streams (before)", size, threadBean, () -> download(legacy, connection, target));
+            for (int bufferSizeKb : bufferSizesKb)
+            {
+                WebDavCommand.Download download = new WebDavCommand.Download(new DownloadSink(bufferSizeKb * 1024));
+                report("DownloadSink " + bufferSizeKb + " KB", size, threadBean, () -> download(download, connection, target));
+            }
+        }
+        finally
+        {
+            server.stop(0);
+            Files.deleteIfExists(target);
+            Files.deleteIfExists(target.getParent());
+        }
+    }
+
+    private static long download(WebDavCommand.Download download, PanoramaConnection connection, Path target) throws Exception
+    {
+        Files.deleteIfExists(target);
+        CommandResponse response = download.download(connection, "home", FILE, target.toString());
+        if (response.getStatusCode() != 200)
+        {
+            throw new IllegalStateException("Received HTTP status code " + response.getStatusCode());
+        }
+        return Files.size(target);
+    }
+
+    private static void report(String mode, long size, ThreadMXBean threadBean, Copy copy) throws Exception
+    {
+        long bestCpu = Long.MAX_VALUE;
+        long bestElapsed = Long.MAX_VALUE;
+        for (int i = 0; i <= RUNS; i++)
+        {
+            long cpuStart = threadBean.getCurrentThreadCpuTime();
+            long start = System.nanoTime();
+            long copied = copy.run();
+            long elapsed = System.nanoTime() - start;
+            long cpu = threadBean.getCurrentThreadCpuTime() - cpuStart;
+            if (copied != size)
+            {
+                throw new IllegalStateException("Downloaded " + copied + " bytes. Expected " + size);
+            }
+            if (i > 0) // The first run warms up the connection and JIT
+            {
+                bestCpu = Math.min(bestCpu, cpu);
+                bestElapsed = Math.min(bestElapsed, elapsed);
+            }
+        }
+        double gb = size / (1024.0 * 1024 * 1024);
+        System.out.println(String.format(Locale.US, "%-28s %10.2f %10.0f %14.3f", mode, bestElapsed / 1e9,
+                size / (1024.0 * 1024) / (bestElapsed / 1e9), bestCpu / 1e9 / gb));
+    }
+
+    private interface Copy
+    {
+        long run() throws Exception;
+    }
+
+    /**
+     * The copy loop of the download command before DownloadSink, writing to the file through a stream instead of
+     * FileOutputStream.
+     */
+    private static class BufferedStreamSink extends DownloadSink
+    {
+        @Override
+        public long write(InputStream in, FileChannel channel, long position, long maxBytes) throws IOException
+        {
+            channel.position(position);
+            long total = 0;
+            BufferedInputStream is = new BufferedInputStream(in);
+            BufferedOutputStream fos = new BufferedOutputStream(Channels.newOutputStream(channel));
+            byte[] bytes = new byte[8096];
+            int bytesRead;
+            while ((bytesRead = is.read(bytes)) != -1)
+            {
+                fos.write(bytes, 0, bytesRead);
+                total += bytesRead;
+            }
+            fos.flush();
+            return total;
+        }
+    }
+
+    /**
+     * Answers GET requests with a file of the given size, sent in 64 KB writes. Requests for the CSRF token get a fixed token.
+     */
+    private static HttpServer startServer(long size) throws IOException
+    {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            try
+            {
+                exchange.getRequestBody().readAllBytes();
+                if (exchange.getRequestURI().getPath().endsWith("whoami.api"))
+                {
+                    byte[] body = "{\"id\": 1, \"displayName\": \"bench\", \"CSRF\": \"bench\", \"success\": true}".getBytes();
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody())
+                    {
+                        out.write(body);
+                    }
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                exchange.getResponseHeaders().set("ETag", "\"bench\"");
+                exchange.sendResponseHeaders(200, size);
+                try (OutputStream out = exchange.getResponseBody())
+                {
+                    byte[] chunk = new byte[64 * 1024];
+                    long remaining = size;
+                    while (remaining > 0)
+                    {
+                        int n = (int) Math.min(chunk.length, remaining);
+                        out.write(chunk, 0, n);
+                        remaining -= n;
+                    }
+                }
+            }
+            finally
+            {
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+}
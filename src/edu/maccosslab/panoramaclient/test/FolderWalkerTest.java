@@ -0,0 +1,298 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.FolderWalker;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import edu.maccosslab.panoramaclient.RemoteFileFilter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks a folder tree on a server that answers the JSON listing of each folder, and a PROPFIND request for the whole
+ * tree. The listing of one folder always fails. The server can be set to reject the PROPFIND request, to cut off its
+ * response half way, to add entries with names that point outside the folder, or to hold back the listing of a folder
+ * until a file has been visited.
+ */
+public class FolderWalkerTest
+{
+    private static final String ROOT = "RawFiles";
+
+    // Folders end with a slash
+    private static final List<String> TREE = Arrays.asList("a.raw", "b.txt", "broken/", "sub1/", "sub1/c.raw", "sub1/deep/",
+            "sub1/deep/d.raw", "sub1/deep/deeper/", "sub1/deep/deeper/e.raw", "sub2/", "sub2/f.raw");
+
+    private static final List<String> ALL_FILES = Arrays.asList("|a.raw", "|b.txt", "sub1/deep/deeper|e.raw", "sub1/deep|d.raw",
+            "sub1|c.raw", "sub2|f.raw");
+
+    private HttpServer _server;
+    private FolderWalker.Summary _summary;
+    private final Set<String> _visited = Collections.synchronizedSet(new TreeSet<>());
+    private final List<String> _requests = Collections.synchronizedList(new ArrayList<>());
+    private volatile int _propfindStatus = 207;
+    private volatile boolean _truncatePropfind;
+    private volatile boolean _unsafeNames;
+    private volatile CountDownLatch _holdSub2;
+    private volatile boolean _sub2Released;
+    private String _serverUrl;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 20);
+        _server.setExecutor(Executors.newCachedThreadPool());
+        _server.createContext("/", this::handle);
+        _server.start();
+        _serverUrl = "http://127.0.0.1:" + _server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.stop(0);
+    }
+
+    @Test
+    public void testWalkListsEveryFolder() throws Exception
+    {
+        for (int threads : new int[] {1, 4})
+        {
+            _visited.clear();
+            _requests.clear();
+            walk(threads, false, new RemoteFileFilter());
+            Assert.assertEquals(new TreeSet<>(ALL_FILES), _visited);
+            Assert.assertEquals(5, _summary.getFolderCount()); // The folder that could not be listed is not counted
+            Assert.assertEquals(6, _summary.getFileCount());
+            Assert.assertEquals(1, _summary.getErrors().size());
+            Assert.assertTrue(_summary.getErrors().get(0).contains(ROOT + "/broken"));
+            Assert.assertEquals(6, _requests.size());
+        }
+    }
+
+    @Test
+    public void testFilterIsAppliedToRelativePath() throws Exception
+    {
+        walk(2, false, new RemoteFileFilter().setExtension("raw").exclude("sub1/deep/**"));
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("|a.raw", "sub1|c.raw", "sub2|f.raw")), _visited);
+        Assert.assertEquals(3, _summary.getFileCount());
+    }
+
+    @Test
+    public void testUnsafeNamesAreSkipped() throws Exception
+    {
+        _unsafeNames = true;
+        walk(2, false, new RemoteFileFilter());
+        Assert.assertEquals(new TreeSet<>(ALL_FILES), _visited);
+        Assert.assertEquals(6, _requests.size()); // No listing requests for folders with unsafe names
+
+        _visited.clear();
+        walk(2, true, new RemoteFileFilter());
+        Assert.assertEquals(new TreeSet<>(ALL_FILES), _visited);
+    }
+
+    @Test
+    public void testSingleRequest() throws Exception
+    {
+        walk(2, true, new RemoteFileFilter());
+        Assert.assertEquals(new TreeSet<>(ALL_FILES), _visited);
+        Assert.assertEquals(Collections.singletonList("PROPFIND " + ROOT + "/"), _requests);
+        Assert.assertEquals(6, _summary.getFolderCount());
+        Assert.assertTrue(_summary.getErrors().isEmpty());
+    }
+
+    @Test
+    public void testRejectedSingleRequestFallsBackToFolders() throws Exception
+    {
+        _propfindStatus = 403;
+        walk(2, true, new RemoteFileFilter());
+        Assert.assertEquals(new TreeSet<>(ALL_FILES), _visited);
+        Assert.assertEquals("PROPFIND " + ROOT + "/", _requests.get(0));
+        Assert.assertEquals(7, _requests.size());
+        Assert.assertEquals(1, _summary.getErrors().size());
+    }
+
+    @Test
+    public void testSingleRequestFailingAfterEntriesIsAnError() throws Exception
+    {
+        _truncatePropfind = true;
+        walk(2, true, new RemoteFileFilter());
+
+        // Some entries were read, so the tree is not listed again one folder at a time
+        Assert.assertEquals(Collections.singletonList("PROPFIND " + ROOT + "/"), _requests);
+        Assert.assertFalse(_visited.isEmpty());
+        Assert.assertTrue(_visited.size() < ALL_FILES.size());
+        Assert.assertEquals(1, _summary.getErrors().size());
+    }
+
+    @Test
+    public void testFilesAreVisitedWhileWalking() throws Exception
+    {
+        // The listing of sub2 is only sent once a.raw has been visited, so the walk can only finish if files are
+        // passed to the visitor before the whole tree has been listed
+        _holdSub2 = new CountDownLatch(1);
+        FolderWalker walker = new FolderWalker(1, this::connection);
+        _summary = walker.walk("home", ROOT, new RemoteFileFilter(), (folder, file) -> {
+            _visited.add(folder + "|" + file.getName());
+            if (file.getName().equals("a.raw"))
+            {
+                _holdSub2.countDown();
+            }
+        });
+        Assert.assertTrue(_sub2Released);
+        Assert.assertEquals(new TreeSet<>(ALL_FILES), _visited);
+    }
+
+    private void walk(int threads, boolean singleRequest, RemoteFileFilter filter) throws Exception
+    {
+        FolderWalker walker = new FolderWalker(threads, this::connection, singleRequest);
+        _summary = walker.walk("home", ROOT, filter, (folder, file) -> _visited.add(folder + "|" + file.getName()));
+    }
+
+    private PanoramaConnection connection()
+    {
+        return new PanoramaConnection(_serverUrl, new ApiKeyCredentialsProvider("none"));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("whoami.api"))
+            {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                send(exchange, 200, "{\"id\": 1, \"displayName\": \"test\", \"CSRF\": \"test\", \"success\": true}");
+                return;
+            }
+            String basePath = path.substring(0, path.indexOf("/@files/") + "/@files/".length()) + ROOT;
+            String folder = path.substring(path.indexOf("/@files/") + "/@files/".length());
+            _requests.add(exchange.getRequestMethod() + " " + folder);
+            folder = folder.replaceAll("/+$", "");
+            String relative = folder.equals(ROOT) ? "" : folder.substring(ROOT.length() + 1) + "/";
+            if ("PROPFIND".equals(exchange.getRequestMethod()))
+            {
+                propfind(exchange, basePath);
+            }
+            else if ("JSON".equals(exchange.getRequestMethod()) && !relative.equals("broken/") && (relative.isEmpty() || TREE.contains(relative)))
+            {
+                if (relative.equals("sub2/") && _holdSub2 != null)
+                {
+                    _sub2Released = _holdSub2.await(10, TimeUnit.SECONDS);
+                }
+                list(exchange, relative);
+            }
+            else
+            {
+                send(exchange, relative.equals("broken/") ? 500 : 404, "{}");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void list(HttpExchange exchange, String folder) throws IOException
+    {
+        List<String> entries = new ArrayList<>();
+        for (String path : TREE)
+        {
+            if (path.startsWith(folder) && path.length() > folder.length())
+            {
+                String name = path.substring(folder.length());
+                boolean collection = name.endsWith("/");
+                name = collection ? name.substring(0, name.length() - 1) : name;
+                if (name.indexOf('/') == -1)
+                {
+                    entries.add(entry(name, collection));
+                }
+            }
+        }
+        if (_unsafeNames && folder.isEmpty())
+        {
+            for (String name : Arrays.asList("..", "/etc/passwd", "..\\\\evil.raw", "x/y.raw", "", "."))
+            {
+                entries.add(entry(name, false));
+                entries.add(entry(name, true));
+            }
+            entries.add(entry("/abs", true));
+            entries.add(entry("C:\\\\Windows", true));
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        send(exchange, 200, "{\"files\": [" + String.join(", ", entries) + "]}");
+    }
+
+    private static String entry(String name, boolean collection)
+    {
+        return "{\"id\": \"" + name + "\", \"text\": \"" + name + "\", \"collection\": " + collection + ", \"size\": 10}";
+    }
+
+    private void propfind(HttpExchange exchange, String basePath) throws IOException
+    {
+        if (_propfindStatus != 207)
+        {
+            send(exchange, _propfindStatus, "");
+            return;
+        }
+        List<String> hrefs = new ArrayList<>();
+        hrefs.add(basePath + "/");
+        for (String path : TREE)
+        {
+            hrefs.add(basePath + "/" + path);
+        }
+        if (_unsafeNames)
+        {
+            hrefs.add(basePath + "/sub1/../../evil.raw");
+            hrefs.add(basePath + "/%2E%2E/z.raw");
+            hrefs.add(basePath + "/sub2/../x.raw");
+        }
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?><D:multistatus xmlns:D=\"DAV:\">");
+        for (String href : hrefs)
+        {
+            xml.append("<D:response><D:href>").append(href).append("</D:href><D:propstat><D:prop>")
+                    .append(href.endsWith("/") ? "<D:resourcetype><D:collection/></D:resourcetype>"
+                            : "<D:resourcetype/><D:getcontentlength>10</D:getcontentlength>")
+                    .append("</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response>");
+        }
+        xml.append("</D:multistatus>");
+        String body = _truncatePropfind ? xml.substring(0, xml.indexOf("sub1/deep/")) : xml.toString();
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+        send(exchange, 207, body);
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException
+    {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+        if (body.length > 0)
+        {
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+    }
+}
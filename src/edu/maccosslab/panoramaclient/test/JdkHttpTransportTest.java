@@ -0,0 +1,158 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.HttpTransport;
+import edu.maccosslab.panoramaclient.JdkHttpTransport;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import edu.maccosslab.panoramaclient.WebDavCommand;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends WebDAV requests with the JDK engine to a server that starts a session for each request without a session
+ * cookie, and that redirects folders without a trailing slash, and one moved file, to another URL.
+ */
+public class JdkHttpTransportTest
+{
+    private HttpServer _server;
+    private String _serverUrl;
+    private HttpTransport _previousTransport;
+    private final AtomicInteger _sessions = new AtomicInteger();
+    private final List<String> _requests = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> _cookies = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _previousTransport = PanoramaConnection.getTransport();
+        PanoramaConnection.setTransport(new JdkHttpTransport());
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+        _server.createContext("/", this::handle);
+        _server.start();
+        _serverUrl = "http://127.0.0.1:" + _server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.stop(0);
+        PanoramaConnection.setTransport(_previousTransport);
+    }
+
+    @Test
+    public void testCookiesArePerConnection() throws Exception
+    {
+        PanoramaConnection connection1 = connection("key1", "apikey:1");
+        PanoramaConnection connection2 = connection("key2", "apikey:2");
+        head(connection1);
+        head(connection2);
+        head(connection1);
+        head(connection2);
+        head(connection("key1", "apikey:1")); // A new connection starts without cookies
+        Assert.assertEquals(Arrays.asList("", "", "session=s1", "session=s2", ""), _cookies);
+        Assert.assertEquals(3, _sessions.get());
+    }
+
+    @Test
+    public void testRedirectsAreNotFollowed() throws Exception
+    {
+        PanoramaConnection connection = connection("key1", "apikey:1");
+        WebDavCommand.HeadResponse response = new WebDavCommand.Head().head(connection, "home", "moved.raw");
+        Assert.assertEquals(302, response.getStatusCode());
+
+        // Stat sees the redirect of the folder, and asks for it again with a trailing slash
+        WebDavCommand.StatResponse stat = new WebDavCommand.Stat().stat(connection, "home", "RawFiles");
+        Assert.assertTrue(stat.exists());
+        Assert.assertTrue(stat.isCollection());
+        Assert.assertEquals(Arrays.asList("HEAD moved.raw", "PROPFIND RawFiles", "PROPFIND RawFiles/"), _requests);
+    }
+
+    private PanoramaConnection connection(String apiKey, String credentialsId)
+    {
+        return new PanoramaConnection(_serverUrl, new ApiKeyCredentialsProvider(apiKey), credentialsId);
+    }
+
+    private static void head(PanoramaConnection connection) throws Exception
+    {
+        Assert.assertEquals(200, new WebDavCommand.Head().head(connection, "home", "a.raw").getStatusCode());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("whoami.api"))
+            {
+                // The CSRF token is requested with the Apache client of the connection
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                send(exchange, 200, "{\"id\": 1, \"displayName\": \"test\", \"CSRF\": \"test\", \"success\": true}");
+                return;
+            }
+            String name = path.substring(path.indexOf("/@files/") + "/@files/".length());
+            _requests.add(exchange.getRequestMethod() + " " + name);
+            String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+            _cookies.add(cookie != null ? cookie : "");
+            if (cookie == null)
+            {
+                exchange.getResponseHeaders().set("Set-Cookie", "session=s" + _sessions.incrementAndGet() + "; Path=/");
+            }
+
+            if ("moved.raw".equals(name))
+            {
+                exchange.getResponseHeaders().set("Location", "/elsewhere/moved.raw");
+                send(exchange, 302, "");
+            }
+            else if ("RawFiles".equals(name))
+            {
+                exchange.getResponseHeaders().set("Location", exchange.getRequestURI().getRawPath() + "/");
+                send(exchange, 301, "");
+            }
+            else if ("RawFiles/".equals(name))
+            {
+                exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+                send(exchange, 207, "<?xml version=\"1.0\" encoding=\"utf-8\"?><D:multistatus xmlns:D=\"DAV:\"><D:response><D:href>"
+                        + exchange.getRequestURI().getRawPath() + "</D:href><D:propstat><D:prop><D:resourcetype><D:collection/></D:resourcetype>"
+                        + "</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response></D:multistatus>");
+            }
+            else
+            {
+                exchange.getResponseHeaders().set("Content-Length", "10");
+                exchange.sendResponseHeaders(200, -1);
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException
+    {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+        if (body.length > 0)
+        {
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.ClientException;
+import edu.maccosslab.panoramaclient.ListingCache;
+import edu.maccosslab.panoramaclient.ListingParser;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import edu.maccosslab.panoramaclient.RemoteFile;
+import edu.maccosslab.panoramaclient.WebDavCommand;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists folders through a ListingCache, against a server that answers the listing of a folder with a number of files
+ * set for the folder, and with an ETag that changes with the number of files. The server answers 304 if the request
+ * has the current ETag.
+ */
+public class ListingCacheTest
+{
+    private HttpServer _server;
+    private String _serverUrl;
+    private Path _cacheDir;
+    private final Map<String, Integer> _fileCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger _listings = new AtomicInteger();
+    private final AtomicInteger _notModified = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+        _server.createContext("/", this::handle);
+        _server.start();
+        _serverUrl = "http://127.0.0.1:" + _server.getAddress().getPort();
+        _cacheDir = Files.createTempDirectory("listing-cache-test");
+        _fileCounts.put("A", 3);
+        _fileCounts.put("B", 2);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        _server.stop(0);
+        for (Path path : cacheFiles("*"))
+        {
+            Files.delete(path);
+        }
+        Files.deleteIfExists(_cacheDir);
+    }
+
+    @Test
+    public void testFreshListingIsReadFromCache() throws Exception
+    {
+        ListingCache cache = new ListingCache(_cacheDir, 3600, 10);
+        PanoramaConnection connection = connection("key1", "apikey:1");
+        Assert.assertEquals(names("A", 3), list(connection, "A", cache));
+        _fileCounts.put("A", 4); // Not seen while the cached listing is fresh
+        Assert.assertEquals(names("A", 3), list(connection, "A", cache));
+        Assert.assertEquals(names("B", 2), list(connection, "B", cache));
+
+        Assert.assertEquals(2, _listings.get());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(0, cache.getRevalidatedCount());
+    }
+
+    @Test
+    public void testStaleListingIsRevalidated() throws Exception
+    {
+        ListingCache cache = new ListingCache(_cacheDir, 60, 10);
+        PanoramaConnection connection = connection("key1", "apikey:1");
+        Assert.assertEquals(names("A", 3), list(connection, "A", cache));
+        Path entry = cacheFiles("*.listing").get(0);
+        long stale = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5);
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(stale));
+
+        // The server confirms that the listing has not changed, which makes the entry fresh again
+        Assert.assertEquals(names("A", 3), list(connection, "A", cache));
+        Assert.assertEquals(1, _notModified.get());
+        Assert.assertEquals(1, cache.getRevalidatedCount());
+        Assert.assertTrue(Files.getLastModifiedTime(entry).toMillis() > stale + TimeUnit.MINUTES.toMillis(4));
+        Assert.assertEquals(names("A", 3), list(connection, "A", cache));
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // A changed listing replaces the cached one
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(stale));
+        _fileCounts.put("A", 4);
+        Assert.assertEquals(names("A", 4), list(connection, "A", cache));
+        Assert.assertEquals(1, _notModified.get());
+        Assert.assertEquals(2, _listings.get());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(1, cacheFiles("*.listing").size());
+    }
+
+    @Test
+    public void testLeastRecentlyValidatedEntriesAreEvicted() throws Exception
+    {
+        // Each listing is a little more than half a MB, so a 1 MB cache holds one of them
+        _fileCounts.put("A", 5000);
+        _fileCounts.put("B", 5000);
+        ListingCache cache = new ListingCache(_cacheDir, 3600, 1);
+        PanoramaConnection connection = connection("key1", "apikey:1");
+        list(connection, "A", cache);
+        Path entryA = cacheFiles("*.listing").get(0);
+        Assert.assertTrue(Files.size(entryA) > 512 * 1024);
+        Files.setLastModifiedTime(entryA, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1)));
+
+        list(connection, "B", cache);
+        List<Path> entries = cacheFiles("*.listing");
+        Assert.assertEquals(1, entries.size());
+        Assert.assertNotEquals(entryA, entries.get(0));
+
+        list(connection, "B", cache);
+        list(connection, "A", cache);
+        Assert.assertEquals(3, _listings.get());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+        Assert.assertTrue(cacheFiles("*.tmp").isEmpty());
+    }
+
+    @Test
+    public void testCacheIsPerCredentials() throws Exception
+    {
+        ListingCache cache = new ListingCache(_cacheDir, 3600, 10);
+        list(connection("key1", "apikey:1"), "A", cache);
+        list(connection("key2", "apikey:2"), "A", cache);
+        Assert.assertEquals(2, _listings.get());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(2, cacheFiles("*.listing").size());
+
+        list(connection("key1", "apikey:1"), "A", cache);
+        Assert.assertEquals(2, _listings.get());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // Connections without a credentials id do not use the cache
+        list(new PanoramaConnection(_serverUrl, new ApiKeyCredentialsProvider("key1")), "A", cache);
+        Assert.assertEquals(3, _listings.get());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(2, cacheFiles("*.listing").size());
+    }
+
+    private PanoramaConnection connection(String apiKey, String credentialsId)
+    {
+        return new PanoramaConnection(_serverUrl, new ApiKeyCredentialsProvider(apiKey), credentialsId);
+    }
+
+    private static List<String> list(PanoramaConnection connection, String folder, ListingCache cache) throws Exception
+    {
+        List<String> names = new ArrayList<>();
+        new WebDavCommand.ListFiles().list(connection, "home", folder, cache, new ListingParser.Handler()
+        {
+            @Override
+            public void file(RemoteFile file) throws ClientException
+            {
+                names.add(file.getName());
+            }
+
+            @Override
+            public void folder(String name) {}
+        });
+        return names;
+    }
+
+    private static List<String> names(String folder, int count)
+    {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            names.add(fileName(folder, i));
+        }
+        return names;
+    }
+
+    private static String fileName(String folder, int i)
+    {
+        return String.format("%s_%05d_%s.raw", folder, i, "x".repeat(80));
+    }
+
+    private List<Path> cacheFiles(String glob) throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(_cacheDir, glob))
+        {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if (path.endsWith("whoami.api"))
+            {
+                send(exchange, 200, "{\"id\": 1, \"displayName\": \"test\", \"CSRF\": \"test\", \"success\": true}");
+                return;
+            }
+            String folder = path.replaceAll("/+$", "");
+            folder = folder.substring(folder.lastIndexOf('/') + 1);
+            Integer count = _fileCounts.get(folder);
+            if (!"JSON".equals(exchange.getRequestMethod()) || count == null)
+            {
+                send(exchange, 404, "{}");
+                return;
+            }
+            String etag = "\"" + folder + count + "\"";
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+            {
+                _notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            _listings.incrementAndGet();
+            StringBuilder json = new StringBuilder("{\"files\": [");
+            for (int i = 0; i < count; i++)
+            {
+                json.append(i > 0 ? ", " : "").append("{\"id\": \"").append(i).append("\", \"text\": \"")
+                        .append(fileName(folder, i)).append("\", \"collection\": false, \"size\": ").append(i).append("}");
+            }
+            exchange.getResponseHeaders().set("ETag", etag);
+            send(exchange, 200, json.append("]}").toString());
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException
+    {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+}
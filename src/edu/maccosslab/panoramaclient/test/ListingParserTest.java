@@ -0,0 +1,121 @@
+package edu.maccosslab.panoramaclient.test;
+
+import edu.maccosslab.panoramaclient.ClientException;
+import edu.maccosslab.panoramaclient.ListingParser;
+import edu.maccosslab.panoramaclient.RemoteFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ListingParserTest
+{
+    private static final String LISTING = "{\"fileCount\": 3, \"files\": ["
+            + "{\"id\": \"/home/@files/sub\", \"text\": \"sub\", \"collection\": true, \"options\": {\"delete\": true}},"
+            + "{\"id\": \"/home/@files/a.raw\", \"text\": \"a.raw\", \"size\": 1024, \"lastmodified\": 1577836800000,"
+            + " \"etag\": \"\\\"abc\\\"\", \"actions\": [{\"text\": \"ignored\"}], \"collection\": false},"
+            + "{\"text\": \"b.sky.zip\", \"contentlength\": \"42\", \"lastmodified\": \"Wed, 01 Jan 2020 00:00:00 GMT\"}"
+            + "]}";
+
+    @Test
+    public void testParseListing() throws IOException, ClientException
+    {
+        List<RemoteFile> files = new ArrayList<>();
+        List<String> folders = new ArrayList<>();
+        int count = ListingParser.parse(new StringReader(LISTING), handler(files, folders));
+
+        Assert.assertEquals(3, count);
+        Assert.assertEquals(1, folders.size());
+        Assert.assertEquals("sub", folders.get(0));
+        Assert.assertEquals(2, files.size());
+
+        RemoteFile file = files.get(0);
+        Assert.assertEquals("a.raw", file.getName());
+        Assert.assertEquals(1024, file.getSize());
+        Assert.assertEquals(1577836800000L, file.getLastModified());
+        Assert.assertEquals("\"abc\"", file.getEtag());
+
+        file = files.get(1);
+        Assert.assertEquals("b.sky.zip", file.getName());
+        Assert.assertEquals(42, file.getSize());
+        Assert.assertEquals(1577836800000L, file.getLastModified());
+        Assert.assertNull(file.getEtag());
+    }
+
+    @Test
+    public void testEmptyAndInvalidListings() throws IOException, ClientException
+    {
+        List<RemoteFile> files = new ArrayList<>();
+        List<String> folders = new ArrayList<>();
+        Assert.assertEquals(0, ListingParser.parse(new StringReader("{\"files\": []}"), handler(files, folders)));
+        Assert.assertTrue(files.isEmpty());
+
+        try
+        {
+            ListingParser.parse(new StringReader("{\"success\": true}"), handler(files, folders));
+            Assert.fail("Expected an exception for a listing without a file list");
+        }
+        catch (ClientException e)
+        {
+            Assert.assertEquals("No file list returned from the server.", e.getMessage());
+        }
+
+        try
+        {
+            ListingParser.parse(new StringReader("{\"files\": [{\"text\": "), handler(files, folders));
+            Assert.fail("Expected an exception for a truncated listing");
+        }
+        catch (ClientException e)
+        {
+            Assert.assertTrue(e.getMessage().startsWith("Could not parse the folder listing"));
+        }
+    }
+
+    @Test
+    public void testHandlerExceptionStopsParsing() throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        try
+        {
+            ListingParser.parse(new StringReader(LISTING), new ListingParser.Handler()
+            {
+                @Override
+                public void file(RemoteFile file) throws ClientException
+                {
+                    names.add(file.getName());
+                    throw new ClientException("Stop");
+                }
+
+                @Override
+                public void folder(String name) {}
+            });
+            Assert.fail("Expected the exception thrown by the handler");
+        }
+        catch (ClientException e)
+        {
+            Assert.assertEquals("Stop", e.getMessage());
+        }
+        Assert.assertEquals(1, names.size());
+    }
+
+    private static ListingParser.Handler handler(List<RemoteFile> files, List<String> folders)
+    {
+        return new ListingParser.Handler()
+        {
+            @Override
+            public void file(RemoteFile file)
+            {
+                files.add(file);
+            }
+
+            @Override
+            public void folder(String name)
+            {
+                folders.add(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,60 @@
+package edu.maccosslab.panoramaclient.test;
+
+import edu.maccosslab.panoramaclient.PartialDownload;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+public class PartialDownloadTest
+{
+    @Rule
+    public TemporaryFolder _tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testResumeSegments() throws IOException
+    {
+        Path target = _tempFolder.getRoot().toPath().resolve("data.raw");
+        PartialDownload partial = new PartialDownload(target);
+        partial.startSegmented("\"abc\"", null, Collections.emptyList());
+        Files.write(partial.getPartFile(), new byte[300]);
+        partial.markRangeComplete(100, 199);
+        partial.markRangeComplete(0, 99);
+
+        partial = new PartialDownload(target);
+        Assert.assertFalse(partial.isStale("\"abc\"", null));
+        Assert.assertTrue(partial.isRangeComplete(0, 99));
+        Assert.assertTrue(partial.isRangeComplete(100, 199));
+        Assert.assertFalse(partial.isRangeComplete(200, 299));
+        Assert.assertEquals(200, partial.getResumeOffset());
+    }
+
+    @Test
+    public void testCorruptInfoIsDiscarded() throws IOException
+    {
+        Path target = _tempFolder.getRoot().toPath().resolve("data.raw");
+        assertDiscarded(target, "etag=\"abc\"\ncompletedRanges=0-99,100-1x9\n");
+        assertDiscarded(target, "etag=\"abc\"\ncompletedRanges=0-99,200-100\n");
+        assertDiscarded(target, "etag=\"abc\\u12\"\n");
+    }
+
+    private static void assertDiscarded(Path target, String info) throws IOException
+    {
+        Path partFile = target.resolveSibling(target.getFileName() + ".part");
+        Path infoFile = target.resolveSibling(target.getFileName() + ".part.info");
+        Files.write(partFile, new byte[300]);
+        Files.write(infoFile, info.getBytes(StandardCharsets.ISO_8859_1));
+
+        PartialDownload partial = new PartialDownload(target);
+        Assert.assertEquals(0, partial.getResumeOffset());
+        Assert.assertFalse(partial.isRangeComplete(0, 99));
+        Assert.assertFalse(Files.exists(partFile));
+        Assert.assertFalse(Files.exists(infoFile));
+    }
+}
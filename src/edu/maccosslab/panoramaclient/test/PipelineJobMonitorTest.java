@@ -0,0 +1,253 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import edu.maccosslab.panoramaclient.PipelineJobMonitor;
+import edu.maccosslab.panoramaclient.PollScheduler;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Tracks jobs on a server that answers the SelectRows query on pipeline.job. A job is RUNNING until the query has been
+ * sent the number of times set for the job, and then COMPLETE. Jobs without a number are not returned by the server.
+ * The server can be set to fail a number of queries with a server error.
+ */
+public class PipelineJobMonitorTest
+{
+    private HttpServer _server;
+    private PipelineJobMonitor _monitor;
+    private final Map<Long, Integer> _completeAfter = new ConcurrentHashMap<>();
+    private final List<List<Long>> _queries = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger _failQueries = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+        _server.createContext("/", this::handle);
+        _server.start();
+        String serverUrl = "http://127.0.0.1:" + _server.getAddress().getPort();
+        _monitor = new PipelineJobMonitor(new PanoramaConnection(serverUrl, new ApiKeyCredentialsProvider("none")), serverUrl, "home",
+                new PollScheduler(1, 1, 1, 0, new Random()));
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.stop(0);
+    }
+
+    @Test
+    public void testPollQueriesPendingJobsTogether() throws Exception
+    {
+        _completeAfter.put(3L, 1);
+        _completeAfter.put(1L, 2);
+        _completeAfter.put(2L, 1);
+        _monitor.add(3, "c.sky.zip");
+        _monitor.add(1, "a.sky.zip");
+        _monitor.add(2, "b.sky.zip");
+
+        Assert.assertEquals(Arrays.asList(3L, 2L), jobIds(_monitor.poll()));
+        Assert.assertEquals(Arrays.asList(1L), jobIds(_monitor.poll()));
+        Assert.assertEquals(0, _monitor.getPendingCount());
+        Assert.assertTrue(_monitor.poll().isEmpty());
+
+        // One query per poll with the jobs that were pending
+        Assert.assertEquals(Arrays.asList(Arrays.asList(1L, 2L, 3L), Arrays.asList(1L)), _queries);
+    }
+
+    @Test
+    public void testMissingJobFails() throws Exception
+    {
+        _completeAfter.put(1L, 2);
+        PipelineJobMonitor.Job found = _monitor.add(1, "a.sky.zip");
+        PipelineJobMonitor.Job missing = _monitor.add(2, "b.sky.zip");
+
+        List<PipelineJobMonitor.Job> done = _monitor.poll();
+        Assert.assertEquals(Collections.singletonList(missing), done);
+        Assert.assertFalse(missing.isComplete());
+        Assert.assertNotNull(missing.getError());
+        Assert.assertEquals("RUNNING", found.getStatus());
+        Assert.assertEquals(1, _monitor.getPendingCount());
+
+        Assert.assertEquals(Collections.singletonList(found), _monitor.poll());
+        Assert.assertTrue(found.isComplete());
+        Assert.assertNull(found.getError());
+    }
+
+    @Test
+    public void testWaitForPendingBelow() throws Exception
+    {
+        _completeAfter.put(1L, 1);
+        _completeAfter.put(2L, 2);
+        _completeAfter.put(3L, 3);
+        _monitor.add(1, "a.sky.zip");
+        _monitor.add(2, "b.sky.zip");
+        _monitor.add(3, "c.sky.zip");
+
+        List<Long> done = new ArrayList<>();
+        _monitor.waitForPendingBelow(2, job -> done.add(job.getJobId()));
+        Assert.assertEquals(Arrays.asList(1L, 2L), done);
+        Assert.assertEquals(1, _monitor.getPendingCount());
+
+        List<PipelineJobMonitor.Job> all = _monitor.waitForAll(job -> done.add(job.getJobId()));
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L), done);
+        Assert.assertEquals(Arrays.asList(3L), jobIds(all));
+        Assert.assertEquals(3, _queries.size());
+    }
+
+    @Test
+    public void testWaitForPollsWhileTaskRuns() throws Exception
+    {
+        _completeAfter.put(1L, 3);
+        _completeAfter.put(2L, 100);
+        _monitor.add(1, "a.sky.zip");
+        _monitor.add(2, "b.sky.zip");
+
+        // The task finishes when the first job is done, so the jobs must be polled while waiting for it
+        CompletableFuture<String> task = new CompletableFuture<>();
+        String result = _monitor.waitFor(task, job -> task.complete("uploaded " + job.getName()));
+        Assert.assertEquals("uploaded a.sky.zip", result);
+        Assert.assertEquals(3, _queries.size());
+        Assert.assertEquals(1, _monitor.getPendingCount());
+
+        // Once the last job is done, waitFor waits for the task without polling
+        _completeAfter.put(2L, 0);
+        _monitor.poll();
+        Assert.assertEquals(0, _monitor.getPendingCount());
+        Assert.assertEquals("done", _monitor.waitFor(CompletableFuture.completedFuture("done"), job -> {}));
+        Assert.assertEquals(4, _queries.size());
+    }
+
+    @Test
+    public void testPollErrorIsRetried() throws Exception
+    {
+        _completeAfter.put(1L, 1);
+        PipelineJobMonitor.Job job = _monitor.add(1, "a.sky.zip");
+        _failQueries.set(PipelineJobMonitor.MAX_POLL_ERRORS - 1);
+
+        List<PipelineJobMonitor.Job> done = new ArrayList<>();
+        _monitor.waitForAll(done::add);
+        Assert.assertEquals(Collections.singletonList(job), done);
+        Assert.assertTrue(job.isComplete());
+        Assert.assertEquals(PipelineJobMonitor.MAX_POLL_ERRORS, _queries.size());
+    }
+
+    @Test
+    public void testPollErrorsFailPendingJobs() throws Exception
+    {
+        _completeAfter.put(1L, 1);
+        _completeAfter.put(2L, 1);
+        _monitor.add(1, "a.sky.zip");
+        _monitor.add(2, "b.sky.zip");
+        _failQueries.set(Integer.MAX_VALUE);
+
+        // The errors are not thrown to the code that waits for an upload
+        List<PipelineJobMonitor.Job> done = new ArrayList<>();
+        CompletableFuture<String> task = new CompletableFuture<>();
+        _monitor.waitFor(task.completeOnTimeout("uploaded", 30, TimeUnit.SECONDS), job -> {
+            done.add(job);
+            task.complete("uploaded");
+        });
+        Assert.assertEquals(Arrays.asList(1L, 2L), jobIds(done));
+        for (PipelineJobMonitor.Job job : done)
+        {
+            Assert.assertFalse(job.isComplete());
+            Assert.assertNotNull(job.getError());
+        }
+        Assert.assertEquals(0, _monitor.getPendingCount());
+        Assert.assertEquals(PipelineJobMonitor.MAX_POLL_ERRORS, _queries.size());
+    }
+
+    private static List<Long> jobIds(List<PipelineJobMonitor.Job> jobs)
+    {
+        return jobs.stream().map(PipelineJobMonitor.Job::getJobId).collect(Collectors.toList());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if (path.endsWith("whoami.api"))
+            {
+                send(exchange, 200, "{\"id\": 1, \"displayName\": \"test\", \"CSRF\": \"test\", \"success\": true}");
+            }
+            else if (path.endsWith("selectRows.api"))
+            {
+                List<Long> jobIds = new ArrayList<>();
+                for (NameValuePair param : URLEncodedUtils.parse(exchange.getRequestURI(), StandardCharsets.UTF_8))
+                {
+                    if ("query.RowId~in".equals(param.getName()))
+                    {
+                        for (String jobId : param.getValue().split(";"))
+                        {
+                            jobIds.add(Long.parseLong(jobId));
+                        }
+                    }
+                }
+                Collections.sort(jobIds);
+                _queries.add(jobIds);
+                if (_failQueries.getAndDecrement() > 0)
+                {
+                    send(exchange, 500, "{\"exception\": \"Database is not available\", \"success\": false}");
+                    return;
+                }
+                List<String> rows = new ArrayList<>();
+                for (Long jobId : jobIds)
+                {
+                    Integer completeAfter = _completeAfter.get(jobId);
+                    if (completeAfter != null)
+                    {
+                        String status = _queries.size() >= completeAfter ? "COMPLETE" : "RUNNING";
+                        rows.add("{\"RowId\": " + jobId + ", \"Status\": \"" + status + "\"}");
+                    }
+                }
+                send(exchange, 200, "{\"rowCount\": " + rows.size() + ", \"rows\": [" + String.join(", ", rows) + "]}");
+            }
+            else
+            {
+                send(exchange, 404, "{}");
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException
+    {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+}
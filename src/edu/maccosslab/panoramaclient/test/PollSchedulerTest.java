@@ -0,0 +1,70 @@
+package edu.maccosslab.panoramaclient.test;
+
+import edu.maccosslab.panoramaclient.PollScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class PollSchedulerTest
+{
+    @Test
+    public void testBackoffUpToMaximum()
+    {
+        PollScheduler scheduler = new PollScheduler(1000, 10000, 2, 0, new Random(1));
+        long[] expected = {1000, 2000, 4000, 8000, 10000, 10000};
+        for (long delay : expected)
+        {
+            Assert.assertEquals(delay, scheduler.nextDelay());
+        }
+        Assert.assertEquals(expected.length, scheduler.getPollCount());
+    }
+
+    @Test
+    public void testResetOnStatusChange()
+    {
+        PollScheduler scheduler = new PollScheduler(500, 60000, 3, 0, new Random(1));
+        scheduler.nextDelay();
+        scheduler.nextDelay();
+        Assert.assertEquals(4500, scheduler.nextDelay());
+        scheduler.reset();
+        Assert.assertEquals(500, scheduler.nextDelay());
+        Assert.assertEquals(1500, scheduler.nextDelay());
+        Assert.assertEquals("Reset must not clear the poll count", 5, scheduler.getPollCount());
+    }
+
+    @Test
+    public void testJitter()
+    {
+        PollScheduler scheduler = new PollScheduler(1000, 1000, 2, 0.2, new Random(42));
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 1000; i++)
+        {
+            long delay = scheduler.nextDelay();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        Assert.assertTrue("Found " + min, min >= 800 && min < 850);
+        Assert.assertTrue("The jittered delay must not exceed the maximum. Found " + max, max == 1000);
+    }
+
+    @Test
+    public void testInvalidSettings()
+    {
+        assertInvalid(0, 1000, 2, 0);
+        assertInvalid(2000, 1000, 2, 0);
+        assertInvalid(1000, 2000, 0.5, 0);
+        assertInvalid(1000, 2000, 2, 1);
+    }
+
+    private static void assertInvalid(long initialDelay, long maxDelay, double multiplier, double jitter)
+    {
+        try
+        {
+            new PollScheduler(initialDelay, maxDelay, multiplier, jitter, new Random());
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {}
+    }
+}
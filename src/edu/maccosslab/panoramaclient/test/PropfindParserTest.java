@@ -0,0 +1,124 @@
+package edu.maccosslab.panoramaclient.test;
+
+import edu.maccosslab.panoramaclient.ClientException;
+import edu.maccosslab.panoramaclient.PropfindParser;
+import edu.maccosslab.panoramaclient.RemoteFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PropfindParserTest
+{
+    private static final String MULTISTATUS = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+            + "<D:multistatus xmlns:D=\"DAV:\">"
+            + response("/labkey/_webdav/home/%40files/", true, null, null, null)
+            + response("/labkey/_webdav/home/%40files/raw%20files/", true, null, null, null)
+            + response("https://panoramaweb.org/labkey/_webdav/home/%40files/raw%20files/a.raw", false, "1024", "Wed, 01 Jan 2020 00:00:00 GMT", "\"abc\"")
+            + response("/labkey/_webdav/home/%40files/doc.sky.zip", false, "42", null, null)
+            + "</D:multistatus>";
+
+    @Test
+    public void testParseMultistatus() throws ClientException
+    {
+        List<String> folders = new ArrayList<>();
+        List<String> files = new ArrayList<>();
+        List<RemoteFile> remoteFiles = new ArrayList<>();
+        int count = PropfindParser.parse(new ByteArrayInputStream(MULTISTATUS.getBytes(StandardCharsets.UTF_8)), "/labkey/_webdav/home/@files/",
+                new PropfindParser.Handler()
+                {
+                    @Override
+                    public void file(String relativeFolderPath, RemoteFile file)
+                    {
+                        files.add(relativeFolderPath + "|" + file.getName());
+                        remoteFiles.add(file);
+                    }
+
+                    @Override
+                    public void folder(String relativePath)
+                    {
+                        folders.add(relativePath);
+                    }
+                });
+
+        Assert.assertEquals(3, count);
+        Assert.assertEquals(List.of("raw files"), folders);
+        Assert.assertEquals(List.of("raw files|a.raw", "|doc.sky.zip"), files);
+
+        RemoteFile file = remoteFiles.get(0);
+        Assert.assertEquals(1024, file.getSize());
+        Assert.assertEquals(1577836800000L, file.getLastModified());
+        Assert.assertEquals("\"abc\"", file.getEtag());
+
+        file = remoteFiles.get(1);
+        Assert.assertEquals(42, file.getSize());
+        Assert.assertEquals(-1, file.getLastModified());
+        Assert.assertNull(file.getEtag());
+    }
+
+    @Test
+    public void testRequestedPath() throws ClientException
+    {
+        String xml = "<D:multistatus xmlns:D=\"DAV:\">"
+                + response("/labkey/_webdav/home/%40files/doc%20name.sky.zip", false, "42", "Wed, 01 Jan 2020 00:00:00 GMT", "\"abc\"")
+                + "</D:multistatus>";
+        List<RemoteFile> requested = new ArrayList<>();
+        int count = PropfindParser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "/labkey/_webdav/home/@files/doc name.sky.zip",
+                new PropfindParser.Handler()
+                {
+                    @Override
+                    public void file(String relativeFolderPath, RemoteFile file) {}
+
+                    @Override
+                    public void folder(String relativePath) {}
+
+                    @Override
+                    public void requested(RemoteFile file, boolean collection)
+                    {
+                        Assert.assertFalse(collection);
+                        requested.add(file);
+                    }
+                });
+
+        Assert.assertEquals(0, count);
+        Assert.assertEquals(1, requested.size());
+        Assert.assertEquals("doc name.sky.zip", requested.get(0).getName());
+        Assert.assertEquals(42, requested.get(0).getSize());
+        Assert.assertEquals("\"abc\"", requested.get(0).getEtag());
+    }
+
+    @Test
+    public void testUnexpectedPath()
+    {
+        String xml = "<D:multistatus xmlns:D=\"DAV:\">" + response("/other/folder/a.raw", false, "1", null, null) + "</D:multistatus>";
+        try
+        {
+            PropfindParser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "/labkey/_webdav/home/@files", new PropfindParser.Handler()
+            {
+                @Override
+                public void file(String relativeFolderPath, RemoteFile file) {}
+
+                @Override
+                public void folder(String relativePath) {}
+            });
+            Assert.fail("Expected an exception for a path outside the requested folder");
+        }
+        catch (ClientException e)
+        {
+            Assert.assertTrue(e.getMessage().startsWith("Unexpected path in PROPFIND response"));
+        }
+    }
+
+    private static String response(String href, boolean collection, String length, String lastModified, String etag)
+    {
+        return "<D:response><D:href>" + href + "</D:href><D:propstat><D:prop>"
+                + (collection ? "<D:resourcetype><D:collection/></D:resourcetype>" : "<D:resourcetype/>")
+                + (length != null ? "<D:getcontentlength>" + length + "</D:getcontentlength>" : "")
+                + (lastModified != null ? "<D:getlastmodified>" + lastModified + "</D:getlastmodified>" : "")
+                + (etag != null ? "<D:getetag>" + etag + "</D:getetag>" : "")
+                + "</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response>";
+    }
+}
@@ -0,0 +1,120 @@
+package edu.maccosslab.panoramaclient.test;
+
+import edu.maccosslab.panoramaclient.RemoteFile;
+import edu.maccosslab.panoramaclient.RemoteFileFilter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RemoteFileFilterTest
+{
+    private static final long JAN_1_2020 = 1577836800000L;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void testPatterns()
+    {
+        RemoteFileFilter filter = new RemoteFileFilter().include("*.raw").include("*.{wiff,wiff.scan}").exclude("blank?_*");
+        Assert.assertTrue(accept(filter, "QC_01.RAW"));
+        Assert.assertTrue(accept(filter, "sample.wiff"));
+        Assert.assertTrue(accept(filter, "sample.wiff.scan"));
+        Assert.assertFalse(accept(filter, "sample.sky.zip"));
+        Assert.assertFalse(accept(filter, "blank1_QC.raw"));
+        Assert.assertTrue(accept(filter, "blank10_QC.raw"));
+
+        filter = new RemoteFileFilter().include("regex:QC_\\d+\\.raw");
+        Assert.assertTrue(accept(filter, "QC_01.raw"));
+        Assert.assertFalse(accept(filter, "qc_01.raw")); // Regular expressions are case-sensitive
+        Assert.assertFalse(accept(filter, "QC_A.raw"));
+
+        filter = new RemoteFileFilter().setExtension("RAW");
+        Assert.assertTrue(accept(filter, "QC_01.raw"));
+        Assert.assertFalse(accept(filter, "QC_01.raw.zip"));
+        Assert.assertTrue(new RemoteFileFilter().setExtension("*").isEmpty());
+
+        try
+        {
+            new RemoteFileFilter().include("*.[raw");
+            Assert.fail("Expected an exception for an invalid glob");
+        }
+        catch (IllegalArgumentException e)
+        {
+            Assert.assertTrue(e.getMessage().startsWith("Invalid pattern '*.[raw'"));
+        }
+    }
+
+    @Test
+    public void testGlobSyntax()
+    {
+        // Globs are not case-sensitive on any platform
+        Assert.assertTrue(accept(new RemoteFileFilter().include("qc_*.RAW"), "QC_01.raw"));
+        Assert.assertTrue(accept(new RemoteFileFilter().include("glob:QC_0?.raw"), "qc_01.RAW"));
+        Assert.assertFalse(accept(new RemoteFileFilter().include("QC_0?.raw"), "QC_010.raw"));
+
+        RemoteFileFilter filter = new RemoteFileFilter().include("QC_[0-4][!0].raw");
+        Assert.assertTrue(accept(filter, "QC_01.raw"));
+        Assert.assertFalse(accept(filter, "QC_51.raw"));
+        Assert.assertFalse(accept(filter, "QC_10.raw"));
+
+        // Escaped and special characters are literal
+        filter = new RemoteFileFilter().include("a\\*b+(1).raw");
+        Assert.assertTrue(accept(filter, "a*b+(1).raw"));
+        Assert.assertFalse(accept(filter, "axb+(1).raw"));
+
+        // * and ? do not match '/', ** does
+        filter = new RemoteFileFilter().include("2020*/?.raw");
+        Assert.assertTrue(filter.accept("2020-01/a.raw", file("a.raw", 1, JAN_1_2020)));
+        Assert.assertFalse(filter.accept("2020/01/a.raw", file("a.raw", 1, JAN_1_2020)));
+        Assert.assertTrue(new RemoteFileFilter().include("2020**/?.raw").accept("2020/01/a.raw", file("a.raw", 1, JAN_1_2020)));
+
+        try
+        {
+            new RemoteFileFilter().include("*.{raw,{wiff}}");
+            Assert.fail("Expected an exception for a nested group");
+        }
+        catch (IllegalArgumentException e)
+        {
+            Assert.assertTrue(e.getMessage().startsWith("Invalid pattern '*.{raw,{wiff}}'"));
+        }
+    }
+
+    @Test
+    public void testPathPatterns()
+    {
+        RemoteFileFilter filter = new RemoteFileFilter().include("2020-*/*.raw").exclude("**/tmp/**");
+        Assert.assertTrue(filter.accept("2020-01/a.raw", file("a.raw", 1, JAN_1_2020)));
+        Assert.assertFalse(filter.accept("2019-12/a.raw", file("a.raw", 1, JAN_1_2020)));
+        Assert.assertFalse(filter.accept("2020-01/sub/a.raw", file("a.raw", 1, JAN_1_2020)));
+        Assert.assertFalse(filter.accept("a.raw", file("a.raw", 1, JAN_1_2020)));
+
+        filter = new RemoteFileFilter().exclude("**/tmp/**");
+        Assert.assertFalse(filter.accept("2020-01/tmp/a.raw", file("a.raw", 1, JAN_1_2020)));
+        Assert.assertTrue(filter.accept("2020-01/a.raw", file("a.raw", 1, JAN_1_2020)));
+    }
+
+    @Test
+    public void testSizeAndDate()
+    {
+        RemoteFileFilter filter = new RemoteFileFilter().setMinSize(100).setMaxSize(200);
+        Assert.assertTrue(filter.accept("a.raw", file("a.raw", 100, -1)));
+        Assert.assertTrue(filter.accept("a.raw", file("a.raw", 200, -1)));
+        Assert.assertFalse(filter.accept("a.raw", file("a.raw", 99, -1)));
+        Assert.assertFalse(filter.accept("a.raw", file("a.raw", 201, -1)));
+        Assert.assertFalse(filter.accept("a.raw", file("a.raw", -1, -1))); // Unknown size
+
+        filter = new RemoteFileFilter().setNewerThan(JAN_1_2020).setOlderThan(JAN_1_2020 + 7 * DAY);
+        Assert.assertTrue(filter.accept("a.raw", file("a.raw", -1, JAN_1_2020 + DAY)));
+        Assert.assertFalse(filter.accept("a.raw", file("a.raw", -1, JAN_1_2020)));
+        Assert.assertFalse(filter.accept("a.raw", file("a.raw", -1, JAN_1_2020 + 8 * DAY)));
+        Assert.assertFalse(filter.accept("a.raw", file("a.raw", -1, -1))); // Unknown modified time
+    }
+
+    private static boolean accept(RemoteFileFilter filter, String name)
+    {
+        return filter.accept(name, file(name, 1, JAN_1_2020));
+    }
+
+    private static RemoteFile file(String name, long size, long lastModified)
+    {
+        return new RemoteFile(name, size, lastModified, null);
+    }
+}
@@ -0,0 +1,131 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import edu.maccosslab.panoramaclient.TransferThreads;
+import edu.maccosslab.panoramaclient.WebDavCommand;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares transfers of many small files on a fixed pool of platform threads and on virtual threads limited by a
+ * semaphore. Each file is checked with a PROPFIND request and downloaded, from a server on the loopback interface that
+ * waits the given time before each response, like a distant server. The table shows the time to transfer all files and
+ * the largest number of live platform threads in the JVM, which includes the threads of the stand-in server.
+ * Virtual threads require Java 21 or later.
+ * Usage: ThreadModeBenchmark [files] [file size in KB] [server latency in ms] [small limit] [large limit]
+ */
+public class ThreadModeBenchmark
+{
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception
+    {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int sizeKb = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int latencyMillis = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int smallLimit = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        int largeLimit = args.length > 4 ? Integer.parseInt(args[4]) : 256;
+
+        // The connection pool is configured when PanoramaConnection is loaded. Allow a connection for every task.
+        if (System.getProperty("panoramaclient.http.maxPerRoute") == null)
+        {
+            System.setProperty("panoramaclient.http.maxPerRoute", String.valueOf(largeLimit));
+            System.setProperty("panoramaclient.http.maxTotal", String.valueOf(largeLimit));
+        }
+
+        HttpServer server = TransportBenchmark.startServer(sizeKb * 1024, latencyMillis);
+        Path targetDir = Files.createTempDirectory("thread-mode-benchmark");
+        try
+        {
+            PanoramaConnection connection = new PanoramaConnection("http://127.0.0.1:" + server.getAddress().getPort(), new ApiKeyCredentialsProvider("none"));
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            System.out.println(String.format(Locale.US, "%d files of %d KB, %d ms server latency, %s engine; best of %d runs",
+                    files, sizeKb, latencyMillis, PanoramaConnection.getTransport().getName(), RUNS));
+            System.out.println(String.format(Locale.US, "%-24s %10s %10s %14s", "Mode", "Seconds", "Files/s", "Peak threads"));
+            report("platform, " + smallLimit + " threads", false, smallLimit, files, connection, targetDir, threadBean);
+            report("platform, " + largeLimit + " threads", false, largeLimit, files, connection, targetDir, threadBean);
+            if (TransferThreads.isVirtualThreadsAvailable())
+            {
+                report("virtual, limit " + largeLimit, true, largeLimit, files, connection, targetDir, threadBean);
+            }
+            else
+            {
+                System.out.println("Virtual threads are not available in Java " + System.getProperty("java.version"));
+            }
+        }
+        finally
+        {
+            server.stop(0);
+            try (var paths = Files.list(targetDir))
+            {
+                for (Path path : (Iterable<Path>) paths::iterator)
+                {
+                    Files.deleteIfExists(path);
+                }
+            }
+            Files.deleteIfExists(targetDir);
+        }
+    }
+
+    private static void report(String mode, boolean virtualThreads, int limit, int files, PanoramaConnection connection, Path targetDir,
+                               ThreadMXBean threadBean) throws Exception
+    {
+        long best = Long.MAX_VALUE;
+        int peakThreads = 0;
+        for (int i = 0; i <= RUNS; i++)
+        {
+            threadBean.resetPeakThreadCount();
+            long start = System.nanoTime();
+            run(TransferThreads.newExecutor("bench", limit, virtualThreads), files, connection, targetDir);
+            long elapsed = System.nanoTime() - start;
+            if (i > 0) // The first run opens the connections
+            {
+                best = Math.min(best, elapsed);
+                peakThreads = Math.max(peakThreads, threadBean.getPeakThreadCount());
+            }
+        }
+        System.out.println(String.format(Locale.US, "%-24s %10.2f %10.0f %14d", mode, best / 1e9, files / (best / 1e9), peakThreads));
+    }
+
+    private static void run(ExecutorService executor, int files, PanoramaConnection connection, Path targetDir) throws Exception
+    {
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < files; i++)
+            {
+                String fileName = "file" + i + ".raw";
+                Path target = targetDir.resolve(fileName);
+                futures.add(executor.submit(() -> {
+                    if (!new WebDavCommand.Stat().stat(connection, "home", fileName).exists())
+                    {
+                        throw new IllegalStateException("File not found: " + fileName);
+                    }
+                    Files.deleteIfExists(target);
+                    new WebDavCommand.Download().download(connection, "home", fileName, target.toString());
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
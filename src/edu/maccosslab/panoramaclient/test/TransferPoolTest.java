@@ -0,0 +1,93 @@
+package edu.maccosslab.panoramaclient.test;
+
+import edu.maccosslab.panoramaclient.ClientException;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import edu.maccosslab.panoramaclient.TransferPool;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs transfers that do not send requests, some of which fail, through a TransferPool.
+ */
+public class TransferPoolTest
+{
+    private static final int TASKS = 10;
+    private static final int THREADS = 3;
+
+    @Test
+    public void testFailuresDoNotStopOtherTransfers() throws Exception
+    {
+        AtomicInteger connections = new AtomicInteger();
+        AtomicInteger started = new AtomicInteger();
+        TransferPool pool = new TransferPool("test", THREADS, () -> {
+            connections.incrementAndGet();
+            return new PanoramaConnection("http://127.0.0.1", new ApiKeyCredentialsProvider("none"));
+        });
+        for (int i = 0; i < TASKS; i++)
+        {
+            int task = i;
+            pool.submit("file" + i, connection -> {
+                started.incrementAndGet();
+                if (task % 3 == 0)
+                {
+                    throw new ClientException("Transfer " + task + " failed");
+                }
+                if (task == 4)
+                {
+                    throw new IllegalStateException("Unexpected error in transfer " + task);
+                }
+                return task * 100L;
+            });
+        }
+        TransferPool.Summary summary = pool.awaitCompletion();
+
+        // The first transfer fails, and all the others still run
+        Assert.assertEquals(TASKS, started.get());
+        Assert.assertTrue(connections.get() <= THREADS);
+
+        List<String> names = new ArrayList<>();
+        for (TransferPool.Result result : summary.getResults())
+        {
+            names.add(result.getItemName());
+        }
+        Assert.assertEquals(Arrays.asList("file0", "file1", "file2", "file3", "file4", "file5", "file6", "file7", "file8", "file9"), names);
+
+        List<String> failed = new ArrayList<>();
+        for (TransferPool.Result result : summary.getFailures())
+        {
+            failed.add(result.getItemName());
+            Assert.assertFalse(result.isSuccess());
+            Assert.assertEquals(0, result.getBytes());
+            Assert.assertNotNull(result.getError());
+        }
+        Assert.assertEquals(Arrays.asList("file0", "file3", "file4", "file6", "file9"), failed);
+        Assert.assertEquals("Transfer 3 failed", summary.getResults().get(3).getError().getMessage());
+        Assert.assertEquals("Unexpected error in transfer 4", summary.getResults().get(4).getError().getMessage());
+
+        Assert.assertEquals(100 + 200 + 500 + 700 + 800, summary.getTotalBytes());
+        Assert.assertEquals(700, summary.getResults().get(7).getBytes());
+        Assert.assertTrue(summary.getResults().get(7).getElapsedNanos() > 0);
+        Assert.assertTrue(summary.getElapsedNanos() > 0);
+        summary.log("Transferred");
+    }
+
+    @Test
+    public void testConnectionFailureIsReported() throws Exception
+    {
+        TransferPool pool = new TransferPool("test", 1, () -> {
+            throw new ClientException("No connection");
+        });
+        pool.submit("file0", connection -> 100);
+        pool.submit("file1", connection -> 100);
+        TransferPool.Summary summary = pool.awaitCompletion();
+        Assert.assertEquals(2, summary.getFailures().size());
+        Assert.assertEquals("No connection", summary.getFailures().get(1).getError().getMessage());
+        Assert.assertEquals(0, summary.getTotalBytes());
+    }
+}
@@ -0,0 +1,64 @@
+package edu.maccosslab.panoramaclient.test;
+
+import edu.maccosslab.panoramaclient.TransferThreads;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TransferThreadsTest
+{
+    @Test
+    public void testPlatformLimit() throws Exception
+    {
+        assertLimit(TransferThreads.newExecutor("test", 3, false), 3);
+    }
+
+    @Test
+    public void testVirtualLimit() throws Exception
+    {
+        // Uses platform threads if the JVM does not support virtual threads
+        assertLimit(TransferThreads.newExecutor("test", 3, true), 3);
+    }
+
+    @Test
+    public void testDefaultMode()
+    {
+        Assert.assertEquals(TransferThreads.PLATFORM, TransferThreads.getMode());
+    }
+
+    private static void assertLimit(ExecutorService executor, int limit) throws Exception
+    {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Future<Integer>> futures = new ArrayList<>();
+        try
+        {
+            for (int i = 0; i < 20; i++)
+            {
+                int task = i;
+                futures.add(executor.submit(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(10);
+                    running.decrementAndGet();
+                    return task;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++)
+            {
+                Assert.assertEquals(i, (int) futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        Assert.assertTrue("At most " + limit + " tasks should run at the same time. Found " + maxRunning.get(), maxRunning.get() <= limit);
+        Assert.assertTrue(maxRunning.get() > 1);
+    }
+}
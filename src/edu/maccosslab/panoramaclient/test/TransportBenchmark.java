@@ -0,0 +1,207 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.ApacheHttpTransport;
+import edu.maccosslab.panoramaclient.HttpTransport;
+import edu.maccosslab.panoramaclient.JdkHttpTransport;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import edu.maccosslab.panoramaclient.WebDavCommand;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the HTTP engines by running the given number of stat (PROPFIND Depth 0) + download requests on a pool of
+ * threads. Without a server URL the requests go to an HTTP/1.1 server on the loopback interface, which measures the
+ * overhead of each engine. To measure HTTP/2 multiplexing, pass the URL of an HTTPS Panorama server, a folder, a file
+ * in the folder and an API key. Run with -Dpanoramaclient.http.maxPerRoute set to the number of threads, or the Apache
+ * engine waits for one of the 2 pooled connections.
+ * Usage: TransportBenchmark [requests] [threads] [file size in KB] [server URL] [folder] [file] [API key]
+ */
+public class TransportBenchmark
+{
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception
+    {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int sizeKb = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        HttpServer server = null;
+        String serverUrl;
+        String folder;
+        String file;
+        String apiKey;
+        if (args.length > 6)
+        {
+            serverUrl = args[3];
+            folder = args[4];
+            file = args[5];
+            apiKey = args[6];
+        }
+        else
+        {
+            server = startServer(sizeKb * 1024, 0);
+            serverUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+            folder = "home";
+            file = "bench.raw";
+            apiKey = "none";
+        }
+
+        Path targetDir = Files.createTempDirectory("transport-benchmark");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            PanoramaConnection connection = new PanoramaConnection(serverUrl, new ApiKeyCredentialsProvider(apiKey));
+            System.out.println(String.format(Locale.US, "%d stat + download requests on %d threads to %s; best of %d runs", requests, threads, serverUrl, RUNS));
+            System.out.println(String.format(Locale.US, "%-10s %10s %12s", "Engine", "Seconds", "Requests/s"));
+            for (HttpTransport transport : new HttpTransport[] {new ApacheHttpTransport(), new JdkHttpTransport()})
+            {
+                PanoramaConnection.setTransport(transport);
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i <= RUNS; i++)
+                {
+                    long start = System.nanoTime();
+                    run(executor, connection, folder, file, targetDir, requests);
+                    long elapsed = System.nanoTime() - start;
+                    if (i > 0) // The first run warms up connections and JIT
+                    {
+                        best = Math.min(best, elapsed);
+                    }
+                }
+                System.out.println(String.format(Locale.US, "%-10s %10.2f %12.0f", transport.getName(), best / 1e9, requests * 2 / (best / 1e9)));
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+            if (server != null)
+            {
+                server.stop(0);
+            }
+            try (var files = Files.list(targetDir))
+            {
+                for (Path path : (Iterable<Path>) files::iterator)
+                {
+                    Files.deleteIfExists(path);
+                }
+            }
+            Files.deleteIfExists(targetDir);
+        }
+    }
+
+    private static void run(ExecutorService executor, PanoramaConnection connection, String folder, String file, Path targetDir, int requests) throws Exception
+    {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < requests; i++)
+        {
+            Path target = targetDir.resolve("file" + i);
+            futures.add(executor.submit(() -> {
+                if (!new WebDavCommand.Stat().stat(connection, folder, file).exists())
+                {
+                    throw new IllegalStateException("File not found: " + file);
+                }
+                Files.deleteIfExists(target);
+                new WebDavCommand.Download().download(connection, folder, file, target.toString());
+                return null;
+            }));
+        }
+        for (Future<?> future : futures)
+        {
+            future.get();
+        }
+    }
+
+    /**
+     * Answers PROPFIND requests with a file of the given size, and GET requests with the content of the file.
+     * Requests for the CSRF token get a fixed token.
+     * @param latencyMillis time to wait before answering PROPFIND and GET requests, to simulate a distant server
+     */
+    static HttpServer startServer(int size, int latencyMillis) throws IOException
+    {
+        // By default the server closes all but 200 idle connections, which the clients would find closed on reuse
+        System.setProperty("sun.net.httpserver.maxIdleConnections", "2000");
+        byte[] content = new byte[size];
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 100);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            try
+            {
+                exchange.getRequestBody().readAllBytes();
+                exchange.getResponseHeaders().set("ETag", "\"bench\"");
+                if (latencyMillis > 0 && !exchange.getRequestURI().getPath().endsWith("whoami.api"))
+                {
+                    sleep(latencyMillis);
+                }
+                if (exchange.getRequestURI().getPath().endsWith("whoami.api"))
+                {
+                    // The CSRF token is requested before the first request that is not a GET
+                    exchange.getResponseHeaders().set("Set-Cookie", "X-LABKEY-CSRF=bench; Path=/");
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                    send(exchange, 200, "{\"id\": 1, \"displayName\": \"bench\", \"email\": \"bench@localhost\", \"CSRF\": \"bench\", \"success\": true}"
+                            .getBytes(StandardCharsets.UTF_8));
+                }
+                else if ("PROPFIND".equals(exchange.getRequestMethod()))
+                {
+                    byte[] body = propfindResponse(exchange, size).getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+                    send(exchange, 207, body);
+                }
+                else
+                {
+                    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                    send(exchange, 200, content);
+                }
+            }
+            finally
+            {
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static void sleep(int millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String propfindResponse(HttpExchange exchange, int size)
+    {
+        return "<?xml version=\"1.0\" encoding=\"utf-8\"?><D:multistatus xmlns:D=\"DAV:\"><D:response><D:href>"
+                + exchange.getRequestURI().getRawPath() + "</D:href><D:propstat><D:prop><D:resourcetype/>"
+                + "<D:getcontentlength>" + size + "</D:getcontentlength><D:getetag>\"bench\"</D:getetag>"
+                + "</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response></D:multistatus>";
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException
+    {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+}
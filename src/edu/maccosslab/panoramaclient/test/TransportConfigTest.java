@@ -0,0 +1,66 @@
+package edu.maccosslab.panoramaclient.test;
+
+import edu.maccosslab.panoramaclient.JdkHttpTransport;
+import edu.maccosslab.panoramaclient.TransportConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Properties;
+
+public class TransportConfigTest
+{
+    @Test
+    public void testDefaults()
+    {
+        TransportConfig config = TransportConfig.fromProperties(new Properties());
+        Assert.assertEquals(2, config.getMaxPerRoute());
+        Assert.assertEquals(20, config.getMaxTotal());
+        Assert.assertEquals(60, config.getIdleTimeoutSeconds());
+        Assert.assertEquals(60, config.getKeepAliveSeconds());
+        Assert.assertTrue(config.isTcpNoDelay());
+        Assert.assertEquals(0, config.getSendBufferSize());
+        Assert.assertEquals(0, config.getReceiveBufferSize());
+        Assert.assertEquals("apache", config.getEngine());
+    }
+
+    @Test
+    public void testProperties()
+    {
+        Properties props = new Properties();
+        props.setProperty(TransportConfig.PREFIX + "maxPerRoute", "8");
+        props.setProperty(TransportConfig.PREFIX + "maxTotal", " 50 ");
+        props.setProperty(TransportConfig.PREFIX + "idleTimeout", "0");
+        props.setProperty(TransportConfig.PREFIX + "keepAlive", "30");
+        props.setProperty(TransportConfig.PREFIX + "tcpNoDelay", "false");
+        props.setProperty(TransportConfig.PREFIX + "sendBufferSize", "256");
+        props.setProperty(TransportConfig.PREFIX + "receiveBufferSize", "512");
+        props.setProperty(TransportConfig.PREFIX + "engine", "JDK");
+
+        TransportConfig config = TransportConfig.fromProperties(props);
+        Assert.assertEquals(8, config.getMaxPerRoute());
+        Assert.assertEquals(50, config.getMaxTotal());
+        Assert.assertEquals(0, config.getIdleTimeoutSeconds());
+        Assert.assertEquals(30, config.getKeepAliveSeconds());
+        Assert.assertFalse(config.isTcpNoDelay());
+        Assert.assertEquals(256 * 1024, config.getSendBufferSize());
+        Assert.assertEquals(512 * 1024, config.getReceiveBufferSize());
+        Assert.assertEquals("jdk", config.getEngine());
+        Assert.assertTrue(config.createTransport() instanceof JdkHttpTransport);
+    }
+
+    @Test
+    public void testInvalidValues()
+    {
+        Properties props = new Properties();
+        props.setProperty(TransportConfig.PREFIX + "maxPerRoute", "0");
+        props.setProperty(TransportConfig.PREFIX + "keepAlive", "-1");
+        props.setProperty(TransportConfig.PREFIX + "sendBufferSize", "large");
+        props.setProperty(TransportConfig.PREFIX + "engine", "okhttp");
+
+        TransportConfig config = TransportConfig.fromProperties(props);
+        Assert.assertEquals(2, config.getMaxPerRoute());
+        Assert.assertEquals(60, config.getKeepAliveSeconds());
+        Assert.assertEquals(0, config.getSendBufferSize());
+        Assert.assertEquals("apache", config.getEngine());
+    }
+}
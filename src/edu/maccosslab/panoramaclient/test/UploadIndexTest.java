@@ -0,0 +1,131 @@
+package edu.maccosslab.panoramaclient.test;
+
+import edu.maccosslab.panoramaclient.ClientException;
+import edu.maccosslab.panoramaclient.RemoteFile;
+import edu.maccosslab.panoramaclient.UploadIndex;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class UploadIndexTest
+{
+    private static final String URL = "https://panoramaweb.org/home/@files/data.raw";
+
+    @Rule
+    public TemporaryFolder _tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testIdenticalFile() throws IOException, ClientException
+    {
+        Path indexFile = _tempFolder.getRoot().toPath().resolve("index.properties");
+        Path file = createFile(new byte[] {1, 2, 3});
+        RemoteFile remote = new RemoteFile("data.raw", 3, 1577836800000L, "\"abc\"");
+
+        UploadIndex index = new UploadIndex(indexFile);
+        Assert.assertFalse(index.isIdentical(file, URL, remote));
+        index.record(file, URL, remote);
+        index.save();
+
+        // A new index reads the saved entries
+        index = new UploadIndex(indexFile);
+        Assert.assertTrue(index.isIdentical(file, URL, remote));
+        Assert.assertFalse("Not on the server", index.isIdentical(file, URL, null));
+        Assert.assertFalse("Different URL", index.isIdentical(file, URL + ".bak", remote));
+        Assert.assertFalse("Changed on the server", index.isIdentical(file, URL, new RemoteFile("data.raw", 3, 1577836800000L, "\"def\"")));
+        Assert.assertFalse("Different size on the server", index.isIdentical(file, URL, new RemoteFile("data.raw", 4, 1577836800000L, "\"abc\"")));
+    }
+
+    @Test
+    public void testRewrittenFile() throws IOException, ClientException
+    {
+        Path file = createFile(new byte[] {1, 2, 3});
+        RemoteFile remote = new RemoteFile("data.raw", 3, 1577836800000L, null);
+        UploadIndex index = new UploadIndex(_tempFolder.getRoot().toPath().resolve("index.properties"));
+        index.record(file, URL, remote);
+
+        // Same content with a new last modified time
+        Files.write(file, new byte[] {1, 2, 3});
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+        Assert.assertTrue(index.isIdentical(file, URL, remote));
+        Assert.assertFalse("Changed on the server", index.isIdentical(file, URL, new RemoteFile("data.raw", 3, 1577836900000L, null)));
+
+        // Different content with the same size
+        Files.write(file, new byte[] {1, 2, 4});
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 20000));
+        Assert.assertFalse(index.isIdentical(file, URL, remote));
+    }
+
+    @Test
+    public void testRecordWithHash() throws IOException, ClientException
+    {
+        Path file = createFile(new byte[] {1, 2, 3});
+        RemoteFile remote = new RemoteFile("data.raw", 3, 1577836800000L, null);
+        UploadIndex index = new UploadIndex(_tempFolder.getRoot().toPath().resolve("index.properties"));
+        // SHA-256 of the bytes 1, 2, 4, as if the file changed after it was sent
+        index.record(file, URL, remote, "d4b29a968c40173638ded8d174c86957afa211be479cee020dba5dfe127d91ca");
+
+        // The recorded hash is compared, not the hash of the file when it was recorded
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+        Assert.assertFalse(index.isIdentical(file, URL, remote));
+    }
+
+    @Test
+    public void testConcurrentSaves() throws Exception
+    {
+        // Two runs that save the same index at the same time must not write into the same temporary file
+        Path indexFile = _tempFolder.getRoot().toPath().resolve("index.properties");
+        Path file = createFile(new byte[] {1, 2, 3});
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            List<Future<?>> saves = new ArrayList<>();
+            for (int i = 0; i < 200; i++)
+            {
+                String url = URL + i;
+                saves.add(executor.submit(() -> {
+                    UploadIndex index = new UploadIndex(indexFile);
+                    index.record(file, url, new RemoteFile("data.raw", 3, 1577836800000L, null));
+                    index.save();
+                    return null;
+                }));
+            }
+            for (Future<?> save : saves)
+            {
+                save.get(30, TimeUnit.SECONDS);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        // Entries of a run can be replaced by a run that read the index before they were saved, but the index is never corrupt
+        UploadIndex index = new UploadIndex(indexFile);
+        index.record(file, URL, new RemoteFile("data.raw", 3, 1577836800000L, null));
+        index.save();
+        Assert.assertTrue(new UploadIndex(indexFile).isIdentical(file, URL, new RemoteFile("data.raw", 3, 1577836800000L, null)));
+        try (Stream<Path> files = Files.list(_tempFolder.getRoot().toPath()))
+        {
+            Assert.assertEquals("Temporary files were left behind", 0, files.filter(f -> f.toString().endsWith(".tmp")).count());
+        }
+    }
+
+    private Path createFile(byte[] content) throws IOException
+    {
+        Path file = _tempFolder.newFile("data.raw").toPath();
+        Files.write(file, content);
+        return file;
+    }
+}
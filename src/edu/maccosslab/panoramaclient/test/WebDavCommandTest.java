@@ -0,0 +1,174 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import edu.maccosslab.panoramaclient.WebDavCommand;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a single instance of a command on many threads, against a server that answers each file with a size or content
+ * derived from the requested path, so that a request sent with the path of another call would be noticed.
+ */
+public class WebDavCommandTest
+{
+    private static final int FILES = 50;
+    private static final String FOLDER = "RawFiles";
+
+    private HttpServer _server;
+    private PanoramaConnection _connection;
+    private ExecutorService _executor;
+    private Path _targetDir;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+        _server.setExecutor(Executors.newCachedThreadPool());
+        _server.createContext("/", WebDavCommandTest::handle);
+        _server.start();
+        _connection = new PanoramaConnection("http://127.0.0.1:" + _server.getAddress().getPort(), new ApiKeyCredentialsProvider("none"));
+        _executor = Executors.newFixedThreadPool(8);
+        _targetDir = Files.createTempDirectory("webdav-command-test");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        _executor.shutdownNow();
+        _server.stop(0);
+        for (int i = 0; i < FILES; i++)
+        {
+            Files.deleteIfExists(_targetDir.resolve(fileName(i)));
+        }
+        Files.deleteIfExists(_targetDir);
+    }
+
+    @Test
+    public void testSharedStat() throws Exception
+    {
+        WebDavCommand.Stat stat = new WebDavCommand.Stat();
+        List<Future<Long>> sizes = new ArrayList<>();
+        for (int i = 0; i < FILES; i++)
+        {
+            WebDavCommand.Request request = new WebDavCommand.Request("home", "dir/" + fileName(i));
+            sizes.add(_executor.submit(() -> stat.stat(_connection, request).getSize()));
+        }
+        for (int i = 0; i < FILES; i++)
+        {
+            Assert.assertEquals(i, (long) sizes.get(i).get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testStatFolder() throws Exception
+    {
+        // The server redirects a folder path without a trailing slash, as LabKey does
+        WebDavCommand.StatResponse response = new WebDavCommand.Stat().stat(_connection, "home", "dir/" + FOLDER);
+        Assert.assertTrue(response.exists());
+        Assert.assertTrue(response.isCollection());
+
+        response = new WebDavCommand.Stat().stat(_connection, "home", "dir/" + FOLDER + "/");
+        Assert.assertTrue(response.isCollection());
+    }
+
+    @Test
+    public void testSharedDownload() throws Exception
+    {
+        WebDavCommand.Download download = new WebDavCommand.Download();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < FILES; i++)
+        {
+            String fileName = fileName(i);
+            futures.add(_executor.submit(() -> download.download(_connection, "home", "dir/" + fileName, _targetDir.resolve(fileName).toString())));
+        }
+        for (Future<?> future : futures)
+        {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        for (int i = 0; i < FILES; i++)
+        {
+            Assert.assertEquals(fileName(i), Files.readString(_targetDir.resolve(fileName(i))));
+        }
+    }
+
+    private static String fileName(int i)
+    {
+        return "file" + i + ".raw";
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            if (path.endsWith("whoami.api"))
+            {
+                // The CSRF token is requested before the first request that is not a GET
+                exchange.getResponseHeaders().set("Set-Cookie", "X-LABKEY-CSRF=test; Path=/");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                send(exchange, 200, "{\"id\": 1, \"displayName\": \"test\", \"CSRF\": \"test\", \"success\": true}");
+            }
+            else if ("PROPFIND".equals(exchange.getRequestMethod()) && path.endsWith("/" + FOLDER))
+            {
+                exchange.getResponseHeaders().set("Location", exchange.getRequestURI().getRawPath() + "/");
+                send(exchange, 301, "");
+            }
+            else if ("PROPFIND".equals(exchange.getRequestMethod()) && path.endsWith("/" + FOLDER + "/"))
+            {
+                exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+                send(exchange, 207, "<?xml version=\"1.0\" encoding=\"utf-8\"?><D:multistatus xmlns:D=\"DAV:\"><D:response><D:href>"
+                        + exchange.getRequestURI().getRawPath() + "</D:href><D:propstat><D:prop><D:resourcetype><D:collection/></D:resourcetype>"
+                        + "</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response></D:multistatus>");
+            }
+            else if ("PROPFIND".equals(exchange.getRequestMethod()))
+            {
+                String size = name.substring("file".length(), name.indexOf('.'));
+                exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+                send(exchange, 207, "<?xml version=\"1.0\" encoding=\"utf-8\"?><D:multistatus xmlns:D=\"DAV:\"><D:response><D:href>"
+                        + exchange.getRequestURI().getRawPath() + "</D:href><D:propstat><D:prop><D:resourcetype/>"
+                        + "<D:getcontentlength>" + size + "</D:getcontentlength>"
+                        + "</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response></D:multistatus>");
+            }
+            else
+            {
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                send(exchange, 200, name);
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException
+    {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package edu.maccosslab.panoramaclient.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.maccosslab.panoramaclient.HttpTransport;
+import edu.maccosslab.panoramaclient.JdkHttpTransport;
+import edu.maccosslab.panoramaclient.PanoramaConnection;
+import edu.maccosslab.panoramaclient.WebDavCommand;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.labkey.remoteapi.ApiKeyCredentialsProvider;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Uploads files of different lengths with WebDavCommand.Put, with buffers that are smaller than, equal to and larger
+ * than the file, through both HTTP engines. The server keeps the headers and the body of the last PUT request.
+ */
+public class WebDavPutTest
+{
+    private static final int[] LENGTHS = {0, 1, 999, 1000, 1001, 10007, 300000};
+
+    @Rule
+    public TemporaryFolder _tempFolder = new TemporaryFolder();
+
+    private HttpServer _server;
+    private String _serverUrl;
+    private HttpTransport _previousTransport;
+    private volatile byte[] _body;
+    private volatile String _contentLength;
+    private volatile String _transferEncoding;
+    private volatile String _contentRange;
+    private volatile String _path;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _previousTransport = PanoramaConnection.getTransport();
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+        _server.createContext("/", this::handle);
+        _server.start();
+        _serverUrl = "http://127.0.0.1:" + _server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.stop(0);
+        PanoramaConnection.setTransport(_previousTransport);
+    }
+
+    @Test
+    public void testBodyIsTheFile() throws Exception
+    {
+        putAll();
+    }
+
+    @Test
+    public void testBodyIsTheFileWithJdkEngine() throws Exception
+    {
+        PanoramaConnection.setTransport(new JdkHttpTransport());
+        putAll();
+    }
+
+    private void putAll() throws Exception
+    {
+        PanoramaConnection connection = new PanoramaConnection(_serverUrl, new ApiKeyCredentialsProvider("none"));
+        for (int length : LENGTHS)
+        {
+            Path file = createFile(length);
+            for (int bufferSize : new int[] {1, 1000, WebDavCommand.Put.DEFAULT_BUFFER_SIZE})
+            {
+                if (bufferSize == 1 && length > 1001)
+                {
+                    continue;
+                }
+                String message = length + " bytes with a buffer of " + bufferSize + " bytes";
+                _body = null;
+                int status = new WebDavCommand.Put(bufferSize).put(connection, "home", "RawFiles", file);
+                Assert.assertEquals(message, 201, status);
+                Assert.assertEquals(message, "RawFiles/" + file.getFileName(), _path);
+
+                // The length of the file is sent up front, and the whole file is sent in one request
+                Assert.assertEquals(message, String.valueOf(length), _contentLength);
+                Assert.assertNull(message, _transferEncoding);
+                Assert.assertNull(message, _contentRange);
+                Assert.assertArrayEquals(message, Files.readAllBytes(file), _body);
+            }
+        }
+    }
+
+    private Path createFile(int length) throws IOException
+    {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            content[i] = (byte) (i * 31 + length);
+        }
+        return Files.write(_tempFolder.getRoot().toPath().resolve("file" + length + ".raw"), content);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("whoami.api"))
+            {
+                byte[] json = "{\"id\": 1, \"displayName\": \"test\", \"CSRF\": \"test\", \"success\": true}".getBytes();
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, json.length);
+                exchange.getResponseBody().write(json);
+                return;
+            }
+            if (!"PUT".equals(exchange.getRequestMethod()))
+            {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            _path = path.substring(path.indexOf("/@files/") + "/@files/".length());
+            _contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            _transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+            _contentRange = exchange.getRequestHeaders().getFirst("Content-Range");
+            _body = body;
+            exchange.sendResponseHeaders(201, -1);
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+}